@@ -41,6 +41,7 @@ import com.tsinghua.sample.utils.BLEService;
 import com.tsinghua.sample.utils.NotificationHandler;
 
 import com.tsinghua.sample.core.DataLogger;
+import com.tsinghua.sample.core.IoScheduler;
 import com.tsinghua.sample.core.SessionManager;
 import com.tsinghua.sample.core.TimeSync;
 
@@ -373,6 +374,8 @@ public class RingViewHolder extends RecyclerView.ViewHolder {
         @Override
         public void cmdData(String responseData) {
             byte[] responseBytes = hexStringToByteArray(responseData);
+            // 自动校时包的回复直接交给时钟对齐，不记日志也不走手动校时流程
+            if (NotificationHandler.onClockProbeResponse(responseBytes)) return;
             recordLog("收到自定义指令响应: " + responseData);
             handleCustomizeResponse(responseBytes);
         }
@@ -951,6 +954,8 @@ public class RingViewHolder extends RecyclerView.ViewHolder {
         if (dir != null && !dir.exists()) dir.mkdirs();
         File logFile = new File(dir, "ring_" + System.currentTimeMillis() + ".csv");
         logLogger = new DataLogger(logFile, "wall_ms,log");
+        // 调试日志：吞吐优先，不做 fsync
+        logLogger.setDurability(IoScheduler.Durability.NONE);
 
         Log.d("RingLog", "日志文件创建: " + logFile.getAbsolutePath());
     }
@@ -1465,7 +1470,7 @@ public class RingViewHolder extends RecyclerView.ViewHolder {
             }
         });
         // 注意：不再在此处创建session和DataLogger
-        // DataLogger的创建已移至RecordingCoordinator.startRecording()中
+        // DataLogger的创建已移至RingRecordingModule.start()中
         // 这样可以避免应用启动时就创建无意义的空session目录
 
         recordLog("✅ NotificationHandler日志记录已连接到RingViewHolder");
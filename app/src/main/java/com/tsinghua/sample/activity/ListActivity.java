@@ -7,9 +7,11 @@ import android.app.PendingIntent;
 import android.bluetooth.BluetoothAdapter;
 import android.bluetooth.BluetoothDevice;
 import android.content.BroadcastReceiver;
+import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
+import android.content.ServiceConnection;
 import android.content.SharedPreferences;
 import android.content.pm.PackageManager;
 import android.hardware.usb.UsbDevice;
@@ -18,6 +20,7 @@ import android.os.Build;
 import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
+import android.os.IBinder;
 import android.os.Looper;
 import android.provider.Settings;
 import android.text.TextUtils;
@@ -52,6 +55,7 @@ import com.tsinghua.sample.R;
 import com.tsinghua.sample.RingViewHolder;
 import com.tsinghua.sample.SettingsActivity;
 import com.tsinghua.sample.TimestampFragment;
+import com.tsinghua.sample.catalog.SessionCatalog;
 import com.tsinghua.sample.device.OximeterService;
 import com.tsinghua.sample.activity.FrontCameraSettingsActivity;
 import com.tsinghua.sample.media.CameraFaceProcessor;
@@ -61,6 +65,7 @@ import com.tsinghua.sample.model.Device;
 import com.tsinghua.sample.utils.BLEService;
 import com.tsinghua.sample.utils.NotificationHandler;
 import com.tsinghua.sample.utils.HeartRateEstimator;
+import com.tsinghua.sample.utils.SpectralBackend;
 import com.tsinghua.sample.utils.PlotView;
 import com.tsinghua.sample.utils.VideoQualityEvaluator;
 import com.tsinghua.sample.ecg.ECGMeasurementController;
@@ -71,11 +76,14 @@ import com.vivalnk.sdk.ble.BluetoothConnectListener;
 import com.vivalnk.sdk.exception.VitalCode;
 import com.vivalnk.sdk.utils.ProcessUtils;
 
-import com.tsinghua.sample.core.RecordingCoordinator;
+import com.tsinghua.sample.core.DataLogger;
+import com.tsinghua.sample.core.RecordingService;
+import com.tsinghua.sample.core.SegmentRecovery;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.StorageBudget;
+import com.tsinghua.sample.core.StreamStats;
 import com.tsinghua.sample.core.TimeSync;
 import com.tsinghua.sample.media.IMURecorder;
-import com.tsinghua.sample.media.MultiMicAudioRecorderHelper;
 import com.tsinghua.sample.media.RecorderHelper;
 import com.tsinghua.sample.media.CameraHelper;
 import com.tsinghua.sample.device.OximeterManager;
@@ -143,14 +151,19 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
     private CameraHelper backCameraHelper;
     private CameraFaceProcessor cameraFaceProcessor;
     private CameraPureFaceProcessor cameraPureFaceProcessor;
-    private RecordingCoordinator recordingCoordinator;
+    private RecordingService recordingService;  // 录制前台服务（绑定后可用）
     private IMURecorder sharedImuRecorder;  // 共享的IMU记录器实例
 
     // 摄像头状态
     private boolean frontCameraActive = false;
     private boolean backCameraActive = false;
-    private boolean frontCameraRecording = false;
-    private boolean backCameraRecording = false;
+    // 录制状态在录制控制线程上读取（存储降级）
+    private volatile boolean frontCameraRecording = false;
+    private volatile boolean backCameraRecording = false;
+    // 存储空间不足时本次录制已关闭后置摄像头（双摄模式）
+    private volatile boolean backCameraDroppedForStorage = false;
+    // 本次录制各数据流累计丢弃条数（录制服务遥测）
+    private volatile long streamDrops = 0;
 
     // 录制时间追踪
     private long recordingStartTime = 0;
@@ -232,6 +245,13 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         // 初始化全局时间基准（必须在所有数据采集模块之前）
         TimeSync.initializeGlobal();
 
+        // 数据写入后端：内存映射段模式，并恢复上次异常退出遗留的段文件
+        DataLogger.setMappedSegmentsEnabled(getSharedPreferences("AppSettings", MODE_PRIVATE)
+                .getBoolean("mmap_segment_log", false));
+        SegmentRecovery.recoverOnLaunch(SessionManager.getRootDir());
+        // 会话索引：收录外部拷入或异常退出的会话
+        SessionCatalog.getInstance(this).rescanOnLaunch();
+
         OpenCVLoader.initLocal();
 
         // 预加载AI模型（后台线程）
@@ -239,7 +259,7 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
 
         // 初始化摄像头相关UI组件
         initCameraViews();
-        initCoordinator();
+        bindRecordingService();
 
         LmAPI.init(getApplication());
         LmAPI.setDebug(true);
@@ -573,6 +593,15 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         return DeviceAdapter.currentEcgViewHolder;
     }
 
+    /** 录制服务在后台停止各模块，指环/心电停止测量后再断开 */
+    private void disconnectRingAndEcgWhenStopped() {
+        if (recordingService == null) {
+            autoDisconnectRingAndEcgAfterStop();
+            return;
+        }
+        recordingService.whenStopped().thenRun(() -> runOnUiThread(this::autoDisconnectRingAndEcgAfterStop));
+    }
+
     private void autoDisconnectRingAndEcgAfterStop() {
         new Handler(Looper.getMainLooper()).postDelayed(() -> {
             try {
@@ -893,6 +922,8 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
             if (onDismiss != null) onDismiss.run();
             return;
         }
+        SessionCatalog.getInstance(this).updateQuality(SessionManager.getInstance().getSessionDir(),
+                result.overallScore, result.qualityLevel);
 
         // 根据质量等级设置颜色
         int colorRes;
@@ -1120,34 +1151,70 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         frontCameraRecording = false;
     }
 
-    private void initCoordinator() {
-        // 统一时钟会在 startAllRecording 时启动
-        // 创建共享的IMU记录器（用于RecordingCoordinator和DeviceAdapter）
-        sharedImuRecorder = new IMURecorder(this);
+    private void bindRecordingService() {
+        // IMU记录器由录制服务与DeviceAdapter共用
+        sharedImuRecorder = RecordingService.sharedImuRecorder(this);
+        // 协调器、采集模块与录制时长定时器由前台服务持有，界面只订阅状态
+        bindService(new Intent(this, RecordingService.class), recordingConnection, Context.BIND_AUTO_CREATE);
+    }
 
-        // 注意：摄像头录制由 ListActivity 直接管理（frontCameraHelper/backCameraHelper）
-        // RecordingCoordinator 不再管理摄像头，传入 null 避免占用 SurfaceView
-        recordingCoordinator = new RecordingCoordinator(
-                this,
-                null,  // 摄像头由 ListActivity 直接控制
-                sharedImuRecorder,
-                new MultiMicAudioRecorderHelper(this),
-                OximeterManager.getInstance(this)  // 使用单例
-        );
-        recordingCoordinator.setStatusCallback(msg ->
-                Toast.makeText(this, msg, Toast.LENGTH_SHORT).show());
+    private final ServiceConnection recordingConnection = new ServiceConnection() {
+        @Override
+        public void onServiceConnected(ComponentName name, IBinder binder) {
+            recordingService = ((RecordingService.LocalBinder) binder).getService();
+            recordingService.addListener(recordingListener);
+            recordingService.setCameraStorageActions(ListActivity.this::applyCameraStorageStep);
+            // Activity 重建时服务可能仍在录制
+            if (recordingService.isRecording() && btnStartAll != null) {
+                btnStartAll.setText("停止录制");
+            }
+        }
+
+        @Override
+        public void onServiceDisconnected(ComponentName name) {
+            recordingService = null;
+        }
+    };
+
+    /** 录制服务的回调在录制控制线程上，界面更新切回主线程 */
+    private final RecordingService.Listener recordingListener = new RecordingService.Listener() {
+        @Override
+        public void onStatus(String message) {
+            runOnUiThread(() -> Toast.makeText(ListActivity.this, message, Toast.LENGTH_SHORT).show());
+        }
 
-        // 设置剩余时间回调（更新UI显示）
-        recordingCoordinator.setRemainingTimeCallback(remaining -> {
+        @Override
+        public void onRemainingTime(int seconds) {
             runOnUiThread(() -> {
                 if (statusText != null) {
-                    statusText.setText(formatRemainingTime(remaining));
+                    long drops = streamDrops;
+                    statusText.setText(formatRemainingTime(seconds) + (drops > 0 ? " · 丢弃 " + drops + " 条" : ""));
                 }
             });
-        });
+        }
 
-        // 设置自动停止回调（录制时长到达时通知UI）
-        recordingCoordinator.setAutoStopCallback(() -> {
+        @Override
+        public void onStarted(boolean backCameraDropped) {
+            runOnUiThread(() -> {
+                // 启动回调到达前已停止时不再打开摄像头
+                if (recordingService == null || !recordingService.isRecording()) return;
+                startCamerasForMode(backCameraDropped);
+            });
+        }
+
+        @Override
+        public void onTelemetry(List<StreamStats> streams) {
+            long drops = 0;
+            for (StreamStats s : streams) drops += s.getDrops();
+            if (drops > streamDrops) {
+                Log.w("ListActivity", "Stream drops: " + drops);
+            }
+            streamDrops = drops;
+        }
+
+        // 录制时长到达时通知UI
+        @Override
+        public void onAutoStop() {
             runOnUiThread(() -> {
                 try {
                     // 先获取视频路径和目录信息（在停止相机之前）
@@ -1201,10 +1268,10 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
                         statusText.setText("录制完成");
                     }
                     setCameraPlaceholderText("点击开始录制显示预览");
-                    Toast.makeText(this, "录制时长到达，自动停止", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(ListActivity.this, "录制时长到达，自动停止", Toast.LENGTH_SHORT).show();
 
-                    // 自动断开指环与心电，避免下一次连接/测量状态残留
-                    autoDisconnectRingAndEcgAfterStop();
+                    // 各模块停止完成后自动断开指环与心电，避免下一次连接/测量状态残留
+                    disconnectRingAndEcgWhenStopped();
 
                     // 如果需要后处理，启动后处理流程
                     if (needPostProcess) {
@@ -1216,14 +1283,14 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
                     Log.e("ListActivity", "Error in autoStopCallback UI update", e);
                 }
             });
-        });
-    }
+        }
+    };
 
     /**
      * 切换录制状态（开始/停止）
      */
     private void toggleRecording() {
-        if (recordingCoordinator != null && recordingCoordinator.isRecording()) {
+        if (recordingService != null && recordingService.isRecording()) {
             stopAllRecording();
         } else {
             startAllRecording();
@@ -1252,6 +1319,17 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
     private void startAllRecording() {
         Log.d("ListActivity", "startAllRecording called, currentCameraMode=" + currentCameraMode);
 
+        if (recordingService == null) {
+            Toast.makeText(this, "录制服务尚未就绪，请稍后再试", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
+        // 上一次录制的模块仍在收尾
+        if (recordingService.isStopping()) {
+            Toast.makeText(this, "上一次录制正在保存，请稍候", Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         // 检查是否正在进行后处理
         if (isPostProcessing) {
             Toast.makeText(this, "视频分析中，请等待完成后再开始新录制", Toast.LENGTH_SHORT).show();
@@ -1269,27 +1347,31 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         }
         Log.d("ListActivity", "experimentId=" + experimentId + ", enableInference=" + enableInference);
 
+        // startSession 内同步统一时基
         SessionManager.getInstance().startSession(this, experimentId);
-        TimeSync.startSessionClock();
 
         // 记录录制开始时间
         recordingStartTime = System.currentTimeMillis();
 
-        // 启用全部模块
-        recordingCoordinator.setModules(true, true, true, true, true, true);
-        recordingCoordinator.start(experimentId);
+        // 录制服务在控制线程上启动全部模块，摄像头在 onStarted 回调中按开始前的存储预算结果启动
+        backCameraDroppedForStorage = false;
+        streamDrops = 0;
+        int duration = recordingService.startRecording(experimentId, currentCameraMode != 1, currentCameraMode != 0);
 
         // 更新UI状态
         if (btnStartAll != null) {
             btnStartAll.setText("停止录制");
         }
-        int duration = recordingCoordinator.getMaxRecordingDuration();
         if (statusText != null) {
             statusText.setText(formatRemainingTime(duration));
         }
         setCameraPlaceholderText("摄像头启动中...");
 
-        // 根据当前选择的摄像头模式启动
+        Toast.makeText(this, "一键录制已启动 (时长: " + duration + "秒)", Toast.LENGTH_SHORT).show();
+    }
+
+    /** 按当前摄像头模式启动摄像头（主线程） */
+    private void startCamerasForMode(boolean backCameraDropped) {
         Log.d("ListActivity", "Starting camera based on mode: " + currentCameraMode);
         switch (currentCameraMode) {
             case 0:  // 前置录制
@@ -1303,11 +1385,13 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
             case 2:  // 前后同开
                 Log.d("ListActivity", "Mode 2: Starting BOTH cameras");
                 startFrontCameraRecording();
-                startBackCameraRecording();
+                if (backCameraDropped) {
+                    Log.w("ListActivity", "Mode 2: back camera dropped for storage");
+                } else {
+                    startBackCameraRecording();
+                }
                 break;
         }
-
-        Toast.makeText(this, "一键录制已启动 (时长: " + duration + "秒)", Toast.LENGTH_SHORT).show();
     }
 
     private void stopAllRecording() {
@@ -1355,12 +1439,12 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
 
         stopFrontCameraRecording();
         stopBackCameraRecording();
-        if (recordingCoordinator != null) {
-            recordingCoordinator.stop();
+        if (recordingService != null) {
+            recordingService.stopRecording();
         }
 
-        // 自动断开指环与心电，避免下一次连接/测量状态残留
-        autoDisconnectRingAndEcgAfterStop();
+        // 各模块停止完成后自动断开指环与心电，避免下一次连接/测量状态残留
+        disconnectRingAndEcgWhenStopped();
 
         // 更新UI状态
         if (btnStartAll != null) {
@@ -1594,6 +1678,34 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         }
     }
 
+    /**
+     * 存储空间不足时的摄像头降级（由录制服务在录制控制线程调用，摄像头操作切回主线程）。
+     * 开始录制前调用时摄像头尚未启动：关闭后置只记标志，降低码率在编码器配置时读取 StorageBudget。
+     */
+    private boolean applyCameraStorageStep(StorageBudget.Step step) {
+        switch (step) {
+            case DROP_BACK_CAMERA:
+                // 只在双摄模式下关闭后置；单后置模式下后置即主画面
+                if (currentCameraMode != 2 || backCameraDroppedForStorage) return false;
+                backCameraDroppedForStorage = true;
+                runOnUiThread(this::stopBackCameraRecording);
+                return true;
+            case LOWER_BITRATE:
+                if (!frontCameraRecording && !backCameraRecording) return true;
+                // 录制中只能调整 MediaCodec 编码器；MediaRecorder 在下次启动时生效
+                CameraPureFaceProcessor pure = cameraPureFaceProcessor;
+                CameraFaceProcessor face = cameraFaceProcessor;
+                if (pure == null && face == null) return false;
+                runOnUiThread(() -> {
+                    if (pure != null) pure.lowerVideoBitrate(StorageBudget.LOWERED_BITRATE_RATIO);
+                    if (face != null) face.lowerVideoBitrate(StorageBudget.LOWERED_BITRATE_RATIO);
+                });
+                return true;
+            default:
+                return false;
+        }
+    }
+
     // 后置摄像头控制方法
     public void startBackCameraRecording() {
         if (backCameraRecording) return;
@@ -1866,7 +1978,9 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
                 // 预加载时使用空的PlotView，后续替换
                 preloadedEstimator = new HeartRateEstimator(
                         modelStream, stateJsonStream, welchModelStream, hrModelStream,
-                        null, baseDir
+                        null, baseDir,
+                        prefs.getString("hr_spectrum_backend", SpectralBackend.WELCH),
+                        prefs.getString("hr_spectrum_compare", "")
                 );
                 isModelLoaded = true;
 
@@ -1936,6 +2050,11 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
 
     @Override
     protected void onDestroy() {
+        // 录制中销毁：摄像头随界面停止，会话一并停止（服务不在没有视频的情况下继续录制）
+        if (recordingService != null) {
+            recordingService.onCameraOwnerDestroyed();
+        }
+
         // 停止所有摄像头
         stopFrontCameraRecording();
         stopBackCameraRecording();
@@ -1972,6 +2091,14 @@ public class ListActivity extends AppCompatActivity implements IResponseListener
         }
         dismissPostProcessDialog();
 
+        // 解绑录制服务；停止中的会话由前台服务继续收尾
+        if (recordingService != null) {
+            recordingService.removeListener(recordingListener);
+            recordingService.setCameraStorageActions(null);
+            recordingService = null;
+        }
+        unbindService(recordingConnection);
+
         unregisterReceiver(usbReceiver);
         super.onDestroy();
     }
@@ -15,6 +15,7 @@ import androidx.appcompat.app.AppCompatActivity;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.textfield.TextInputEditText;
 import com.tsinghua.sample.R;
+import com.tsinghua.sample.catalog.SessionCatalog;
 
 import java.io.File;
 import java.io.FileOutputStream;
@@ -220,6 +221,7 @@ public class PatientInfoActivity extends AppCompatActivity {
             writer.flush();
 
             Log.i(TAG, "采集信息已保存: " + infoFile.getAbsolutePath());
+            SessionCatalog.getInstance(this).updatePatient(new File(sessionDir), name, content);
             return true;
 
         } catch (Exception e) {
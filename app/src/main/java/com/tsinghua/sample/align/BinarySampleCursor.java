@@ -0,0 +1,124 @@
+package com.tsinghua.sample.align;
+
+import com.tsinghua.sample.core.RecordSchema;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * {@link com.tsinghua.sample.core.BinaryRecordLog} 写出的 .bin 文件的游标。
+ *
+ * 与 {@link com.tsinghua.sample.core.BinaryCsvExporter} 相同按块读取定宽记录，末尾不完整的记录被忽略。
+ */
+public final class BinarySampleCursor implements SampleCursor {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final FileInputStream in;
+    private final FileChannel channel;
+    private final ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+    private final RecordSchema schema;
+    private final String[] columns;
+    private final int timeColumn;
+    private final double[] values;
+    private boolean eof;
+
+    public BinarySampleCursor(File file, String timeColumn) throws IOException {
+        in = new FileInputStream(file);
+        channel = in.getChannel();
+        buf.limit(0);
+        try {
+            fill();
+            try {
+                schema = RecordSchema.readHeader(buf);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated header: " + file.getName());
+            } catch (IllegalArgumentException e) {
+                throw new IOException(file.getName() + ": " + e.getMessage());
+            }
+            columns = new String[schema.getColumnCount()];
+            int time = -1;
+            for (int i = 0; i < columns.length; i++) {
+                columns[i] = schema.getColumn(i).name;
+                if (columns[i].equals(timeColumn)) time = i;
+            }
+            if (time < 0) throw new IOException("No column " + timeColumn + " in " + file.getName());
+            this.timeColumn = time;
+        } catch (IOException e) {
+            in.close();
+            throw e;
+        }
+        values = new double[columns.length];
+    }
+
+    /** 压缩缓冲区并尽量读满，返回后 buf 处于读模式 */
+    private void fill() throws IOException {
+        buf.compact();
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf);
+            if (n < 0) {
+                eof = true;
+                break;
+            }
+        }
+        buf.flip();
+    }
+
+    @Override
+    public String[] columns() {
+        return columns;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        int recordSize = schema.getRecordSize();
+        if (buf.remaining() < recordSize) {
+            if (eof) return false;
+            fill();
+            if (buf.remaining() < recordSize) return false;
+        }
+        for (int i = 0; i < values.length; i++) {
+            switch (schema.getColumn(i).type) {
+                case INT16:
+                    values[i] = buf.getShort();
+                    break;
+                case INT32:
+                    values[i] = buf.getInt();
+                    break;
+                case UINT32:
+                    values[i] = buf.getInt() & 0xFFFFFFFFL;
+                    break;
+                case INT64:
+                    values[i] = buf.getLong();
+                    break;
+                case FLOAT32:
+                    values[i] = buf.getFloat();
+                    break;
+                case FLOAT64:
+                    values[i] = buf.getDouble();
+                    break;
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public double timeMs() {
+        return values[timeColumn];
+    }
+
+    @Override
+    public double value(int column) {
+        return values[column];
+    }
+
+    @Override
+    public void close() throws IOException {
+        in.close();
+    }
+}
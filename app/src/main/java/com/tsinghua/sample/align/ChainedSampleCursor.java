@@ -0,0 +1,135 @@
+package com.tsinghua.sample.align;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.DoubleUnaryOperator;
+
+/**
+ * 一个逻辑流的游标：按顺序串接其全部文件（分段 ring_data_0000.csv、ring_data_0001.csv …，
+ * 或多次测量的 spo2_*.csv），任一时刻只打开一个文件。
+ *
+ * 列以第一个文件为准，后续文件按列名对应（缺失的列为 NaN）；
+ * 可选的时间映射用于把设备时间列（如指环 frame_ts）换算为会话 wall_ms。
+ */
+public final class ChainedSampleCursor implements SampleCursor {
+
+    private final String name;
+    private final List<File> files;
+    private final String timeColumn;
+    private final String[] headerless;
+    private final DoubleUnaryOperator timeMap;
+
+    private String[] columns;
+    private SampleCursor current;
+    /** 当前文件列 -> 统一列 的下标映射，null 表示列完全一致 */
+    private int[] columnMap;
+    private int nextFile;
+    private long unreadable;
+
+    /**
+     * @param files      按时间顺序排列的文件（.csv/.txt 或 .bin）
+     * @param timeColumn 时间列名
+     * @param headerless 无表头文件的列名，null 表示文件带表头
+     * @param timeMap    时间列 -> 会话 wall_ms 的映射，null 表示时间列已是 wall_ms
+     */
+    public ChainedSampleCursor(String name, List<File> files, String timeColumn, String[] headerless,
+                               DoubleUnaryOperator timeMap) throws IOException {
+        this.name = name;
+        this.files = new ArrayList<>(files);
+        this.timeColumn = timeColumn;
+        this.headerless = headerless;
+        this.timeMap = timeMap;
+        // 打开第一个可读文件以确定列
+        while (columns == null && nextFile < this.files.size()) {
+            openNext();
+            if (current != null) columns = current.columns();
+        }
+        if (columns == null) throw new IOException("No readable file for stream " + name);
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    private void openNext() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+        File f = files.get(nextFile++);
+        try {
+            current = f.getName().endsWith(".bin")
+                    ? new BinarySampleCursor(f, timeColumn)
+                    : new CsvSampleCursor(f, timeColumn, headerless);
+        } catch (IOException e) {
+            // 空文件或进程被杀时的残缺文件：跳过，不影响同一流的其余分段
+            unreadable++;
+            return;
+        }
+        columnMap = null;
+        if (columns != null) {
+            String[] cols = current.columns();
+            int[] map = new int[columns.length];
+            boolean same = cols.length == columns.length;
+            for (int i = 0; i < columns.length; i++) {
+                map[i] = -1;
+                for (int j = 0; j < cols.length; j++) {
+                    if (cols[j].equals(columns[i])) {
+                        map[i] = j;
+                        break;
+                    }
+                }
+                same &= map[i] == i;
+            }
+            if (!same) columnMap = map;
+        }
+    }
+
+    @Override
+    public String[] columns() {
+        return columns;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        while (true) {
+            if (current != null && current.advance()) return true;
+            if (nextFile >= files.size()) {
+                if (current != null) {
+                    current.close();
+                    current = null;
+                }
+                return false;
+            }
+            openNext();
+        }
+    }
+
+    @Override
+    public double timeMs() {
+        double t = current.timeMs();
+        return timeMap != null ? timeMap.applyAsDouble(t) : t;
+    }
+
+    @Override
+    public double value(int column) {
+        if (columnMap == null) return current.value(column);
+        int c = columnMap[column];
+        return c >= 0 ? current.value(c) : Double.NaN;
+    }
+
+    /** 无法读取而跳过的文件数 */
+    public long getUnreadableFileCount() {
+        return unreadable;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (current != null) {
+            current.close();
+            current = null;
+        }
+    }
+}
@@ -0,0 +1,124 @@
+package com.tsinghua.sample.align;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * CSV 数据文件的游标（DataLogger 写出的 xxx.csv，或无表头的逐行时间戳文件如 mic_timestamp.txt）。
+ *
+ * 逐行读取并解析为 double，true/false 解析为 1/0；时间列缺失或无法解析的行被跳过。
+ */
+public final class CsvSampleCursor implements SampleCursor {
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private final String[] columns;
+    private final int timeColumn;
+    private final double[] values;
+    private long skipped;
+
+    /**
+     * @param timeColumn 时间列名（如 wall_ms）
+     * @param columns    无表头文件的列名；为 null 时取文件第一行为表头
+     */
+    public CsvSampleCursor(File file, String timeColumn, String[] columns) throws IOException {
+        reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8),
+                READ_BUFFER_SIZE);
+        try {
+            if (columns == null) {
+                String header = reader.readLine();
+                if (header == null) throw new IOException("Empty file: " + file.getName());
+                columns = header.trim().split(",");
+                for (int i = 0; i < columns.length; i++) columns[i] = columns[i].trim();
+            }
+            this.columns = columns;
+            this.timeColumn = Arrays.asList(columns).indexOf(timeColumn);
+            if (this.timeColumn < 0) throw new IOException("No column " + timeColumn + " in " + file.getName());
+        } catch (IOException e) {
+            reader.close();
+            throw e;
+        }
+        values = new double[columns.length];
+    }
+
+    @Override
+    public String[] columns() {
+        return columns;
+    }
+
+    @Override
+    public boolean advance() throws IOException {
+        String line;
+        while ((line = reader.readLine()) != null) {
+            parse(line);
+            if (!Double.isNaN(values[timeColumn])) return true;
+            skipped++;
+        }
+        return false;
+    }
+
+    private void parse(String line) {
+        int col = 0;
+        int start = 0;
+        int length = line.length();
+        for (int i = 0; i <= length && col < values.length; i++) {
+            if (i == length || line.charAt(i) == ',') {
+                values[col++] = parseValue(line, start, i);
+                start = i + 1;
+            }
+        }
+        for (; col < values.length; col++) values[col] = Double.NaN;
+    }
+
+    private static double parseValue(String line, int start, int end) {
+        while (start < end && line.charAt(start) == ' ') start++;
+        while (end > start && line.charAt(end - 1) == ' ') end--;
+        if (start == end) return Double.NaN;
+        // 整数列（wall_ms、计数）走快速路径，避免 Double.parseDouble 的字符串分配
+        long v = 0;
+        boolean negative = line.charAt(start) == '-';
+        int i = negative ? start + 1 : start;
+        if (i < end && end - i <= 18) {
+            for (; i < end; i++) {
+                char c = line.charAt(i);
+                if (c < '0' || c > '9') break;
+                v = v * 10 + (c - '0');
+            }
+            if (i == end) return negative ? -v : v;
+        }
+        String s = line.substring(start, end);
+        if (s.equalsIgnoreCase("true")) return 1;
+        if (s.equalsIgnoreCase("false")) return 0;
+        try {
+            return Double.parseDouble(s);
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    @Override
+    public double timeMs() {
+        return values[timeColumn];
+    }
+
+    @Override
+    public double value(int column) {
+        return values[column];
+    }
+
+    /** 因时间列无效被跳过的行数 */
+    public long getSkippedCount() {
+        return skipped;
+    }
+
+    @Override
+    public void close() throws IOException {
+        reader.close();
+    }
+}
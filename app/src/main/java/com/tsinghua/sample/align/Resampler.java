@@ -0,0 +1,245 @@
+package com.tsinghua.sample.align;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 把 {@link StreamMerger} 归并出的多流样本重采样到统一时间网格。
+ *
+ * 网格为固定频率（如 200 Hz，按 origin 对齐）或某个参考流的样本时刻（如视频帧元数据，30 Hz）。
+ * 归并给出时刻 ts 的样本时，各流游标均停在不早于 ts 的样本上，
+ * 因此早于 ts 的网格点对每个通道都已知前后两侧的样本，可以立即插值输出：
+ * - 每个通道只保存前一条样本，后一条直接读游标，内存与会话时长无关；
+ * - LINEAR 线性插值，HOLD 取前一条样本（零阶保持）；
+ * - 两侧样本间隔超过 maxGapMs（HOLD 为距前一条样本超过 maxGapMs）时输出 NaN，不跨越断连插值。
+ */
+public final class Resampler {
+
+    public enum Interpolation {
+        LINEAR,
+        HOLD
+    }
+
+    /** 输出网格上的一行（values 与通道顺序一致，缺失为 NaN；回调返回后数组会被复用） */
+    public interface Output {
+        void onRow(double timeMs, double[] values) throws IOException;
+    }
+
+    /** 一个输出通道：某个流的某一列 */
+    public static final class Channel {
+        public final String label;
+        final int stream;
+        final int column;
+        final Interpolation interpolation;
+
+        // 前一条有效样本
+        private double prevTimeMs = Double.NaN;
+        private double prevValue = Double.NaN;
+
+        // 统计
+        long filled;
+        long missing;
+        long outOfOrder;
+
+        public Channel(String label, int stream, int column, Interpolation interpolation) {
+            this.label = label;
+            this.stream = stream;
+            this.column = column;
+            this.interpolation = interpolation;
+        }
+
+        public long getFilledCount() {
+            return filled;
+        }
+
+        public long getMissingCount() {
+            return missing;
+        }
+
+        /** 时间早于本通道前一条样本而被忽略的样本数 */
+        public long getOutOfOrderCount() {
+            return outOfOrder;
+        }
+    }
+
+    private final StreamMerger merger;
+    private final List<Channel> channels;
+    private final int[][] channelsByStream;
+    private final Output output;
+    private final double[] row;
+
+    // 网格
+    private double rateHz;
+    private double originMs = Double.NaN;
+    private int referenceStream = -1;
+    private double startMs = Double.NEGATIVE_INFINITY;
+    private double endMs = Double.POSITIVE_INFINITY;
+    private double maxGapMs = 2000;
+
+    // 固定频率网格的下一点序号（时刻 = origin + k / rate，按序号计算避免累计误差）
+    private long nextIndex = Long.MIN_VALUE;
+    // 参考流网格：已到达、尚未输出的网格点
+    private final ArrayDeque<Double> pending = new ArrayDeque<>();
+
+    private long rows;
+    private double firstRowMs = Double.NaN;
+    private double lastRowMs = Double.NaN;
+
+    public Resampler(StreamMerger merger, List<Channel> channels, Output output) {
+        this.merger = merger;
+        this.channels = new ArrayList<>(channels);
+        this.output = output;
+        this.row = new double[channels.size()];
+        int streams = merger.getStreamCount();
+        List<List<Integer>> byStream = new ArrayList<>(streams);
+        for (int s = 0; s < streams; s++) byStream.add(new ArrayList<>());
+        for (int i = 0; i < this.channels.size(); i++) byStream.get(this.channels.get(i).stream).add(i);
+        channelsByStream = new int[streams][];
+        for (int s = 0; s < streams; s++) {
+            List<Integer> l = byStream.get(s);
+            channelsByStream[s] = new int[l.size()];
+            for (int i = 0; i < l.size(); i++) channelsByStream[s][i] = l.get(i);
+        }
+    }
+
+    /**
+     * 固定频率网格。
+     * @param originMs 网格对齐点（如会话开始 wall_ms），NaN 时以第一条样本时刻为起点
+     */
+    public Resampler setFixedGrid(double rateHz, double originMs) {
+        if (!(rateHz > 0)) throw new IllegalArgumentException("rateHz must be positive: " + rateHz);
+        this.rateHz = rateHz;
+        this.originMs = originMs;
+        this.referenceStream = -1;
+        return this;
+    }
+
+    /** 以参考流（如帧元数据）的样本时刻为网格 */
+    public Resampler setReferenceGrid(int stream) {
+        this.referenceStream = stream;
+        this.rateHz = 0;
+        return this;
+    }
+
+    /** 只输出 [startMs, endMs] 内的网格点 */
+    public Resampler setWindow(double startMs, double endMs) {
+        this.startMs = startMs;
+        this.endMs = endMs;
+        return this;
+    }
+
+    /** 插值允许跨越的最大样本间隔（毫秒），超过时输出 NaN；≤0 表示不限 */
+    public Resampler setMaxGapMs(double maxGapMs) {
+        this.maxGapMs = maxGapMs > 0 ? maxGapMs : Double.POSITIVE_INFINITY;
+        return this;
+    }
+
+    /** 读完所有流并输出网格，返回输出的行数 */
+    public long run() throws IOException {
+        if (rateHz <= 0 && referenceStream < 0) throw new IllegalStateException("No grid configured");
+        double lastMs = Double.NEGATIVE_INFINITY;
+        int s;
+        while ((s = merger.next()) >= 0) {
+            SampleCursor c = merger.cursor(s);
+            double t = c.timeMs();
+            // 早于本条的网格点：各流后一条样本都在游标上，可以输出
+            flushBefore(t);
+            consume(s, c, t);
+            if (t > lastMs) lastMs = t;
+            if (s == referenceStream && t >= startMs && t <= endMs
+                    && (pending.isEmpty() || t > pending.peekLast())) {
+                pending.addLast(t);
+            }
+        }
+        if (lastMs == Double.NEGATIVE_INFINITY) return rows;
+        // 所有流读完：剩余网格点只有前一条样本
+        flushBefore(Math.nextUp(Math.min(lastMs, endMs)));
+        return rows;
+    }
+
+    private void consume(int stream, SampleCursor c, double t) {
+        for (int i : channelsByStream[stream]) {
+            Channel ch = channels.get(i);
+            if (t < ch.prevTimeMs) {
+                ch.outOfOrder++;
+                continue;
+            }
+            double v = c.value(ch.column);
+            if (Double.isNaN(v)) continue;
+            ch.prevTimeMs = t;
+            ch.prevValue = v;
+        }
+    }
+
+    /** 输出所有时刻早于 limitMs 的网格点 */
+    private void flushBefore(double limitMs) throws IOException {
+        if (referenceStream >= 0) {
+            while (!pending.isEmpty() && pending.peekFirst() < limitMs) {
+                emit(pending.pollFirst());
+            }
+            return;
+        }
+        if (nextIndex == Long.MIN_VALUE) {
+            // 第一条样本：定位到不早于它（及窗口起点）的第一个网格点
+            if (Double.isNaN(originMs)) originMs = Math.max(limitMs, startMs);
+            double first = Math.max(limitMs, startMs);
+            nextIndex = (long) Math.ceil((first - originMs) * rateHz / 1000.0 - 1e-9);
+        }
+        while (true) {
+            double t = originMs + nextIndex * 1000.0 / rateHz;
+            if (t >= limitMs || t > endMs) return;
+            emit(t);
+            nextIndex++;
+        }
+    }
+
+    private void emit(double t) throws IOException {
+        for (int i = 0; i < row.length; i++) {
+            Channel ch = channels.get(i);
+            double v = sample(ch, t);
+            row[i] = v;
+            if (Double.isNaN(v)) {
+                ch.missing++;
+            } else {
+                ch.filled++;
+            }
+        }
+        output.onRow(t, row);
+        if (rows++ == 0) firstRowMs = t;
+        lastRowMs = t;
+    }
+
+    private double sample(Channel ch, double t) {
+        double pt = ch.prevTimeMs;
+        if (Double.isNaN(pt)) return Double.NaN;
+        double pv = ch.prevValue;
+        if (t == pt) return pv;
+        if (ch.interpolation == Interpolation.HOLD) {
+            return t - pt <= maxGapMs ? pv : Double.NaN;
+        }
+        if (!merger.hasSample(ch.stream)) return Double.NaN;
+        SampleCursor c = merger.cursor(ch.stream);
+        double nt = c.timeMs();
+        double nv = c.value(ch.column);
+        if (!(nt > t) || Double.isNaN(nv) || nt - pt > maxGapMs) return Double.NaN;
+        return pv + (nv - pv) * (t - pt) / (nt - pt);
+    }
+
+    public List<Channel> getChannels() {
+        return channels;
+    }
+
+    public long getRowCount() {
+        return rows;
+    }
+
+    public double getFirstRowMs() {
+        return firstRowMs;
+    }
+
+    public double getLastRowMs() {
+        return lastRowMs;
+    }
+}
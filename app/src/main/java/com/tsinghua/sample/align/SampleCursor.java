@@ -0,0 +1,24 @@
+package com.tsinghua.sample.align;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * 按时间顺序逐条读取一个数据流的游标，只持有当前一条样本，内存占用与文件大小无关。
+ *
+ * 新建后需先调用 {@link #advance()} 定位到第一条样本；缺失或无法解析的数值为 NaN。
+ */
+public interface SampleCursor extends Closeable {
+
+    /** 列名（与文件表头一致） */
+    String[] columns();
+
+    /** 读到下一条样本，没有更多样本时返回 false */
+    boolean advance() throws IOException;
+
+    /** 当前样本的会话时间（wall 毫秒，可带小数） */
+    double timeMs();
+
+    /** 当前样本第 column 列的数值 */
+    double value(int column);
+}
@@ -0,0 +1,459 @@
+package com.tsinghua.sample.align;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.tsinghua.sample.core.CsvEncoder;
+import com.tsinghua.sample.core.SessionManifest;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.DoubleUnaryOperator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * 会话离线对齐：把一个会话目录下各数据流（指环、IMU、血氧、ECG、帧元数据、音频分块时间戳等）
+ * 经 {@link StreamMerger} 按 wall_ms 归并，再由 {@link Resampler} 重采样到统一网格，写出一个对齐后的 CSV。
+ *
+ * - 流按 子目录/文件名 识别，分段（_0000、_0001_1）与多次测量（spo2_&lt;ts&gt;.csv）串接为一个流，同名 .bin 优先于导出的 .csv；
+ * - 指环在 info/clock_alignment.json 中有往返校时模型时，改用 frame_ts 按模型换算的时间（关闭见 {@link Builder#useDeviceClocks}）；
+ * - 每个流同时只打开一个文件、缓存一条样本，2 小时会话也以常量内存完成；不依赖 Android，可在手机或 JVM 上运行。
+ *
+ * 结果旁写出同名 .json：网格、各通道的填充/缺失统计，以及清单中的时基重新同步、时间戳标定信息。
+ */
+public final class SessionAligner {
+
+    /** 对齐结果默认文件名（位于会话目录） */
+    public static final String OUTPUT_FILE = "aligned.csv";
+
+    private static final String CLOCK_REPORT = "info/clock_alignment.json";
+    private static final int WRITE_BUFFER_SIZE = 64 * 1024;
+
+    /** 数据文件：stem[_window[_part]].ext，stem 末尾的 _毫秒时间戳为多次测量的区分 */
+    private static final Pattern DATA_FILE = Pattern.compile("^(.+?)(?:_(\\d{13}))?(?:_(\\d{4})(?:_(\\d+))?)?\\.(csv|bin|txt)$");
+
+    /** 一个通道的请求：stream 的 column 列（column 为 null 表示除时间列外的全部列） */
+    private static final class ChannelSpec {
+        final String stream;
+        final String column;
+        final Resampler.Interpolation interpolation;
+
+        ChannelSpec(String stream, String column, Resampler.Interpolation interpolation) {
+            this.stream = stream;
+            this.column = column;
+            this.interpolation = interpolation;
+        }
+    }
+
+    private final File sessionDir;
+    private final List<ChannelSpec> specs;
+    private final double rateHz;
+    private final String referenceStream;
+    private final double startMs;
+    private final double endMs;
+    private final double maxGapMs;
+    private final boolean useDeviceClocks;
+
+    private SessionAligner(Builder b) {
+        this.sessionDir = b.sessionDir;
+        this.specs = new ArrayList<>(b.specs);
+        this.rateHz = b.rateHz;
+        this.referenceStream = b.referenceStream;
+        this.startMs = b.startMs;
+        this.endMs = b.endMs;
+        this.maxGapMs = b.maxGapMs;
+        this.useDeviceClocks = b.useDeviceClocks;
+    }
+
+    public static final class Builder {
+        private final File sessionDir;
+        private final List<ChannelSpec> specs = new ArrayList<>();
+        private double rateHz;
+        private String referenceStream;
+        private double startMs = Double.NEGATIVE_INFINITY;
+        private double endMs = Double.POSITIVE_INFINITY;
+        private double maxGapMs = 2000;
+        private boolean useDeviceClocks = true;
+
+        public Builder(File sessionDir) {
+            this.sessionDir = sessionDir;
+        }
+
+        /** 加入一列，如 channel("ring/ring_data", "green", LINEAR) */
+        public Builder channel(String stream, String column, Resampler.Interpolation interpolation) {
+            specs.add(new ChannelSpec(stream, column, interpolation));
+            return this;
+        }
+
+        /** 加入一个流除时间列外的全部列 */
+        public Builder stream(String stream, Resampler.Interpolation interpolation) {
+            return channel(stream, null, interpolation);
+        }
+
+        /** 固定频率网格，按会话开始 wall_ms 对齐 */
+        public Builder rate(double rateHz) {
+            this.rateHz = rateHz;
+            this.referenceStream = null;
+            return this;
+        }
+
+        /** 以参考流的样本时刻为网格（如 "front/frame_metadata_front" 即逐视频帧） */
+        public Builder referenceGrid(String stream) {
+            this.referenceStream = stream;
+            this.rateHz = 0;
+            return this;
+        }
+
+        public Builder window(double startMs, double endMs) {
+            this.startMs = startMs;
+            this.endMs = endMs;
+            return this;
+        }
+
+        public Builder maxGapMs(double maxGapMs) {
+            this.maxGapMs = maxGapMs;
+            return this;
+        }
+
+        /** 是否用往返校时模型换算设备时间戳（默认开启），关闭时一律使用 wall_ms */
+        public Builder useDeviceClocks(boolean use) {
+            this.useDeviceClocks = use;
+            return this;
+        }
+
+        public SessionAligner build() {
+            if (rateHz <= 0 && referenceStream == null) {
+                throw new IllegalStateException("No grid: call rate() or referenceGrid()");
+            }
+            return new SessionAligner(this);
+        }
+    }
+
+    // ============ 流识别 ============
+
+    /**
+     * 列出会话目录下的数据流：流名（子目录/文件名主干，如 ring/ring_data、spo2/spo2）-> 按时间顺序排列的文件。
+     * 不打开文件；info 目录与视频、音频 PCM 不计入。
+     */
+    public static Map<String, List<File>> discover(File sessionDir) {
+        Map<String, TreeMap<String, File>> found = new TreeMap<>();
+        File[] dirs = sessionDir != null ? sessionDir.listFiles(File::isDirectory) : null;
+        if (dirs == null) return new LinkedHashMap<>();
+        for (File dir : dirs) {
+            if (dir.getName().equals("info")) continue;
+            File[] files = dir.listFiles(File::isFile);
+            if (files == null) continue;
+            for (File f : files) {
+                Matcher m = DATA_FILE.matcher(f.getName());
+                if (!m.matches()) continue;
+                String ext = m.group(5);
+                // 纯文本只有音频分块时间戳（mic_timestamp.txt）
+                if (ext.equals("txt") && !m.group(1).endsWith("_timestamp")) continue;
+                String stream = dir.getName() + "/" + m.group(1);
+                // 同一流内排序键：测量时间戳、时间窗、分片（定宽补零便于字符串排序）
+                String key = String.format(Locale.US, "%013d_%010d_%010d",
+                        m.group(2) != null ? Long.parseLong(m.group(2)) : 0,
+                        m.group(3) != null ? Long.parseLong(m.group(3)) : 0,
+                        m.group(4) != null ? Long.parseLong(m.group(4)) : 0);
+                TreeMap<String, File> segments = found.computeIfAbsent(stream, k -> new TreeMap<>());
+                File existing = segments.get(key);
+                // 同一分段既有 .bin 又有导出的 .csv 时取 .bin
+                if (existing == null || ext.equals("bin")) segments.put(key, f);
+            }
+        }
+        Map<String, List<File>> result = new LinkedHashMap<>();
+        for (Map.Entry<String, TreeMap<String, File>> e : found.entrySet()) {
+            result.put(e.getKey(), new ArrayList<>(e.getValue().values()));
+        }
+        return result;
+    }
+
+    /** 流的时间列：标记文件为 timestamp_ms，其余为 wall_ms */
+    private static String wallColumnOf(String stream) {
+        return stream.startsWith("markers/") ? "timestamp_ms" : "wall_ms";
+    }
+
+    /** 无表头文件的列名（音频分块时间戳每行一个 wall_ms），带表头时返回 null */
+    private static String[] headerlessColumnsOf(String stream) {
+        return stream.startsWith("audio/") && stream.endsWith("_timestamp") ? new String[]{"wall_ms"} : null;
+    }
+
+    // ============ 对齐 ============
+
+    /** 对齐并写出到会话目录下的 {@link #OUTPUT_FILE} */
+    public JsonObject run() throws IOException {
+        return run(new File(sessionDir, OUTPUT_FILE));
+    }
+
+    /**
+     * 对齐并写出 outCsv（及同名 .json 摘要），返回摘要。
+     * 请求的流不存在时抛出 {@link IOException}。
+     */
+    public JsonObject run(File outCsv) throws IOException {
+        Map<String, List<File>> available = discover(sessionDir);
+        JsonObject manifest = readJson(new File(sessionDir, SessionManifest.FILE_NAME));
+        Map<String, JsonObject> clockModels = useDeviceClocks
+                ? readClockModels(readJson(new File(sessionDir, CLOCK_REPORT))) : new LinkedHashMap<>();
+
+        // 需要打开的流（参考网格流排在最前）
+        List<String> streamNames = new ArrayList<>();
+        if (referenceStream != null) streamNames.add(referenceStream);
+        List<ChannelSpec> requested = specs.isEmpty() ? allStreams(available) : specs;
+        for (ChannelSpec spec : requested) {
+            if (!streamNames.contains(spec.stream)) streamNames.add(spec.stream);
+        }
+
+        List<ChainedSampleCursor> cursors = new ArrayList<>();
+        JsonArray streamsJson = new JsonArray();
+        try {
+            for (String name : streamNames) {
+                List<File> files = available.get(name);
+                if (files == null) throw new IOException("No stream " + name + " in " + sessionDir.getName());
+                JsonObject model = clockModels.get(deviceOf(name));
+                String timeColumn = model != null ? "frame_ts" : wallColumnOf(name);
+                DoubleUnaryOperator map = model != null ? clockMap(model) : null;
+                cursors.add(new ChainedSampleCursor(name, files, timeColumn, headerlessColumnsOf(name), map));
+                JsonObject s = new JsonObject();
+                s.addProperty("stream", name);
+                s.addProperty("files", files.size());
+                s.addProperty("time_column", timeColumn);
+                if (model != null) s.add("clock_model", model);
+                streamsJson.add(s);
+            }
+        } catch (IOException e) {
+            for (ChainedSampleCursor c : cursors) c.close();
+            throw e;
+        }
+
+        List<Resampler.Channel> channels = new ArrayList<>();
+        for (ChannelSpec spec : requested) {
+            int stream = streamNames.indexOf(spec.stream);
+            ChainedSampleCursor c = cursors.get(stream);
+            String[] cols = c.columns();
+            String stem = spec.stream.substring(spec.stream.indexOf('/') + 1);
+            if (spec.column != null) {
+                int col = Arrays.asList(cols).indexOf(spec.column);
+                if (col < 0) {
+                    for (ChainedSampleCursor cc : cursors) cc.close();
+                    throw new IOException("No column " + spec.column + " in stream " + spec.stream);
+                }
+                channels.add(new Resampler.Channel(stem + "." + spec.column, stream, col, spec.interpolation));
+            } else {
+                for (int col = 0; col < cols.length; col++) {
+                    if (isTimeColumn(cols[col])) continue;
+                    channels.add(new Resampler.Channel(stem + "." + cols[col], stream, col, spec.interpolation));
+                }
+            }
+        }
+
+        File parent = outCsv.getAbsoluteFile().getParentFile();
+        if (parent != null && !parent.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        Resampler resampler;
+        try (StreamMerger merger = new StreamMerger(cursors);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(outCsv, false), WRITE_BUFFER_SIZE)) {
+            CsvEncoder line = new CsvEncoder(256);
+            line.appendAscii("wall_ms");
+            for (Resampler.Channel ch : channels) line.comma().appendAscii(ch.label);
+            line.append('\n');
+            out.write(line.buffer(), 0, line.length());
+
+            resampler = new Resampler(merger, channels, (t, values) -> {
+                line.reset();
+                line.appendFixed(t, 3);
+                for (double v : values) {
+                    line.comma();
+                    appendValue(line, v);
+                }
+                line.append('\n');
+                out.write(line.buffer(), 0, line.length());
+            });
+            resampler.setMaxGapMs(maxGapMs).setWindow(startMs, endMs);
+            if (referenceStream != null) {
+                resampler.setReferenceGrid(0);
+            } else {
+                double origin = manifest != null && manifest.has("session_start_wall_ms")
+                        ? manifest.get("session_start_wall_ms").getAsLong() : Double.NaN;
+                resampler.setFixedGrid(rateHz, origin);
+            }
+            resampler.run();
+        }
+
+        JsonObject summary = summary(resampler, streamsJson, manifest);
+        writeJson(summaryFileFor(outCsv), summary);
+        return summary;
+    }
+
+    private static List<ChannelSpec> allStreams(Map<String, List<File>> available) {
+        List<ChannelSpec> all = new ArrayList<>();
+        for (String name : available.keySet()) {
+            all.add(new ChannelSpec(name, null, Resampler.Interpolation.LINEAR));
+        }
+        return all;
+    }
+
+    private static boolean isTimeColumn(String column) {
+        return column.equals("wall_ms") || column.equals("timestamp_ms");
+    }
+
+    /** 流对应的校时设备名（与 ClockAlignment 中一致） */
+    private static String deviceOf(String stream) {
+        return stream.startsWith("ring/ring_data") ? "ring" : null;
+    }
+
+    /** 设备毫秒 -> 会话 wall_ms：t + offset_ms + skew_ppm·1e-6·(t - reference_device_ms) */
+    private static DoubleUnaryOperator clockMap(JsonObject model) {
+        double offset = model.get("offset_ms").getAsDouble();
+        double skew = model.get("skew_ppm").getAsDouble() * 1e-6;
+        double ref = model.get("reference_device_ms").getAsDouble();
+        return t -> t + offset + skew * (t - ref);
+    }
+
+    /** clock_alignment.json 中已得到模型的设备 */
+    private static Map<String, JsonObject> readClockModels(JsonObject report) {
+        Map<String, JsonObject> models = new LinkedHashMap<>();
+        if (report == null || !report.has("devices")) return models;
+        for (JsonElement e : report.getAsJsonArray("devices")) {
+            JsonObject d = e.getAsJsonObject();
+            if (!d.has("device") || !d.has("offset_ms") || !d.has("skew_ppm") || !d.has("reference_device_ms")) {
+                continue;
+            }
+            JsonObject m = new JsonObject();
+            m.add("offset_ms", d.get("offset_ms"));
+            m.add("skew_ppm", d.get("skew_ppm"));
+            m.add("reference_device_ms", d.get("reference_device_ms"));
+            if (d.has("alignment_error")) m.add("alignment_error", d.get("alignment_error"));
+            models.put(d.get("device").getAsString(), m);
+        }
+        return models;
+    }
+
+    private static void appendValue(CsvEncoder line, double v) {
+        if (Double.isNaN(v)) return;
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) {
+            line.appendLong((long) v);
+        } else {
+            line.appendFixed(v, 6);
+        }
+    }
+
+    private JsonObject summary(Resampler resampler, JsonArray streams, JsonObject manifest) {
+        JsonObject root = new JsonObject();
+        root.addProperty("session", sessionDir.getName());
+        JsonObject grid = new JsonObject();
+        if (referenceStream != null) {
+            grid.addProperty("reference_stream", referenceStream);
+        } else {
+            grid.addProperty("rate_hz", rateHz);
+        }
+        grid.addProperty("max_gap_ms", maxGapMs);
+        grid.addProperty("rows", resampler.getRowCount());
+        if (resampler.getRowCount() > 0) {
+            grid.addProperty("first_wall_ms", resampler.getFirstRowMs());
+            grid.addProperty("last_wall_ms", resampler.getLastRowMs());
+        }
+        root.add("grid", grid);
+        root.add("streams", streams);
+        JsonArray channels = new JsonArray();
+        for (Resampler.Channel ch : resampler.getChannels()) {
+            JsonObject o = new JsonObject();
+            o.addProperty("label", ch.label);
+            o.addProperty("interpolation", ch.interpolation.name().toLowerCase(Locale.US));
+            o.addProperty("filled", ch.getFilledCount());
+            o.addProperty("missing", ch.getMissingCount());
+            o.addProperty("out_of_order", ch.getOutOfOrderCount());
+            channels.add(o);
+        }
+        root.add("channels", channels);
+        if (manifest != null) {
+            // 时基重新同步会在 wall_ms 中留下跳变；时间戳标定给出各手机传感器的换算残差
+            if (manifest.has("timebase")) root.add("timebase", manifest.get("timebase"));
+            if (manifest.has("timestamp_calibration")) {
+                root.add("timestamp_calibration", manifest.get("timestamp_calibration"));
+            }
+        }
+        return root;
+    }
+
+    static File summaryFileFor(File csv) {
+        String name = csv.getName();
+        int dot = name.lastIndexOf('.');
+        return new File(csv.getParentFile(), (dot > 0 ? name.substring(0, dot) : name) + ".json");
+    }
+
+    private static JsonObject readJson(File file) {
+        if (!file.isFile()) return null;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            return JsonParser.parseReader(reader).getAsJsonObject();
+        } catch (IOException | RuntimeException e) {
+            // 清单写到一半被杀等：按无清单处理（网格以第一条样本为起点，不做设备时钟换算）
+            return null;
+        }
+    }
+
+    private static void writeJson(File file, JsonObject json) throws IOException {
+        byte[] bytes = new GsonBuilder().setPrettyPrinting().create().toJson(json).getBytes(StandardCharsets.UTF_8);
+        try (FileOutputStream out = new FileOutputStream(file, false)) {
+            out.write(bytes);
+        }
+    }
+
+    // ============ JVM 命令行 ============
+
+    /**
+     * 用法：SessionAligner &lt;会话目录&gt; &lt;网格：频率Hz 或 参考流&gt; &lt;输出.csv&gt; [流[:列][:hold|linear] ...]
+     * 例：SessionAligner Session_1700000000000 200 aligned.csv ring/ring_data:green imu/imu_accelerometer_data spo2/spo2:spo2:hold
+     * 不指定通道时输出所有流的全部列。
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("usage: SessionAligner <sessionDir> <rateHz|referenceStream> <out.csv> "
+                    + "[stream[:column][:hold|linear] ...]");
+            System.err.println("streams:");
+            if (args.length > 0) {
+                for (Map.Entry<String, List<File>> e : discover(new File(args[0])).entrySet()) {
+                    System.err.println("  " + e.getKey() + " (" + e.getValue().size() + " file(s))");
+                }
+            }
+            System.exit(2);
+            return;
+        }
+        Builder b = new Builder(new File(args[0]));
+        try {
+            b.rate(Double.parseDouble(args[1]));
+        } catch (NumberFormatException e) {
+            b.referenceGrid(args[1]);
+        }
+        for (int i = 3; i < args.length; i++) {
+            String[] parts = args[i].split(":");
+            Resampler.Interpolation interp = Resampler.Interpolation.LINEAR;
+            int n = parts.length;
+            if (n > 1 && (parts[n - 1].equals("hold") || parts[n - 1].equals("linear"))) {
+                interp = Resampler.Interpolation.valueOf(parts[n - 1].toUpperCase(Locale.US));
+                n--;
+            }
+            b.channel(parts[0], n > 1 ? parts[1] : null, interp);
+        }
+        JsonObject summary = b.build().run(new File(args[2]));
+        System.out.println(new GsonBuilder().setPrettyPrinting().create().toJson(summary.get("grid")));
+    }
+}
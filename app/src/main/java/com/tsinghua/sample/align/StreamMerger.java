@@ -0,0 +1,98 @@
+package com.tsinghua.sample.align;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * 多流 k 路归并：按时间顺序依次给出所有流的样本，每个流只缓存当前一条（O(k) 内存）。
+ *
+ * 用法：
+ * <pre>
+ *   int s;
+ *   while ((s = merger.next()) >= 0) {
+ *       SampleCursor c = merger.cursor(s);   // c 停在本条样本上，直到下一次 next()
+ *   }
+ * </pre>
+ * next() 返回时，其余各流的游标停在各自尚未给出的下一条样本上，且时间均不早于本条。
+ * 时间相同的样本按流序号先后给出；单个流内部乱序的样本按其在文件中的顺序给出（调用方自行判断）。
+ */
+public final class StreamMerger implements Closeable {
+
+    private final List<SampleCursor> cursors;
+    private final PriorityQueue<Head> heap;
+    private final boolean[] exhausted;
+    private Head last;
+
+    private static final class Head {
+        final int stream;
+        double timeMs;
+
+        Head(int stream) {
+            this.stream = stream;
+        }
+    }
+
+    public StreamMerger(List<? extends SampleCursor> cursors) throws IOException {
+        this.cursors = new ArrayList<>(cursors);
+        heap = new PriorityQueue<>(Math.max(1, cursors.size()), (a, b) -> {
+            int c = Double.compare(a.timeMs, b.timeMs);
+            return c != 0 ? c : Integer.compare(a.stream, b.stream);
+        });
+        exhausted = new boolean[this.cursors.size()];
+        for (int i = 0; i < this.cursors.size(); i++) {
+            Head h = new Head(i);
+            if (load(h)) heap.add(h);
+        }
+    }
+
+    private boolean load(Head h) throws IOException {
+        SampleCursor c = cursors.get(h.stream);
+        if (!c.advance()) {
+            exhausted[h.stream] = true;
+            return false;
+        }
+        h.timeMs = c.timeMs();
+        return true;
+    }
+
+    /** 给出下一条样本所属的流序号，全部读完时返回 -1 */
+    public int next() throws IOException {
+        if (last != null) {
+            if (load(last)) heap.add(last);
+            last = null;
+        }
+        last = heap.poll();
+        return last != null ? last.stream : -1;
+    }
+
+    public SampleCursor cursor(int stream) {
+        return cursors.get(stream);
+    }
+
+    public int getStreamCount() {
+        return cursors.size();
+    }
+
+    /** 流 stream 的游标是否停在一条尚未给出（或刚给出）的样本上；该流读完时返回 false */
+    public boolean hasSample(int stream) {
+        return !exhausted[stream];
+    }
+
+    @Override
+    public void close() throws IOException {
+        IOException first = null;
+        for (SampleCursor c : cursors) {
+            try {
+                c.close();
+            } catch (IOException e) {
+                if (first == null) first = e;
+            }
+        }
+        heap.clear();
+        last = null;
+        if (first != null) throw first;
+    }
+}
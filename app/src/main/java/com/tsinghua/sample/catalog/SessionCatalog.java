@@ -0,0 +1,295 @@
+package com.tsinghua.sample.catalog;
+
+import android.content.Context;
+import android.os.Environment;
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+import com.tsinghua.sample.core.SessionManager;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * 会话目录索引：按实验、受试者、时间范围、模块、时长、质量评分检索会话，不再遍历文件系统。
+ *
+ * - {@link SessionManager} 在会话开始/结束时更新索引；
+ * - 采集信息、质量评估结果产生时补写对应字段；
+ * - {@link #rescan(boolean)} 扫描数据根目录，收录外部拷入的会话并清理已删除的会话。
+ *
+ * 所有数据库访问都在单独的后台线程执行，方法返回 CompletableFuture，调用线程不阻塞。
+ */
+public final class SessionCatalog {
+    private static final String TAG = "SessionCatalog";
+
+    /** 旧版本数据目录：Movies/Sample/{experimentId}/ */
+    private static final String LEGACY_ROOT_DIR = "Sample";
+    /** 批量写入的记录数 */
+    private static final int BATCH_SIZE = 200;
+    /** 单次按路径删除的记录数（SQLite 绑定参数上限 999） */
+    private static final int DELETE_CHUNK = 500;
+
+    private static volatile SessionCatalog instance;
+    private static final AtomicBoolean launchScanStarted = new AtomicBoolean(false);
+
+    private final SessionDao dao;
+    private final ExecutorService executor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "SessionCatalog");
+        t.setPriority(Thread.MIN_PRIORITY);
+        return t;
+    });
+
+    private SessionCatalog(Context context) {
+        dao = SessionCatalogDatabase.getInstance(context).sessionDao();
+    }
+
+    public static SessionCatalog getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SessionCatalog.class) {
+                if (instance == null) {
+                    instance = new SessionCatalog(context.getApplicationContext());
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 检索条件，未设置的条件不生效 */
+    public static final class Query {
+        String experimentId;
+        String patientPattern;
+        long fromMs = 0;
+        long toMs = Long.MAX_VALUE;
+        int moduleMask = 0;
+        long minDurationMs = 0;
+        Float minQuality;
+        int limit = 500;
+
+        public Query experiment(String id) {
+            experimentId = id;
+            return this;
+        }
+
+        /** 受试者姓名包含 text */
+        public Query patient(String text) {
+            patientPattern = text == null ? null : "%" + text + "%";
+            return this;
+        }
+
+        /** 开始时间在 [fromMs, toMs) 内 */
+        public Query between(long fromMs, long toMs) {
+            this.fromMs = fromMs;
+            this.toMs = toMs;
+            return this;
+        }
+
+        /** 同时包含这些模块（SessionRecord.MODULE_* 按位或） */
+        public Query withModules(int mask) {
+            moduleMask = mask;
+            return this;
+        }
+
+        public Query minDuration(long ms) {
+            minDurationMs = ms;
+            return this;
+        }
+
+        public Query minQuality(float score) {
+            minQuality = score;
+            return this;
+        }
+
+        public Query limit(int n) {
+            limit = n;
+            return this;
+        }
+    }
+
+    // ============ 会话生命周期 ============
+
+    /** 会话开始：先登记目录与开始时间，结束时再补全 */
+    public void onSessionStarted(File sessionDir, String experimentId) {
+        if (sessionDir == null) return;
+        executor.execute(() -> {
+            SessionRecord r = new SessionRecord();
+            r.path = sessionDir.getAbsolutePath();
+            r.sessionName = sessionDir.getName();
+            r.experimentId = experimentId;
+            r.startWallMs = SessionScanner.parseStartWallMs(sessionDir);
+            r.indexedAtMs = System.currentTimeMillis();
+            dao.upsert(r);
+        });
+    }
+
+    /** 会话结束（manifest.json 已写出）：按清单补全模块、时长、数据量，返回的 future 在索引更新后完成 */
+    public CompletableFuture<Void> onSessionEnded(File sessionDir) {
+        if (sessionDir == null) return CompletableFuture.completedFuture(null);
+        return CompletableFuture.runAsync(() -> upsertPreservingAnnotations(SessionScanner.scan(sessionDir)), executor);
+    }
+
+    /** 采集信息保存后更新受试者字段 */
+    public void updatePatient(File sessionDir, String name, String info) {
+        if (sessionDir == null) return;
+        executor.execute(() -> {
+            if (dao.updatePatient(sessionDir.getAbsolutePath(), name, info) == 0) {
+                upsertPreservingAnnotations(SessionScanner.scan(sessionDir));
+            }
+        });
+    }
+
+    /** 记录视频质量评分，同时写入 info/quality.json 以便重建索引时恢复 */
+    public void updateQuality(File sessionDir, float score, String level) {
+        if (sessionDir == null) return;
+        executor.execute(() -> {
+            writeQualityFile(sessionDir, score, level);
+            if (dao.updateQuality(sessionDir.getAbsolutePath(), score, level) == 0) {
+                upsertPreservingAnnotations(SessionScanner.scan(sessionDir));
+            }
+        });
+    }
+
+    // ============ 查询 ============
+
+    public CompletableFuture<List<SessionRecord>> search(Query q) {
+        return CompletableFuture.supplyAsync(() -> dao.search(q.experimentId, q.fromMs, q.toMs, q.moduleMask,
+                q.minDurationMs, q.minQuality, q.patientPattern, q.limit), executor);
+    }
+
+    public CompletableFuture<List<SessionRecord>> list(int limit, int offset) {
+        return CompletableFuture.supplyAsync(() -> dao.list(limit, offset), executor);
+    }
+
+    public CompletableFuture<List<String>> listExperiments() {
+        return CompletableFuture.supplyAsync(dao::listExperiments, executor);
+    }
+
+    public CompletableFuture<SessionRecord> get(File sessionDir) {
+        return CompletableFuture.supplyAsync(() -> dao.get(sessionDir.getAbsolutePath()), executor);
+    }
+
+    // ============ 扫描重建 ============
+
+    /** 每个进程启动后做一次增量扫描 */
+    public void rescanOnLaunch() {
+        if (!launchScanStarted.compareAndSet(false, true)) return;
+        rescan(false).thenAccept(n -> {
+            if (n > 0) Log.i(TAG, "Launch scan indexed " + n + " session(s)");
+        });
+    }
+
+    /**
+     * 扫描数据根目录（FacialCollection 与旧版 Sample），返回新收录/刷新的会话数。
+     * @param rebuild true 时清空索引后全部重建；false 时只收录未索引或未正常结束的会话，并删除已不存在的记录
+     */
+    public CompletableFuture<Integer> rescan(boolean rebuild) {
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.currentTimeMillis();
+            if (rebuild) dao.clear();
+            Set<String> known = new HashSet<>(dao.listPaths());
+            Set<String> complete = new HashSet<>(dao.listCompletePaths());
+            Set<String> seen = new HashSet<>();
+            List<SessionRecord> batch = new ArrayList<>(BATCH_SIZE);
+            int indexed = 0;
+            // 任一目录无法列出（存储未挂载、权限被收回）时不清理记录，避免把仍存在的会话当作已删除
+            boolean listedAll = true;
+            File active = SessionManager.getInstance().getSessionDir();
+            for (File root : scanRoots()) {
+                File[] experiments = root.listFiles(File::isDirectory);
+                if (experiments == null) {
+                    listedAll = false;
+                    continue;
+                }
+                for (File exp : experiments) {
+                    File[] sessions = exp.listFiles(SessionScanner::isSessionDir);
+                    if (sessions == null) {
+                        listedAll = false;
+                        continue;
+                    }
+                    for (File dir : sessions) {
+                        String path = dir.getAbsolutePath();
+                        seen.add(path);
+                        // 已正常结束的会话不再重复统计；未结束的（异常退出或外部拷入）重新扫描，正在录制的除外
+                        if (known.contains(path)
+                                && (complete.contains(path) || (active != null && active.getAbsolutePath().equals(path)))) {
+                            continue;
+                        }
+                        batch.add(preserveAnnotations(SessionScanner.scan(dir)));
+                        indexed++;
+                        if (batch.size() >= BATCH_SIZE) {
+                            dao.upsertAll(batch);
+                            batch.clear();
+                        }
+                    }
+                }
+            }
+            if (!batch.isEmpty()) dao.upsertAll(batch);
+
+            known.removeAll(seen);
+            if (!listedAll) {
+                Log.w(TAG, "Scan root not listable, skip pruning " + known.size() + " session(s)");
+            } else if (!known.isEmpty()) {
+                // 分批删除，单条语句的绑定参数不超过 SQLite 上限（999）
+                List<String> missing = new ArrayList<>(known);
+                for (int i = 0; i < missing.size(); i += DELETE_CHUNK) {
+                    dao.deleteAll(missing.subList(i, Math.min(i + DELETE_CHUNK, missing.size())));
+                }
+                Log.i(TAG, "Removed " + missing.size() + " missing session(s) from catalog");
+            }
+            Log.d(TAG, "Rescan done: indexed=" + indexed + ", total=" + dao.count()
+                    + ", " + (System.currentTimeMillis() - start) + "ms");
+            return indexed;
+        }, executor);
+    }
+
+    private static List<File> scanRoots() {
+        List<File> roots = new ArrayList<>();
+        roots.add(SessionManager.getRootDir());
+        File legacy = new File(Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES),
+                LEGACY_ROOT_DIR);
+        if (legacy.isDirectory()) roots.add(legacy);
+        return roots;
+    }
+
+    /** 重新扫描时保留只存在于索引中的字段（无对应文件时） */
+    private SessionRecord preserveAnnotations(SessionRecord scanned) {
+        SessionRecord old = dao.get(scanned.path);
+        if (old != null) {
+            if (scanned.patientName == null) {
+                scanned.patientName = old.patientName;
+                scanned.patientInfo = old.patientInfo;
+            }
+            if (scanned.qualityScore == null) {
+                scanned.qualityScore = old.qualityScore;
+                scanned.qualityLevel = old.qualityLevel;
+            }
+        }
+        return scanned;
+    }
+
+    private void upsertPreservingAnnotations(SessionRecord scanned) {
+        dao.upsert(preserveAnnotations(scanned));
+    }
+
+    private static void writeQualityFile(File sessionDir, float score, String level) {
+        File infoDir = new File(sessionDir, "info");
+        if (!infoDir.exists() && !infoDir.mkdirs()) return;
+        JsonObject q = new JsonObject();
+        q.addProperty("overall_score", score);
+        q.addProperty("quality_level", level);
+        try (FileOutputStream out = new FileOutputStream(new File(infoDir, SessionScanner.QUALITY_FILE), false)) {
+            out.write(q.toString().getBytes(StandardCharsets.UTF_8));
+        } catch (IOException e) {
+            Log.e(TAG, "write quality error", e);
+        }
+    }
+}
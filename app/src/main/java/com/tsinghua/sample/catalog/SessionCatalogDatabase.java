@@ -0,0 +1,33 @@
+package com.tsinghua.sample.catalog;
+
+import android.content.Context;
+
+import androidx.room.Database;
+import androidx.room.Room;
+import androidx.room.RoomDatabase;
+
+/**
+ * 会话目录索引库。索引可由数据目录随时重建，结构变更时直接重建而不做迁移。
+ */
+@Database(entities = {SessionRecord.class}, version = 1, exportSchema = false)
+public abstract class SessionCatalogDatabase extends RoomDatabase {
+    private static final String DB_NAME = "session_catalog.db";
+
+    private static volatile SessionCatalogDatabase instance;
+
+    public abstract SessionDao sessionDao();
+
+    public static SessionCatalogDatabase getInstance(Context context) {
+        if (instance == null) {
+            synchronized (SessionCatalogDatabase.class) {
+                if (instance == null) {
+                    instance = Room.databaseBuilder(context.getApplicationContext(),
+                                    SessionCatalogDatabase.class, DB_NAME)
+                            .fallbackToDestructiveMigration()
+                            .build();
+                }
+            }
+        }
+        return instance;
+    }
+}
@@ -0,0 +1,62 @@
+package com.tsinghua.sample.catalog;
+
+import androidx.room.Dao;
+import androidx.room.Insert;
+import androidx.room.OnConflictStrategy;
+import androidx.room.Query;
+
+import java.util.List;
+
+@Dao
+public interface SessionDao {
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsert(SessionRecord record);
+
+    @Insert(onConflict = OnConflictStrategy.REPLACE)
+    void upsertAll(List<SessionRecord> records);
+
+    @Query("SELECT * FROM sessions WHERE path = :path")
+    SessionRecord get(String path);
+
+    @Query("SELECT * FROM sessions ORDER BY start_wall_ms DESC LIMIT :limit OFFSET :offset")
+    List<SessionRecord> list(int limit, int offset);
+
+    /**
+     * 组合筛选：为 null 的条件不生效；moduleMask 要求全部包含；patientPattern 为 LIKE 模式
+     */
+    @Query("SELECT * FROM sessions"
+            + " WHERE (:experimentId IS NULL OR experiment_id = :experimentId)"
+            + " AND start_wall_ms >= :fromMs AND start_wall_ms < :toMs"
+            + " AND (modules & :moduleMask) = :moduleMask"
+            + " AND duration_ms >= :minDurationMs"
+            + " AND (:minQuality IS NULL OR quality_score >= :minQuality)"
+            + " AND (:patientPattern IS NULL OR patient_name LIKE :patientPattern)"
+            + " ORDER BY start_wall_ms DESC LIMIT :limit")
+    List<SessionRecord> search(String experimentId, long fromMs, long toMs, int moduleMask,
+                               long minDurationMs, Float minQuality, String patientPattern, int limit);
+
+    @Query("SELECT DISTINCT experiment_id FROM sessions ORDER BY experiment_id")
+    List<String> listExperiments();
+
+    @Query("SELECT path FROM sessions")
+    List<String> listPaths();
+
+    @Query("SELECT path FROM sessions WHERE complete = 1")
+    List<String> listCompletePaths();
+
+    @Query("SELECT COUNT(*) FROM sessions")
+    int count();
+
+    @Query("UPDATE sessions SET patient_name = :name, patient_info = :info WHERE path = :path")
+    int updatePatient(String path, String name, String info);
+
+    @Query("UPDATE sessions SET quality_score = :score, quality_level = :level WHERE path = :path")
+    int updateQuality(String path, float score, String level);
+
+    @Query("DELETE FROM sessions WHERE path IN (:paths)")
+    void deleteAll(List<String> paths);
+
+    @Query("DELETE FROM sessions")
+    void clear();
+}
@@ -0,0 +1,111 @@
+package com.tsinghua.sample.catalog;
+
+import androidx.annotation.NonNull;
+import androidx.room.ColumnInfo;
+import androidx.room.Entity;
+import androidx.room.Index;
+import androidx.room.PrimaryKey;
+
+import com.tsinghua.sample.core.Constants;
+
+/**
+ * 会话目录索引中的一条记录（一个 Session_{wallMs} 目录）。
+ */
+@Entity(tableName = "sessions",
+        indices = {
+                @Index(value = {"experiment_id", "start_wall_ms"}),
+                @Index(value = {"start_wall_ms"}),
+                @Index(value = {"patient_name"}),
+                @Index(value = {"duration_ms"}),
+                @Index(value = {"quality_score"})
+        })
+public class SessionRecord {
+
+    // 模块位掩码（对应会话子目录）
+    public static final int MODULE_FRONT = 1;
+    public static final int MODULE_BACK = 1 << 1;
+    public static final int MODULE_IMU = 1 << 2;
+    public static final int MODULE_AUDIO = 1 << 3;
+    public static final int MODULE_RING = 1 << 4;
+    public static final int MODULE_ECG = 1 << 5;
+    public static final int MODULE_SPO2 = 1 << 6;
+    public static final int MODULE_INFERENCE = 1 << 7;
+    public static final int MODULE_MARKERS = 1 << 8;
+
+    private static final String[] MODULE_DIRS = {
+            Constants.DIR_FRONT, Constants.DIR_BACK, Constants.DIR_IMU, Constants.DIR_AUDIO, Constants.DIR_RING,
+            Constants.DIR_ECG, Constants.DIR_SPO2, Constants.DIR_INFERENCE, Constants.DIR_MARKERS
+    };
+
+    /** 会话目录绝对路径 */
+    @PrimaryKey
+    @NonNull
+    @ColumnInfo(name = "path")
+    public String path = "";
+
+    @ColumnInfo(name = "session_name")
+    public String sessionName;
+
+    @ColumnInfo(name = "experiment_id")
+    public String experimentId;
+
+    @ColumnInfo(name = "start_wall_ms")
+    public long startWallMs;
+
+    /** 最后一个样本的 wall_ms；未知时为 0 */
+    @ColumnInfo(name = "end_wall_ms")
+    public long endWallMs;
+
+    @ColumnInfo(name = "duration_ms")
+    public long durationMs;
+
+    /** 有数据的模块（MODULE_* 位掩码） */
+    @ColumnInfo(name = "modules")
+    public int modules;
+
+    @ColumnInfo(name = "stream_count")
+    public int streamCount;
+
+    @ColumnInfo(name = "total_bytes")
+    public long totalBytes;
+
+    @ColumnInfo(name = "patient_name")
+    public String patientName;
+
+    /** 采集信息原文（info/subject_info_*.txt） */
+    @ColumnInfo(name = "patient_info")
+    public String patientInfo;
+
+    /** 视频质量综合评分（0-100），未评估为 null */
+    @ColumnInfo(name = "quality_score")
+    public Float qualityScore;
+
+    @ColumnInfo(name = "quality_level")
+    public String qualityLevel;
+
+    /** 录制已正常结束（manifest complete） */
+    @ColumnInfo(name = "complete")
+    public boolean complete;
+
+    @ColumnInfo(name = "indexed_at_ms")
+    public long indexedAtMs;
+
+    /** 子目录名对应的模块位，未知目录返回 0 */
+    public static int moduleForDir(String dirName) {
+        for (int i = 0; i < MODULE_DIRS.length; i++) {
+            if (MODULE_DIRS[i].equals(dirName)) return 1 << i;
+        }
+        return 0;
+    }
+
+    /** 位掩码转为子目录名列表，如 "front,imu,audio" */
+    public static String describeModules(int mask) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < MODULE_DIRS.length; i++) {
+            if ((mask & (1 << i)) == 0) continue;
+            if (sb.length() > 0) sb.append(',');
+            sb.append(MODULE_DIRS[i]);
+        }
+        return sb.toString();
+    }
+}
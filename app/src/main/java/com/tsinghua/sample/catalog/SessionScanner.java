@@ -0,0 +1,173 @@
+package com.tsinghua.sample.catalog;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.tsinghua.sample.core.Constants;
+import com.tsinghua.sample.core.SessionManifest;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * 从会话目录生成 {@link SessionRecord}：优先读取 manifest.json（只读一个小文件），
+ * 没有清单的旧会话或外部拷入的目录再退回到逐个子目录统计。
+ */
+final class SessionScanner {
+    private static final String TAG = "SessionScanner";
+
+    static final String QUALITY_FILE = "quality.json";
+    private static final String INFO_DIR = "info";
+    private static final String SUBJECT_INFO_PREFIX = "subject_info_";
+    private static final String NAME_LABEL = "姓名:";
+    /** patient_info 字段最多保留的字符数 */
+    private static final int MAX_INFO_CHARS = 2048;
+
+    private SessionScanner() {}
+
+    static boolean isSessionDir(File dir) {
+        return dir.isDirectory() && dir.getName().startsWith(Constants.SESSION_DIRECTORY_PREFIX);
+    }
+
+    /** 会话目录名中的开始时间（Session_{wallMs}），无法解析时用目录修改时间 */
+    static long parseStartWallMs(File dir) {
+        String name = dir.getName();
+        try {
+            return Long.parseLong(name.substring(Constants.SESSION_DIRECTORY_PREFIX.length()));
+        } catch (NumberFormatException | IndexOutOfBoundsException e) {
+            return dir.lastModified();
+        }
+    }
+
+    static SessionRecord scan(File dir) {
+        SessionRecord r = new SessionRecord();
+        r.path = dir.getAbsolutePath();
+        r.sessionName = dir.getName();
+        File parent = dir.getParentFile();
+        r.experimentId = parent != null ? parent.getName() : "default";
+        r.startWallMs = parseStartWallMs(dir);
+        r.indexedAtMs = System.currentTimeMillis();
+
+        File manifest = new File(dir, SessionManifest.FILE_NAME);
+        if (!manifest.isFile() || !readManifest(manifest, r)) {
+            scanDirectories(dir, r);
+        }
+        if (r.endWallMs > r.startWallMs) {
+            r.durationMs = r.endWallMs - r.startWallMs;
+        }
+        readSubjectInfo(new File(dir, INFO_DIR), r);
+        readQuality(new File(new File(dir, INFO_DIR), QUALITY_FILE), r);
+        return r;
+    }
+
+    private static boolean readManifest(File file, SessionRecord r) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            JsonObject root = JsonParser.parseReader(reader).getAsJsonObject();
+            if (root.has("experiment_id")) r.experimentId = root.get("experiment_id").getAsString();
+            r.complete = root.has("complete") && root.get("complete").getAsBoolean();
+            JsonArray streams = root.getAsJsonArray("streams");
+            long last = 0;
+            if (streams != null) {
+                for (JsonElement e : streams) {
+                    JsonObject s = e.getAsJsonObject();
+                    r.streamCount++;
+                    if (s.has("bytes")) r.totalBytes += s.get("bytes").getAsLong();
+                    String name = s.has("name") ? s.get("name").getAsString() : "";
+                    int slash = name.indexOf('/');
+                    long samples = s.has("samples") ? s.get("samples").getAsLong() : 0;
+                    if (slash > 0 && samples > 0) {
+                        r.modules |= SessionRecord.moduleForDir(name.substring(0, slash));
+                    }
+                    long l = s.has("last_wall_ms") ? s.get("last_wall_ms").getAsLong() : -1;
+                    if (l > last) last = l;
+                }
+            }
+            r.endWallMs = last;
+            return true;
+        } catch (IOException | RuntimeException e) {
+            // 清单损坏（如写入中断）时退回目录统计
+            Log.w(TAG, "Unreadable manifest: " + file.getAbsolutePath(), e);
+            return false;
+        }
+    }
+
+    /** 无清单：有文件的子目录计为模块，结束时间取最新文件修改时间 */
+    private static void scanDirectories(File dir, SessionRecord r) {
+        File[] subs = dir.listFiles();
+        if (subs == null) return;
+        long last = 0;
+        for (File sub : subs) {
+            if (!sub.isDirectory()) continue;
+            File[] files = sub.listFiles();
+            if (files == null || files.length == 0) continue;
+            boolean hasData = false;
+            for (File f : files) {
+                if (!f.isFile()) continue;
+                hasData = true;
+                r.totalBytes += f.length();
+                last = Math.max(last, f.lastModified());
+                r.streamCount++;
+            }
+            if (hasData) r.modules |= SessionRecord.moduleForDir(sub.getName());
+        }
+        r.endWallMs = last;
+        // 无清单时无法判断是否正常结束
+        r.complete = false;
+    }
+
+    /** 读取最新的 info/subject_info_*.txt */
+    private static void readSubjectInfo(File infoDir, SessionRecord r) {
+        File[] files = infoDir.listFiles((d, name) -> name.startsWith(SUBJECT_INFO_PREFIX));
+        if (files == null || files.length == 0) return;
+        File latest = files[0];
+        for (File f : files) {
+            if (f.getName().compareTo(latest.getName()) > 0) latest = f;
+        }
+        String text = readText(latest, MAX_INFO_CHARS);
+        if (text == null) return;
+        r.patientInfo = text;
+        r.patientName = parsePatientName(text);
+    }
+
+    static String parsePatientName(String text) {
+        if (text == null) return null;
+        for (String line : text.split("\n")) {
+            String t = line.trim();
+            if (t.startsWith(NAME_LABEL)) return t.substring(NAME_LABEL.length()).trim();
+        }
+        return null;
+    }
+
+    private static void readQuality(File file, SessionRecord r) {
+        if (!file.isFile()) return;
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            JsonObject q = JsonParser.parseReader(reader).getAsJsonObject();
+            if (q.has("overall_score")) r.qualityScore = q.get("overall_score").getAsFloat();
+            if (q.has("quality_level")) r.qualityLevel = q.get("quality_level").getAsString();
+        } catch (IOException | RuntimeException e) {
+            Log.w(TAG, "Unreadable quality file: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    private static String readText(File file, int maxChars) {
+        try (Reader reader = new InputStreamReader(new FileInputStream(file), StandardCharsets.UTF_8)) {
+            char[] buf = new char[maxChars];
+            int total = 0;
+            int n;
+            while (total < maxChars && (n = reader.read(buf, total, maxChars - total)) > 0) {
+                total += n;
+            }
+            return new String(buf, 0, total);
+        } catch (IOException e) {
+            Log.w(TAG, "read error: " + file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+
+/**
+ * 将 {@link BinaryRecordLog} 写出的 .bin 文件流式导出为现有CSV布局。
+ *
+ * 逐块读取，内存占用与文件大小无关；表头直接使用 schema 中保存的原CSV表头，
+ * 浮点列按 schema 精度经 {@link CsvEncoder} 格式化（与 %.Nf 一致），保证下游工具无需改动。
+ */
+public final class BinaryCsvExporter {
+    private static final String TAG = "BinaryCsvExporter";
+
+    /** 二进制记录文件扩展名 */
+    public static final String EXTENSION = ".bin";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private BinaryCsvExporter() {}
+
+    /** 由CSV文件名推导对应的二进制文件名（xxx.csv -> xxx.bin） */
+    public static File binaryFileFor(File csvFile) {
+        String name = csvFile.getName();
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        return new File(csvFile.getParentFile(), base + EXTENSION);
+    }
+
+    /** 由二进制文件名推导导出的CSV文件名（xxx.bin -> xxx.csv） */
+    public static File csvFileFor(File binFile) {
+        String name = binFile.getName();
+        String base = name.endsWith(EXTENSION) ? name.substring(0, name.length() - EXTENSION.length()) : name;
+        return new File(binFile.getParentFile(), base + ".csv");
+    }
+
+    /**
+     * 导出单个文件，返回导出的记录数。
+     * 末尾不完整的记录（如进程被杀时的半条）会被忽略。
+     */
+    public static long export(File binFile, File csvFile) throws IOException {
+        try (FileInputStream in = new FileInputStream(binFile);
+             FileChannel channel = in.getChannel();
+             OutputStream writer = new BufferedOutputStream(
+                     new FileOutputStream(csvFile, false), READ_BUFFER_SIZE)) {
+
+            ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            readFully(channel, buf);
+            buf.flip();
+
+            RecordSchema schema;
+            try {
+                schema = RecordSchema.readHeader(buf);
+            } catch (BufferUnderflowException e) {
+                throw new IOException("Truncated header: " + binFile.getName());
+            }
+            writer.write(schema.getCsvHeader().getBytes(StandardCharsets.UTF_8));
+            writer.write('\n');
+
+            int recordSize = schema.getRecordSize();
+            CsvEncoder line = new CsvEncoder(128);
+            long count = 0;
+            while (true) {
+                while (buf.remaining() >= recordSize) {
+                    line.reset();
+                    appendRecord(schema, buf, line);
+                    line.append('\n');
+                    writer.write(line.buffer(), 0, line.length());
+                    count++;
+                }
+                buf.compact();
+                int read = readFully(channel, buf);
+                buf.flip();
+                if (read <= 0) break;
+            }
+            if (buf.hasRemaining()) {
+                Log.w(TAG, binFile.getName() + ": ignored " + buf.remaining() + " trailing bytes");
+            }
+            return count;
+        }
+    }
+
+    /**
+     * 导出目录（递归）下所有 .bin 文件到同名 .csv，返回成功导出的文件数。
+     * 对应 CSV 已存在且不旧于 .bin 时跳过。
+     */
+    public static int exportDirectory(File dir) {
+        return exportDirectory(dir, Collections.emptySet());
+    }
+
+    /** 同 {@link #exportDirectory(File)}，跳过名称在 skipDirs 中的子目录 */
+    public static int exportDirectory(File dir, Collection<String> skipDirs) {
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) return 0;
+        int exported = 0;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                if (!skipDirs.contains(f.getName())) exported += exportDirectory(f, skipDirs);
+            } else if (f.getName().endsWith(EXTENSION)) {
+                File csv = csvFileFor(f);
+                if (csv.exists() && csv.lastModified() >= f.lastModified()) continue;
+                try {
+                    long records = export(f, csv);
+                    exported++;
+                    Log.i(TAG, "Exported " + f.getName() + " -> " + csv.getName() + " (" + records + " records)");
+                } catch (Exception e) {
+                    Log.e(TAG, "Export failed: " + f.getAbsolutePath(), e);
+                }
+            }
+        }
+        return exported;
+    }
+
+    /** 在后台线程导出整个会话目录 */
+    public static void exportSessionAsync(File sessionDir) {
+        exportSessionAsync(sessionDir, Collections.emptySet());
+    }
+
+    /** 在后台线程导出会话目录，跳过 skipDirs 中的子目录（仍在写入的模块） */
+    public static void exportSessionAsync(File sessionDir, Collection<String> skipDirs) {
+        if (sessionDir == null) return;
+        Thread t = new Thread(() -> {
+            int n = exportDirectory(sessionDir, skipDirs);
+            Log.i(TAG, "Session export finished: " + n + " file(s) in " + sessionDir.getName());
+        }, "BinaryCsvExport");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    private static void appendRecord(RecordSchema schema, ByteBuffer buf, CsvEncoder line) {
+        int count = schema.getColumnCount();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) line.comma();
+            RecordSchema.Column c = schema.getColumn(i);
+            switch (c.type) {
+                case INT16:
+                    line.appendInt(buf.getShort());
+                    break;
+                case INT32:
+                    line.appendInt(buf.getInt());
+                    break;
+                case UINT32:
+                    line.appendLong(buf.getInt() & 0xFFFFFFFFL);
+                    break;
+                case INT64:
+                    line.appendLong(buf.getLong());
+                    break;
+                case FLOAT32: {
+                    float v = buf.getFloat();
+                    if (c.precision >= 0) {
+                        line.appendFixed(v, c.precision);
+                    } else {
+                        line.appendAscii(Float.toString(v));
+                    }
+                    break;
+                }
+                case FLOAT64: {
+                    double v = buf.getDouble();
+                    if (c.precision >= 0) {
+                        line.appendFixed(v, c.precision);
+                    } else {
+                        line.appendAscii(Double.toString(v));
+                    }
+                    break;
+                }
+            }
+        }
+    }
+
+    private static int readFully(FileChannel channel, ByteBuffer buf) throws IOException {
+        int total = 0;
+        while (buf.hasRemaining()) {
+            int n = channel.read(buf);
+            if (n < 0) return total == 0 ? -1 : total;
+            total += n;
+        }
+        return total;
+    }
+}
@@ -0,0 +1,497 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 定宽二进制记录写入器，DataLogger 的高频替代后端。
+ *
+ * 采集线程按 schema 列顺序直接写入基本类型，不做文本格式化：
+ * <pre>
+ *     log.begin().putLong(sensorNs).putLong(wallMs).putDouble(rel)
+ *        .putFloat(x).putFloat(y).putFloat(z).end();
+ * </pre>
+ * 文件结构见 {@link RecordSchema}，可用 {@link BinaryCsvExporter} 还原为原CSV。
+ *
+ * 线程模型：begin/put/end 由单一采集线程调用；flush/close 可在任意线程调用。
+ * 文件写入由共享的 {@link IoScheduler} 线程完成：采集线程只在缓冲块写满时交换一次缓冲，
+ * 所有缓冲块都在用时，新记录丢弃并计数，不阻塞采集线程。
+ *
+ * 开启分段（{@link SegmentPolicy}）时，采集线程按记录的 wall_ms 在跨时间窗处提前交出缓冲块，
+ * 并在新块上标记分段；调度线程写出带标记的块前切换到新的分段文件（每段都带文件头）。
+ */
+public class BinaryRecordLog {
+    private static final String TAG = "BinaryRecordLog";
+
+    /** 单个缓冲块大小 */
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /** 缓冲块数量（1块填充中 + 其余等待写入） */
+    private static final int BUFFER_COUNT = 4;
+    /** close 等待调度线程完成的最长时间 */
+    private static final long IO_TIMEOUT_MS = 5000;
+
+    private final File file;
+    private final RecordSchema schema;
+    private volatile FileOutputStream out;
+    private volatile FileChannel channel;
+
+    // 采集线程独占的单条记录暂存区
+    private final ByteBuffer record;
+    private int column = 0;
+
+    // 填充中的缓冲块与空闲/待写队列（由 this 保护）
+    private Block pending;
+    private final ArrayDeque<Block> free = new ArrayDeque<>(BUFFER_COUNT);
+    private final ArrayDeque<Block> full = new ArrayDeque<>(BUFFER_COUNT);
+    private long recordCount = 0;
+    private long droppedCount = 0;
+    private volatile boolean closed = false;
+
+    private final IoScheduler scheduler = IoScheduler.getInstance();
+    private final IoScheduler.Stream stream = new RecordStream();
+    private final StreamStats stats;
+    private final StreamDescriptor descriptor;
+    /** wall_ms 列在记录中的偏移，-1 表示无 */
+    private final int wallOffset;
+
+    // 分段：采集侧（由 this 保护）决定分段，调度线程侧按块上的标记切换文件
+    private final boolean rolling;
+    private final int headerLength;
+    private int producerWindow = -1;
+    private int producerPart;
+    private long producerBytes;
+    private boolean rollPending;
+    private File segmentFile;
+    private int segmentWindow = -1;
+    private int segmentPart;
+
+    /** 缓冲块及其中第一条记录的入队时刻 */
+    private static final class Block {
+        final ByteBuffer buf;
+        long firstEnqueueNanos;
+        /** 写出前需切换到的分段，-1 表示沿用当前文件 */
+        int segmentWindow = -1;
+        int segmentPart;
+
+        Block(int capacity) {
+            buf = ByteBuffer.allocateDirect(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        }
+    }
+
+    public BinaryRecordLog(File file, RecordSchema schema) throws IOException {
+        this.file = file;
+        this.schema = schema;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        this.record = ByteBuffer.allocate(schema.getRecordSize()).order(ByteOrder.LITTLE_ENDIAN);
+        int capacity = Math.max(BUFFER_SIZE - BUFFER_SIZE % schema.getRecordSize(), schema.getRecordSize());
+        for (int i = 0; i < BUFFER_COUNT; i++) {
+            free.add(new Block(capacity));
+        }
+        this.pending = free.poll();
+        this.stats = SessionHealth.getInstance().register(DataLogger.statsName(file), StreamStats.KIND_BINARY);
+        stats.setQueueDepthSupplier(this::queuedBlocks);
+        this.descriptor = SessionManifest.getInstance().register(file, StreamStats.KIND_BINARY, "binary",
+                describeSchema(schema));
+        int offset = -1;
+        for (RecordSchema.Column c : schema.getColumns()) {
+            if (c.name.equals("wall_ms") && c.type == RecordSchema.Type.INT64) offset = c.offset;
+        }
+        this.wallOffset = offset;
+        this.rolling = SegmentPolicy.isEnabled();
+        this.headerLength = schema.toHeaderBytes().length;
+
+        if (rolling) {
+            producerWindow = SegmentPolicy.windowOf(TimeSync.nowWallMillis());
+            producerBytes = headerLength;
+            openSegment(producerWindow, 0);
+        } else {
+            this.out = new FileOutputStream(file, false);
+            this.channel = out.getChannel();
+            writeHeader();
+        }
+        scheduler.register(stream);
+    }
+
+    private void writeHeader() throws IOException {
+        ByteBuffer header = ByteBuffer.wrap(schema.toHeaderBytes());
+        descriptor.onBytes(header);
+        while (header.hasRemaining()) {
+            channel.write(header);
+        }
+    }
+
+    /** 切换到新的分段文件（构造时或调度线程）：上一段 fsync 后关闭 */
+    private void openSegment(int window, int part) throws IOException {
+        File previous = segmentFile;
+        FileOutputStream previousOut = out;
+        if (previousOut != null) {
+            try {
+                previousOut.getChannel().force(false);
+                previousOut.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close segment error: " + previous, e);
+            }
+        }
+        File next = SegmentPolicy.segmentFile(file, window, part);
+        FileOutputStream nextOut = new FileOutputStream(next, false);
+        out = nextOut;
+        channel = nextOut.getChannel();
+        segmentFile = next;
+        if (previous != null) {
+            SegmentPolicy.notifyClosed(descriptor.getName(), previous, segmentWindow, segmentPart);
+        }
+        segmentWindow = window;
+        segmentPart = part;
+        descriptor.beginSegment(next, window, part);
+        writeHeader();
+    }
+
+    /**
+     * 采集侧分段判断（持有 this）：wall_ms 进入新时间窗或当前段超过大小上限时，
+     * 交出未写满的缓冲块，下一块从新分段开始。
+     */
+    private boolean checkRoll(int length) {
+        long wall = wallOffset >= 0 ? record.getLong(wallOffset) : TimeSync.nowWallMillis();
+        int window = SegmentPolicy.windowOf(wall);
+        if (window > producerWindow) {
+            producerWindow = window;
+            producerPart = 0;
+        } else if (SegmentPolicy.exceedsSize(producerBytes, headerLength, length)) {
+            producerPart++;
+        } else {
+            return false;
+        }
+        producerBytes = headerLength;
+        rollPending = true;
+        if (pending != null && pending.buf.position() > 0) {
+            full.add(pending);
+            pending = free.poll();
+            return true;
+        }
+        return false;
+    }
+
+    /** 开始一条新记录 */
+    public BinaryRecordLog begin() {
+        record.clear();
+        column = 0;
+        return this;
+    }
+
+    public BinaryRecordLog putShort(short v) {
+        next(RecordSchema.Type.INT16);
+        record.putShort(v);
+        return this;
+    }
+
+    public BinaryRecordLog putInt(int v) {
+        next(RecordSchema.Type.INT32);
+        record.putInt(v);
+        return this;
+    }
+
+    /** 无符号32位（取低32位存储） */
+    public BinaryRecordLog putUnsignedInt(long v) {
+        next(RecordSchema.Type.UINT32);
+        record.putInt((int) v);
+        return this;
+    }
+
+    public BinaryRecordLog putLong(long v) {
+        next(RecordSchema.Type.INT64);
+        record.putLong(v);
+        return this;
+    }
+
+    public BinaryRecordLog putFloat(float v) {
+        next(RecordSchema.Type.FLOAT32);
+        record.putFloat(v);
+        return this;
+    }
+
+    public BinaryRecordLog putDouble(double v) {
+        next(RecordSchema.Type.FLOAT64);
+        record.putDouble(v);
+        return this;
+    }
+
+    /** 提交当前记录 */
+    public void end() {
+        if (column != schema.getColumnCount()) {
+            throw new IllegalStateException("Incomplete record: " + column + "/" + schema.getColumnCount()
+                    + " columns written to " + file.getName());
+        }
+        record.flip();
+        boolean wake = false;
+        synchronized (this) {
+            if (closed) return;
+            if (rolling && checkRoll(record.remaining())) wake = true;
+            if (pending == null || pending.buf.remaining() < record.remaining()) {
+                if (pending != null) full.add(pending);
+                pending = free.poll();
+                wake = true;
+            }
+            if (pending == null) {
+                // 所有缓冲块都在等待写入：丢弃本条，不阻塞采集线程
+                droppedCount++;
+                stats.recordDrop(1);
+                if (droppedCount == 1 || droppedCount % 1000 == 0) {
+                    Log.w(TAG, "All buffers busy, dropped " + droppedCount + " record(s): " + file.getName());
+                }
+            } else {
+                if (pending.buf.position() == 0) {
+                    pending.firstEnqueueNanos = System.nanoTime();
+                    if (rollPending) {
+                        pending.segmentWindow = producerWindow;
+                        pending.segmentPart = producerPart;
+                        rollPending = false;
+                    }
+                }
+                producerBytes += record.remaining();
+                pending.buf.put(record);
+                recordCount++;
+            }
+        }
+        if (wake) scheduler.wakeup();
+    }
+
+    private void next(RecordSchema.Type type) {
+        if (column >= schema.getColumnCount()) {
+            throw new IllegalStateException("Too many columns for " + file.getName());
+        }
+        RecordSchema.Type expected = schema.getColumn(column).type;
+        if (expected != type) {
+            throw new IllegalStateException("Column " + schema.getColumn(column).name
+                    + " expects " + expected + ", got " + type);
+        }
+        column++;
+    }
+
+    /** flush 屏障：返回的 future 在此前提交的记录全部落盘后完成，调用线程不阻塞 */
+    public CompletableFuture<Void> flush() {
+        if (closed) return CompletableFuture.completedFuture(null);
+        return scheduler.flushAsync(stream);
+    }
+
+    /** 持久化级别（默认周期 fsync） */
+    public void setDurability(IoScheduler.Durability durability) {
+        scheduler.setDurability(stream, durability);
+    }
+
+    public void close() {
+        synchronized (this) {
+            if (closed) return;
+            closed = true;
+        }
+        if (!scheduler.close(stream, IO_TIMEOUT_MS)) {
+            Log.w(TAG, "close timed out: " + file.getName());
+        }
+        Log.d(TAG, "Closed " + file.getName() + ", records=" + getRecordCount()
+                + (getDroppedCount() > 0 ? ", dropped=" + getDroppedCount() : ""));
+    }
+
+    /** 清单中的 schema 描述：列名:类型 */
+    private static String describeSchema(RecordSchema schema) {
+        StringBuilder sb = new StringBuilder();
+        for (RecordSchema.Column c : schema.getColumns()) {
+            if (sb.length() > 0) sb.append(',');
+            sb.append(c.name).append(':').append(c.type.name().toLowerCase(Locale.US));
+        }
+        return sb.toString();
+    }
+
+    /** 等待写入的缓冲块数 */
+    private synchronized int queuedBlocks() {
+        return full.size();
+    }
+
+    public StreamStats getStats() {
+        return stats;
+    }
+
+    public StreamDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    /** 因缓冲块耗尽而丢弃的记录数 */
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    public RecordSchema getSchema() {
+        return schema;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** 调度线程侧：取出写满（或 flush 时未满）的缓冲块写入文件 */
+    private final class RecordStream implements IoScheduler.Stream {
+        private int lastItems;
+
+        @Override
+        public String getName() {
+            return file.getName();
+        }
+
+        @Override
+        public long drain(int maxItems) {
+            long bytes = 0;
+            int blocks = 0;
+            stats.observeQueueDepth(queuedBlocks());
+            while (blocks < maxItems) {
+                Block block;
+                synchronized (BinaryRecordLog.this) {
+                    block = full.poll();
+                }
+                if (block == null) break;
+                bytes += write(block);
+                blocks++;
+            }
+            lastItems = (int) (bytes / schema.getRecordSize());
+            if (lastItems > 0) stats.recordWrite(lastItems, bytes);
+            return bytes;
+        }
+
+        @Override
+        public int lastDrainedItems() {
+            return lastItems;
+        }
+
+        @Override
+        public void flush() {
+            // 未写满的缓冲块也写出，与 flush 周期对齐；先接到已写满的块之后，
+            // 按入队顺序一并写出，保证记录顺序与分段归属
+            int queued;
+            synchronized (BinaryRecordLog.this) {
+                if (pending != null && pending.buf.position() > 0) {
+                    full.add(pending);
+                    pending = free.poll();
+                }
+                queued = full.size();
+            }
+            if (queued == 0) return;
+            long start = System.nanoTime();
+            long bytes = 0;
+            // 只写此刻已排队的块，之后入队的都比它们新
+            for (int i = 0; i < queued; i++) {
+                Block block;
+                synchronized (BinaryRecordLog.this) {
+                    block = full.poll();
+                }
+                if (block == null) break;
+                bytes += write(block);
+            }
+            stats.recordWrite((int) (bytes / schema.getRecordSize()), bytes);
+            stats.recordFlush(System.nanoTime() - start);
+        }
+
+        @Override
+        public void sync() {
+            FileChannel ch = channel;
+            if (ch == null) return;
+            long start = System.nanoTime();
+            try {
+                ch.force(false);
+            } catch (IOException e) {
+                Log.w(TAG, "sync error: " + file.getName(), e);
+            }
+            stats.recordSync(System.nanoTime() - start);
+        }
+
+        @Override
+        public void finish() {
+            while (drain(Integer.MAX_VALUE) > 0) {
+                // 排空待写缓冲块
+            }
+            flush();
+            stats.markClosed();
+            try {
+                if (out != null) out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close error", e);
+            } finally {
+                out = null;
+                channel = null;
+            }
+            if (segmentFile != null) {
+                SegmentPolicy.notifyClosed(descriptor.getName(), segmentFile, segmentWindow, segmentPart);
+            }
+            descriptor.markClosed();
+        }
+
+        /** 清单样本数与 wall_ms 范围按实际写出的记录统计，与所在分段一致 */
+        private void describeSamples(ByteBuffer buf) {
+            int size = schema.getRecordSize();
+            int count = buf.remaining() / size;
+            if (count == 0) return;
+            if (wallOffset < 0) {
+                descriptor.onSamples(count, Long.MIN_VALUE);
+                return;
+            }
+            long min = Long.MAX_VALUE;
+            long max = Long.MIN_VALUE;
+            for (int i = 0, p = buf.position() + wallOffset; i < count; i++, p += size) {
+                long wall = buf.getLong(p);
+                if (wall < min) min = wall;
+                if (wall > max) max = wall;
+            }
+            descriptor.onSamples(count, min, max);
+        }
+
+        /** 写出并归还缓冲块，返回写出字节数；延迟按块内最早一条记录计 */
+        private long write(Block block) {
+            ByteBuffer buf = block.buf;
+            buf.flip();
+            int n = buf.remaining();
+            try {
+                if (block.segmentWindow >= 0) {
+                    openSegment(block.segmentWindow, block.segmentPart);
+                }
+            } catch (IOException e) {
+                Log.e(TAG, "open segment error: " + file.getName(), e);
+            } finally {
+                block.segmentWindow = -1;
+            }
+            describeSamples(buf);
+            descriptor.onBytes(buf);
+            try {
+                FileChannel ch = channel;
+                while (ch != null && buf.hasRemaining()) {
+                    ch.write(buf);
+                }
+                stats.recordLatencyNanos(System.nanoTime() - block.firstEnqueueNanos);
+            } catch (IOException e) {
+                Log.e(TAG, "write error: " + file.getName(), e);
+            } finally {
+                buf.clear();
+                synchronized (BinaryRecordLog.this) {
+                    if (pending == null) {
+                        pending = block;
+                    } else {
+                        free.add(block);
+                    }
+                }
+            }
+            return n;
+        }
+    }
+}
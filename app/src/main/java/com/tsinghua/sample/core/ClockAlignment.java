@@ -0,0 +1,275 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 外部设备时钟对齐：
+ * - 对支持往返校时的设备（指环 0x10/0x02）周期发送校时包，样本交给各自的 {@link ClockEstimator}；
+ * - 不支持往返的设备（ECG、血氧仪）仍按手机接收时间记录，在报告中标明。
+ *
+ * 每次往返写入 info/clock_sync.csv，会话结束时写出 info/clock_alignment.json（各设备的最终模型与对齐误差）。
+ * 采集时不换算：数据保留原始设备时间戳（指环 frame_ts）与手机接收时间 wall_ms，由会话结束时的最终模型（而非录制中途的估计）
+ * 离线换算：wall_ms = t + offset_ms + skew_ppm·1e-6·(t - reference_device_ms)，
+ * 见 {@link com.tsinghua.sample.align.SessionAligner}。
+ */
+public final class ClockAlignment {
+    private static final String TAG = "ClockAlignment";
+
+    /** 发送一次校时包；hostSendWallMs 需随包发出并由设备原样回传 */
+    public interface Prober {
+        boolean sendProbe(long hostSendWallMs);
+    }
+
+    private static final String SAMPLES_FILE = "clock_sync.csv";
+    private static final String REPORT_FILE = "clock_alignment.json";
+    /** 开始时连续校时的次数与间隔，尽快得到初始偏移 */
+    static final int BURST_PROBES = 8;
+    static final long BURST_INTERVAL_MS = 500;
+    /** 未收到回复即视为丢失的超时 */
+    static final long PROBE_TIMEOUT_MS = 2000;
+
+    private static volatile ClockAlignment instance;
+
+    private final Map<String, Device> devices = new LinkedHashMap<>();
+    private ScheduledExecutorService scheduler;
+    private File sessionDir;
+    private DataLogger samples;
+
+    private static final class Device {
+        final String name;
+        final ClockEstimator estimator = new ClockEstimator();
+        Prober prober;
+        ScheduledFuture<?> task;
+        long pendingSendMs = -1;
+        int probesSent;
+        long probesLost;
+
+        Device(String name) {
+            this.name = name;
+        }
+    }
+
+    private ClockAlignment() {}
+
+    public static ClockAlignment getInstance() {
+        if (instance == null) {
+            synchronized (ClockAlignment.class) {
+                if (instance == null) {
+                    instance = new ClockAlignment();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 会话开始（由 SessionManager 调用）：清空上一会话的模型 */
+    synchronized void begin(File dir) {
+        end(sessionDir);
+        sessionDir = dir;
+        try {
+            samples = new DataLogger(new File(new File(dir, "info"), SAMPLES_FILE),
+                    "wall_ms,device,t0_host_ms,t1_device_ms,t2_device_ms,t3_host_ms,rtt_ms,offset_ms,skew_ppm");
+            samples.setDurability(IoScheduler.Durability.BATCH_FSYNC);
+        } catch (IOException e) {
+            Log.e(TAG, "clock sample log error", e);
+        }
+    }
+
+    /** 会话结束（由 SessionManager 在报告线程调用）：停止校时，写出报告；dir 已不是当前会话时忽略 */
+    synchronized void end(File dir) {
+        if (sessionDir == null || !sessionDir.equals(dir)) return;
+        for (Device d : devices.values()) cancel(d);
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (samples != null) {
+            samples.close();
+            samples = null;
+        }
+        writeReport(new File(sessionDir, "info"));
+        devices.clear();
+        sessionDir = null;
+    }
+
+    /**
+     * 开始对设备周期校时（先连续 {@link #BURST_PROBES} 次，之后每 intervalMs 一次）。
+     * 会话未开始时忽略。
+     */
+    public synchronized void startProbing(String device, Prober prober, long intervalMs) {
+        if (sessionDir == null || intervalMs <= 0) return;
+        Device d = device(device);
+        cancel(d);
+        d.prober = prober;
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "ClockAlignment"));
+        }
+        d.task = scheduler.scheduleWithFixedDelay(() -> probe(d, intervalMs),
+                0, BURST_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        Log.i(TAG, "Clock probing started: " + device + ", interval=" + intervalMs + "ms");
+    }
+
+    public synchronized void stopProbing(String device) {
+        Device d = devices.get(device);
+        if (d != null) cancel(d);
+    }
+
+    /** 登记按手机接收时间记录、无法往返校时的设备（只出现在报告中） */
+    public synchronized void registerReceiveTimeOnly(String device) {
+        if (sessionDir == null) return;
+        device(device);
+    }
+
+    private void probe(Device d, long intervalMs) {
+        long now = TimeSync.nowWallMillis();
+        Prober prober;
+        synchronized (this) {
+            if (d.prober == null) return;
+            // 上一包未在超时内回复：视为丢失
+            if (d.pendingSendMs >= 0 && now - d.pendingSendMs < PROBE_TIMEOUT_MS) return;
+            if (d.pendingSendMs >= 0) d.probesLost++;
+            d.pendingSendMs = now;
+            d.probesSent++;
+            prober = d.prober;
+        }
+        boolean sent;
+        try {
+            sent = prober.sendProbe(now);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "probe error: " + d.name, e);
+            sent = false;
+        }
+        synchronized (this) {
+            if (!sent) {
+                d.pendingSendMs = -1;
+                d.probesSent--;
+            }
+            // 初始连续校时结束后改为常规间隔
+            if (d.probesSent == BURST_PROBES && d.task != null && scheduler != null && d.prober != null) {
+                d.task.cancel(false);
+                d.task = scheduler.scheduleWithFixedDelay(() -> probe(d, intervalMs),
+                        intervalMs, intervalMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /**
+     * 设备回复校时包。
+     * @param t0 回传的主机发送时间（会话 wall_ms）
+     * @param t1 设备接收时间（设备毫秒）
+     * @param t2 设备回复时间（设备毫秒）
+     * @param t3 主机收到回复的时间（会话 wall_ms），应在收到数据后尽早取得
+     */
+    public synchronized void onRoundTrip(String device, long t0, long t1, long t2, long t3) {
+        Device d = devices.get(device);
+        if (d == null) return;
+        if (d.pendingSendMs == t0) d.pendingSendMs = -1;
+        ClockEstimator est = d.estimator;
+        if (!est.addSample(t0, t1, t2, t3)) {
+            Log.w(TAG, "Rejected clock sample: " + device + " t0=" + t0 + " t1=" + t1 + " t2=" + t2 + " t3=" + t3);
+            return;
+        }
+        DataLogger l = samples;
+        if (l != null) {
+            long rtt = (t3 - t0) - (t2 - t1);
+            l.writeLine(t3 + "," + device + "," + t0 + "," + t1 + "," + t2 + "," + t3 + "," + rtt + ","
+                    + String.format(Locale.US, "%.3f,%.3f", est.offsetAt((t1 + t2) / 2.0), est.getSkewPpm()));
+        }
+    }
+
+    private Device device(String name) {
+        Device d = devices.get(name);
+        if (d == null) {
+            d = new Device(name);
+            devices.put(name, d);
+        }
+        return d;
+    }
+
+    private static void cancel(Device d) {
+        if (d.task != null) {
+            d.task.cancel(false);
+            d.task = null;
+        }
+        d.prober = null;
+    }
+
+    // ============ 报告 ============
+
+    synchronized JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty("timebase", "session wall_ms (TimeSync)");
+        JsonArray arr = new JsonArray();
+        for (Device d : devices.values()) {
+            JsonObject o = new JsonObject();
+            o.addProperty("device", d.name);
+            ClockEstimator est = d.estimator;
+            if (d.probesSent == 0 && est.getSampleCount() == 0) {
+                o.addProperty("method", "receive_time");
+                o.addProperty("note", "no round-trip support; samples stamped with phone receive time");
+                arr.add(o);
+                continue;
+            }
+            o.addProperty("method", "round_trip");
+            o.addProperty("probes_sent", d.probesSent);
+            o.addProperty("probes_lost", d.probesLost);
+            o.addProperty("samples", est.getSampleCount());
+            o.addProperty("rejected", est.getRejectedCount());
+            if (est.isValid()) {
+                double[] err = est.errorStats();
+                o.addProperty("reference_device_ms", Math.round(est.getReferenceDeviceMs()));
+                o.addProperty("offset_ms", round3(est.getOffsetMs()));
+                o.addProperty("skew_ppm", round3(est.getSkewPpm()));
+                JsonObject e = new JsonObject();
+                e.addProperty("residual_rms_ms", round3(err[0]));
+                e.addProperty("residual_max_ms", round3(err[1]));
+                e.addProperty("rtt_min_ms", err[2]);
+                e.addProperty("rtt_median_ms", err[3]);
+                // 单次往返的偏移不确定度不超过 rtt/2，取最小 rtt 作为下限
+                e.addProperty("uncertainty_ms", err[2] / 2);
+                o.add("alignment_error", e);
+            }
+            arr.add(o);
+        }
+        root.add("devices", arr);
+        return root;
+    }
+
+    private static double round3(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+
+    private void writeReport(File infoDir) {
+        if (devices.isEmpty()) return;
+        try {
+            if (!infoDir.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                infoDir.mkdirs();
+            }
+            byte[] json = new GsonBuilder().setPrettyPrinting().create()
+                    .toJson(toJson()).getBytes(StandardCharsets.UTF_8);
+            try (FileOutputStream out = new FileOutputStream(new File(infoDir, REPORT_FILE), false)) {
+                out.write(json);
+            }
+            Log.i(TAG, "Clock alignment report written: " + devices.size() + " device(s)");
+        } catch (IOException e) {
+            Log.e(TAG, "writeReport error", e);
+        }
+    }
+}
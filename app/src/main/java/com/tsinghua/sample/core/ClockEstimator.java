@@ -0,0 +1,176 @@
+package com.tsinghua.sample.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * 单个外部设备的时钟模型：由 NTP 式往返样本在线估计偏移与漂移，把设备时间戳映射到会话时基（wall 毫秒）。
+ *
+ * 一次往返：主机发送 t0、设备接收 t1、设备回复 t2、主机接收 t3（t0/t3 为会话 wall_ms，t1/t2 为设备毫秒）。
+ * 样本点取 x = (t1+t2)/2（设备时间），y = (t0+t3)/2 - x（主机减设备的偏移），往返时延 rtt = (t3-t0) - (t2-t1)。
+ *
+ * 拟合 y = offset + skew·(x - x0)：
+ * - 只用最近 {@link #WINDOW} 个样本中 rtt 较小的一半（蓝牙重传、排队造成的大时延样本偏移不可靠）；
+ * - 用 Theil–Sen 估计（两两斜率的中位数），少量离群点不影响结果；
+ * - 漂移限制在 ±{@link #MAX_SKEW_PPM} ppm，样本跨度不足 {@link #MIN_SPAN_MS} 时只估计偏移。
+ *
+ * 非线程安全，由 {@link ClockAlignment} 加锁调用。
+ */
+public final class ClockEstimator {
+
+    /** 参与拟合的最近样本数 */
+    static final int WINDOW = 128;
+    /** 漂移上限（晶振通常在 ±100ppm 内） */
+    static final double MAX_SKEW_PPM = 500;
+    /** 估计漂移所需的最短设备时间跨度 */
+    static final long MIN_SPAN_MS = 20_000;
+
+    private final double[] xs = new double[WINDOW];
+    private final double[] ys = new double[WINDOW];
+    private final long[] rtts = new long[WINDOW];
+    private int count;
+    private int head;
+    private long total;
+    private long rejected;
+
+    // 当前模型
+    private boolean valid;
+    private double x0;
+    private double offset;
+    private double skew;
+
+    /**
+     * 加入一次往返样本。
+     * @return 样本有效（时间顺序合理）时返回 true
+     */
+    public boolean addSample(long t0, long t1, long t2, long t3) {
+        long rtt = (t3 - t0) - (t2 - t1);
+        if (t3 < t0 || t2 < t1 || rtt < 0) {
+            rejected++;
+            return false;
+        }
+        double x = (t1 + t2) / 2.0;
+        double y = (t0 + t3) / 2.0 - x;
+        xs[head] = x;
+        ys[head] = y;
+        rtts[head] = rtt;
+        head = (head + 1) % WINDOW;
+        if (count < WINDOW) count++;
+        total++;
+        fit();
+        return true;
+    }
+
+    private void fit() {
+        // 按 rtt 选出较小的一半（至少 3 个或全部）
+        long[] sorted = Arrays.copyOf(rtts, count);
+        Arrays.sort(sorted);
+        int keep = Math.min(count, Math.max(3, (count + 1) / 2));
+        long threshold = sorted[keep - 1];
+        List<Integer> used = new ArrayList<>(keep);
+        for (int i = 0; i < count && used.size() < keep; i++) {
+            int idx = (head - count + i + WINDOW) % WINDOW;
+            if (rtts[idx] <= threshold) used.add(idx);
+        }
+
+        double minX = Double.MAX_VALUE;
+        double maxX = -Double.MAX_VALUE;
+        for (int idx : used) {
+            minX = Math.min(minX, xs[idx]);
+            maxX = Math.max(maxX, xs[idx]);
+        }
+        x0 = minX;
+
+        double s = 0;
+        int n = used.size();
+        if (n >= 2 && maxX - minX >= MIN_SPAN_MS) {
+            double[] slopes = new double[n * (n - 1) / 2];
+            int k = 0;
+            for (int i = 0; i < n; i++) {
+                for (int j = i + 1; j < n; j++) {
+                    double dx = xs[used.get(j)] - xs[used.get(i)];
+                    if (dx != 0) slopes[k++] = (ys[used.get(j)] - ys[used.get(i)]) / dx;
+                }
+            }
+            if (k > 0) s = median(slopes, k);
+            double limit = MAX_SKEW_PPM * 1e-6;
+            s = Math.max(-limit, Math.min(limit, s));
+        }
+
+        double[] intercepts = new double[n];
+        for (int i = 0; i < n; i++) {
+            int idx = used.get(i);
+            intercepts[i] = ys[idx] - s * (xs[idx] - x0);
+        }
+        offset = median(intercepts, n);
+        skew = s;
+        valid = true;
+    }
+
+    private static double median(double[] values, int n) {
+        Arrays.sort(values, 0, n);
+        return (n & 1) == 1 ? values[n / 2] : (values[n / 2 - 1] + values[n / 2]) / 2.0;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /** 设备毫秒 -> 会话 wall 毫秒；尚无样本时原样返回 */
+    public long toHostMs(long deviceMs) {
+        if (!valid) return deviceMs;
+        return Math.round(deviceMs + offset + skew * (deviceMs - x0));
+    }
+
+    /** 设备时间 deviceMs 处的偏移（主机 - 设备，毫秒） */
+    public double offsetAt(double deviceMs) {
+        return valid ? offset + skew * (deviceMs - x0) : 0;
+    }
+
+    public double getSkewPpm() {
+        return skew * 1e6;
+    }
+
+    /** 模型参考点（设备毫秒），offset 在此处取值 */
+    public double getReferenceDeviceMs() {
+        return x0;
+    }
+
+    public double getOffsetMs() {
+        return offset;
+    }
+
+    public long getSampleCount() {
+        return total;
+    }
+
+    public long getRejectedCount() {
+        return rejected;
+    }
+
+    /**
+     * 窗口内样本相对当前模型的对齐误差统计：
+     * [0]=残差 RMS，[1]=残差最大绝对值，[2]=最小 rtt，[3]=rtt 中位数（毫秒）。
+     * 单个样本的偏移不确定度上限为 rtt/2。
+     */
+    public double[] errorStats() {
+        double[] r = new double[4];
+        if (count == 0) return r;
+        double sumSq = 0;
+        double max = 0;
+        double[] rt = new double[count];
+        for (int i = 0; i < count; i++) {
+            double res = ys[i] - offsetAt(xs[i]);
+            sumSq += res * res;
+            max = Math.max(max, Math.abs(res));
+            rt[i] = rtts[i];
+        }
+        r[0] = Math.sqrt(sumSq / count);
+        r[1] = max;
+        Arrays.sort(rt);
+        r[2] = rt[0];
+        r[3] = median(rt, count);
+        return r;
+    }
+}
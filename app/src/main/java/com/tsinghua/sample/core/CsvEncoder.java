@@ -0,0 +1,190 @@
+package com.tsinghua.sample.core;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Locale;
+
+/**
+ * 可复用的 CSV 行编码器：把 long/int/定点浮点数直接以 ASCII 写入内部字节数组，
+ * 不经过 Formatter、不装箱、不产生中间字符串。每个采集线程持有一个实例：
+ * <pre>
+ *     line.reset().appendLong(sensorNs).comma().appendLong(wallMs).comma()
+ *         .appendFixed(relSec, 6).comma().appendFixed(x, 6);
+ *     logger.writeLine(line);
+ * </pre>
+ *
+ * 输出与 {@code String.format(Locale.US, "%d" / "%.Nf", ...)} 逐字节一致：
+ * Formatter 对浮点数是先取最短十进制表示再 HALF_UP 舍入，因此只有缩放后恰好落在
+ * 舍入临界点附近（概率约百万分之一）的值才回退到 String.format，其余走整数快速路径。
+ */
+public final class CsvEncoder {
+
+    /** 快速路径支持的最大小数位数 */
+    private static final int MAX_FAST_PRECISION = 9;
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9
+    };
+    private static final long[] LONG_POW10 = {
+            1L, 10L, 100L, 1000L, 10000L, 100000L, 1000000L, 10000000L, 100000000L, 1000000000L
+    };
+    /** 缩放后超过此值时 long 运算的精度不再可靠 */
+    private static final double MAX_FAST_SCALED = 1L << 52;
+
+    private static final byte[] NAN = "NaN".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] INFINITY = "Infinity".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] MIN_LONG = Long.toString(Long.MIN_VALUE).getBytes(StandardCharsets.US_ASCII);
+
+    private byte[] buf;
+    private int length;
+    private final byte[] digits = new byte[20];
+
+    public CsvEncoder(int initialCapacity) {
+        buf = new byte[Math.max(32, initialCapacity)];
+    }
+
+    /** 清空，开始新的一行 */
+    public CsvEncoder reset() {
+        length = 0;
+        return this;
+    }
+
+    public CsvEncoder comma() {
+        return append(',');
+    }
+
+    /** 追加单个 ASCII 字符 */
+    public CsvEncoder append(char c) {
+        ensure(1);
+        buf[length++] = (byte) c;
+        return this;
+    }
+
+    /** 追加 ASCII 文本（非 ASCII 字符写为 '?'） */
+    public CsvEncoder appendAscii(String s) {
+        int n = s.length();
+        ensure(n);
+        for (int i = 0; i < n; i++) {
+            char c = s.charAt(i);
+            buf[length++] = (byte) (c < 0x80 ? c : '?');
+        }
+        return this;
+    }
+
+    public CsvEncoder appendInt(int v) {
+        return appendLong(v);
+    }
+
+    /** 等价于 %d */
+    public CsvEncoder appendLong(long v) {
+        if (v == Long.MIN_VALUE) {
+            ensure(MIN_LONG.length);
+            System.arraycopy(MIN_LONG, 0, buf, length, MIN_LONG.length);
+            length += MIN_LONG.length;
+            return this;
+        }
+        ensure(20);
+        if (v < 0) {
+            buf[length++] = '-';
+            v = -v;
+        }
+        appendDigits(v, 0);
+        return this;
+    }
+
+    /** 等价于 %.Nf（float 参数与 Formatter 一样先转为 double） */
+    public CsvEncoder appendFixed(float v, int precision) {
+        return appendFixed((double) v, precision);
+    }
+
+    /** 等价于 %.Nf */
+    public CsvEncoder appendFixed(double v, int precision) {
+        if (Double.isNaN(v)) {
+            return appendBytes(NAN);
+        }
+        boolean negative = Double.doubleToRawLongBits(v) < 0; // 含 -0.0，与 Formatter 一致
+        if (Double.isInfinite(v)) {
+            if (negative) append('-');
+            return appendBytes(INFINITY);
+        }
+        if (precision < 0 || precision > MAX_FAST_PRECISION) {
+            return appendFormatted(v, precision);
+        }
+        double abs = Math.abs(v);
+        double scaled = abs * POW10[precision];
+        if (scaled >= MAX_FAST_SCALED) {
+            return appendFormatted(v, precision);
+        }
+        double floor = Math.floor(scaled);
+        double frac = scaled - floor;
+        // 缩放误差 + 最短表示与二进制真值的差，均不超过 scaled 的几个 ulp
+        double margin = Math.ulp(scaled) * 4;
+        if (Math.abs(frac - 0.5) <= margin) {
+            // 临界点附近：舍入方向取决于最短十进制表示，交给 Formatter
+            return appendFormatted(v, precision);
+        }
+        long units = (long) floor + (frac > 0.5 ? 1 : 0);
+
+        ensure(22 + precision);
+        if (negative) buf[length++] = '-';
+        long intPart = units / LONG_POW10[precision];
+        long fracPart = units - intPart * LONG_POW10[precision];
+        appendDigits(intPart, 0);
+        if (precision > 0) {
+            buf[length++] = '.';
+            appendDigits(fracPart, precision);
+        }
+        return this;
+    }
+
+    /** 回退路径：极少触发，允许分配 */
+    private CsvEncoder appendFormatted(double v, int precision) {
+        String s = precision >= 0
+                ? String.format(Locale.US, "%." + precision + "f", v)
+                : String.format(Locale.US, "%f", v);
+        return appendAscii(s);
+    }
+
+    private CsvEncoder appendBytes(byte[] b) {
+        ensure(b.length);
+        System.arraycopy(b, 0, buf, length, b.length);
+        length += b.length;
+        return this;
+    }
+
+    /** 写非负整数，minDigits 不足时左侧补0 */
+    private void appendDigits(long v, int minDigits) {
+        int n = 0;
+        do {
+            long q = v / 10;
+            digits[n++] = (byte) ('0' + (int) (v - q * 10));
+            v = q;
+        } while (v != 0);
+        while (n < minDigits) {
+            digits[n++] = '0';
+        }
+        while (n > 0) {
+            buf[length++] = digits[--n];
+        }
+    }
+
+    private void ensure(int extra) {
+        if (length + extra > buf.length) {
+            byte[] grown = new byte[Math.max(length + extra, buf.length * 2)];
+            System.arraycopy(buf, 0, grown, 0, length);
+            buf = grown;
+        }
+    }
+
+    /** 内部缓冲（有效长度见 {@link #length()}） */
+    public byte[] buffer() {
+        return buf;
+    }
+
+    public int length() {
+        return length;
+    }
+
+    @Override
+    public String toString() {
+        return new String(buf, 0, length, StandardCharsets.US_ASCII);
+    }
+}
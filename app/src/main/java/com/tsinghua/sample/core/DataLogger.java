@@ -2,112 +2,270 @@ package com.tsinghua.sample.core;
 
 import android.util.Log;
 
-import java.io.BufferedWriter;
+import java.io.BufferedOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.util.concurrent.BlockingQueue;
-import java.util.concurrent.LinkedBlockingQueue;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
 
 /**
  * 轻量 CSV/文本写入器，封装基础的创建、写入、flush、close。
  * 仅做最小依赖，便于在各采集模块中复用。
  *
- * 性能优化：使用异步队列写入，避免阻塞调用线程
+ * 性能优化：
+ * - 写入线程与采集线程通过预分配的 {@link LineRingBuffer} 交换数据，稳态零分配；
+ * - 缓冲区满时按 {@link OverflowPolicy} 处理，并精确统计丢弃条数；
+ * - 不再自带写入线程，由会话共享的 {@link IoScheduler} 统一排空、合并 flush/fsync；
+ * - 开启内存映射段模式（{@link #setMappedSegmentsEnabled}）时，行直接写入 {@link MappedSegmentWriter}
+ *   映射区，进程被杀也不丢已写入的行，关闭后再还原为原文件；换窗的映射与写回、换段时旧段的关闭都在调度线程执行；
+ * - 每个实例登记一份 {@link StreamStats}（队列深度、丢弃数、入队到写出延迟、flush/fsync 耗时）；
+ * - 开启分段（{@link SegmentPolicy}）时按行的 wall_ms 滚动到编号分段文件，每段都带表头。
  */
 public class DataLogger {
     private static final String TAG = "DataLogger";
+
+    /** 缓冲区满时的处理策略 */
+    public enum OverflowPolicy {
+        /** 丢弃新写入的行（默认，与原行为一致） */
+        DROP_NEWEST,
+        /** 丢弃最旧的未写入行，保留最新数据 */
+        DROP_OLDEST,
+        /** 阻塞等待写入线程腾出空间，超时后丢弃 */
+        BLOCK,
+        /** 溢出行写入旁路文件（xxx.spill），close 时追加到主文件末尾 */
+        SPILL_TO_DISK
+    }
+
+    /** 默认缓冲槽位数 */
+    public static final int DEFAULT_CAPACITY = 8192;
+    /** 槽位初始字节数（覆盖常见的传感器行） */
+    private static final int SLOT_BYTES = 128;
+    /** close 等待调度线程完成的最长时间 */
+    private static final long IO_TIMEOUT_MS = 5000;
+    /** 阻塞策略下的等待步长 */
+    private static final long BLOCK_PARK_NS = TimeUnit.MICROSECONDS.toNanos(200);
+
+    /** 新建的 DataLogger 是否使用内存映射段（AppSettings.mmap_segment_log） */
+    private static volatile boolean mappedSegmentsEnabled = false;
+
     private final File file;
-    private BufferedWriter writer;
+    private volatile FileOutputStream fileOut;
+    private volatile OutputStream out;
 
-    // 异步写入队列
-    private final BlockingQueue<String> writeQueue = new LinkedBlockingQueue<>(10000);
-    private Thread writerThread;
+    // 内存映射段模式（非空时不经过环形缓冲）
+    private volatile MappedSegmentWriter segment;
+    private final LineRingBuffer.Slot segmentSlot = new LineRingBuffer.Slot(SLOT_BYTES);
+    // 换段后待调度线程关闭、导出的旧映射段
+    private final ConcurrentLinkedQueue<Runnable> retiredSegments = new ConcurrentLinkedQueue<>();
+
+    // 异步写入环形缓冲
+    private final LineRingBuffer ring;
+    private final LineRingBuffer.Slot scratch = new LineRingBuffer.Slot(SLOT_BYTES);
+    private final OverflowPolicy policy;
+    private volatile long blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(50);
+    private final IoScheduler scheduler = IoScheduler.getInstance();
+    private final IoScheduler.Stream stream = new LoggerStream();
     private volatile boolean running = true;
 
-    // 批量写入控制
-    private static final int FLUSH_INTERVAL_MS = 1000; // 每秒flush一次
-    private long lastFlushTime = 0;
-    private int linesSinceFlush = 0;
-    private static final int LINES_PER_FLUSH = 100; // 每100行flush一次
+    // 丢弃/溢出统计
+    private final AtomicLong droppedCount = new AtomicLong();
+    private final AtomicLong spilledCount = new AtomicLong();
+    private final Object spillLock = new Object();
+    private File spillFile;
+    private OutputStream spillOut;
+    private final LineRingBuffer.Slot spillSlot = new LineRingBuffer.Slot(SLOT_BYTES);
+
+    // 写入遥测，会话结束时汇总到 info/health.json
+    private final StreamStats stats;
+    // 会话清单条目（样本数、wall_ms 范围、CRC32），wallColumn 为 wall_ms 所在列，-1 表示无
+    private final StreamDescriptor descriptor;
+    private final int wallColumn;
+
+    // 分段：rolling 在创建时确定；当前分段只在写入侧（调度线程或映射段锁内）切换
+    private final boolean rolling;
+    private final byte[] headerBytes;
+    private File segmentFile;
+    private int segmentWindow = -1;
+    private int segmentPart;
+    private long segmentBytes;
 
     public DataLogger(File file, String header) throws IOException {
+        this(file, header, DEFAULT_CAPACITY, OverflowPolicy.DROP_NEWEST);
+    }
+
+    public DataLogger(File file, String header, int capacity, OverflowPolicy policy) throws IOException {
         this.file = file;
+        this.policy = policy;
+        this.ring = new LineRingBuffer(capacity, SLOT_BYTES);
+        this.stats = SessionHealth.getInstance().register(statsName(file), StreamStats.KIND_CSV);
+        stats.setQueueDepthSupplier(ring::size);
+        this.descriptor = SessionManifest.getInstance().register(file, StreamStats.KIND_CSV, "csv",
+                header != null ? header.trim() : null);
+        this.wallColumn = wallColumnIndex(header);
+        this.rolling = SegmentPolicy.isEnabled();
+        this.headerBytes = header == null || header.isEmpty() ? new byte[0]
+                : (header.endsWith("\n") ? header : header + "\n").getBytes(StandardCharsets.UTF_8);
         ensureParentExists(file);
-        this.writer = new BufferedWriter(new FileWriter(file, false), 8192); // 8KB缓冲
-        if (header != null && !header.isEmpty()) {
-            writer.write(header);
-            if (!header.endsWith("\n")) {
-                writer.write("\n");
+        if (mappedSegmentsEnabled) {
+            if (rolling) {
+                openMappedSegment(SegmentPolicy.windowOf(TimeSync.nowWallMillis()), 0);
+            } else {
+                this.segment = new MappedSegmentWriter(new File(file.getPath() + MappedSegmentWriter.EXTENSION));
+                appendHeaderToSegment();
             }
-            writer.flush();
+            scheduler.register(stream);
+            return;
+        }
+        if (rolling) {
+            openSegment(SegmentPolicy.windowOf(TimeSync.nowWallMillis()), 0);
+        } else {
+            this.fileOut = new FileOutputStream(file, false);
+            this.out = new BufferedOutputStream(fileOut, 8192); // 8KB缓冲
+            writeHeader();
         }
 
-        // 启动异步写入线程
-        startWriterThread();
+        // 交给共享I/O调度线程写入
+        scheduler.register(stream);
     }
 
-    private void startWriterThread() {
-        writerThread = new Thread(() -> {
-            while (running || !writeQueue.isEmpty()) {
-                try {
-                    // 使用带超时的poll，避免无限阻塞
-                    String line = writeQueue.poll(100, TimeUnit.MILLISECONDS);
-                    if (line != null) {
-                        writeLineInternal(line);
-                    }
+    /** 统计名：所在子目录/文件名（如 imu/imu_data.csv） */
+    static String statsName(File f) {
+        File parent = f.getParentFile();
+        return parent != null ? parent.getName() + "/" + f.getName() : f.getName();
+    }
 
-                    // 检查是否需要flush
-                    long now = System.currentTimeMillis();
-                    if (linesSinceFlush >= LINES_PER_FLUSH ||
-                        (now - lastFlushTime) >= FLUSH_INTERVAL_MS) {
-                        flushInternal();
-                        lastFlushTime = now;
-                        linesSinceFlush = 0;
-                    }
-                } catch (InterruptedException e) {
-                    Thread.currentThread().interrupt();
-                    break;
-                }
-            }
+    private void writeHeader() throws IOException {
+        if (headerBytes.length == 0) return;
+        out.write(headerBytes);
+        descriptor.onBytes(headerBytes, 0, headerBytes.length);
+        out.flush();
+    }
 
-            // 退出前确保所有数据写入
-            drainQueue();
-            flushInternal();
-            Log.d(TAG, "Writer thread exited for: " + file.getName());
-        }, "DataLogger-" + file.getName());
-        writerThread.setPriority(Thread.MIN_PRIORITY + 1); // 低优先级
-        writerThread.start();
+    /**
+     * 切换到新的分段文件（调度线程）：上一段先合并溢出行、fsync 后关闭，消费方拿到的即是完整文件。
+     */
+    private void openSegment(int window, int part) throws IOException {
+        File previous = segmentFile;
+        if (out != null) {
+            mergeSpill(segmentWindow);
+            try {
+                out.flush();
+                fileOut.getFD().sync();
+                out.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close segment error: " + previous, e);
+            }
+        }
+        File next = SegmentPolicy.segmentFile(file, window, part);
+        FileOutputStream nextFileOut = new FileOutputStream(next, false);
+        fileOut = nextFileOut;
+        out = new BufferedOutputStream(nextFileOut, 8192);
+        segmentFile = next;
+        if (previous != null) {
+            SegmentPolicy.notifyClosed(descriptor.getName(), previous, segmentWindow, segmentPart);
+        }
+        segmentWindow = window;
+        segmentPart = part;
+        descriptor.beginSegment(next, window, part);
+        writeHeader();
+        segmentBytes = headerBytes.length;
     }
 
-    private void drainQueue() {
-        String line;
-        while ((line = writeQueue.poll()) != null) {
-            writeLineInternal(line);
+    /**
+     * 映射段模式下切换分段（持有 segmentSlot 锁）：旧段交给调度线程写回、截断后后台还原为 CSV，
+     * 采集线程上不做 msync/fsync。
+     */
+    private void openMappedSegment(int window, int part) throws IOException {
+        MappedSegmentWriter previous = segment;
+        File previousFile = segmentFile;
+        int previousWindow = segmentWindow;
+        int previousPart = segmentPart;
+        if (previous != null) {
+            retiredSegments.add(() -> {
+                previous.close();
+                SegmentRecovery.exportAsync(previous.getFile(), () -> SegmentPolicy.notifyClosed(
+                        descriptor.getName(), previousFile, previousWindow, previousPart));
+            });
+            scheduler.wakeup();
         }
+        File next = SegmentPolicy.segmentFile(file, window, part);
+        segment = new MappedSegmentWriter(new File(next.getPath() + MappedSegmentWriter.EXTENSION));
+        segmentFile = next;
+        segmentWindow = window;
+        segmentPart = part;
+        descriptor.beginSegment(next, window, part);
+        appendHeaderToSegment();
+        segmentBytes = headerBytes.length;
     }
 
-    private void writeLineInternal(String line) {
-        if (writer == null) return;
-        try {
-            writer.write(line);
-            if (!line.endsWith("\n")) {
-                writer.write("\n");
-            }
-            linesSinceFlush++;
-        } catch (IOException e) {
-            Log.e(TAG, "writeLineInternal error", e);
+    private void appendHeaderToSegment() throws IOException {
+        if (headerBytes.length == 0) return;
+        segment.append(headerBytes, 0, headerBytes.length);
+        descriptor.onBytes(headerBytes, 0, headerBytes.length);
+    }
+
+    /** 行所属的 wall_ms：优先取 wall_ms 列，没有时按入队时刻换算 */
+    private long wallOf(LineRingBuffer.Slot slot, long enqueueNanos) {
+        long wall = parseLongColumn(slot.data(), slot.length(), wallColumn);
+        if (wall != Long.MIN_VALUE) return wall;
+        return TimeSync.nowWallMillis() - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - enqueueNanos);
+    }
+
+    /** 表头中 wall_ms（或 timestamp_ms）列的下标 */
+    private static int wallColumnIndex(String header) {
+        if (header == null) return -1;
+        String[] cols = header.trim().split(",");
+        for (int i = 0; i < cols.length; i++) {
+            String c = cols[i].trim();
+            if (c.equals("wall_ms") || c.equals("timestamp_ms")) return i;
         }
+        return -1;
     }
 
-    private void flushInternal() {
-        if (writer == null) return;
-        try {
-            writer.flush();
-        } catch (IOException e) {
-            Log.e(TAG, "flushInternal error", e);
+    /** 从一行 CSV 字节中解析第 column 列的整数；解析失败返回 Long.MIN_VALUE */
+    static long parseLongColumn(byte[] data, int length, int column) {
+        if (column < 0) return Long.MIN_VALUE;
+        int i = 0;
+        for (int c = 0; c < column; i++) {
+            if (i >= length) return Long.MIN_VALUE;
+            if (data[i] == ',') c++;
+        }
+        boolean negative = i < length && data[i] == '-';
+        if (negative) i++;
+        long v = 0;
+        int digits = 0;
+        for (; i < length; i++) {
+            byte b = data[i];
+            if (b < '0' || b > '9') break;
+            v = v * 10 + (b - '0');
+            digits++;
         }
+        if (digits == 0 || digits > 18) return Long.MIN_VALUE;
+        return negative ? -v : v;
+    }
+
+    /** 之后创建的 DataLogger 是否使用内存映射段写入 */
+    public static void setMappedSegmentsEnabled(boolean enabled) {
+        mappedSegmentsEnabled = enabled;
+    }
+
+    /** 持久化级别（默认周期 fsync） */
+    public void setDurability(IoScheduler.Durability durability) {
+        scheduler.setDurability(stream, durability);
+    }
+
+    /** BLOCK 策略下的最长等待时间 */
+    public void setBlockTimeoutMillis(long timeoutMs) {
+        this.blockTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, timeoutMs));
     }
 
     private void ensureParentExists(File f) {
@@ -119,65 +277,430 @@ public class DataLogger {
     }
 
     /**
-     * 异步写入一行数据（非阻塞）
+     * 异步写入一行数据（非阻塞，BLOCK 策略除外）
      */
     public void writeLine(String line) {
-        if (!running || writer == null) return;
+        if (!running) return;
+        if (segment != null) {
+            appendToSegment(line, null, true);
+            return;
+        }
+        if (out == null) return;
 
-        // 尝试加入队列，如果队列满则丢弃（避免阻塞）
-        if (!writeQueue.offer(line)) {
-            Log.w(TAG, "Write queue full, dropping line");
+        long seq = claim();
+        if (seq < 0) {
+            overflow(line, null);
+            return;
         }
+        LineRingBuffer.Slot slot = ring.slot(seq);
+        slot.setLine(line);
+        slot.setEnqueueNanos(System.nanoTime());
+        ring.publish(seq);
     }
 
     /**
-     * 同步flush（等待队列清空）
+     * 写入 {@link CsvEncoder} 编码好的一行（零分配路径），调用返回后 encoder 即可复用
      */
-    public void flush() {
-        if (writer == null) return;
+    public void writeLine(CsvEncoder line) {
+        if (!running) return;
+        if (segment != null) {
+            appendToSegment(null, line, true);
+            return;
+        }
+        if (out == null) return;
+
+        long seq = claim();
+        if (seq < 0) {
+            overflow(null, line);
+            return;
+        }
+        LineRingBuffer.Slot slot = ring.slot(seq);
+        slot.setBytes(line.buffer(), 0, line.length());
+        slot.setEnqueueNanos(System.nanoTime());
+        ring.publish(seq);
+    }
+
+    /** 领取槽位，按策略处理缓冲区满的情况；返回 -1 表示需走溢出处理 */
+    private long claim() {
+        long seq = ring.tryClaim();
+        if (seq >= 0) return seq;
 
-        // 等待队列清空
-        long startTime = System.currentTimeMillis();
-        while (!writeQueue.isEmpty() && (System.currentTimeMillis() - startTime) < 5000) {
+        // 缓冲满：立即唤醒调度线程，不等下一个轮询周期
+        scheduler.wakeup();
+        switch (policy) {
+            case DROP_OLDEST:
+                while (seq < 0) {
+                    if (ring.dropOldest()) {
+                        countDrop();
+                    } else {
+                        // 最旧槽位仍在被其他线程写入，放弃本行
+                        return -1;
+                    }
+                    seq = ring.tryClaim();
+                }
+                return seq;
+            case BLOCK: {
+                long deadline = System.nanoTime() + blockTimeoutNanos;
+                while (seq < 0 && System.nanoTime() < deadline && running) {
+                    LockSupport.parkNanos(BLOCK_PARK_NS);
+                    seq = ring.tryClaim();
+                }
+                return seq;
+            }
+            default:
+                return -1;
+        }
+    }
+
+    /** 文本或已编码字节二选一 */
+    private static void fill(LineRingBuffer.Slot slot, String line, CsvEncoder encoded) {
+        if (encoded != null) {
+            slot.setBytes(encoded.buffer(), 0, encoded.length());
+        } else {
+            slot.setLine(line);
+        }
+    }
+
+    private void appendToSegment(String line, CsvEncoder encoded, boolean sample) {
+        synchronized (segmentSlot) {
+            fill(segmentSlot, line, encoded);
             try {
-                Thread.sleep(10);
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
-                break;
+                if (rolling) {
+                    int length = segmentSlot.length();
+                    int window = SegmentPolicy.windowOf(wallOf(segmentSlot, System.nanoTime()));
+                    if (window > segmentWindow) {
+                        openMappedSegment(window, 0);
+                    } else if (SegmentPolicy.exceedsSize(segmentBytes, headerBytes.length, length)) {
+                        openMappedSegment(segmentWindow, segmentPart + 1);
+                    }
+                    segmentBytes += length;
+                }
+                segment.append(segmentSlot.data(), 0, segmentSlot.length());
+                stats.recordWrite(1, segmentSlot.length());
+                describe(segmentSlot, sample);
+            } catch (IOException e) {
+                countDrop();
             }
         }
+    }
 
-        flushInternal();
+    /** 更新清单条目：字节按落盘顺序计入校验，样本按 wall_ms 更新时间范围 */
+    private void describe(LineRingBuffer.Slot slot, boolean sample) {
+        descriptor.onBytes(slot.data(), 0, slot.length());
+        if (sample) descriptor.onSample(parseLongColumn(slot.data(), slot.length(), wallColumn));
     }
 
-    public void close() {
-        running = false;
+    private void overflow(String line, CsvEncoder encoded) {
+        if (policy == OverflowPolicy.SPILL_TO_DISK && spill(line, encoded)) {
+            return;
+        }
+        countDrop();
+    }
+
+    private void countDrop() {
+        long dropped = droppedCount.incrementAndGet();
+        stats.recordDrop(1);
+        // 首次及每1000条告警一次，避免刷屏
+        if (dropped == 1 || dropped % 1000 == 0) {
+            Log.w(TAG, "Write buffer full (" + policy + "), dropped " + dropped + " line(s): " + file.getName());
+        }
+    }
 
-        // 等待写入线程结束
-        if (writerThread != null) {
+    private boolean spill(String line, CsvEncoder encoded) {
+        synchronized (spillLock) {
             try {
-                writerThread.join(5000); // 最多等5秒
-            } catch (InterruptedException e) {
-                Thread.currentThread().interrupt();
+                if (spillOut == null) {
+                    spillFile = new File(file.getParentFile(), file.getName() + ".spill");
+                    spillOut = new BufferedOutputStream(new FileOutputStream(spillFile, true), 8192);
+                    Log.w(TAG, "Write buffer full, spilling to " + spillFile.getName());
+                }
+                fill(spillSlot, line, encoded);
+                spillOut.write(spillSlot.data(), 0, spillSlot.length());
+                spilledCount.incrementAndGet();
+                // 字节在合并回主文件时再计入校验；分段模式下样本也在合并时按所在分段计
+                if (!rolling) {
+                    descriptor.onSample(parseLongColumn(spillSlot.data(), spillSlot.length(), wallColumn));
+                }
+                return true;
+            } catch (IOException e) {
+                Log.e(TAG, "spill error", e);
+                return false;
             }
         }
+    }
 
-        // 确保所有数据写入
-        drainQueue();
-
-        if (writer != null) {
+    /**
+     * 将溢出文件追加到当前文件末尾（调度线程，close 及切换分段时调用，行序以 wall_ms 为准）。
+     * 分段模式下只合并属于 maxWindow 及之前时间窗的行，其余行留在溢出文件中等之后的分段。
+     */
+    private void mergeSpill(int maxWindow) {
+        synchronized (spillLock) {
+            if (spillOut == null) return;
+            File remainder = null;
             try {
-                writer.flush();
-                writer.close();
+                spillOut.close();
+                if (out != null) {
+                    if (rolling) {
+                        remainder = new File(spillFile.getPath() + ".rest");
+                        if (!mergeSpillLines(maxWindow, remainder)) remainder = null;
+                    } else {
+                        byte[] buf = new byte[8192];
+                        try (InputStream in = new FileInputStream(spillFile)) {
+                            int n;
+                            while ((n = in.read(buf)) > 0) {
+                                out.write(buf, 0, n);
+                                descriptor.onBytes(buf, 0, n);
+                            }
+                        }
+                    }
+                }
+                //noinspection ResultOfMethodCallIgnored
+                spillFile.delete();
+                Log.i(TAG, "Merged " + spilledCount.get() + " spilled line(s) into " + file.getName());
             } catch (IOException e) {
-                Log.e(TAG, "close error", e);
+                Log.e(TAG, "mergeSpill error, spill kept at " + spillFile, e);
             } finally {
-                writer = null;
+                spillOut = null;
+            }
+            if (remainder != null) {
+                // 剩余行作为新的溢出文件，采集线程继续向其追加
+                try {
+                    if (!remainder.renameTo(spillFile)) throw new IOException("rename failed: " + remainder);
+                    spillOut = new BufferedOutputStream(new FileOutputStream(spillFile, true), 8192);
+                } catch (IOException e) {
+                    Log.e(TAG, "spill remainder error, kept at " + remainder, e);
+                }
             }
         }
     }
 
+    /** 逐行路由溢出文件：返回 true 表示有行写入了 remainder */
+    private boolean mergeSpillLines(int maxWindow, File remainder) throws IOException {
+        byte[] buf = new byte[8192];
+        byte[] line = new byte[SLOT_BYTES];
+        int len = 0;
+        boolean kept = false;
+        try (InputStream in = new FileInputStream(spillFile);
+             OutputStream rest = new BufferedOutputStream(new FileOutputStream(remainder, false), 8192)) {
+            int n;
+            while ((n = in.read(buf)) > 0) {
+                for (int i = 0; i < n; i++) {
+                    if (len == line.length) line = Arrays.copyOf(line, len * 2);
+                    line[len++] = buf[i];
+                    if (buf[i] != '\n') continue;
+                    long wall = parseLongColumn(line, len, wallColumn);
+                    if (wall != Long.MIN_VALUE && SegmentPolicy.windowOf(wall) > maxWindow) {
+                        rest.write(line, 0, len);
+                        kept = true;
+                    } else {
+                        out.write(line, 0, len);
+                        descriptor.onBytes(line, 0, len);
+                        descriptor.onSample(wall);
+                        segmentBytes += len;
+                    }
+                    len = 0;
+                }
+            }
+        }
+        if (!kept) {
+            //noinspection ResultOfMethodCallIgnored
+            remainder.delete();
+        }
+        return kept;
+    }
+
+    /**
+     * flush 屏障：返回的 future 在此前写入的所有行落盘后完成，调用线程不阻塞。
+     * 需要同步等待时自行 get(timeout)，不要在传感器/相机线程上等待。
+     */
+    public CompletableFuture<Void> flush() {
+        if (!running || (out == null && segment == null)) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return scheduler.flushAsync(stream);
+    }
+
+    public void close() {
+        if (!running) return;
+        running = false;
+
+        // 由调度线程排空、合并溢出文件并关闭
+        if (!scheduler.close(stream, IO_TIMEOUT_MS)) {
+            Log.w(TAG, "close timed out, remaining lines may be lost: " + file.getName());
+        }
+        if (segment != null) {
+            // 段文件已截断，后台还原为原文件名
+            MappedSegmentWriter last;
+            synchronized (segmentSlot) {
+                last = segment;
+            }
+            if (rolling) {
+                File lastFile = segmentFile;
+                int window = segmentWindow;
+                int part = segmentPart;
+                SegmentRecovery.exportAsync(last.getFile(),
+                        () -> SegmentPolicy.notifyClosed(descriptor.getName(), lastFile, window, part));
+            } else {
+                SegmentRecovery.exportAsync(last.getFile());
+            }
+        }
+        if (droppedCount.get() > 0) {
+            Log.w(TAG, file.getName() + " closed with " + droppedCount.get() + " dropped line(s)");
+        }
+    }
+
+    /** 因缓冲区满而丢弃的行数（精确值） */
+    public long getDroppedCount() {
+        return droppedCount.get();
+    }
+
+    /** 溢出到旁路文件的行数 */
+    public long getSpilledCount() {
+        return spilledCount.get();
+    }
+
+    /** 当前积压行数 */
+    public int getQueueDepth() {
+        return ring.size();
+    }
+
     public File getFile() {
         return file;
     }
+
+    public StreamStats getStats() {
+        return stats;
+    }
+
+    /** 会话清单条目（可设置标称采样率） */
+    public StreamDescriptor getDescriptor() {
+        return descriptor;
+    }
+
+    /** 调度线程侧的写入逻辑，所有文件操作只在调度线程执行 */
+    private final class LoggerStream implements IoScheduler.Stream {
+        private int lastItems;
+
+        @Override
+        public String getName() {
+            return file.getName();
+        }
+
+        @Override
+        public long drain(int maxItems) {
+            MappedSegmentWriter mapped = segment;
+            if (mapped != null) {
+                closeRetiredSegments();
+                mapped.prepareNext();
+            }
+            long bytes = 0;
+            int n = 0;
+            stats.observeQueueDepth(ring.size());
+            while (n < maxItems && ring.poll(scratch)) {
+                if (out != null) {
+                    try {
+                        if (rolling) rollFor(scratch);
+                        out.write(scratch.data(), 0, scratch.length());
+                        bytes += scratch.length();
+                        stats.recordLatencyNanos(System.nanoTime() - scratch.enqueueNanos());
+                        describe(scratch, true);
+                    } catch (IOException e) {
+                        Log.e(TAG, "write error: " + file.getName(), e);
+                    }
+                }
+                n++;
+            }
+            lastItems = n;
+            if (n > 0) stats.recordWrite(n, bytes);
+            return bytes;
+        }
+
+        /**
+         * 写出一行前检查分段：wall_ms 进入新的时间窗时切换（不回退，乱序的旧行留在当前段），
+         * 当前段超过大小上限时在同一时间窗内追加分片。
+         */
+        private void rollFor(LineRingBuffer.Slot slot) throws IOException {
+            int length = slot.length();
+            int window = SegmentPolicy.windowOf(wallOf(slot, slot.enqueueNanos()));
+            if (window > segmentWindow) {
+                openSegment(window, 0);
+            } else if (SegmentPolicy.exceedsSize(segmentBytes, headerBytes.length, length)) {
+                openSegment(segmentWindow, segmentPart + 1);
+            }
+            segmentBytes += length;
+        }
+
+        /** 关闭换段时留下的旧映射段 */
+        private void closeRetiredSegments() {
+            Runnable r;
+            while ((r = retiredSegments.poll()) != null) {
+                r.run();
+            }
+        }
+
+        @Override
+        public int lastDrainedItems() {
+            return lastItems;
+        }
+
+        @Override
+        public void flush() {
+            if (out == null) return;
+            long start = System.nanoTime();
+            try {
+                out.flush();
+            } catch (IOException e) {
+                Log.e(TAG, "flush error: " + file.getName(), e);
+            }
+            stats.recordFlush(System.nanoTime() - start);
+        }
+
+        @Override
+        public void sync() {
+            long start = System.nanoTime();
+            if (segment != null) {
+                segment.force();
+            } else {
+                if (fileOut == null) return;
+                try {
+                    fileOut.getFD().sync();
+                } catch (IOException e) {
+                    Log.w(TAG, "sync error: " + file.getName(), e);
+                }
+            }
+            stats.recordSync(System.nanoTime() - start);
+        }
+
+        @Override
+        public void finish() {
+            stats.markClosed();
+            if (segment != null) {
+                synchronized (segmentSlot) {
+                    closeRetiredSegments();
+                    segment.close();
+                }
+                descriptor.markClosed();
+                return;
+            }
+            while (drain(Integer.MAX_VALUE) > 0) {
+                // 排空剩余行
+            }
+            mergeSpill(Integer.MAX_VALUE);
+            if (out != null) {
+                try {
+                    out.flush();
+                    out.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close error", e);
+                } finally {
+                    out = null;
+                    fileOut = null;
+                }
+                if (segmentFile != null) {
+                    SegmentPolicy.notifyClosed(descriptor.getName(), segmentFile, segmentWindow, segmentPart);
+                }
+            }
+            descriptor.markClosed();
+        }
+    }
 }
@@ -1,30 +1,63 @@
 package com.tsinghua.sample.core;
 
 import java.io.File;
+import java.util.concurrent.CompletableFuture;
 
 /**
- * 帧元数据记录：wall_ms, sensor_ts_sec, relative_sec, frameNumber
+ * 帧元数据记录：wall_ms, sensor_ts_sec, relative_sec, frameNumber。
+ * 文件扩展名为 .bin 时按 {@link RecordSchema#FRAME_METADATA} 写二进制定宽记录，录制结束后导出为同名CSV。
  */
 public class FrameMetadataRecorder {
     private final DataLogger logger;
+    private final BinaryRecordLog binaryLog;
+    private final TimestampCalibration.Domain domain;
+    private final String barrierName;
 
     public FrameMetadataRecorder(File file) throws Exception {
-        this.logger = new DataLogger(file, "wall_ms,sensor_ts_sec,relative_sec,frame_number");
+        this(file, null);
+    }
+
+    /** @param domain 相机 SENSOR_TIMESTAMP 的时钟域标定，null 时按 elapsedRealtime 处理 */
+    public FrameMetadataRecorder(File file, TimestampCalibration.Domain domain) throws Exception {
+        if (file.getName().endsWith(BinaryCsvExporter.EXTENSION)) {
+            this.logger = null;
+            this.binaryLog = new BinaryRecordLog(file, RecordSchema.FRAME_METADATA);
+        } else {
+            this.logger = new DataLogger(file, "wall_ms,sensor_ts_sec,relative_sec,frame_number");
+            this.binaryLog = null;
+        }
+        this.domain = domain;
+        // 开始屏障中的模块名与标定来源一致（camera/front、camera/back）
+        this.barrierName = domain != null ? domain.name : "camera/" + file.getParentFile().getName();
     }
 
     public void record(long sensorTimestampNs, long frameNumber) {
-        long wallMs = TimeSync.sensorNsToWallMillis(sensorTimestampNs);
+        // 同一基准快照换算，wall_ms 与 relative_sec 不会跨越重新同步
+        TimeSync.Timebase tb = TimeSync.timebase();
+        long elapsedNs = domain != null
+                ? domain.toElapsedNs(sensorTimestampNs, TimeSync.nowElapsedNanos()) : sensorTimestampNs;
+        long wallMs = tb.toWallMillis(elapsedNs);
+        StartBarrier.getInstance().observe(barrierName, wallMs);
         double sensorSec = sensorTimestampNs / 1_000_000_000.0;
-        double relativeSec = TimeSync.sensorNsToRelativeSeconds(sensorTimestampNs);
+        double relativeSec = tb.toRelativeSeconds(elapsedNs);
+        if (binaryLog != null) {
+            binaryLog.begin().putLong(wallMs).putDouble(sensorSec).putDouble(relativeSec)
+                    .putLong(frameNumber).end();
+            return;
+        }
         String line = wallMs + "," + sensorSec + "," + relativeSec + "," + frameNumber;
         logger.writeLine(line);
     }
 
     public void close() {
-        logger.close();
+        if (binaryLog != null) {
+            binaryLog.close();
+        } else {
+            logger.close();
+        }
     }
 
-    public void flush() {
-        logger.flush();
+    public CompletableFuture<Void> flush() {
+        return binaryLog != null ? binaryLog.flush() : logger.flush();
     }
 }
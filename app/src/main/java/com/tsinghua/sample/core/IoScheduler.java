@@ -0,0 +1,429 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 会话级共享 I/O 调度器：单个事件循环线程负责所有会话输出流的落盘。
+ *
+ * - 各 {@link Stream} 只在本线程内写文件，采集线程只往各自的缓冲里放数据；
+ * - 每轮按轮询（round-robin）顺序批量排空各流，避免某个高频流饿死其他流；
+ * - flush 与 fsync 按周期对所有有新数据的流合并执行，各流可单独设置 {@link Durability}；
+ *   BATCH_FSYNC 流的 fsync 在一轮排空结束后统一执行，不插在其他流的排空之间；
+ * - flush 请求返回 {@link CompletableFuture} 屏障，调用线程不阻塞；
+ * - 汇总吞吐量（字节/秒、条/秒）供界面或诊断读取。
+ *
+ * 相比每个 DataLogger 一个 100ms 轮询线程，整个会话只剩一个线程定时唤醒。
+ */
+public final class IoScheduler {
+    private static final String TAG = "IoScheduler";
+
+    /** 持久化级别：在写入吞吐与掉电/崩溃时可丢失的数据量之间取舍 */
+    public enum Durability {
+        /** 只 flush 到内核，不 fsync（吞吐最高，断电可能丢失页缓存中的数据） */
+        NONE,
+        /** 周期性合并 fsync（默认，约5秒） */
+        PERIODIC_FSYNC,
+        /** 每轮写出后 fsync（低频但不可丢的数据，如手动标记） */
+        BATCH_FSYNC
+    }
+
+    /** 由调度线程驱动的输出流 */
+    public interface Stream {
+        /** 流名称（日志/统计用） */
+        String getName();
+
+        /**
+         * 写出至多 maxItems 条积压数据（仅在调度线程调用）。
+         * @return 本次写出的字节数，0 表示没有积压
+         */
+        long drain(int maxItems);
+
+        /** 本次 drain 写出的条数（drain 之后立即读取） */
+        int lastDrainedItems();
+
+        /** 用户态缓冲写入内核 */
+        void flush();
+
+        /** 将已写入内核的数据 fsync 到存储 */
+        void sync();
+
+        /** 排空全部数据并释放文件句柄（关闭时调用一次） */
+        void finish();
+    }
+
+    /** 空闲时的唤醒间隔 */
+    private static final long TICK_NS = TimeUnit.MILLISECONDS.toNanos(100);
+    /** 合并 flush 的周期 */
+    private static final long FLUSH_INTERVAL_MS = 1000;
+    /** 合并 fsync 的周期 */
+    private static final long SYNC_INTERVAL_MS = 5000;
+    /** 每个流每轮最多排空的条数 */
+    private static final int BATCH_ITEMS = 256;
+    /** 单轮最多写出字节数，超过后先处理 flush/请求再继续 */
+    private static final long ROUND_BYTE_BUDGET = 512 * 1024;
+    /** 吞吐量日志间隔 */
+    private static final long STATS_LOG_INTERVAL_MS = 30_000;
+
+    private static volatile IoScheduler instance;
+
+    private final CopyOnWriteArrayList<Entry> entries = new CopyOnWriteArrayList<>();
+    private final ConcurrentLinkedQueue<Request> requests = new ConcurrentLinkedQueue<>();
+    private Thread thread;
+    private int roundStart = 0;
+
+    // 吞吐量统计
+    private final AtomicLong totalBytes = new AtomicLong();
+    private final AtomicLong totalItems = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private volatile double bytesPerSecond;
+    private volatile double itemsPerSecond;
+    private long rateWindowStartMs;
+    private long rateWindowBytes;
+    private long rateWindowItems;
+    private long lastStatsLogMs;
+
+    private static final class Entry {
+        final Stream stream;
+        volatile Durability durability;
+        boolean dirty;      // 自上次 flush 以来有新数据
+        boolean syncDirty;  // 自上次 fsync 以来有新数据
+        boolean batchSync;  // BATCH_FSYNC：本轮有写出，轮末 fsync
+
+        Entry(Stream stream, Durability durability) {
+            this.stream = stream;
+            this.durability = durability;
+        }
+    }
+
+    private static final class Request {
+        static final int FLUSH = 0;
+        static final int CLOSE = 1;
+
+        final int type;
+        final Stream stream;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        Request(int type, Stream stream) {
+            this.type = type;
+            this.stream = stream;
+        }
+    }
+
+    private IoScheduler() {}
+
+    public static IoScheduler getInstance() {
+        if (instance == null) {
+            synchronized (IoScheduler.class) {
+                if (instance == null) {
+                    instance = new IoScheduler();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 注册输出流（周期 fsync），之后由调度线程负责排空与落盘 */
+    public void register(Stream stream) {
+        register(stream, Durability.PERIODIC_FSYNC);
+    }
+
+    public void register(Stream stream, Durability durability) {
+        entries.add(new Entry(stream, durability));
+        ensureThread();
+        wakeup();
+    }
+
+    /** 修改已注册流的持久化级别 */
+    public void setDurability(Stream stream, Durability durability) {
+        Entry e = find(stream);
+        if (e != null) e.durability = durability;
+    }
+
+    /** 唤醒调度线程（缓冲即将满或有请求时调用，正常写入无需调用） */
+    public void wakeup() {
+        Thread t = thread;
+        if (t != null) LockSupport.unpark(t);
+    }
+
+    /**
+     * flush 屏障：调度线程写完此前已入队的全部数据并落盘后完成
+     * （持久化级别为 NONE 时只保证写入内核）。调用线程不阻塞。
+     */
+    public CompletableFuture<Void> flushAsync(Stream stream) {
+        return post(new Request(Request.FLUSH, stream));
+    }
+
+    /**
+     * 排空、flush 并关闭指定流，之后不再调度，最多等待 timeoutMs。
+     * @return 是否在超时前完成
+     */
+    public boolean close(Stream stream, long timeoutMs) {
+        CompletableFuture<Void> done = post(new Request(Request.CLOSE, stream));
+        try {
+            done.get(timeoutMs, TimeUnit.MILLISECONDS);
+            return true;
+        } catch (TimeoutException e) {
+            Log.w(TAG, "close timed out after " + timeoutMs + "ms: " + stream.getName());
+            return false;
+        } catch (ExecutionException e) {
+            return false;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+
+    private CompletableFuture<Void> post(Request request) {
+        if (Thread.currentThread() == thread) {
+            // 调度线程内部调用（如回调中关闭），直接执行
+            handle(request);
+            return request.done;
+        }
+        requests.add(request);
+        ensureThread();
+        wakeup();
+        return request.done;
+    }
+
+    private synchronized void ensureThread() {
+        if (thread != null) return;
+        thread = new Thread(this::loop, "SessionIO");
+        thread.setPriority(Thread.MIN_PRIORITY + 1); // 低优先级
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    private void loop() {
+        long lastFlushMs = nowMs();
+        long lastSyncMs = lastFlushMs;
+        rateWindowStartMs = lastFlushMs;
+        lastStatsLogMs = lastFlushMs;
+
+        while (true) {
+            Request r;
+            while ((r = requests.poll()) != null) {
+                handle(r);
+            }
+
+            long bytes = drainRound();
+
+            long now = nowMs();
+            if (now - lastFlushMs >= FLUSH_INTERVAL_MS) {
+                flushDirty();
+                lastFlushMs = now;
+            }
+            if (now - lastSyncMs >= SYNC_INTERVAL_MS) {
+                syncDirty();
+                lastSyncMs = now;
+            }
+            updateRates(now);
+
+            if (bytes == 0 && requests.isEmpty()) {
+                if (entries.isEmpty()) {
+                    // 没有活动流：无限期休眠直到注册或请求唤醒
+                    LockSupport.park(this);
+                } else {
+                    LockSupport.parkNanos(this, TICK_NS);
+                }
+                Thread.interrupted(); // 清除中断标记，调度线程不退出
+            }
+        }
+    }
+
+    /** 轮询排空所有流，轮末对本轮写出过的 BATCH_FSYNC 流各 fsync 一次，返回写出字节数 */
+    private long drainRound() {
+        long total = 0;
+        boolean batchSync = false;
+        boolean more = true;
+        while (more && total < ROUND_BYTE_BUDGET) {
+            more = false;
+            int n = entries.size();
+            if (n == 0) break;
+            int start = roundStart++ % n;
+            for (int i = 0; i < n; i++) {
+                Entry e;
+                try {
+                    e = entries.get((start + i) % n);
+                } catch (IndexOutOfBoundsException ignored) {
+                    break; // 列表在遍历时缩短
+                }
+                long bytes = safeDrain(e.stream, BATCH_ITEMS);
+                if (bytes > 0) {
+                    e.dirty = true;
+                    e.syncDirty = true;
+                    if (e.durability == Durability.BATCH_FSYNC) {
+                        e.batchSync = true;
+                        batchSync = true;
+                    }
+                    total += bytes;
+                    totalBytes.addAndGet(bytes);
+                    int items = e.stream.lastDrainedItems();
+                    totalItems.addAndGet(items);
+                    rateWindowBytes += bytes;
+                    rateWindowItems += items;
+                    if (items >= BATCH_ITEMS) more = true;
+                }
+            }
+        }
+        if (batchSync) {
+            for (Entry e : entries) {
+                if (!e.batchSync) continue;
+                e.batchSync = false;
+                syncEntry(e);
+            }
+        }
+        return total;
+    }
+
+    private void flushDirty() {
+        for (Entry e : entries) {
+            if (!e.dirty) continue;
+            try {
+                e.stream.flush();
+            } catch (Throwable t) {
+                Log.e(TAG, "flush failed: " + e.stream.getName(), t);
+            }
+            e.dirty = false;
+            flushCount.incrementAndGet();
+        }
+    }
+
+    private void syncDirty() {
+        for (Entry e : entries) {
+            if (!e.syncDirty || e.durability == Durability.NONE) continue;
+            syncEntry(e);
+        }
+    }
+
+    /** flush + fsync 单个流 */
+    private void syncEntry(Entry e) {
+        if (e.dirty) {
+            try {
+                e.stream.flush();
+            } catch (Throwable t) {
+                Log.e(TAG, "flush failed: " + e.stream.getName(), t);
+            }
+            e.dirty = false;
+            flushCount.incrementAndGet();
+        }
+        try {
+            e.stream.sync();
+        } catch (Throwable t) {
+            Log.e(TAG, "sync failed: " + e.stream.getName(), t);
+        }
+        e.syncDirty = false;
+        syncCount.incrementAndGet();
+    }
+
+    private void handle(Request r) {
+        try {
+            Entry e = find(r.stream);
+            drainFully(r.stream);
+            if (e != null) {
+                e.dirty = true;
+                if (e.durability == Durability.NONE) {
+                    r.stream.flush();
+                    e.dirty = false;
+                } else {
+                    syncEntry(e);
+                }
+            }
+            if (r.type == Request.CLOSE) {
+                r.stream.finish();
+                if (e != null) entries.remove(e);
+            }
+            r.done.complete(null);
+        } catch (Throwable t) {
+            Log.e(TAG, "request failed: " + r.stream.getName(), t);
+            r.done.completeExceptionally(t);
+        }
+    }
+
+    private void drainFully(Stream s) {
+        long bytes;
+        while ((bytes = safeDrain(s, Integer.MAX_VALUE)) > 0) {
+            totalBytes.addAndGet(bytes);
+            totalItems.addAndGet(s.lastDrainedItems());
+        }
+    }
+
+    private long safeDrain(Stream s, int maxItems) {
+        try {
+            return s.drain(maxItems);
+        } catch (Throwable t) {
+            Log.e(TAG, "drain failed: " + s.getName(), t);
+            return 0;
+        }
+    }
+
+    private Entry find(Stream s) {
+        for (Entry e : entries) {
+            if (e.stream == s) return e;
+        }
+        return null;
+    }
+
+    private void updateRates(long now) {
+        long elapsed = now - rateWindowStartMs;
+        if (elapsed < 1000) return;
+        bytesPerSecond = rateWindowBytes * 1000.0 / elapsed;
+        itemsPerSecond = rateWindowItems * 1000.0 / elapsed;
+        rateWindowBytes = 0;
+        rateWindowItems = 0;
+        rateWindowStartMs = now;
+
+        if (now - lastStatsLogMs >= STATS_LOG_INTERVAL_MS && !entries.isEmpty()) {
+            Log.d(TAG, String.format(java.util.Locale.US,
+                    "I/O throughput: %.1f KB/s, %.0f lines/s, streams=%d, flushes=%d, fsyncs=%d",
+                    bytesPerSecond / 1024.0, itemsPerSecond, entries.size(),
+                    flushCount.get(), syncCount.get()));
+            lastStatsLogMs = now;
+        }
+    }
+
+    private static long nowMs() {
+        return System.nanoTime() / 1_000_000L;
+    }
+
+    // ============ 汇总吞吐量 ============
+
+    /** 最近1秒窗口的写入字节速率 */
+    public double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    /** 最近1秒窗口的写入条数速率 */
+    public double getItemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    public long getTotalBytes() {
+        return totalBytes.get();
+    }
+
+    public long getTotalItems() {
+        return totalItems.get();
+    }
+
+    public long getFlushCount() {
+        return flushCount.get();
+    }
+
+    public long getSyncCount() {
+        return syncCount.get();
+    }
+
+    public int getStreamCount() {
+        return entries.size();
+    }
+}
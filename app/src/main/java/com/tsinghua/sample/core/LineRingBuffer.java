@@ -0,0 +1,201 @@
+package com.tsinghua.sample.core;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 预分配的环形缓冲区（LMAX 风格 claim/publish），供 DataLogger 写入热路径使用。
+ *
+ * - 槽位（{@link Slot}）在创建时分配并循环复用，稳态下生产者不产生任何对象分配；
+ * - 生产者：{@link #tryClaim()} 领取序号 → 填充槽位 → {@link #publish(long)} 发布；
+ * - 消费者（单线程）：{@link #poll(Slot)} 将已发布的槽位拷贝到自己的暂存槽后推进读游标；
+ * - DROP_OLDEST 策略下生产者可通过 {@link #dropOldest()} 抢占最旧的已发布槽位，
+ *   消费者以读游标 CAS 判定拷贝是否有效，被抢占时丢弃拷贝重试。
+ *
+ * 领取使用 CAS，因此多个生产者线程并发写入也是安全的（常见情况仍是单生产者）。
+ */
+public final class LineRingBuffer {
+
+    /** 可复用的行槽位，保存一行已编码的 UTF-8 字节（含结尾换行符）。 */
+    public static class Slot {
+        byte[] data;
+        int length;
+        /** 入队时刻（System.nanoTime），用于统计入队到写出的延迟 */
+        long enqueueNanos;
+
+        public Slot(int initialCapacity) {
+            data = new byte[Math.max(16, initialCapacity)];
+        }
+
+        public byte[] data() {
+            return data;
+        }
+
+        public int length() {
+            return length;
+        }
+
+        public long enqueueNanos() {
+            return enqueueNanos;
+        }
+
+        public void setEnqueueNanos(long nanos) {
+            enqueueNanos = nanos;
+        }
+
+        /** 按 UTF-8 编码写入一行文本，缺少结尾换行时自动补齐。仅在行超过当前容量时扩容。 */
+        public void setLine(CharSequence line) {
+            int n = line.length();
+            ensureCapacity(n + 1);
+            int pos = 0;
+            for (int i = 0; i < n; i++) {
+                char c = line.charAt(i);
+                if (c < 0x80) {
+                    data[pos++] = (byte) c;
+                    continue;
+                }
+                // 非ASCII字符（如中文标签）：最坏每个char占3字节，剩余部分按最坏情况扩容
+                ensureCapacity(pos + (n - i) * 3 + 1);
+                if (c < 0x800) {
+                    data[pos++] = (byte) (0xC0 | (c >> 6));
+                    data[pos++] = (byte) (0x80 | (c & 0x3F));
+                } else if (Character.isHighSurrogate(c) && i + 1 < n
+                        && Character.isLowSurrogate(line.charAt(i + 1))) {
+                    int cp = Character.toCodePoint(c, line.charAt(++i));
+                    data[pos++] = (byte) (0xF0 | (cp >> 18));
+                    data[pos++] = (byte) (0x80 | ((cp >> 12) & 0x3F));
+                    data[pos++] = (byte) (0x80 | ((cp >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (cp & 0x3F));
+                } else if (Character.isSurrogate(c)) {
+                    data[pos++] = (byte) '?';
+                } else {
+                    data[pos++] = (byte) (0xE0 | (c >> 12));
+                    data[pos++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                    data[pos++] = (byte) (0x80 | (c & 0x3F));
+                }
+            }
+            if (pos == 0 || data[pos - 1] != '\n') {
+                data[pos++] = '\n';
+            }
+            length = pos;
+        }
+
+        /** 写入已编码的一行字节（如 {@link CsvEncoder} 的输出），缺少结尾换行时自动补齐 */
+        public void setBytes(byte[] src, int offset, int count) {
+            ensureCapacity(count + 1);
+            System.arraycopy(src, offset, data, 0, count);
+            int pos = count;
+            if (pos == 0 || data[pos - 1] != '\n') {
+                data[pos++] = '\n';
+            }
+            length = pos;
+        }
+
+        void copyFrom(Slot other) {
+            // 只读一次 length：被抢占时源槽位可能正在被改写，拷贝结果会在 CAS 失败后丢弃
+            int n = other.length;
+            byte[] src = other.data;
+            n = Math.min(n, src.length);
+            ensureCapacity(n);
+            System.arraycopy(src, 0, data, 0, n);
+            length = n;
+            enqueueNanos = other.enqueueNanos;
+        }
+
+        void ensureCapacity(int capacity) {
+            if (data.length < capacity) {
+                byte[] grown = new byte[Math.max(capacity, data.length * 2)];
+                System.arraycopy(data, 0, grown, 0, data.length);
+                data = grown;
+            }
+        }
+    }
+
+    private final Slot[] slots;
+    private final int mask;
+    private final AtomicLongArray published;
+    private final AtomicLong claimCursor = new AtomicLong(0);
+    private final AtomicLong readCursor = new AtomicLong(0);
+
+    /**
+     * @param capacity     槽位数，向上取整为2的幂
+     * @param slotCapacity 每个槽位的初始字节容量
+     */
+    public LineRingBuffer(int capacity, int slotCapacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        slots = new Slot[size];
+        published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            slots[i] = new Slot(slotCapacity);
+            published.set(i, -1);
+        }
+        mask = size - 1;
+    }
+
+    public int capacity() {
+        return slots.length;
+    }
+
+    /** 领取一个序号；缓冲区满时返回 -1。 */
+    public long tryClaim() {
+        while (true) {
+            long c = claimCursor.get();
+            if (c - readCursor.get() >= slots.length) {
+                return -1;
+            }
+            if (claimCursor.compareAndSet(c, c + 1)) {
+                return c;
+            }
+        }
+    }
+
+    /** 获取已领取序号对应的槽位（仅领取者在发布前可写） */
+    public Slot slot(long sequence) {
+        return slots[(int) (sequence & mask)];
+    }
+
+    /** 发布已填充的槽位，对消费者可见 */
+    public void publish(long sequence) {
+        published.lazySet((int) (sequence & mask), sequence);
+    }
+
+    /**
+     * 丢弃最旧的一条已发布记录（DROP_OLDEST）。
+     * 最旧槽位尚未发布（其他生产者正在写）时返回 false。
+     */
+    public boolean dropOldest() {
+        long r = readCursor.get();
+        if (r >= claimCursor.get()) return false;
+        if (published.get((int) (r & mask)) != r) return false;
+        return readCursor.compareAndSet(r, r + 1);
+    }
+
+    /**
+     * 消费一条记录到 target（消费者线程专用）。
+     * @return 是否取到记录
+     */
+    public boolean poll(Slot target) {
+        while (true) {
+            long r = readCursor.get();
+            Slot s = slots[(int) (r & mask)];
+            if (published.get((int) (r & mask)) != r) {
+                return false;
+            }
+            target.copyFrom(s);
+            if (readCursor.compareAndSet(r, r + 1)) {
+                return true;
+            }
+            // 被 DROP_OLDEST 抢占，拷贝作废，重试下一条
+        }
+    }
+
+    /** 当前积压条数（近似值） */
+    public int size() {
+        long n = claimCursor.get() - readCursor.get();
+        return (int) Math.max(0, n);
+    }
+
+    public boolean isEmpty() {
+        return readCursor.get() >= claimCursor.get();
+    }
+}
@@ -0,0 +1,238 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * 基于内存映射（FileChannel.map）的追加写段文件。
+ *
+ * 记录直接拷贝进映射区（即页缓存），没有用户态缓冲，进程被杀时已 append 的记录不会丢失，
+ * 只有断电才依赖 {@link #force()}。
+ *
+ * 文件结构（小端）：
+ * <pre>
+ *   header: int magic "FCSG" | int version | long createdWallMs
+ *   record: int length | int crc32(payload) | payload[length]
+ * </pre>
+ * 映射窗口之外的区域由文件扩展自动补零，长度为 0 即表示后续无记录；
+ * 异常退出后由 {@link SegmentRecovery} 找到最后一条有效记录并截断。
+ *
+ * 换窗不在写入线程上做 mmap/msync：I/O 线程通过 {@link #prepareNext()} 在当前窗口将满时预先映射下一个窗口
+ * （与当前窗口重叠，共享同一页缓存），append 换窗时只交换引用；换下的窗口由 I/O 线程写回后释放。
+ */
+public class MappedSegmentWriter {
+    private static final String TAG = "MappedSegmentWriter";
+
+    /** 段文件扩展名 */
+    public static final String EXTENSION = ".seg";
+
+    static final int MAGIC = 0x47534346; // "FCSG" little-endian
+    static final int VERSION = 1;
+    static final int HEADER_SIZE = 16;
+    static final int RECORD_OVERHEAD = 8;
+    /** 单条记录上限，超出视为损坏 */
+    static final int MAX_RECORD_SIZE = 1 << 20;
+
+    /** 单个映射窗口大小 */
+    private static final int WINDOW_SIZE = 4 * 1024 * 1024;
+    /** 当前窗口剩余不足此值时预映射下一个窗口 */
+    private static final int PREMAP_MARGIN = 1024 * 1024;
+
+    private final File file;
+    private RandomAccessFile raf;
+    private FileChannel channel;
+    private MappedByteBuffer window;
+    private long windowStart;
+    // 预映射的下一个窗口（起点不晚于写入位置）与换下待写回的窗口
+    private MappedByteBuffer next;
+    private long nextStart;
+    private final List<MappedByteBuffer> retired = new ArrayList<>();
+    // 映射、写回与关闭互斥，持有时不占用 this 锁，append 不等待 msync
+    private final Object mapLock = new Object();
+    private long position;
+    private long recordCount;
+    private final CRC32 crc = new CRC32();
+
+    public MappedSegmentWriter(File file) throws IOException {
+        this.file = file;
+        File parent = file.getParentFile();
+        if (parent != null && !parent.exists()) {
+            //noinspection ResultOfMethodCallIgnored
+            parent.mkdirs();
+        }
+        this.raf = new RandomAccessFile(file, "rw");
+        raf.setLength(0);
+        this.channel = raf.getChannel();
+        window = map(channel, 0, HEADER_SIZE);
+        window.putInt(MAGIC);
+        window.putInt(VERSION);
+        window.putLong(System.currentTimeMillis());
+        position = HEADER_SIZE;
+    }
+
+    /** 追加一条记录（线程安全） */
+    public synchronized void append(byte[] data, int offset, int length) throws IOException {
+        if (window == null) throw new IOException("Segment closed: " + file.getName());
+        if (length <= 0) return;
+        if (length > MAX_RECORD_SIZE) throw new IOException("Record too large: " + length);
+
+        int needed = RECORD_OVERHEAD + length;
+        // 末尾至少留 4 字节 0 作为结束标记
+        if (position + needed + 4 > windowStart + window.capacity()) {
+            advance(needed + 4);
+        }
+        crc.reset();
+        crc.update(data, offset, length);
+        int start = (int) (position - windowStart);
+        // 先写 payload 与 crc，最后写 length：长度非 0 时记录已完整
+        window.putInt(start + 4, (int) crc.getValue());
+        window.position(start + RECORD_OVERHEAD);
+        window.put(data, offset, length);
+        window.putInt(start, length);
+        position += needed;
+        recordCount++;
+    }
+
+    private static MappedByteBuffer map(FileChannel channel, long start, int minSize) throws IOException {
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_WRITE, start, Math.max(WINDOW_SIZE, minSize));
+        buf.order(ByteOrder.LITTLE_ENDIAN);
+        return buf;
+    }
+
+    /** 换窗（持有 this 锁）：优先换入预映射的窗口；未就绪（I/O 线程落后）时才在调用线程上映射，旧窗口留给 I/O 线程写回 */
+    private void advance(int minSize) throws IOException {
+        retired.add(window);
+        if (next != null && nextStart <= position && position + minSize <= nextStart + next.capacity()) {
+            window = next;
+            windowStart = nextStart;
+        } else {
+            window = map(channel, position, minSize);
+            windowStart = position;
+        }
+        next = null;
+    }
+
+    /**
+     * 由 I/O 线程周期调用：写回并释放换下的窗口；当前窗口将满时预映射下一个窗口。
+     * mmap 与 msync 都在 this 锁之外进行，写入线程此时仍可 append。
+     */
+    public void prepareNext() {
+        synchronized (mapLock) {
+            List<MappedByteBuffer> done;
+            FileChannel ch;
+            long start = -1;
+            synchronized (this) {
+                if (window == null) return;
+                done = takeRetired();
+                ch = channel;
+                if (next == null && windowStart + window.capacity() - position < PREMAP_MARGIN) {
+                    start = position;
+                }
+            }
+            forceAll(done);
+            if (start < 0) return;
+            try {
+                MappedByteBuffer buf = map(ch, start, 0);
+                synchronized (this) {
+                    // 映射期间写入位置只会前进，新窗口从 start 起覆盖之后的记录
+                    if (window != null && next == null) {
+                        next = buf;
+                        nextStart = start;
+                    }
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "premap error: " + file.getName(), e);
+            }
+        }
+    }
+
+    /** 将映射写回存储（msync），用于断电保护：先写回换下的窗口，再写回当前窗口 */
+    public void force() {
+        synchronized (mapLock) {
+            List<MappedByteBuffer> done;
+            MappedByteBuffer current;
+            synchronized (this) {
+                if (window == null) return;
+                done = takeRetired();
+                current = window;
+            }
+            done.add(current);
+            forceAll(done);
+        }
+    }
+
+    /** 写回并截断到最后一条记录末尾 */
+    public void close() {
+        synchronized (mapLock) {
+            synchronized (this) {
+                if (window == null) return;
+                try {
+                    forceAll(takeRetired());
+                    window.force();
+                    window = null;
+                    next = null;
+                    channel.truncate(position);
+                    // 截断后的长度等元数据一并落盘
+                    channel.force(true);
+                    raf.close();
+                } catch (IOException e) {
+                    Log.e(TAG, "close error: " + file.getName(), e);
+                } finally {
+                    window = null;
+                    next = null;
+                    channel = null;
+                    raf = null;
+                }
+            }
+        }
+    }
+
+    /** 取出换下的窗口，之后不再持有其引用（持有 this 锁） */
+    private List<MappedByteBuffer> takeRetired() {
+        List<MappedByteBuffer> done = new ArrayList<>(retired);
+        retired.clear();
+        return done;
+    }
+
+    private void forceAll(List<MappedByteBuffer> buffers) {
+        for (MappedByteBuffer buf : buffers) {
+            try {
+                buf.force();
+            } catch (Exception e) {
+                Log.w(TAG, "force error: " + file.getName(), e);
+            }
+        }
+    }
+
+    /** 已写入的有效字节数（含文件头） */
+    public synchronized long getPosition() {
+        return position;
+    }
+
+    public synchronized long getRecordCount() {
+        return recordCount;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /** 读取段文件头，校验魔数与版本；返回 false 表示不是段文件 */
+    static boolean readHeader(ByteBuffer buf) {
+        if (buf.remaining() < HEADER_SIZE) return false;
+        if (buf.getInt() != MAGIC) return false;
+        int version = buf.getInt();
+        buf.getLong(); // createdWallMs
+        return version == VERSION;
+    }
+}
@@ -0,0 +1,253 @@
+package com.tsinghua.sample.core;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * 二进制记录的列描述（定宽记录 + 小端序基本类型）。
+ *
+ * 文件头布局（小端序）：
+ * magic(u32 "FCRL") | version(u16) | recordSize(u16) | columnCount(u16)
+ * | 每列：type(u8) precision(i8) nameLen(u16) name(UTF-8)
+ * | csvHeaderLen(u16) csvHeader(UTF-8)
+ *
+ * csvHeader 保存导出时使用的原始CSV表头，保证导出结果与现有CSV布局一致。
+ */
+public final class RecordSchema {
+
+    /** 文件魔数 "FCRL"（小端读取） */
+    public static final int MAGIC = 0x4C524346;
+
+    /** 文件格式版本 */
+    public static final int VERSION = 1;
+
+    /** 列类型 */
+    public enum Type {
+        INT16(1, 2),
+        INT32(2, 4),
+        UINT32(3, 4),
+        INT64(4, 8),
+        FLOAT32(5, 4),
+        FLOAT64(6, 8);
+
+        final int code;
+        final int size;
+
+        Type(int code, int size) {
+            this.code = code;
+            this.size = size;
+        }
+
+        static Type fromCode(int code) {
+            for (Type t : values()) {
+                if (t.code == code) return t;
+            }
+            throw new IllegalArgumentException("Unknown column type: " + code);
+        }
+    }
+
+    /** 单列描述。precision < 0 表示浮点列按 Float/Double.toString 导出。 */
+    public static final class Column {
+        public final String name;
+        public final Type type;
+        public final int precision;
+        final int offset;
+
+        Column(String name, Type type, int precision, int offset) {
+            this.name = name;
+            this.type = type;
+            this.precision = precision;
+            this.offset = offset;
+        }
+    }
+
+    private final List<Column> columns;
+    private final int recordSize;
+    private final String csvHeader;
+
+    private RecordSchema(List<Column> columns, int recordSize, String csvHeader) {
+        this.columns = Collections.unmodifiableList(columns);
+        this.recordSize = recordSize;
+        this.csvHeader = csvHeader;
+    }
+
+    public List<Column> getColumns() {
+        return columns;
+    }
+
+    public int getColumnCount() {
+        return columns.size();
+    }
+
+    public Column getColumn(int index) {
+        return columns.get(index);
+    }
+
+    /** 单条记录字节数 */
+    public int getRecordSize() {
+        return recordSize;
+    }
+
+    /** 导出CSV时使用的表头 */
+    public String getCsvHeader() {
+        return csvHeader;
+    }
+
+    // ============ 内置 schema（与现有CSV布局一一对应） ============
+
+    /** IMU加速度计：sensor_ns,wall_ms,relative_s(%.6f),accel_x/y/z(%f) */
+    public static final RecordSchema ACCELEROMETER = new Builder(Constants.CSV_HEADER_ACCELEROMETER)
+            .add("sensor_ns", Type.INT64)
+            .add("wall_ms", Type.INT64)
+            .add("relative_s", Type.FLOAT64, 6)
+            .add("accel_x", Type.FLOAT32, 6)
+            .add("accel_y", Type.FLOAT32, 6)
+            .add("accel_z", Type.FLOAT32, 6)
+            .build();
+
+    /** IMU陀螺仪：sensor_ns,wall_ms,relative_s(%.6f),gyro_x/y/z(%f) */
+    public static final RecordSchema GYROSCOPE = new Builder(Constants.CSV_HEADER_GYROSCOPE)
+            .add("sensor_ns", Type.INT64)
+            .add("wall_ms", Type.INT64)
+            .add("relative_s", Type.FLOAT64, 6)
+            .add("gyro_x", Type.FLOAT32, 6)
+            .add("gyro_y", Type.FLOAT32, 6)
+            .add("gyro_z", Type.FLOAT32, 6)
+            .build();
+
+    /** 指环实时数据（与 ring_data.csv 表头一致） */
+    public static final RecordSchema RING = new Builder(
+            "wall_ms,frame_ts,green,red,ir,accX,accY,accZ,gyroX,gyroY,gyroZ,temp0,temp1,temp2")
+            .add("wall_ms", Type.INT64)
+            .add("frame_ts", Type.INT64)
+            .add("green", Type.UINT32)
+            .add("red", Type.UINT32)
+            .add("ir", Type.UINT32)
+            .add("accX", Type.INT16)
+            .add("accY", Type.INT16)
+            .add("accZ", Type.INT16)
+            .add("gyroX", Type.INT16)
+            .add("gyroY", Type.INT16)
+            .add("gyroZ", Type.INT16)
+            .add("temp0", Type.INT16)
+            .add("temp1", Type.INT16)
+            .add("temp2", Type.INT16)
+            .build();
+
+    /** 血氧仪：wall_ms,hr,spo2,bvp */
+    public static final RecordSchema SPO2 = new Builder(Constants.CSV_HEADER_SPO2)
+            .add("wall_ms", Type.INT64)
+            .add("hr", Type.INT32)
+            .add("spo2", Type.INT32)
+            .add("bvp", Type.INT32)
+            .build();
+
+    /** 帧元数据（与 FrameMetadataRecorder 表头一致） */
+    public static final RecordSchema FRAME_METADATA = new Builder("wall_ms,sensor_ts_sec,relative_sec,frame_number")
+            .add("wall_ms", Type.INT64)
+            .add("sensor_ts_sec", Type.FLOAT64)
+            .add("relative_sec", Type.FLOAT64)
+            .add("frame_number", Type.INT64)
+            .build();
+
+    // ============ 文件头序列化 ============
+
+    /** 序列化为文件头字节 */
+    public byte[] toHeaderBytes() {
+        int size = 4 + 2 + 2 + 2;
+        byte[][] names = new byte[columns.size()][];
+        for (int i = 0; i < columns.size(); i++) {
+            names[i] = columns.get(i).name.getBytes(StandardCharsets.UTF_8);
+            size += 1 + 1 + 2 + names[i].length;
+        }
+        byte[] header = csvHeader.getBytes(StandardCharsets.UTF_8);
+        size += 2 + header.length;
+
+        ByteBuffer buf = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        buf.putInt(MAGIC);
+        buf.putShort((short) VERSION);
+        buf.putShort((short) recordSize);
+        buf.putShort((short) columns.size());
+        for (int i = 0; i < columns.size(); i++) {
+            Column c = columns.get(i);
+            buf.put((byte) c.type.code);
+            buf.put((byte) c.precision);
+            buf.putShort((short) names[i].length);
+            buf.put(names[i]);
+        }
+        buf.putShort((short) header.length);
+        buf.put(header);
+        return buf.array();
+    }
+
+    /**
+     * 从文件头解析 schema，buffer 需为小端序，读取后 position 位于第一条记录。
+     * 文件头不完整时抛出 {@link java.nio.BufferUnderflowException}。
+     */
+    public static RecordSchema readHeader(ByteBuffer buf) {
+        int magic = buf.getInt();
+        if (magic != MAGIC) {
+            throw new IllegalArgumentException("Not a binary record log (magic=" + Integer.toHexString(magic) + ")");
+        }
+        int version = buf.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported record log version: " + version);
+        }
+        int recordSize = buf.getShort() & 0xFFFF;
+        int count = buf.getShort() & 0xFFFF;
+        List<String> names = new ArrayList<>(count);
+        List<Type> types = new ArrayList<>(count);
+        List<Integer> precisions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            types.add(Type.fromCode(buf.get() & 0xFF));
+            precisions.add((int) buf.get());
+            byte[] name = new byte[buf.getShort() & 0xFFFF];
+            buf.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+        }
+        byte[] header = new byte[buf.getShort() & 0xFFFF];
+        buf.get(header);
+
+        Builder builder = new Builder(new String(header, StandardCharsets.UTF_8));
+        for (int i = 0; i < count; i++) {
+            builder.add(names.get(i), types.get(i), precisions.get(i));
+        }
+        RecordSchema schema = builder.build();
+        if (schema.recordSize != recordSize) {
+            throw new IllegalArgumentException("Record size mismatch: header=" + recordSize
+                    + ", columns=" + schema.recordSize);
+        }
+        return schema;
+    }
+
+    public static final class Builder {
+        private final String csvHeader;
+        private final List<Column> columns = new ArrayList<>();
+        private int offset = 0;
+
+        public Builder(String csvHeader) {
+            this.csvHeader = csvHeader;
+        }
+
+        public Builder add(String name, Type type) {
+            return add(name, type, -1);
+        }
+
+        public Builder add(String name, Type type, int precision) {
+            columns.add(new Column(name, type, precision, offset));
+            offset += type.size;
+            return this;
+        }
+
+        public RecordSchema build() {
+            if (columns.isEmpty()) {
+                throw new IllegalStateException("Schema has no columns");
+            }
+            return new RecordSchema(new ArrayList<>(columns), offset, csvHeader);
+        }
+    }
+}
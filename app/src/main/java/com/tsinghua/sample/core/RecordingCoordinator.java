@@ -4,16 +4,31 @@ import android.content.Context;
 import android.content.SharedPreferences;
 import android.os.Handler;
 import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
 
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
 import com.tsinghua.sample.media.IMURecorder;
 import com.tsinghua.sample.media.MultiMicAudioRecorderHelper;
 import com.tsinghua.sample.media.RecorderHelper;
 import com.tsinghua.sample.device.OximeterManager;
-import com.tsinghua.sample.utils.NotificationHandler;
+import com.tsinghua.sample.device.RingRecordingModule;
 import com.tsinghua.sample.ecg.ECGMeasurementController;
 
 import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.function.Consumer;
 
 /**
@@ -28,26 +43,44 @@ import java.util.function.Consumer;
  * - SpO2（血氧仪）
  *
  * 确保所有模块使用统一的时间基准（TimeSync）
+ * 各模块实现 {@link RecordingModule} 并经 {@link #register} 注册，协调器只按接口调度：
+ * 在专用线程上并行启动，由 {@link StartBarrier} 在同一时刻开始记录，启动偏差写入 manifest.json；
+ * 停止时并行执行、各有时限，超时的模块不再等待，停止报告写入 manifest.json（modules）
+ * 录制中由 {@link StreamWatchdog} 监控各数据流，停滞时调用模块的 recover
+ * 存储空间不足时按 {@link StorageBudget} 的顺序降级：后置摄像头、视频码率由界面执行，音频与停止录制由本类执行
  */
 public class RecordingCoordinator {
     private static final String TAG = "RecordingCoordinator";
 
     private final Context context;
-    private final RecorderHelper recorderHelper;
-    private final IMURecorder imuRecorder;
-    private final MultiMicAudioRecorderHelper audioRecorder;
-    private final OximeterManager oximeterManager;
-
-    private boolean enableCamera;
-    private boolean enableIMU;
-    private boolean enableAudio;
-    private boolean enableRing;
-    private boolean enableECG;
-    private boolean enableSpO2;
-
-    private boolean isRecording = false;
+
+    // 按注册顺序启动/停止的模块，以及本次录制启用的模块名
+    private final Map<String, RecordingModule> modules = new LinkedHashMap<>();
+    private final Set<String> enabledModules = new HashSet<>();
+
+    // 录制的摄像头（摄像头由界面启动，用于估算存储占用）
+    private boolean frontCamera = true;
+    private boolean backCamera = false;
+
+    // 存储降级：摄像头相关步骤交给界面执行
+    private StorageBudget.Actions cameraStorageActions;
+    private boolean audioStoppedForStorage = false;
+
+    private volatile boolean isRecording = false;
     private Consumer<String> statusCallback;
 
+    // 模块并行启动/停止
+    private static final long START_JOIN_TIMEOUT_MS = 5000;
+    /** 停止超时的模块补导出前最多再等待的时间 */
+    private static final long LATE_EXPORT_WAIT_MS = 60_000;
+    private final ExecutorService moduleExecutor = Executors.newCachedThreadPool(
+            r -> new Thread(r, "RecordingModule"));
+    // startTasks 与 activeModules 只在控制线程上读写；交给停止线程时整体换成新列表，
+    // activeModules 的内容不就地修改（降级移除模块时换成副本），已交出的列表不再变化
+    private List<Future<?>> startTasks = new ArrayList<>();
+    private List<RecordingModule> activeModules = new ArrayList<>();
+    private volatile CompletableFuture<Void> stopFuture = CompletableFuture.completedFuture(null);
+
     // 录制时长控制（对齐iOS）
     private int maxRecordingDuration = 2400; // 默认40分钟
     private long recordingStartTime = 0;
@@ -61,21 +94,72 @@ public class RecordingCoordinator {
                                 IMURecorder imuRecorder,
                                 MultiMicAudioRecorderHelper audioRecorder,
                                 OximeterManager oximeterManager) {
+        this(context, Looper.getMainLooper(), recorderHelper, imuRecorder, audioRecorder, oximeterManager);
+    }
+
+    /**
+     * @param controlLooper 录制控制线程：时长定时、存储检查与降级、状态回调都在其上执行
+     *                      （{@link RecordingService} 使用专用线程，不占用主线程）
+     */
+    public RecordingCoordinator(Context context,
+                                Looper controlLooper,
+                                RecorderHelper recorderHelper,
+                                IMURecorder imuRecorder,
+                                MultiMicAudioRecorderHelper audioRecorder,
+                                OximeterManager oximeterManager) {
         this.context = context;
-        this.recorderHelper = recorderHelper;
-        this.imuRecorder = imuRecorder;
-        this.audioRecorder = audioRecorder;
-        this.oximeterManager = oximeterManager;
-        this.durationHandler = new Handler(Looper.getMainLooper());
+        this.durationHandler = new Handler(controlLooper);
+        if (recorderHelper != null) register(recorderHelper);
+        if (imuRecorder != null) register(imuRecorder);
+        if (audioRecorder != null) register(audioRecorder);
+        if (oximeterManager != null) register(oximeterManager);
+        // Ring同步测量 - 纳入一键录制（对齐iOS beginSynchronizedMeasurement）
+        register(new RingRecordingModule(context));
+        // ECG同步测量 - 纳入一键录制
+        ECGMeasurementController ecgController = ECGMeasurementController.getInstance();
+        ecgController.init(context);
+        register(ecgController);
+    }
+
+    /** 注册采集模块（同名模块被替换），录制中调用在下一次录制生效 */
+    public void register(RecordingModule module) {
+        modules.put(module.getName(), module);
+    }
+
+    /** 启用/停用模块；未注册的名字（如由界面启动的 camera）只用于存储估算与降级 */
+    public void setEnabled(String name, boolean enabled) {
+        if (enabled) {
+            enabledModules.add(name);
+        } else {
+            enabledModules.remove(name);
+        }
+    }
+
+    private boolean isEnabled(String name) {
+        return enabledModules.contains(name);
     }
 
     public void setModules(boolean camera, boolean imu, boolean audio, boolean ring, boolean ecg, boolean spo2) {
-        this.enableCamera = camera;
-        this.enableIMU = imu;
-        this.enableAudio = audio;
-        this.enableRing = ring;
-        this.enableECG = ecg;
-        this.enableSpO2 = spo2;
+        setEnabled("camera", camera);
+        setEnabled("imu", imu);
+        setEnabled("audio", audio);
+        setEnabled("ring", ring);
+        setEnabled("ecg", ecg);
+        setEnabled("spo2", spo2);
+    }
+
+    /** 本次录制启用的前/后置摄像头 */
+    public void setCameras(boolean front, boolean back) {
+        this.frontCamera = front;
+        this.backCamera = back;
+    }
+
+    /**
+     * 设置摄像头相关的存储降级动作（关闭后置摄像头、降低码率），在控制线程调用。
+     * 录制开始前即降级时摄像头尚未启动，实现方应记住状态并在启动时生效。
+     */
+    public void setCameraStorageActions(StorageBudget.Actions actions) {
+        this.cameraStorageActions = actions;
     }
 
     public void setStatusCallback(Consumer<String> cb) {
@@ -143,15 +227,19 @@ public class RecordingCoordinator {
             Log.w(TAG, "Recording already in progress");
             return;
         }
+        if (isStopping()) {
+            Log.w(TAG, "Previous session still stopping");
+            return;
+        }
 
         // 加载录制时长配置
         loadRecordingDuration();
 
         // 1. 创建会话目录（如果还没有的话）
-        SessionManager.getInstance().ensureSession(context, experimentId);
+        File sessionDir = SessionManager.getInstance().ensureSession(context, experimentId);
 
-        // 2. 启动统一时间基准（关键：确保所有模块时间戳一致）
-        TimeSync.startSessionClock();
+        // 2. 统一时间基准由 SessionManager 在创建会话时同步；会话已存在（如摄像头先启动）时不再重新同步，
+        //    避免正在写入的流中途跳变
         TimeSync.logTimestampStatus("RecordingCoordinator");
         Log.i(TAG, "Session started with unified time base: " + TimeSync.getSessionStartWallMillis());
 
@@ -159,92 +247,67 @@ public class RecordingCoordinator {
         isRecording = true;
         recordingStartTime = System.currentTimeMillis();
 
-        // 3. 按顺序启动各模块
-        if (enableIMU && imuRecorder != null) {
-            imuRecorder.startRecording();
-            Log.d(TAG, "IMU recording started");
-        }
-
-        if (enableAudio && audioRecorder != null) {
-            audioRecorder.startRecording();
-            Log.d(TAG, "Audio recording started");
+        // 3. 估算存储占用，空间不足时在启动模块前先降级
+        audioStoppedForStorage = false;
+        boolean camera = isEnabled("camera");
+        StorageBudget.Plan plan = new StorageBudget.Plan()
+                .video(camera && frontCamera, camera && backCamera)
+                .sensors(isEnabled("audio"), isEnabled("imu"), isEnabled("ring"), isEnabled("ecg"), isEnabled("spo2"))
+                .duration(maxRecordingDuration);
+        long estimate = SessionManager.getInstance().beginStorageBudget(plan, this::applyStorageStep);
+        Log.i(TAG, "Estimated session footprint: " + estimate / (1024 * 1024) + "MB");
+
+        // 4. 各模块在启动线程上并行启动，全部就绪后经开始屏障在同一时刻开始记录
+        List<RecordingModule> active = new ArrayList<>();
+        List<String> gated = new ArrayList<>();
+        for (RecordingModule m : modules.values()) {
+            if (!isEnabled(m.getName())) continue;
+            if (audioStoppedForStorage && "audio".equals(m.getName())) continue;
+            active.add(m);
+            gated.add(m.getName());
         }
-
-        if (enableSpO2 && oximeterManager != null) {
-            if (oximeterManager.isConnected()) {
-                oximeterManager.startRecording("unused");
-                Log.d(TAG, "SpO2 recording started");
-            } else {
-                Log.w(TAG, "SpO2 device not connected, skipping");
-                notifyStatus("血氧仪未连接");
-            }
+        activeModules = active;
+        StartBarrier.getInstance().arm(gated, StartBarrier.DEFAULT_TIMEOUT_MS);
+        for (RecordingModule m : active) {
+            startModule(m, sessionDir);
         }
+        // 数据流停滞时有限次重启所属模块，gap 与恢复动作写入 markers
+        StreamWatchdog.getInstance().start(active);
 
-        // Ring同步测量 - 纳入一键录制（对齐iOS beginSynchronizedMeasurement）
-        if (enableRing) {
-            startRingSynchronizedMeasurement();
-        }
-
-        // ECG同步测量 - 纳入一键录制
-        if (enableECG) {
-            startEcgSynchronizedMeasurement();
-        }
-
-        // 4. 启动录制时长定时器
+        // 5. 启动录制时长定时器
         startDurationTimer();
     }
 
-    /**
-     * 启动指环同步测量（对齐iOS ringController.beginSynchronizedMeasurement）
-     */
-    private void startRingSynchronizedMeasurement() {
-        // 开始新一轮录制前先清空波形图，避免与上一轮波形混叠
-        NotificationHandler.clearRingPlots();
-
-        // 设置测量时长
-        NotificationHandler.setMeasurementTime(maxRecordingDuration);
-
-        // 获取当前会话目录用于数据落盘
-        File sessionDir = SessionManager.getInstance().getSessionDir();
-        if (sessionDir != null) {
+    /** 在启动线程上准备并启动一个模块，返回后向开始屏障报到 */
+    private void startModule(RecordingModule module, File sessionDir) {
+        String name = module.getName();
+        startTasks.add(moduleExecutor.submit(() -> {
+            long begin = SystemClock.elapsedRealtime();
+            boolean started = false;
             try {
-                // 创建DataLogger用于指环数据记录
-                File ringFile = new File(SessionManager.getInstance().subDir("ring"), "ring_data.csv");
-                String header = "wall_ms,frame_ts,green,red,ir,accX,accY,accZ,gyroX,gyroY,gyroZ,temp0,temp1,temp2";
-                DataLogger ringLogger = new DataLogger(ringFile, header);
-                NotificationHandler.setDataLogger(ringLogger);
-                Log.d(TAG, "Ring DataLogger set to: " + ringFile.getAbsolutePath());
+                module.prepare(sessionDir, maxRecordingDuration);
+                started = module.start();
+                Log.d(TAG, name + " started=" + started + " in " + (SystemClock.elapsedRealtime() - begin) + "ms");
             } catch (Exception e) {
-                Log.e(TAG, "Failed to create ring DataLogger", e);
+                Log.e(TAG, "Error starting " + name, e);
+            } finally {
+                StartBarrier.getInstance().arrive(name, started, SystemClock.elapsedRealtime() - begin);
             }
-        }
-
-        // 启动主动测量（内部会检查连接状态）
-        boolean started = NotificationHandler.startActiveMeasurement();
-        if (started) {
-            Log.d(TAG, "Ring synchronized measurement started, duration: " + maxRecordingDuration + "s");
-            notifyStatus("指环测量启动");
-        } else {
-            Log.w(TAG, "Failed to start ring measurement (not connected or already measuring)");
-            notifyStatus("指环测量启动失败");
-        }
+            if (!started) notifyStatus(module.getLabel() + "未启动");
+        }));
     }
 
-    /**
-     * 启动ECG同步测量（对齐iOS ecgController.beginSynchronizedMeasurement）
-     */
-    private void startEcgSynchronizedMeasurement() {
-        ECGMeasurementController ecgController = ECGMeasurementController.getInstance();
-        ecgController.init(context);
-
-        if (ecgController.isConnected()) {
-            File sessionDir = SessionManager.getInstance().getSessionDir();
-            ecgController.beginSynchronizedMeasurement(maxRecordingDuration, sessionDir);
-            Log.d(TAG, "ECG synchronized measurement started");
-            notifyStatus("ECG测量启动");
-        } else {
-            Log.w(TAG, "ECG device not connected, skipping");
-            notifyStatus("ECG未连接");
+    /** 等待尚未返回的模块启动（停止线程），最多 {@link #START_JOIN_TIMEOUT_MS} */
+    private void awaitModuleStarts(List<Future<?>> starting) {
+        long deadline = SystemClock.elapsedRealtime() + START_JOIN_TIMEOUT_MS;
+        for (Future<?> f : starting) {
+            try {
+                f.get(Math.max(0, deadline - SystemClock.elapsedRealtime()), TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, "Module start still running at stop");
+            } catch (Exception e) {
+                Log.e(TAG, "Module start failed", e);
+            }
         }
     }
 
@@ -269,10 +332,14 @@ public class RecordingCoordinator {
                         remainingTimeCallback.accept(remaining);
                     }
 
+                    // 检查剩余存储空间，必要时降级；空间耗尽时与时长到达一样自动停止
+                    boolean outOfStorage = StorageBudget.getInstance().check() == StorageBudget.Step.STOP_RECORDING;
+
                     // 检查是否达到配置时长
-                    if (elapsed >= maxRecordingDuration) {
-                        Log.i(TAG, "Recording duration reached, auto-stopping...");
-                        notifyStatus("录制时长到达，自动停止");
+                    if (outOfStorage || elapsed >= maxRecordingDuration) {
+                        Log.i(TAG, (outOfStorage ? "Out of storage" : "Recording duration reached")
+                                + ", auto-stopping...");
+                        notifyStatus(outOfStorage ? "存储空间不足，自动停止" : "录制时长到达，自动停止");
                         stop();
 
                         // 通知UI自动停止（在新的 try-catch 中，防止 UI 回调出错影响其他逻辑）
@@ -311,93 +378,203 @@ public class RecordingCoordinator {
     }
 
     /**
-     * 停止录制会话
+     * 停止录制会话：立即返回，各模块在工作线程上并行停止，每个模块最多等待其
+     * {@link RecordingModule#getStopDeadlineMs()}，超时的模块在后台继续收尾，不拖住会话结束。
+     * 返回的 future 在会话结束（清单、健康报告写出、会话索引更新）后完成。
      */
-    public void stop() {
+    public CompletableFuture<Void> stop() {
         if (!isRecording) {
             Log.w(TAG, "No recording in progress");
-            return;
+            return stopFuture;
         }
 
         Log.i(TAG, "Stopping recording session");
 
-        // 停止定时器
+        // 停止定时器与存活监控（模块停止不算停滞）
         stopDurationTimer();
+        StreamWatchdog.getInstance().stop();
+        isRecording = false;
+        recordingStartTime = 0;
 
-        // 使用 try-catch 包裹每个停止操作，防止一个模块出错导致其他模块无法停止
-        if (enableCamera && recorderHelper != null) {
+        List<RecordingModule> stopping = activeModules;
+        activeModules = new ArrayList<>();
+        List<Future<?>> starting = startTasks;
+        startTasks = new ArrayList<>();
+        boolean binaryLog = isBinarySensorLogEnabled();
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        stopFuture = done;
+        moduleExecutor.execute(() -> {
+            CompletableFuture<Void> reported = CompletableFuture.completedFuture(null);
             try {
-                recorderHelper.stopFrontRecording();
-                recorderHelper.stopBackRecording();
-                Log.d(TAG, "Camera recording stopped");
+                reported = stopModules(stopping, starting, binaryLog);
             } catch (Exception e) {
-                Log.e(TAG, "Error stopping camera", e);
+                Log.e(TAG, "Error stopping session", e);
             }
+            reported.whenComplete((v, e) -> done.complete(null));
+        });
+        return done;
+    }
+
+    /** 停止线程：并行停止各模块、写出停止报告并结束会话，返回会话报告写出后完成的 future */
+    private CompletableFuture<Void> stopModules(List<RecordingModule> stopping, List<Future<?>> starting,
+                                                boolean binaryLog) {
+        // 模块启动仍在进行时先等其返回，避免启动晚于停止
+        awaitModuleStarts(starting);
+
+        // 每个模块单独一个任务，一个模块出错或卡住不影响其他模块
+        long begin = SystemClock.elapsedRealtime();
+        List<Future<?>> tasks = new ArrayList<>(stopping.size());
+        for (RecordingModule m : stopping) {
+            tasks.add(moduleExecutor.submit(() -> {
+                m.stop();
+                return null;
+            }));
         }
 
-        if (enableIMU && imuRecorder != null) {
+        JsonArray report = new JsonArray();
+        List<String> overran = new ArrayList<>();
+        // 超时模块可能仍在写 .bin，导出时跳过其目录，待其停止后再补导出
+        Set<String> busyDirs = new HashSet<>();
+        File sessionDir = SessionManager.getInstance().getSessionDir();
+        for (int i = 0; i < stopping.size(); i++) {
+            RecordingModule m = stopping.get(i);
+            long deadlineMs = m.getStopDeadlineMs();
+            JsonObject e = new JsonObject();
+            e.addProperty("module", m.getName());
+            e.addProperty("deadline_ms", deadlineMs);
             try {
-                imuRecorder.stopRecording();
-                Log.d(TAG, "IMU recording stopped");
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping IMU", e);
+                // 各模块同时开始停止，时限从统一起点计算
+                long waitMs = Math.max(0, begin + deadlineMs - SystemClock.elapsedRealtime());
+                tasks.get(i).get(waitMs, TimeUnit.MILLISECONDS);
+                e.addProperty("overran", false);
+            } catch (TimeoutException ex) {
+                Log.w(TAG, m.getName() + " did not stop within " + deadlineMs + "ms");
+                e.addProperty("overran", true);
+                overran.add(m.getLabel());
+                if (binaryLog) {
+                    busyDirs.addAll(m.getOutputDirs());
+                    deferExport(m, tasks.get(i), sessionDir);
+                    e.addProperty("csv_export", "deferred");
+                }
+            } catch (Exception ex) {
+                Throwable cause = ex.getCause() != null ? ex.getCause() : ex;
+                Log.e(TAG, "Error stopping " + m.getName(), cause);
+                e.addProperty("overran", false);
+                e.addProperty("error", String.valueOf(cause));
             }
-        }
-
-        if (enableAudio && audioRecorder != null) {
+            e.addProperty("stop_ms", SystemClock.elapsedRealtime() - begin);
             try {
-                audioRecorder.stopRecording();
-                Log.d(TAG, "Audio recording stopped");
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping audio", e);
+                JsonObject health = m.health();
+                if (health != null) e.add("health", health);
+            } catch (Exception ex) {
+                Log.w(TAG, "health() failed for " + m.getName(), ex);
             }
+            report.add(e);
         }
+        Log.i(TAG, "Modules stopped in " + (SystemClock.elapsedRealtime() - begin) + "ms");
+        SessionManifest.getInstance().setModuleReport(report);
+        if (!overran.isEmpty()) notifyStatus(String.join("、", overran) + "停止超时");
 
-        if (enableSpO2 && oximeterManager != null) {
-            try {
-                oximeterManager.stopRecording();
-                Log.d(TAG, "SpO2 recording stopped");
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping SpO2", e);
-            }
+        // 二进制记录导出为原CSV布局（后台线程）
+        if (binaryLog) {
+            BinaryCsvExporter.exportSessionAsync(sessionDir, busyDirs);
         }
 
-        // 停止指环测量
-        if (enableRing) {
+        // 写入会话健康报告 info/health.json
+        CompletableFuture<Void> reported = SessionManager.getInstance().endSession();
+        notifyStatus("会话停止");
+        return reported;
+    }
+
+    /** 等停止超时的模块真正停止后导出其目录；仍未停止则放弃，.bin 保留待下次导出 */
+    private void deferExport(RecordingModule m, Future<?> stopTask, File sessionDir) {
+        if (sessionDir == null) return;
+        moduleExecutor.execute(() -> {
             try {
-                NotificationHandler.stopMeasurement();
-                NotificationHandler.setDataLogger(null);
-                Log.d(TAG, "Ring measurement stopped");
+                stopTask.get(LATE_EXPORT_WAIT_MS, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                Log.w(TAG, m.getName() + " still not stopped, skip CSV export of " + m.getOutputDirs());
+                return;
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
             } catch (Exception e) {
-                Log.e(TAG, "Error stopping ring", e);
+                // 停止出错时文件已不再写入，照常导出
+                Log.w(TAG, m.getName() + " stopped with error before deferred export", e);
             }
-        }
+            int n = 0;
+            for (String dir : m.getOutputDirs()) {
+                n += BinaryCsvExporter.exportDirectory(new File(sessionDir, dir));
+            }
+            Log.i(TAG, "Deferred export for " + m.getName() + ": " + n + " file(s)");
+        });
+    }
 
-        // 停止ECG测量
-        if (enableECG) {
-            try {
-                ECGMeasurementController ecgController = ECGMeasurementController.getInstance();
-                if (ecgController.isConnected()) {
-                    ecgController.stopSynchronizedMeasurement();
-                    Log.d(TAG, "ECG sampling stopped");
-                } else {
-                    Log.d(TAG, "ECG device not connected, skip stop");
+    /** 存储降级动作（控制线程） */
+    private boolean applyStorageStep(StorageBudget.Step step) {
+        switch (step) {
+            case DROP_BACK_CAMERA:
+            case LOWER_BITRATE:
+                if (!isEnabled("camera") || cameraStorageActions == null) return false;
+                boolean applied = cameraStorageActions.apply(step);
+                if (applied) {
+                    notifyStatus(step == StorageBudget.Step.DROP_BACK_CAMERA
+                            ? "存储空间不足，已关闭后置摄像头" : "存储空间不足，已降低视频码率");
                 }
-            } catch (Exception e) {
-                Log.e(TAG, "Error stopping ECG", e);
-            }
+                return applied;
+            case STOP_AUDIO:
+                RecordingModule audio = modules.get("audio");
+                if (!isEnabled("audio") || audio == null || audioStoppedForStorage) return false;
+                audioStoppedForStorage = true;
+                StreamWatchdog.getInstance().unwatch(audio.getName());
+                if (activeModules.contains(audio)) {
+                    List<RecordingModule> remaining = new ArrayList<>(activeModules);
+                    remaining.remove(audio);
+                    activeModules = remaining;
+                    // 录制开始前降级时音频尚未启动，start 中跳过即可；已启动时在工作线程上停止
+                    moduleExecutor.execute(() -> {
+                        try {
+                            audio.stop();
+                        } catch (Exception e) {
+                            Log.e(TAG, "Error stopping audio for storage", e);
+                        }
+                    });
+                }
+                notifyStatus("存储空间不足，已停止音频");
+                return true;
+            case STOP_RECORDING:
+                // 由时长定时器按自动停止流程处理
+                return true;
+            default:
+                return false;
         }
-
-        isRecording = false;
-        recordingStartTime = 0;
-        notifyStatus("会话停止");
     }
 
     public boolean isRecording() {
         return isRecording;
     }
 
+    /** 上一次停止是否仍在进行（模块收尾、写出清单） */
+    public boolean isStopping() {
+        return !stopFuture.isDone();
+    }
+
+    /** 当前（或最近一次）停止完成的 future，未停止过时已完成 */
+    public CompletableFuture<Void> whenStopped() {
+        return stopFuture;
+    }
+
+    private boolean isBinarySensorLogEnabled() {
+        SharedPreferences prefs = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
+        return prefs.getBoolean("binary_sensor_log", false);
+    }
+
     private void notifyStatus(String msg) {
+        // 模块在启动/停止线程上运行，状态回调统一回到控制线程
+        if (Looper.myLooper() != durationHandler.getLooper()) {
+            durationHandler.post(() -> notifyStatus(msg));
+            return;
+        }
         Log.i(TAG, msg);
         if (statusCallback != null) statusCallback.accept(msg);
     }
@@ -0,0 +1,74 @@
+package com.tsinghua.sample.core;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 一个采集模块（摄像头、IMU、音频、指环、ECG、血氧仪……）的生命周期，由 {@link RecordingCoordinator} 统一调度：
+ * prepare -> start（启动线程上并行执行，经 {@link StartBarrier} 同一时刻开始记录）-> stop（并行执行，各有时限）。
+ *
+ * 新增传感器只需实现本接口并 {@link RecordingCoordinator#register} 注册，无需修改协调器。
+ * 各方法在协调器的工作线程上调用，不要在其中直接操作界面。
+ */
+public interface RecordingModule {
+
+    /** 默认停止时限：超过时协调器不再等待并在报告中标记 overran */
+    long DEFAULT_STOP_DEADLINE_MS = 3000;
+
+    /** 模块名（开始屏障、清单中的标识），如 imu、audio、ring */
+    String getName();
+
+    /** 界面提示中的名称 */
+    default String getLabel() {
+        return getName();
+    }
+
+    /** 启动前准备（会话目录已创建，时基已同步） */
+    default void prepare(File sessionDir, int durationSeconds) throws Exception {}
+
+    /**
+     * 启动采集。
+     * @return 是否实际启动；设备未连接等返回 false，协调器提示并不再等待该模块
+     */
+    boolean start() throws Exception;
+
+    /** 停止采集并关闭文件，可能阻塞（编码器收尾、写入线程 join） */
+    void stop() throws Exception;
+
+    /** 把已采集的数据写到磁盘，返回的屏障在落盘后完成 */
+    default CompletableFuture<Void> flush() {
+        return CompletableFuture.completedFuture(null);
+    }
+
+    /** 运行状态摘要（写入清单 modules），没有时返回 null */
+    default JsonObject health() {
+        return null;
+    }
+
+    /** 模块写入的会话子目录名；停止超时时这些目录的二进制记录推迟到模块真正停止后再导出 */
+    default List<String> getOutputDirs() {
+        return Collections.singletonList(getName());
+    }
+
+    /** 停止时限（毫秒） */
+    default long getStopDeadlineMs() {
+        return DEFAULT_STOP_DEADLINE_MS;
+    }
+
+    /** 两条样本的最长间隔（毫秒），超过视为停滞，由 {@link StreamWatchdog} 处理；0 表示不监控 */
+    default long getStallTimeoutMs() {
+        return 0;
+    }
+
+    /**
+     * 数据流停滞时尝试恢复（重新注册监听、重新使能通知、重置 USB 接口），在监控线程上调用，不应长时间阻塞。
+     * @return 是否执行了恢复动作；不支持恢复返回 false（不再尝试），恢复失败（设备未连接等）抛出异常（稍后重试）
+     */
+    default boolean recover() throws Exception {
+        return false;
+    }
+}
@@ -0,0 +1,281 @@
+package com.tsinghua.sample.core;
+
+import android.app.Notification;
+import android.app.NotificationChannel;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.app.Service;
+import android.content.Context;
+import android.content.Intent;
+import android.content.pm.ServiceInfo;
+import android.os.Binder;
+import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.IBinder;
+import android.os.Process;
+import android.util.Log;
+
+import androidx.core.app.NotificationCompat;
+
+import com.tsinghua.sample.R;
+import com.tsinghua.sample.activity.ListActivity;
+import com.tsinghua.sample.device.OximeterManager;
+import com.tsinghua.sample.media.IMURecorder;
+import com.tsinghua.sample.media.MultiMicAudioRecorderHelper;
+
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArraySet;
+
+/**
+ * 录制前台服务：持有 {@link RecordingCoordinator} 及其采集模块，录制控制（启动、时长定时、存储检查、停止）
+ * 在专用的 RecordingControl 线程上执行，不经过主线程，界面卡顿、配置变化或 Activity 重建都不影响采集。
+ *
+ * 界面通过 bindService 取得服务，调用 {@link #startRecording}/{@link #stopRecording} 并经 {@link Listener}
+ * 订阅状态、剩余时间、启动结果与各数据流的写入遥测（回调在控制线程上，界面自行切回主线程）。
+ * 录制期间服务以前台服务运行（通知栏常驻），会话结束后退出前台。
+ * 摄像头预览依赖界面的 SurfaceView，摄像头编码与心率估计仍由界面管理；界面在录制中销毁时
+ * 经 {@link #onCameraOwnerDestroyed} 停止会话，不在视频已停止时继续只录传感器。
+ */
+public class RecordingService extends Service {
+    private static final String TAG = "RecordingService";
+    private static final String CHANNEL_ID = "recording";
+    private static final int NOTIFICATION_ID = 2;
+
+    /** 录制中推送写入遥测的间隔 */
+    private static final long TELEMETRY_INTERVAL_MS = 1000;
+
+    private static IMURecorder sharedImuRecorder;
+
+    /** 状态回调（控制线程） */
+    public interface Listener {
+        void onStatus(String message);
+
+        void onRemainingTime(int seconds);
+
+        /** 录制时长到达或存储空间耗尽，已自动停止 */
+        void onAutoStop();
+
+        /**
+         * 各模块已启动（含开始前的存储预算）。摄像头由界面管理，应在此之后按结果启动
+         * @param backCameraDropped 开始前因存储空间不足关闭了后置摄像头
+         */
+        void onStarted(boolean backCameraDropped);
+
+        /** 录制中每秒一次：各数据流的写入遥测快照（{@link SessionHealth}） */
+        void onTelemetry(List<StreamStats> streams);
+    }
+
+    public class LocalBinder extends Binder {
+        public RecordingService getService() {
+            return RecordingService.this;
+        }
+    }
+
+    private final IBinder binder = new LocalBinder();
+    private final Set<Listener> listeners = new CopyOnWriteArraySet<>();
+    private HandlerThread controlThread;
+    private Handler controlHandler;
+    private RecordingCoordinator coordinator;
+    private volatile boolean recording;
+    private volatile CompletableFuture<Void> stopFuture = CompletableFuture.completedFuture(null);
+
+    private final Runnable telemetryTick = new Runnable() {
+        @Override
+        public void run() {
+            if (!recording) return;
+            List<StreamStats> streams = SessionHealth.getInstance().getStreams();
+            for (Listener l : listeners) l.onTelemetry(streams);
+            controlHandler.postDelayed(this, TELEMETRY_INTERVAL_MS);
+        }
+    };
+
+    /** IMU 记录器由录制服务与设备列表（单独测试 IMU）共用 */
+    public static synchronized IMURecorder sharedImuRecorder(Context context) {
+        if (sharedImuRecorder == null) {
+            sharedImuRecorder = new IMURecorder(context.getApplicationContext());
+        }
+        return sharedImuRecorder;
+    }
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        controlThread = new HandlerThread("RecordingControl", Process.THREAD_PRIORITY_FOREGROUND);
+        controlThread.start();
+        controlHandler = new Handler(controlThread.getLooper());
+
+        Context app = getApplicationContext();
+        // 摄像头由界面直接控制（依赖 SurfaceView），不交给协调器
+        coordinator = new RecordingCoordinator(app, controlThread.getLooper(),
+                null,
+                sharedImuRecorder(app),
+                new MultiMicAudioRecorderHelper(app),
+                OximeterManager.getInstance(app));
+        coordinator.setStatusCallback(msg -> {
+            for (Listener l : listeners) l.onStatus(msg);
+        });
+        coordinator.setRemainingTimeCallback(remaining -> {
+            for (Listener l : listeners) l.onRemainingTime(remaining);
+        });
+        coordinator.setAutoStopCallback(() -> {
+            recording = false;
+            onStopping(coordinator.whenStopped());
+            for (Listener l : listeners) l.onAutoStop();
+        });
+        Log.d(TAG, "onCreate");
+    }
+
+    @Override
+    public IBinder onBind(Intent intent) {
+        return binder;
+    }
+
+    @Override
+    public int onStartCommand(Intent intent, int flags, int startId) {
+        // 由 startRecording 进入前台；进程被回收后不自动重启（会话已中断，重启也无法续录）
+        return START_NOT_STICKY;
+    }
+
+    public void addListener(Listener l) {
+        if (l != null) listeners.add(l);
+    }
+
+    public void removeListener(Listener l) {
+        if (l != null) listeners.remove(l);
+    }
+
+    /** 设置摄像头相关的存储降级动作，在控制线程上调用，实现方需自行切回主线程操作摄像头 */
+    public void setCameraStorageActions(StorageBudget.Actions actions) {
+        coordinator.setCameraStorageActions(actions);
+    }
+
+    /**
+     * 开始录制：进入前台，在控制线程上启动各模块。会话目录需已由调用方创建（SessionManager.startSession）。
+     * @return 本次录制时长（秒）
+     */
+    public int startRecording(String experimentId, boolean frontCamera, boolean backCamera) {
+        coordinator.loadRecordingDuration();
+        int duration = coordinator.getMaxRecordingDuration();
+        if (recording || isStopping()) {
+            Log.w(TAG, "startRecording ignored: recording=" + recording + ", stopping=" + isStopping());
+            return duration;
+        }
+        recording = true;
+        enterForeground(experimentId);
+        controlHandler.post(() -> {
+            // 启用全部模块
+            coordinator.setModules(true, true, true, true, true, true);
+            coordinator.setCameras(frontCamera, backCamera);
+            coordinator.start(experimentId);
+            // 开始前的存储降级已在 start 内同步完成
+            boolean backDropped = backCamera
+                    && StorageBudget.getInstance().wasApplied(StorageBudget.Step.DROP_BACK_CAMERA);
+            for (Listener l : listeners) l.onStarted(backDropped);
+            controlHandler.removeCallbacks(telemetryTick);
+            controlHandler.postDelayed(telemetryTick, TELEMETRY_INTERVAL_MS);
+        });
+        return duration;
+    }
+
+    /** 停止录制，返回的 future 在各模块停止、会话结束后完成 */
+    public CompletableFuture<Void> stopRecording() {
+        if (!recording) return stopFuture;
+        recording = false;
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        controlHandler.post(() -> coordinator.stop().whenComplete((v, e) -> done.complete(null)));
+        onStopping(done);
+        return done;
+    }
+
+    /**
+     * 持有摄像头的界面销毁（主线程）：视频与心率估计已随界面停止，录制中则停止会话，
+     * 并在清单中注明 stop_reason，离线可区分被截断的会话。
+     */
+    public void onCameraOwnerDestroyed() {
+        if (!recording) return;
+        Log.w(TAG, "Camera owner destroyed while recording, stopping session");
+        SessionManifest.getInstance().setStopReason("ui_destroyed");
+        stopRecording();
+    }
+
+    private void onStopping(CompletableFuture<Void> done) {
+        stopFuture = done;
+        done.whenComplete((v, e) -> controlHandler.post(() -> {
+            if (!recording) leaveForeground();
+        }));
+    }
+
+    public boolean isRecording() {
+        return recording;
+    }
+
+    /** 上一次停止是否仍在进行 */
+    public boolean isStopping() {
+        return !stopFuture.isDone();
+    }
+
+    /** 当前（或最近一次）停止完成的 future */
+    public CompletableFuture<Void> whenStopped() {
+        return stopFuture;
+    }
+
+    private void enterForeground(String experimentId) {
+        // 服务需在解绑后继续运行，先 startService 再进入前台
+        Intent intent = new Intent(this, RecordingService.class);
+        try {
+            startForegroundService(intent);
+            Notification notification = createNotification("录制中 · " + experimentId);
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.R) {
+                startForeground(NOTIFICATION_ID, notification,
+                        ServiceInfo.FOREGROUND_SERVICE_TYPE_MICROPHONE
+                                | ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                startForeground(NOTIFICATION_ID, notification, ServiceInfo.FOREGROUND_SERVICE_TYPE_CONNECTED_DEVICE);
+            } else {
+                startForeground(NOTIFICATION_ID, notification);
+            }
+        } catch (Exception e) {
+            // 不能进入前台时照常录制，只是界面退到后台后可能被系统回收
+            Log.e(TAG, "startForeground failed", e);
+        }
+    }
+
+    private void leaveForeground() {
+        stopForeground(true);
+        stopSelf();
+        Log.d(TAG, "Left foreground");
+    }
+
+    private Notification createNotification(String text) {
+        NotificationManager manager = getSystemService(NotificationManager.class);
+        if (manager != null) {
+            manager.createNotificationChannel(
+                    new NotificationChannel(CHANNEL_ID, "录制", NotificationManager.IMPORTANCE_LOW));
+        }
+        PendingIntent contentIntent = PendingIntent.getActivity(this, 0,
+                new Intent(this, ListActivity.class), PendingIntent.FLAG_IMMUTABLE);
+        return new NotificationCompat.Builder(this, CHANNEL_ID)
+                .setSmallIcon(R.mipmap.ic_launcher)
+                .setContentTitle("数据采集")
+                .setContentText(text)
+                .setContentIntent(contentIntent)
+                .setOngoing(true)
+                .build();
+    }
+
+    @Override
+    public void onDestroy() {
+        // 界面全部解绑且已停止录制时才会走到这里；仍在录制（异常路径）时先停止并结束会话
+        if (recording) {
+            Log.w(TAG, "Destroyed while recording, stopping session");
+            stopRecording();
+        }
+        HandlerThread thread = controlThread;
+        controlHandler.post(() -> coordinator.whenStopped().whenComplete((v, e) -> thread.quitSafely()));
+        listeners.clear();
+        super.onDestroy();
+    }
+}
@@ -0,0 +1,122 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.util.Locale;
+
+/**
+ * 长时录制的分段策略：各写入器按时长和/或大小滚动到编号分段文件。
+ *
+ * 时间分段按会话开始时刻对齐：第 k 段覆盖 wall_ms ∈ [origin + k·D, origin + (k+1)·D)，
+ * 每个流按样本自身的 wall_ms 决定所属分段，因此不同流的同号分段覆盖同一时间窗，可以逐段上传、后处理或删除。
+ * 单段超过大小上限时在同一时间窗内追加分片（xxx_0003_1.csv），不破坏对齐。
+ *
+ * 分段文件名：ring_data.csv -> ring_data_0000.csv、ring_data_0001.csv ……
+ * 各分段及其 wall_ms 范围记录在 manifest.json 对应流的 segments 中。
+ *
+ * 配置在会话开始时由 {@link SessionManager} 读取（AppSettings.segment_duration_s / segment_max_mb，0 为关闭），
+ * 只对之后创建的写入器生效。
+ */
+public final class SegmentPolicy {
+    private static final String TAG = "SegmentPolicy";
+
+    /** 分段关闭回调（在写入线程调用，不要阻塞） */
+    public interface Listener {
+        /**
+         * @param stream 清单中的流名（如 ring/ring_data.csv）
+         * @param file   已完整写出的分段文件
+         */
+        void onSegmentClosed(String stream, File file, int window, int part);
+    }
+
+    private static volatile long durationMs = 0;
+    private static volatile long maxBytes = 0;
+    private static volatile long originWallMs = 0;
+    private static volatile Listener listener;
+
+    private SegmentPolicy() {}
+
+    /**
+     * @param durationMs   时间分段长度，0 表示不按时间分段
+     * @param maxBytes     单段大小上限，0 表示不限
+     * @param originWallMs 时间窗起点（会话开始 wall_ms）
+     */
+    public static void configure(long durationMs, long maxBytes, long originWallMs) {
+        SegmentPolicy.durationMs = Math.max(0, durationMs);
+        SegmentPolicy.maxBytes = Math.max(0, maxBytes);
+        SegmentPolicy.originWallMs = originWallMs;
+        if (isEnabled()) {
+            Log.i(TAG, "Segment rollover: duration=" + durationMs + "ms, maxBytes=" + maxBytes
+                    + ", origin=" + originWallMs);
+        }
+    }
+
+    public static void setListener(Listener l) {
+        listener = l;
+    }
+
+    public static long getDurationMs() {
+        return durationMs;
+    }
+
+    public static long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public static boolean isEnabled() {
+        return durationMs > 0 || maxBytes > 0;
+    }
+
+    /** wall_ms 所属的时间窗序号；不按时间分段或早于起点时为 0 */
+    public static int windowOf(long wallMs) {
+        long d = durationMs;
+        if (d <= 0 || wallMs <= originWallMs) return 0;
+        return (int) Math.min(Integer.MAX_VALUE, (wallMs - originWallMs) / d);
+    }
+
+    /** 第 window 个时间窗的起点 wall_ms */
+    public static long windowStartWallMs(int window) {
+        return originWallMs + window * durationMs;
+    }
+
+    /** 当前分段已写 written 字节，再写 length 字节是否超过上限（空段不切分） */
+    public static boolean exceedsSize(long written, long headerBytes, int length) {
+        long max = maxBytes;
+        return max > 0 && written > headerBytes && written + length > max;
+    }
+
+    /** 分段文件：base 为逻辑文件（ring_data.csv），part > 0 为同一时间窗内的大小分片 */
+    public static File segmentFile(File base, int window, int part) {
+        String name = base.getName();
+        int dot = name.lastIndexOf('.');
+        String stem = dot > 0 ? name.substring(0, dot) : name;
+        String ext = dot > 0 ? name.substring(dot) : "";
+        String suffix = part > 0
+                ? String.format(Locale.US, "_%04d_%d", window, part)
+                : String.format(Locale.US, "_%04d", window);
+        return new File(base.getParentFile(), stem + suffix + ext);
+    }
+
+    public static void notifyClosed(String stream, File file, int window, int part) {
+        Listener l = listener;
+        if (l == null) return;
+        try {
+            l.onSegmentClosed(stream, file, window, part);
+        } catch (RuntimeException e) {
+            Log.e(TAG, "listener error", e);
+        }
+    }
+
+    /** 清单中的分段配置，未开启时返回 null */
+    static JsonObject toJson() {
+        if (!isEnabled()) return null;
+        JsonObject o = new JsonObject();
+        o.addProperty("duration_ms", durationMs);
+        o.addProperty("max_bytes", maxBytes);
+        o.addProperty("origin_wall_ms", originWallMs);
+        return o;
+    }
+}
@@ -0,0 +1,251 @@
+package com.tsinghua.sample.core;
+
+import android.os.Process;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+/**
+ * {@link MappedSegmentWriter} 段文件的恢复与导出。
+ *
+ * 启动时扫描上次异常退出遗留的 .seg 文件：按长度前缀 + CRC 逐条校验，
+ * 截断到最后一条有效记录末尾，再把记录内容（即原CSV行）还原为同名文本文件。
+ * 启动恢复只处理本进程启动前创建、且不在当前会话目录下的段文件；
+ * 同一段文件的恢复与关闭后的导出按文件串行，不会并发写同一个目标文件。
+ */
+public final class SegmentRecovery {
+    private static final String TAG = "SegmentRecovery";
+
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+
+    private static final AtomicBoolean launchRecoveryStarted = new AtomicBoolean(false);
+
+    // 按段文件路径串行化恢复与导出
+    private static final ConcurrentHashMap<String, Object> fileLocks = new ConcurrentHashMap<>();
+
+    private SegmentRecovery() {}
+
+    /** 段文件对应的目标文件（xxx.csv.seg -> xxx.csv） */
+    public static File targetFileFor(File segFile) {
+        String name = segFile.getName();
+        String base = name.endsWith(MappedSegmentWriter.EXTENSION)
+                ? name.substring(0, name.length() - MappedSegmentWriter.EXTENSION.length()) : name + ".out";
+        return new File(segFile.getParentFile(), base);
+    }
+
+    /**
+     * 校验并截断段文件，返回有效记录数；不是段文件时返回 -1。
+     */
+    public static long recover(File segFile) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segFile, "rw");
+             FileChannel channel = raf.getChannel()) {
+            long[] result = scan(channel, null);
+            if (result == null) return -1;
+            long validEnd = result[0];
+            long size = channel.size();
+            if (validEnd < size) {
+                channel.truncate(validEnd);
+                Log.i(TAG, segFile.getName() + ": truncated " + (size - validEnd) + " byte(s) after last valid record");
+            }
+            return result[1];
+        }
+    }
+
+    /**
+     * 将段文件中的记录依次写入目标文件（覆盖），返回记录数。
+     * 遇到第一条无效记录即停止，不要求事先调用 {@link #recover(File)}。
+     */
+    public static long export(File segFile, File target) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(segFile, "r");
+             FileChannel channel = raf.getChannel();
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(target, false), READ_BUFFER_SIZE)) {
+            long[] result = scan(channel, out);
+            if (result == null) throw new IOException("Not a segment file: " + segFile.getName());
+            return result[1];
+        }
+    }
+
+    /** 恢复 + 导出 + 删除段文件，返回记录数；失败时保留段文件。同一文件的调用互斥，已被处理过的返回 -1 */
+    public static long recoverAndExport(File segFile) {
+        Object lock = fileLocks.computeIfAbsent(segFile.getAbsolutePath(), k -> new Object());
+        synchronized (lock) {
+            if (!segFile.exists()) return -1;
+            File target = targetFileFor(segFile);
+            try {
+                long records = recover(segFile);
+                if (records < 0) {
+                    Log.w(TAG, "Skipped non-segment file: " + segFile.getAbsolutePath());
+                    return -1;
+                }
+                export(segFile, target);
+                //noinspection ResultOfMethodCallIgnored
+                segFile.delete();
+                return records;
+            } catch (IOException e) {
+                Log.e(TAG, "Recovery failed, segment kept: " + segFile.getAbsolutePath(), e);
+                return -1;
+            }
+        }
+    }
+
+    /** 递归收集目录下的段文件（只列目录，不读文件） */
+    static void collectSegments(File dir, List<File> out) {
+        File[] files = dir != null ? dir.listFiles() : null;
+        if (files == null) return;
+        for (File f : files) {
+            if (f.isDirectory()) {
+                collectSegments(f, out);
+            } else if (f.getName().endsWith(MappedSegmentWriter.EXTENSION)) {
+                out.add(f);
+            }
+        }
+    }
+
+    /**
+     * 恢复启动前遗留的段文件，返回处理的文件数。
+     * 跳过本进程启动后创建的段（文件头 createdWallMs）与当前会话目录下的段，它们由各自的写入器关闭时导出。
+     */
+    static int recoverStale(List<File> candidates, long processStartWallMs) {
+        int recovered = 0;
+        for (File f : candidates) {
+            File active = SessionManifest.getInstance().getSessionDir();
+            if (active != null && isUnder(f, active)) continue;
+            long created = readCreatedWallMs(f);
+            if (created < 0 || created >= processStartWallMs) continue;
+            long records = recoverAndExport(f);
+            if (records >= 0) {
+                recovered++;
+                Log.i(TAG, "Recovered " + f.getName() + " (" + records + " records)");
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * 恢复整个数据目录。每个进程只执行一次：候选段文件在调用线程上列出（须在任何会话开始前调用），
+     * 校验与导出在后台线程进行。
+     */
+    public static void recoverOnLaunch(File rootDir) {
+        if (rootDir == null || !rootDir.exists()) return;
+        if (!launchRecoveryStarted.compareAndSet(false, true)) return;
+        List<File> candidates = new ArrayList<>();
+        collectSegments(rootDir, candidates);
+        if (candidates.isEmpty()) return;
+        long processStartWallMs = System.currentTimeMillis()
+                - (SystemClock.elapsedRealtime() - Process.getStartElapsedRealtime());
+        Thread t = new Thread(() -> {
+            int n = recoverStale(candidates, processStartWallMs);
+            if (n > 0) Log.i(TAG, "Startup recovery finished: " + n + " segment(s)");
+        }, "SegmentRecovery");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /** 正常关闭后在后台线程导出段文件 */
+    public static void exportAsync(File segFile) {
+        exportAsync(segFile, null);
+    }
+
+    /** 后台导出，完成后（无论成败）在导出线程上执行 onDone */
+    public static void exportAsync(File segFile, Runnable onDone) {
+        Thread t = new Thread(() -> {
+            recoverAndExport(segFile);
+            if (onDone != null) onDone.run();
+        }, "SegmentExport");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+    }
+
+    /** 段文件头中的创建时间，不是段文件或读取失败时返回 -1 */
+    static long readCreatedWallMs(File segFile) {
+        try (RandomAccessFile raf = new RandomAccessFile(segFile, "r")) {
+            if (raf.length() < MappedSegmentWriter.HEADER_SIZE) return -1;
+            ByteBuffer buf = ByteBuffer.allocate(MappedSegmentWriter.HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            fill(raf.getChannel(), buf);
+            buf.flip();
+            if (buf.getInt() != MappedSegmentWriter.MAGIC || buf.getInt() != MappedSegmentWriter.VERSION) return -1;
+            return buf.getLong();
+        } catch (IOException e) {
+            Log.w(TAG, "Cannot read segment header: " + segFile.getAbsolutePath(), e);
+            return -1;
+        }
+    }
+
+    private static boolean isUnder(File f, File dir) {
+        String d = dir.getAbsolutePath() + File.separator;
+        return f.getAbsolutePath().startsWith(d);
+    }
+
+    /**
+     * 逐条扫描有效记录，out 非空时同时输出 payload。
+     * @return {有效数据末尾偏移, 记录数}；文件头无效时返回 null
+     */
+    private static long[] scan(FileChannel channel, OutputStream out) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(READ_BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+        channel.position(0);
+        fill(channel, buf);
+        buf.flip();
+        if (!MappedSegmentWriter.readHeader(buf)) return null;
+
+        CRC32 crc = new CRC32();
+        byte[] payload = new byte[256];
+        long offset = MappedSegmentWriter.HEADER_SIZE;
+        long count = 0;
+        while (true) {
+            if (buf.remaining() < MappedSegmentWriter.RECORD_OVERHEAD) {
+                buf.compact();
+                fill(channel, buf);
+                buf.flip();
+                if (buf.remaining() < MappedSegmentWriter.RECORD_OVERHEAD) break;
+            }
+            int length = buf.getInt(buf.position());
+            int expected = buf.getInt(buf.position() + 4);
+            if (length <= 0 || length > MappedSegmentWriter.MAX_RECORD_SIZE) break;
+
+            int total = MappedSegmentWriter.RECORD_OVERHEAD + length;
+            if (buf.remaining() < total) {
+                if (buf.capacity() < total) {
+                    ByteBuffer grown = ByteBuffer.allocate(total).order(ByteOrder.LITTLE_ENDIAN);
+                    grown.put(buf);
+                    buf = grown;
+                } else {
+                    buf.compact();
+                }
+                fill(channel, buf);
+                buf.flip();
+                if (buf.remaining() < total) break; // 记录被截断
+            }
+            if (payload.length < length) payload = new byte[Math.max(length, payload.length * 2)];
+            buf.position(buf.position() + MappedSegmentWriter.RECORD_OVERHEAD);
+            buf.get(payload, 0, length);
+            crc.reset();
+            crc.update(payload, 0, length);
+            if ((int) crc.getValue() != expected) break;
+
+            if (out != null) out.write(payload, 0, length);
+            offset += total;
+            count++;
+        }
+        return new long[]{offset, count};
+    }
+
+    private static void fill(FileChannel channel, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            if (channel.read(buf) < 0) break;
+        }
+    }
+}
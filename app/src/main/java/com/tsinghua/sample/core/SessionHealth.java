@@ -0,0 +1,127 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 会话写入健康度：汇总本次会话所有输出流（DataLogger、二进制记录、视频编码、音频）的 {@link StreamStats}。
+ *
+ * - 进程内通过 {@link #getStreams()} / {@link #toJson()} 实时读取；
+ * - 会话结束时由 {@link SessionManager#endSession()} 写入 info/health.json，
+ *   用于定位具体机型上的 I/O 饱和与丢数据问题。
+ */
+public final class SessionHealth {
+    private static final String TAG = "SessionHealth";
+    public static final String FILE_NAME = "health.json";
+
+    private static volatile SessionHealth instance;
+
+    private final CopyOnWriteArrayList<StreamStats> streams = new CopyOnWriteArrayList<>();
+    private volatile long sessionStartWallMs;
+
+    private SessionHealth() {}
+
+    public static SessionHealth getInstance() {
+        if (instance == null) {
+            synchronized (SessionHealth.class) {
+                if (instance == null) {
+                    instance = new SessionHealth();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 新会话开始：清除上一会话的流 */
+    public void reset() {
+        streams.clear();
+        sessionStartWallMs = System.currentTimeMillis();
+    }
+
+    /** 创建并登记一个流的统计对象 */
+    public StreamStats register(String name, String kind) {
+        StreamStats stats = new StreamStats(name, kind);
+        streams.add(stats);
+        return stats;
+    }
+
+    public List<StreamStats> getStreams() {
+        long now = System.nanoTime();
+        for (StreamStats s : streams) {
+            s.sampleRates(now);
+        }
+        return new ArrayList<>(streams);
+    }
+
+    /** 会话内累计丢弃条数 */
+    public long getTotalDrops() {
+        long total = 0;
+        for (StreamStats s : streams) {
+            total += s.getDrops();
+        }
+        return total;
+    }
+
+    public JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty("session_start_wall_ms", sessionStartWallMs);
+        root.addProperty("generated_wall_ms", System.currentTimeMillis());
+        root.addProperty("total_drops", getTotalDrops());
+
+        IoScheduler io = IoScheduler.getInstance();
+        JsonObject scheduler = new JsonObject();
+        scheduler.addProperty("bytes_per_sec", Math.round(io.getBytesPerSecond()));
+        scheduler.addProperty("items_per_sec", Math.round(io.getItemsPerSecond()));
+        scheduler.addProperty("total_bytes", io.getTotalBytes());
+        scheduler.addProperty("flushes", io.getFlushCount());
+        scheduler.addProperty("fsyncs", io.getSyncCount());
+        root.add("io_scheduler", scheduler);
+
+        JsonArray arr = new JsonArray();
+        for (StreamStats s : getStreams()) {
+            arr.add(s.toJson());
+        }
+        root.add("streams", arr);
+        return root;
+    }
+
+    /** 写入 {infoDir}/health.json */
+    public void writeReport(File infoDir) {
+        writeReport(infoDir, toJson());
+    }
+
+    /** 把 {@link #toJson()} 取得的快照写入 {infoDir}/health.json（快照在会话结束时取，写出可在后台进行） */
+    public static void writeReport(File infoDir, JsonObject report) {
+        if (infoDir == null || report == null) return;
+        try {
+            if (!infoDir.exists()) {
+                //noinspection ResultOfMethodCallIgnored
+                infoDir.mkdirs();
+            }
+            byte[] json = new GsonBuilder().setPrettyPrinting().create()
+                    .toJson(report).getBytes(StandardCharsets.UTF_8);
+            try (FileOutputStream out = new FileOutputStream(new File(infoDir, FILE_NAME), false)) {
+                out.write(json);
+            }
+            long drops = report.get("total_drops").getAsLong();
+            if (drops > 0) {
+                Log.w(TAG, "Session health written with " + drops + " dropped item(s)");
+            } else {
+                Log.i(TAG, "Session health written: " + report.getAsJsonArray("streams").size() + " stream(s)");
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "writeReport error", e);
+        }
+    }
+}
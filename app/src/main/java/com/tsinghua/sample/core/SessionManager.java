@@ -1,20 +1,29 @@
 package com.tsinghua.sample.core;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.os.Environment;
 import android.text.TextUtils;
 import android.util.Log;
 
+import com.google.gson.JsonObject;
+import com.tsinghua.sample.catalog.SessionCatalog;
+
 import java.io.File;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * 录制会话管理：
  * 负责创建统一的目录结构：
  * Movies/FacialCollection/{experimentId}/Session_{wallMs}/
- *  子目录：front、back、imu、audio、ring、ecg、spo2、inference、markers
+ *  子目录：front、back、imu、audio、ring、ecg、spo2、inference、markers、info
+ *  清单：manifest.json（录制中增量更新，见 {@link SessionManifest}）
+ *  分段：AppSettings.segment_duration_s / segment_max_mb 非 0 时各写入器按时间窗滚动分段（见 {@link SegmentPolicy}）
+ *  存储：录制开始时估算占用并监测剩余空间，不足时按顺序降级（见 {@link StorageBudget}）
+ *  校时：外部设备往返校时，结束时写出 info/clock_alignment.json（见 {@link ClockAlignment}）
  */
 public class SessionManager {
     private static final String TAG = "SessionManager";
@@ -23,6 +32,7 @@ public class SessionManager {
 
     private File sessionDir;
     private String experimentId;
+    private Context appContext;
 
     private SessionManager() {}
 
@@ -44,22 +54,75 @@ public class SessionManager {
         long wallMs = System.currentTimeMillis();
         String sessionName = "Session_" + wallMs;
 
-        File base = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
-        File root = new File(base, ROOT_DIR + "/" + experimentId + "/" + sessionName);
+        File root = new File(getRootDir(), experimentId + "/" + sessionName);
         if (!root.exists() && !root.mkdirs()) {
             Log.e(TAG, "无法创建会话目录: " + root.getAbsolutePath());
             return null;
         }
         sessionDir = root;
+        appContext = context.getApplicationContext();
         createSubDirs();
-
-        // 启动统一时基
+        // 启动统一时基（会话内唯一一次重新同步，之后各模块启动）
         TimeSync.startSessionClock();
+        // 分段时间窗以会话目录名中的 wallMs 为起点
+        SharedPreferences prefs = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
+        SegmentPolicy.configure(prefs.getInt("segment_duration_s", 0) * 1000L,
+                prefs.getInt("segment_max_mb", 0) * 1024L * 1024L, wallMs);
+        SessionHealth.getInstance().reset();
+        TimestampCalibration.getInstance().reset();
+        StartBarrier.getInstance().reset();
+        StreamWatchdog.getInstance().reset();
+        SessionManifest.getInstance().begin(sessionDir, experimentId);
+        ClockAlignment.getInstance().begin(sessionDir);
+        SessionCatalog.getInstance(appContext).onSessionStarted(sessionDir, experimentId);
 
         Log.i(TAG, "会话开始: " + root.getAbsolutePath());
         return sessionDir;
     }
 
+    /**
+     * 会话结束：在后台线程写出最终的 manifest.json、info/health.json 与 info/clock_alignment.json，并按清单更新会话索引。
+     * 健康统计在调用线程上取快照，各报告只作用于本会话目录，报告线程晚于下一次 startSession 运行时不会结束或覆盖新会话。
+     * 会话目录保留（后处理与受试者信息仍写入该目录），下次 startSession 时替换。
+     * @return 各报告写出、会话索引更新后完成的 future
+     */
+    public synchronized CompletableFuture<Void> endSession() {
+        File dir = sessionDir;
+        if (dir == null) return CompletableFuture.completedFuture(null);
+        StorageBudget.getInstance().end();
+        Context context = appContext;
+        JsonObject health = SessionHealth.getInstance().toJson();
+        CompletableFuture<Void> reported = new CompletableFuture<>();
+        Thread t = new Thread(() -> {
+            try {
+                ClockAlignment.getInstance().end(dir);
+                SessionManifest.getInstance().end(dir);
+                SessionHealth.writeReport(new File(dir, "info"), health);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "会话报告写出失败", e);
+            }
+            CompletableFuture<Void> indexed = context != null
+                    ? SessionCatalog.getInstance(context).onSessionEnded(dir)
+                    : CompletableFuture.completedFuture(null);
+            indexed.whenComplete((v, e) -> reported.complete(null));
+        }, "SessionReport");
+        t.setPriority(Thread.MIN_PRIORITY);
+        t.start();
+        Log.i(TAG, "会话结束: " + dir.getAbsolutePath());
+        return reported;
+    }
+
+    /**
+     * 按启用模块与计划时长估算会话占用并开始监测剩余空间，空间不足时立即按顺序降级。
+     * 录制开始、各模块启动前调用；actions 在主线程执行降级动作。
+     * @return 预计占用字节数
+     */
+    public synchronized long beginStorageBudget(StorageBudget.Plan plan, StorageBudget.Actions actions) {
+        if (sessionDir == null) return 0;
+        StorageBudget.getInstance().begin(sessionDir, plan, actions);
+        return plan.estimateBytes();
+    }
+
     private void createSubDirs() {
         String[] subs = {"front", "back", "imu", "audio", "ring", "ecg", "spo2", "inference", "markers", "info"};
         for (String s : subs) {
@@ -69,6 +132,12 @@ public class SessionManager {
         }
     }
 
+    /** 所有实验数据的根目录：Movies/FacialCollection */
+    public static File getRootDir() {
+        File base = Environment.getExternalStoragePublicDirectory(Environment.DIRECTORY_MOVIES);
+        return new File(base, ROOT_DIR);
+    }
+
     public File getSessionDir() {
         return sessionDir;
     }
@@ -0,0 +1,245 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * 会话清单 {sessionDir}/manifest.json：列出每个数据流的文件、schema、样本数、
+ * 首末 wall_ms、标称/实测采样率与 CRC32，供后处理和工具直接读取，无需扫描数据文件。
+ *
+ * 各写入器通过 {@link #register} 取得 {@link StreamDescriptor} 并在写出时增量更新；
+ * 清单本身作为一个流挂在 {@link IoScheduler} 上，内容有变化时每 {@link #WRITE_INTERVAL_MS}
+ * 以临时文件 + rename 的方式原子重写，会话结束时写出最终版本。
+ */
+public final class SessionManifest {
+    private static final String TAG = "SessionManifest";
+    public static final String FILE_NAME = "manifest.json";
+    public static final int VERSION = 1;
+
+    /** 录制中重写清单的最短间隔 */
+    static final long WRITE_INTERVAL_MS = 2000;
+    private static final long CLOSE_TIMEOUT_MS = 2000;
+
+    private static volatile SessionManifest instance;
+
+    private final CopyOnWriteArrayList<StreamDescriptor> streams = new CopyOnWriteArrayList<>();
+    private final IoScheduler scheduler = IoScheduler.getInstance();
+    private final ManifestStream stream = new ManifestStream();
+    private volatile File sessionDir;
+    private volatile String experimentId;
+    private volatile long sessionStartWallMs;
+    private volatile int firstTimebaseEpoch;
+    private volatile boolean active;
+    private volatile JsonArray moduleReport;
+    private volatile String stopReason;
+    private long lastWriteMs;
+    private long lastVersion = -1;
+
+    private SessionManifest() {}
+
+    public static SessionManifest getInstance() {
+        if (instance == null) {
+            synchronized (SessionManifest.class) {
+                if (instance == null) {
+                    instance = new SessionManifest();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 新会话开始（由 SessionManager 调用）；上一会话若未结束先写出最终清单 */
+    void begin(File dir, String expId) {
+        end(sessionDir);
+        synchronized (this) {
+            streams.clear();
+            sessionDir = dir;
+            experimentId = expId;
+            sessionStartWallMs = System.currentTimeMillis();
+            firstTimebaseEpoch = TimeSync.epoch();
+            moduleReport = null;
+            stopReason = null;
+            lastVersion = -1;
+            lastWriteMs = 0;
+            active = true;
+        }
+        // 首个版本也由调度线程写出，不在调用线程上 fsync
+        scheduler.register(stream, IoScheduler.Durability.NONE);
+    }
+
+    /**
+     * 会话结束：由调度线程写出最终清单后注销；dir 已不是当前会话（新会话已开始）时忽略。
+     * 不持有 this 锁等待，调度线程的 finish 需要同一把锁。
+     */
+    void end(File dir) {
+        synchronized (this) {
+            if (!active || dir == null || !dir.equals(sessionDir)) return;
+            active = false;
+        }
+        if (!scheduler.close(stream, CLOSE_TIMEOUT_MS)) {
+            writeNow();
+        }
+    }
+
+    /**
+     * 登记一个数据流，返回供写入方更新的描述。
+     * 不在会话中（sessionDir 为空）时仍返回可用对象，只是不会写入清单。
+     */
+    public StreamDescriptor register(File file, String kind, String format, String schema) {
+        File dir = sessionDir;
+        StreamDescriptor d = new StreamDescriptor(StreamDescriptor.relativePath(dir, file), kind, format, schema);
+        d.addFile(dir, file);
+        if (dir != null) streams.add(d);
+        return d;
+    }
+
+    public File getSessionDir() {
+        return sessionDir;
+    }
+
+    /** 各采集模块的停止报告（耗时、是否超时、运行状态），由 {@link RecordingCoordinator} 在结束会话前写入 */
+    public void setModuleReport(JsonArray report) {
+        moduleReport = report;
+    }
+
+    /** 非正常停止的原因（如界面销毁导致摄像头停止），正常停止不设置 */
+    public void setStopReason(String reason) {
+        stopReason = reason;
+    }
+
+    /** 会话结束后仍在收尾的流（如异步释放的编码器）关闭时补写一次 */
+    void onStreamClosed() {
+        if (!active && sessionDir != null) {
+            writeNow();
+        }
+    }
+
+    public JsonObject toJson() {
+        JsonObject root = new JsonObject();
+        root.addProperty("version", VERSION);
+        File dir = sessionDir;
+        if (dir != null) root.addProperty("session", dir.getName());
+        if (experimentId != null) root.addProperty("experiment_id", experimentId);
+        root.addProperty("session_start_wall_ms", sessionStartWallMs);
+        root.addProperty("updated_wall_ms", System.currentTimeMillis());
+        root.addProperty("complete", !active);
+        String reason = stopReason;
+        if (reason != null) root.addProperty("stop_reason", reason);
+        root.add("timebase", timebaseJson());
+        JsonArray calibration = TimestampCalibration.getInstance().toJson();
+        if (calibration != null) root.add("timestamp_calibration", calibration);
+        JsonObject barrier = StartBarrier.getInstance().toJson();
+        if (barrier != null) root.add("start_barrier", barrier);
+        JsonObject watchdog = StreamWatchdog.getInstance().toJson();
+        if (watchdog != null) root.add("stream_watchdog", watchdog);
+        JsonObject segmentation = SegmentPolicy.toJson();
+        if (segmentation != null) root.add("segmentation", segmentation);
+        JsonArray modules = moduleReport;
+        if (modules != null) root.add("modules", modules);
+        JsonArray arr = new JsonArray();
+        for (StreamDescriptor d : streams) {
+            arr.add(d.toJson());
+        }
+        root.add("streams", arr);
+        return root;
+    }
+
+    /**
+     * 会话内的时间基准：epochs[0] 为会话开始时的基准，其后每项为一次重新同步，
+     * 在其 elapsed_ns 之后写出的 wall_ms 跳变了 shift_ms。
+     * 写入中途遇到重新同步的流在其 timebase_changes 中给出新基准下第一个样本的序号。
+     */
+    private JsonObject timebaseJson() {
+        JsonObject o = new JsonObject();
+        JsonArray epochs = new JsonArray();
+        for (TimeSync.Timebase tb : TimeSync.timebasesSince(firstTimebaseEpoch)) {
+            JsonObject e = new JsonObject();
+            e.addProperty("epoch", tb.epoch);
+            e.addProperty("wall_ms", tb.wallMillis);
+            e.addProperty("elapsed_ns", tb.elapsedNanos);
+            e.addProperty("shift_ms", tb.shiftMillis);
+            epochs.add(e);
+        }
+        o.addProperty("rebased", epochs.size() > 1);
+        o.add("epochs", epochs);
+        return o;
+    }
+
+    /** 原子重写 manifest.json */
+    synchronized void writeNow() {
+        File dir = sessionDir;
+        if (dir == null) return;
+        File target = new File(dir, FILE_NAME);
+        File tmp = new File(dir, FILE_NAME + ".tmp");
+        try {
+            byte[] json = new GsonBuilder().setPrettyPrinting().create()
+                    .toJson(toJson()).getBytes(StandardCharsets.UTF_8);
+            try (FileOutputStream out = new FileOutputStream(tmp, false)) {
+                out.write(json);
+                out.getFD().sync();
+            }
+            if (!tmp.renameTo(target)) {
+                Log.w(TAG, "rename failed: " + target.getAbsolutePath());
+            }
+            lastWriteMs = System.currentTimeMillis();
+            lastVersion = version();
+        } catch (IOException e) {
+            Log.e(TAG, "write manifest error", e);
+        }
+    }
+
+    /** 内容变化的粗略指纹：流数、样本数与关闭状态 */
+    private long version() {
+        long v = streams.size() * 31L + TimeSync.epoch();
+        for (StreamDescriptor d : streams) {
+            v = v * 31 + d.getSampleCount() + (d.isClosed() ? 1 : 0);
+        }
+        return v;
+    }
+
+    /** 在调度线程上周期检查并重写 */
+    private final class ManifestStream implements IoScheduler.Stream {
+        @Override
+        public String getName() {
+            return FILE_NAME;
+        }
+
+        @Override
+        public long drain(int maxItems) {
+            long now = System.currentTimeMillis();
+            synchronized (SessionManifest.this) {
+                if (now - lastWriteMs >= WRITE_INTERVAL_MS && version() != lastVersion) {
+                    writeNow();
+                }
+            }
+            return 0;
+        }
+
+        @Override
+        public int lastDrainedItems() {
+            return 0;
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void sync() {
+        }
+
+        @Override
+        public void finish() {
+            writeNow();
+        }
+    }
+}
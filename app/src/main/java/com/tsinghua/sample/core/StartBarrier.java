@@ -0,0 +1,198 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Collection;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 录制开始屏障：各模块在专用线程上并行启动，全部就绪（或超时）后在同一会话时刻放行，
+ * 放行前产生的样本由采集回调经 {@link #admit} 丢弃，因此各流的第一条样本落在同一时刻附近。
+ *
+ * 每个模块记录启动耗时、就绪时刻、第一条样本时刻与相对放行时刻的偏差（start_skew_ms），
+ * 随 manifest.json 写出（start_barrier）。
+ * 由界面单独启动、不参与屏障的模块（摄像头）经 {@link #observe} 只记录偏差，不丢样本。
+ * 未布置屏障（单独测试某个模块）时 {@link #admit} 恒为 true。
+ */
+public final class StartBarrier {
+    private static final String TAG = "StartBarrier";
+
+    /** 等待最慢模块的上限，超时后先放行已就绪的模块，迟到的模块就绪即开始记录 */
+    static final long DEFAULT_TIMEOUT_MS = 3000;
+
+    private static volatile StartBarrier instance;
+
+    private static final class Module {
+        final String name;
+        final boolean gated;
+        long startCallMs = -1;
+        long readyWallMs = -1;
+        boolean started;
+        volatile long firstSampleWallMs = -1;
+        volatile long dropped;
+
+        Module(String name, boolean gated) {
+            this.name = name;
+            this.gated = gated;
+        }
+    }
+
+    private final Map<String, Module> modules = new ConcurrentHashMap<>();
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> timeoutTask;
+    private long armedWallMs = -1;
+    private int waiting;
+    private boolean timedOut;
+    /** 放行时刻（会话 wall_ms），-1 表示尚未放行 */
+    private volatile long releaseWallMs = -1;
+    private volatile boolean armed;
+
+    private StartBarrier() {}
+
+    public static StartBarrier getInstance() {
+        if (instance == null) {
+            synchronized (StartBarrier.class) {
+                if (instance == null) {
+                    instance = new StartBarrier();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 会话开始（由 SessionManager 调用）：清空上一会话的屏障 */
+    synchronized void reset() {
+        cancelTimeout();
+        modules.clear();
+        armed = false;
+        releaseWallMs = -1;
+        armedWallMs = -1;
+        waiting = 0;
+        timedOut = false;
+    }
+
+    /**
+     * 布置屏障：names 中的模块全部 {@link #arrive} 或 timeoutMs 到达后放行。
+     * 列表为空时立即放行。
+     */
+    public synchronized void arm(Collection<String> names, long timeoutMs) {
+        reset();
+        armed = true;
+        armedWallMs = TimeSync.nowWallMillis();
+        for (String n : names) modules.put(n, new Module(n, true));
+        waiting = modules.size();
+        if (waiting == 0) {
+            release();
+            return;
+        }
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "StartBarrier"));
+        }
+        timeoutTask = timer.schedule(this::onTimeout, timeoutMs, TimeUnit.MILLISECONDS);
+        Log.i(TAG, "Start barrier armed: " + names + ", timeout=" + timeoutMs + "ms");
+    }
+
+    /**
+     * 模块启动调用返回（在启动线程调用）。
+     * @param started     模块是否实际启动（设备未连接等为 false，不再等待）
+     * @param startCallMs 启动调用耗时
+     */
+    public synchronized void arrive(String name, boolean started, long startCallMs) {
+        Module m = modules.get(name);
+        if (m == null || m.readyWallMs >= 0) return;
+        m.started = started;
+        m.startCallMs = startCallMs;
+        m.readyWallMs = TimeSync.nowWallMillis();
+        if (--waiting == 0 && releaseWallMs < 0) {
+            cancelTimeout();
+            release();
+        }
+    }
+
+    private synchronized void onTimeout() {
+        if (releaseWallMs >= 0) return;
+        timedOut = true;
+        StringBuilder late = new StringBuilder();
+        for (Module m : modules.values()) {
+            if (m.readyWallMs < 0) late.append(' ').append(m.name);
+        }
+        Log.w(TAG, "Start barrier timed out, releasing without:" + late);
+        release();
+    }
+
+    private void release() {
+        releaseWallMs = TimeSync.nowWallMillis();
+        Log.i(TAG, "Start barrier released at " + releaseWallMs + " (armed " + (releaseWallMs - armedWallMs) + "ms)");
+    }
+
+    private void cancelTimeout() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+    }
+
+    /** 放行时刻（会话 wall_ms），未放行或未布置屏障时为 -1 */
+    public long getReleaseWallMs() {
+        return releaseWallMs;
+    }
+
+    /**
+     * 采集回调中判断样本是否记录：放行前的样本返回 false（调用方丢弃），同时记录模块的第一条样本时刻。
+     * 放行后迟到模块的样本照常记录。
+     */
+    public boolean admit(String name, long wallMs) {
+        if (!armed) return true;
+        long release = releaseWallMs;
+        Module m = modules.get(name);
+        if (m == null) return true;
+        if (release < 0 || wallMs < release) {
+            m.dropped++;
+            return false;
+        }
+        if (m.firstSampleWallMs < 0) m.firstSampleWallMs = wallMs;
+        return true;
+    }
+
+    /** 不参与屏障的模块（摄像头）：只记录第一条样本时刻 */
+    public void observe(String name, long wallMs) {
+        if (!armed) return;
+        Module m = modules.computeIfAbsent(name, n -> new Module(n, false));
+        if (m.firstSampleWallMs < 0) m.firstSampleWallMs = wallMs;
+    }
+
+    /** 清单中的屏障记录，未布置时返回 null */
+    synchronized JsonObject toJson() {
+        if (!armed) return null;
+        JsonObject o = new JsonObject();
+        o.addProperty("armed_wall_ms", armedWallMs);
+        o.addProperty("release_wall_ms", releaseWallMs);
+        o.addProperty("timed_out", timedOut);
+        JsonArray arr = new JsonArray();
+        for (Module m : modules.values()) {
+            JsonObject e = new JsonObject();
+            e.addProperty("module", m.name);
+            e.addProperty("gated", m.gated);
+            if (m.gated) {
+                e.addProperty("started", m.started);
+                e.addProperty("start_call_ms", m.startCallMs);
+                e.addProperty("ready_wall_ms", m.readyWallMs);
+                e.addProperty("dropped_before_release", m.dropped);
+            }
+            long first = m.firstSampleWallMs;
+            e.addProperty("first_sample_wall_ms", first);
+            if (first >= 0 && releaseWallMs >= 0) e.addProperty("start_skew_ms", first - releaseWallMs);
+            arr.add(e);
+        }
+        o.add("modules", arr);
+        return o;
+    }
+}
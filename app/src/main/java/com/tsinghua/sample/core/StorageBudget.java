@@ -0,0 +1,381 @@
+package com.tsinghua.sample.core;
+
+import android.system.ErrnoException;
+import android.system.Os;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.EnumSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * 会话存储预算：
+ * - 按启用模块与录制时长估算会话占用（{@link Plan}）；
+ * - 为顺序写入的大文件（PCM）预分配磁盘空间，减少碎片，关闭时截断到实际长度；
+ * - 录制中检查剩余空间，按剩余时长预计不足时按固定顺序降级：
+ *   关闭后置摄像头 → 降低视频码率 → 停止音频 → 停止录制（剩余空间低于下限时直接停止）。
+ * 估算、预分配和每一步降级都记入 info/storage_events.csv。
+ * 已预分配但尚未写入的空间计入可用空间：预分配本身不算写入，写进预分配区才算，
+ * 避免计划速率与预分配重复计算，也不把一次性的预分配当作实测写入速率。
+ *
+ * 检查由 {@link RecordingCoordinator} 的时长定时器驱动（录制控制线程），降级动作也在该线程执行。
+ */
+public final class StorageBudget {
+    private static final String TAG = "StorageBudget";
+
+    /** 降级步骤，按声明顺序执行 */
+    public enum Step {
+        DROP_BACK_CAMERA,
+        LOWER_BITRATE,
+        STOP_AUDIO,
+        STOP_RECORDING
+    }
+
+    /** 执行降级动作；返回 false 表示该步不适用（如未开后置摄像头），直接进入下一步 */
+    public interface Actions {
+        boolean apply(Step step);
+    }
+
+    // 估算码率（字节/秒），取各模块的上限
+    static final long VIDEO_BYTES_PER_SEC = 10_000_000L / 8;      // 前/后置视频 10 Mbps
+    static final long AUDIO_BYTES_PER_SEC = 2L * 44100 * 2 * 2;   // 双麦克风 44.1kHz 立体声 16bit
+    static final long IMU_BYTES_PER_SEC = 2L * 200 * 80;          // 加速度计 + 陀螺仪
+    static final long RING_BYTES_PER_SEC = 25L * 100;
+    static final long ECG_BYTES_PER_SEC = 128L * 40;
+    static final long SPO2_BYTES_PER_SEC = 1L * 40;
+    /** 降低码率后的视频码率比例 */
+    public static final double LOWERED_BITRATE_RATIO = 0.5;
+
+    /** 保留给系统与其他应用的空间，不计入可用 */
+    static final long RESERVE_BYTES = 200L * 1024 * 1024;
+    /** 剩余空间低于此值时直接停止录制 */
+    static final long CRITICAL_BYTES = 64L * 1024 * 1024;
+    /** 检查间隔 */
+    static final long CHECK_INTERVAL_MS = 5000;
+    /** 实测写入速率的最短统计窗口（不足时使用估算速率），降级后重新计时 */
+    static final long RATE_WINDOW_MS = 30_000;
+
+    private static final String EVENTS_FILE = "storage_events.csv";
+
+    /** 会话中启用的模块与计划时长 */
+    public static final class Plan {
+        boolean frontVideo;
+        boolean backVideo;
+        boolean audio;
+        boolean imu;
+        boolean ring;
+        boolean ecg;
+        boolean spo2;
+        double videoRatio = 1.0;
+        int durationSec;
+
+        public Plan video(boolean front, boolean back) {
+            frontVideo = front;
+            backVideo = back;
+            return this;
+        }
+
+        public Plan sensors(boolean audio, boolean imu, boolean ring, boolean ecg, boolean spo2) {
+            this.audio = audio;
+            this.imu = imu;
+            this.ring = ring;
+            this.ecg = ecg;
+            this.spo2 = spo2;
+            return this;
+        }
+
+        public Plan duration(int seconds) {
+            durationSec = seconds;
+            return this;
+        }
+
+        /** 预计写入速率（字节/秒） */
+        public long bytesPerSecond() {
+            long video = (frontVideo ? VIDEO_BYTES_PER_SEC : 0) + (backVideo ? VIDEO_BYTES_PER_SEC : 0);
+            return (long) (video * videoRatio)
+                    + (audio ? AUDIO_BYTES_PER_SEC : 0)
+                    + (imu ? IMU_BYTES_PER_SEC : 0)
+                    + (ring ? RING_BYTES_PER_SEC : 0)
+                    + (ecg ? ECG_BYTES_PER_SEC : 0)
+                    + (spo2 ? SPO2_BYTES_PER_SEC : 0);
+        }
+
+        public long estimateBytes() {
+            return bytesPerSecond() * durationSec;
+        }
+
+        /** 应用降级步骤后的计划；返回 false 表示对计划无影响 */
+        boolean apply(Step step) {
+            switch (step) {
+                case DROP_BACK_CAMERA:
+                    if (!backVideo) return false;
+                    backVideo = false;
+                    return true;
+                case LOWER_BITRATE:
+                    if ((!frontVideo && !backVideo) || videoRatio < 1.0) return false;
+                    videoRatio = LOWERED_BITRATE_RATIO;
+                    return true;
+                case STOP_AUDIO:
+                    if (!audio) return false;
+                    audio = false;
+                    return true;
+                default:
+                    return true;
+            }
+        }
+    }
+
+    private static volatile StorageBudget instance;
+
+    private File sessionDir;
+    private Plan plan;
+    private Actions actions;
+    private DataLogger events;
+    private long startWallMs;
+    private long endWallMs;
+    private int nextStep;
+    private long lastCheckMs;
+    private long rateBaseMs;
+    private long rateBaseAvailable;
+    private boolean active;
+    // 本会话已执行的降级步骤
+    private final EnumSet<Step> appliedSteps = EnumSet.noneOf(Step.class);
+    // 本会话的预分配文件，未写入部分 = 预分配长度 - 当前写入位置
+    private final List<Preallocation> preallocations = new ArrayList<>();
+
+    private static final class Preallocation {
+        final FileChannel channel;
+        final long size;
+
+        Preallocation(FileChannel channel, long size) {
+            this.channel = channel;
+            this.size = size;
+        }
+    }
+
+    private StorageBudget() {}
+
+    public static StorageBudget getInstance() {
+        if (instance == null) {
+            synchronized (StorageBudget.class) {
+                if (instance == null) {
+                    instance = new StorageBudget();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /**
+     * 会话开始（由 SessionManager 调用）：记录估算，空间不足以完成计划时立即按顺序降级。
+     */
+    synchronized void begin(File dir, Plan plan, Actions actions) {
+        end();
+        this.sessionDir = dir;
+        this.plan = plan;
+        this.actions = actions;
+        this.nextStep = 0;
+        appliedSteps.clear();
+        this.startWallMs = System.currentTimeMillis();
+        this.endWallMs = startWallMs + plan.durationSec * 1000L;
+        this.lastCheckMs = startWallMs;
+        this.active = true;
+        try {
+            events = new DataLogger(new File(new File(dir, "info"), EVENTS_FILE),
+                    "wall_ms,event,step,available_bytes,projected_bytes,detail");
+            events.setDurability(IoScheduler.Durability.BATCH_FSYNC);
+        } catch (IOException e) {
+            Log.e(TAG, "storage event log error", e);
+        }
+
+        long available = available();
+        long estimate = plan.estimateBytes();
+        log("plan", null, available, estimate, String.format(Locale.US, "%.1fMB/s x %ds",
+                plan.bytesPerSecond() / 1048576.0, plan.durationSec));
+        // 开始前即不足：按估算逐步降级直到预计可以完成（不在开始前停止录制）
+        while (available - RESERVE_BYTES < plan.estimateBytes()) {
+            if (!degrade(available, plan.estimateBytes(), Step.STOP_AUDIO)) {
+                log("insufficient", null, available, plan.estimateBytes(), "recording may stop early");
+                break;
+            }
+        }
+        resetRateBase(startWallMs, available);
+    }
+
+    /** 会话结束：关闭事件日志 */
+    synchronized void end() {
+        if (!active) return;
+        active = false;
+        preallocations.clear();
+        if (events != null) {
+            events.close();
+            events = null;
+        }
+    }
+
+    public synchronized boolean isActive() {
+        return active;
+    }
+
+    /** 本会话（含开始前）是否已执行该降级步骤 */
+    public synchronized boolean wasApplied(Step step) {
+        return appliedSteps.contains(step);
+    }
+
+    /** 视频码率比例（降级后小于 1），编码器在配置码率时读取 */
+    public synchronized double getVideoBitrateRatio() {
+        return active && plan != null ? plan.videoRatio : 1.0;
+    }
+
+    /**
+     * 周期检查（录制控制线程，调用频率不限，内部按 {@link #CHECK_INTERVAL_MS} 限频）。
+     * @return 本次执行的降级步骤，未降级返回 null；返回 STOP_RECORDING 时调用方应停止录制
+     */
+    public synchronized Step check() {
+        if (!active) return null;
+        long now = System.currentTimeMillis();
+        if (now - lastCheckMs < CHECK_INTERVAL_MS) return null;
+        lastCheckMs = now;
+
+        long available = available();
+        if (available < CRITICAL_BYTES) {
+            nextStep = Step.STOP_RECORDING.ordinal();
+            log("critical", null, available, 0, "below " + CRITICAL_BYTES / 1048576 + "MB");
+            return degrade(available, 0, Step.STOP_RECORDING) ? Step.STOP_RECORDING : null;
+        }
+        long remainingSec = Math.max(0, (endWallMs - now) / 1000);
+        long projected = bytesPerSecond(now, available) * remainingSec;
+        if (available - RESERVE_BYTES >= projected) return null;
+        return degrade(available, projected, Step.STOP_RECORDING) ? Step.values()[nextStep - 1] : null;
+    }
+
+    /** 执行下一个适用的降级步骤（不超过 last），不适用的步骤记录后跳过；返回是否执行了某一步 */
+    private boolean degrade(long available, long projected, Step last) {
+        Step[] steps = Step.values();
+        while (nextStep <= last.ordinal()) {
+            Step step = steps[nextStep++];
+            boolean applied;
+            try {
+                applied = actions != null && actions.apply(step);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "degrade " + step + " error", e);
+                applied = false;
+            }
+            if (!applied) {
+                log("skip", step, available, projected, "not applicable");
+                continue;
+            }
+            plan.apply(step);
+            appliedSteps.add(step);
+            Log.w(TAG, "Low storage, degraded: " + step + ", available=" + available + ", projected=" + projected);
+            log("degrade", step, available, projected, String.format(Locale.US, "%.1fMB/s",
+                    plan.bytesPerSecond() / 1048576.0));
+            resetRateBase(System.currentTimeMillis(), available);
+            return true;
+        }
+        return false;
+    }
+
+    /** 写入速率：统计窗口足够时用剩余空间的实测下降速度，否则用计划估算 */
+    private long bytesPerSecond(long now, long available) {
+        long elapsed = now - rateBaseMs;
+        long estimated = plan.bytesPerSecond();
+        if (elapsed < RATE_WINDOW_MS) return estimated;
+        long measured = (rateBaseAvailable - available) * 1000 / elapsed;
+        return Math.max(measured, 0);
+    }
+
+    private void resetRateBase(long now, long available) {
+        rateBaseMs = now;
+        rateBaseAvailable = available;
+    }
+
+    /** 剩余空间，含已预分配但尚未写入的部分 */
+    private long available() {
+        File dir = sessionDir;
+        return dir != null ? dir.getUsableSpace() + unusedPreallocated() : 0;
+    }
+
+    private long unusedPreallocated() {
+        long unused = 0;
+        for (Iterator<Preallocation> it = preallocations.iterator(); it.hasNext(); ) {
+            Preallocation p = it.next();
+            try {
+                unused += Math.max(0, p.size - p.channel.position());
+            } catch (IOException e) {
+                // 文件已关闭（已截断），不再占用预分配
+                it.remove();
+            }
+        }
+        return unused;
+    }
+
+    private void log(String event, Step step, long available, long projected, String detail) {
+        DataLogger l = events;
+        if (l == null) return;
+        l.writeLine(System.currentTimeMillis() + "," + event + "," + (step != null ? step.name() : "")
+                + "," + available + "," + projected + "," + (detail != null ? detail.replace(',', ';') : ""));
+    }
+
+    // ============ 预分配 ============
+
+    /**
+     * 计划剩余时长内按 bytesPerSecond 写入所需的字节数；开启分段时不超过一个分段。
+     * 未开始预算时返回 0。
+     */
+    public synchronized long preallocationBytes(long bytesPerSecond) {
+        if (!active) return 0;
+        long remainingMs = Math.max(0, endWallMs - System.currentTimeMillis());
+        long segmentMs = SegmentPolicy.getDurationMs();
+        if (segmentMs > 0) remainingMs = Math.min(remainingMs, segmentMs);
+        long bytes = bytesPerSecond * remainingMs / 1000;
+        long maxBytes = SegmentPolicy.getMaxBytes();
+        return maxBytes > 0 ? Math.min(bytes, maxBytes) : bytes;
+    }
+
+    /**
+     * 为从头顺序写入的文件预分配空间（posix_fallocate，真实分配块而非稀疏扩展）。
+     * 文件长度随之变为 bytes，关闭前须用 {@link #trimToPosition} 截断；
+     * 不超过可用空间减去保留量，返回实际预分配的字节数。
+     */
+    public long preallocate(FileOutputStream out, File file, long bytes) {
+        long available = file.getParentFile() != null ? file.getParentFile().getUsableSpace() : 0;
+        long size = Math.min(bytes, available - RESERVE_BYTES);
+        if (size <= 0) return 0;
+        try {
+            Os.posix_fallocate(out.getFD(), 0, size);
+        } catch (ErrnoException | IOException e) {
+            // 文件系统不支持时按普通追加写入
+            Log.w(TAG, "fallocate failed: " + file.getName(), e);
+            return 0;
+        }
+        synchronized (this) {
+            if (active) preallocations.add(new Preallocation(out.getChannel(), size));
+            log("preallocate", null, available, size, StreamDescriptor.relativePath(sessionDir, file));
+        }
+        return size;
+    }
+
+    /** 截断到当前写入位置（去掉未用完的预分配空间） */
+    public static void trimToPosition(FileOutputStream out) {
+        FileChannel ch = out.getChannel();
+        getInstance().release(ch);
+        try {
+            ch.truncate(ch.position());
+        } catch (IOException e) {
+            Log.w(TAG, "trim error", e);
+        }
+    }
+
+    private synchronized void release(FileChannel channel) {
+        for (Iterator<Preallocation> it = preallocations.iterator(); it.hasNext(); ) {
+            if (it.next().channel == channel) it.remove();
+        }
+    }
+}
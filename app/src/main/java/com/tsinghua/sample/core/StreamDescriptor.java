@@ -0,0 +1,290 @@
+package com.tsinghua.sample.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.CRC32;
+
+/**
+ * 会话清单中的一个数据流：文件、schema、样本数、wall_ms 时间范围、标称/实测采样率、CRC32 校验。
+ *
+ * 由写入方在写出时增量更新（更新方法同步，采集线程与写入线程可同时调用），
+ * {@link SessionManifest} 周期性地读取并重写 manifest.json，无需事后扫描数据文件。
+ * 开启分段（{@link SegmentPolicy}）时，每个分段文件另有独立的样本数、wall_ms 范围与 CRC32。
+ * 流内时间基准重新同步（{@link TimeSync} epoch 变化）时记录新 epoch 下第一个样本的序号与 wall_ms，
+ * 离线按清单 timebase.epochs 的 shift_ms 校正该序号之后的样本。
+ */
+public final class StreamDescriptor {
+
+    private final String name;
+    private final String kind;
+    private final String format;
+    private final String schema;
+    private final List<String> files = new ArrayList<>();
+    private volatile double nominalRateHz;
+    /** 注册时的时间基准序号，与清单 timebase.epochs 对照可判断流内是否发生重新同步 */
+    private final int timebaseEpoch = TimeSync.epoch();
+    // 流内的 epoch 变化：写出时发现 epoch 变化即记一项（积压的样本按写出时刻归属，最多差一批）
+    private int lastEpoch = timebaseEpoch;
+    private final List<long[]> epochChanges = new ArrayList<>();
+
+    // 样本与时间范围
+    private volatile long sampleCount;
+    private volatile long firstWallMs = Long.MAX_VALUE;
+    private volatile long lastWallMs = Long.MIN_VALUE;
+
+    // 文件内容校验（按写入顺序累计）
+    private final CRC32 crc = new CRC32();
+    private volatile boolean checksumEnabled = true;
+    private volatile long checksum;
+    private volatile long bytes;
+    private volatile boolean closed;
+
+    // 分段（按写入顺序），current 为正在写入的分段
+    private final List<Segment> segments = new ArrayList<>();
+    private Segment current;
+
+    /** 一个分段文件的统计 */
+    private static final class Segment {
+        final String file;
+        final int window;
+        final int part;
+        final CRC32 crc = new CRC32();
+        long samples;
+        long firstWallMs = Long.MAX_VALUE;
+        long lastWallMs = Long.MIN_VALUE;
+        long bytes;
+        boolean closed;
+
+        Segment(String file, int window, int part) {
+            this.file = file;
+            this.window = window;
+            this.part = part;
+        }
+
+        JsonObject toJson(boolean checksum) {
+            JsonObject o = new JsonObject();
+            o.addProperty("file", file);
+            o.addProperty("window", window);
+            if (part > 0) o.addProperty("part", part);
+            o.addProperty("window_start_wall_ms", SegmentPolicy.windowStartWallMs(window));
+            o.addProperty("samples", samples);
+            o.addProperty("first_wall_ms", samples > 0 && firstWallMs != Long.MAX_VALUE ? firstWallMs : -1);
+            o.addProperty("last_wall_ms", samples > 0 && lastWallMs != Long.MIN_VALUE ? lastWallMs : -1);
+            o.addProperty("bytes", bytes);
+            if (checksum) o.addProperty("crc32", String.format(Locale.US, "%08x", crc.getValue()));
+            o.addProperty("closed", closed);
+            return o;
+        }
+    }
+
+    /**
+     * @param name   相对会话目录的主文件路径（如 imu/imu_accelerometer_data.csv）
+     * @param kind   流类型，取值同 {@link StreamStats}
+     * @param format 文件格式（csv、binary、mp4/h264、pcm_s16le 等）
+     * @param schema 列定义或编码参数
+     */
+    StreamDescriptor(String name, String kind, String format, String schema) {
+        this.name = name;
+        this.kind = kind;
+        this.format = format;
+        this.schema = schema;
+    }
+
+    public void setNominalRateHz(double hz) {
+        this.nominalRateHz = hz;
+    }
+
+    /** 登记一个组成该流的文件 */
+    public void addFile(File sessionDir, File file) {
+        String path = relativePath(sessionDir, file);
+        synchronized (files) {
+            if (!files.contains(path)) files.add(path);
+        }
+    }
+
+    /**
+     * 开始写入新的分段文件，上一分段随之关闭。
+     * 首个分段替换登记时的逻辑文件名（该文件不会生成）。
+     */
+    public synchronized void beginSegment(File file, int window, int part) {
+        File dir = SessionManifest.getInstance().getSessionDir();
+        String path = relativePath(dir, file);
+        if (current != null) current.closed = true;
+        current = new Segment(path, window, part);
+        synchronized (files) {
+            if (segments.isEmpty()) files.clear();
+            segments.add(current);
+            files.add(path);
+        }
+    }
+
+    /** 容器格式（如 mp4）在关闭时会改写文件，无法按写入顺序校验 */
+    public void disableChecksum() {
+        checksumEnabled = false;
+    }
+
+    /** 一个样本写出 */
+    public void onSample(long wallMs) {
+        onSamples(1, wallMs);
+    }
+
+    /** n 个样本写出（如一块 PCM），wallMs 为该块时间戳；wallMs 无效时只计数 */
+    public synchronized void onSamples(long n, long wallMs) {
+        if (n > 0) {
+            int epoch = TimeSync.epoch();
+            if (epoch != lastEpoch) {
+                // {epoch, 新 epoch 下第一个样本的序号（从 0 起）, 其 wall_ms}
+                epochChanges.add(new long[]{epoch, sampleCount, wallMs == Long.MIN_VALUE ? -1 : wallMs});
+                lastEpoch = epoch;
+            }
+        }
+        sampleCount += n;
+        Segment seg = current;
+        if (seg != null) seg.samples += n;
+        if (wallMs == Long.MIN_VALUE) return;
+        if (wallMs < firstWallMs) firstWallMs = wallMs;
+        if (wallMs > lastWallMs) lastWallMs = wallMs;
+        if (seg != null) {
+            if (wallMs < seg.firstWallMs) seg.firstWallMs = wallMs;
+            if (wallMs > seg.lastWallMs) seg.lastWallMs = wallMs;
+        }
+    }
+
+    /** 一批样本（如一个二进制记录块）写出，wall_ms 范围为 [minWallMs, maxWallMs] */
+    public synchronized void onSamples(long n, long minWallMs, long maxWallMs) {
+        if (n <= 0) return;
+        onSamples(n, minWallMs);
+        onSamples(0, maxWallMs);
+    }
+
+    /** 按文件中的顺序累计写出的字节 */
+    public synchronized void onBytes(byte[] data, int offset, int length) {
+        bytes += length;
+        if (current != null) current.bytes += length;
+        if (!checksumEnabled) return;
+        crc.update(data, offset, length);
+        checksum = crc.getValue();
+        if (current != null) current.crc.update(data, offset, length);
+    }
+
+    /** 直接缓冲（如二进制记录块）：校验 position..limit，不改变 position */
+    public synchronized void onBytes(ByteBuffer buf) {
+        int length = buf.remaining();
+        bytes += length;
+        if (current != null) current.bytes += length;
+        if (!checksumEnabled) return;
+        int position = buf.position();
+        crc.update(buf);
+        buf.position(position);
+        checksum = crc.getValue();
+        if (current != null) {
+            current.crc.update(buf);
+            buf.position(position);
+        }
+    }
+
+    /** 仅累计字节数（不参与校验） */
+    public synchronized void onBytes(long length) {
+        bytes += length;
+        if (current != null) current.bytes += length;
+    }
+
+    public void markClosed() {
+        synchronized (this) {
+            if (current != null) current.closed = true;
+        }
+        closed = true;
+        SessionManifest.getInstance().onStreamClosed();
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /** 标称采样率，未设置时为 0 */
+    public double getNominalRateHz() {
+        return nominalRateHz;
+    }
+
+    public long getSampleCount() {
+        return sampleCount;
+    }
+
+    public long getFirstWallMs() {
+        return sampleCount > 0 && firstWallMs != Long.MAX_VALUE ? firstWallMs : -1;
+    }
+
+    public long getLastWallMs() {
+        return sampleCount > 0 && lastWallMs != Long.MIN_VALUE ? lastWallMs : -1;
+    }
+
+    /** 实测采样率：样本数 / 时间跨度；跨度不足时返回 0 */
+    public double getObservedRateHz() {
+        long first = getFirstWallMs();
+        long last = getLastWallMs();
+        long n = sampleCount;
+        if (first < 0 || last <= first || n < 2) return 0;
+        return (n - 1) * 1000.0 / (last - first);
+    }
+
+    JsonObject toJson() {
+        JsonObject o = new JsonObject();
+        o.addProperty("name", name);
+        o.addProperty("kind", kind);
+        o.addProperty("format", format);
+        if (schema != null) o.addProperty("schema", schema);
+        JsonArray arr = new JsonArray();
+        synchronized (files) {
+            for (String f : files) arr.add(f);
+        }
+        o.add("files", arr);
+        o.addProperty("samples", sampleCount);
+        o.addProperty("first_wall_ms", getFirstWallMs());
+        o.addProperty("last_wall_ms", getLastWallMs());
+        o.addProperty("timebase_epoch", timebaseEpoch);
+        if (nominalRateHz > 0) o.addProperty("nominal_rate_hz", nominalRateHz);
+        o.addProperty("observed_rate_hz", Math.round(getObservedRateHz() * 100) / 100.0);
+        o.addProperty("bytes", bytes);
+        if (checksumEnabled) o.addProperty("crc32", String.format(Locale.US, "%08x", checksum));
+        o.addProperty("closed", closed);
+        synchronized (this) {
+            if (!epochChanges.isEmpty()) {
+                JsonArray changes = new JsonArray();
+                for (long[] c : epochChanges) {
+                    JsonObject e = new JsonObject();
+                    e.addProperty("epoch", c[0]);
+                    e.addProperty("first_sample", c[1]);
+                    e.addProperty("first_wall_ms", c[2]);
+                    changes.add(e);
+                }
+                o.add("timebase_changes", changes);
+            }
+            if (!segments.isEmpty()) {
+                JsonArray segs = new JsonArray();
+                for (Segment seg : segments) segs.add(seg.toJson(checksumEnabled));
+                o.add("segments", segs);
+            }
+        }
+        return o;
+    }
+
+    static String relativePath(File sessionDir, File file) {
+        if (sessionDir != null) {
+            String base = sessionDir.getAbsolutePath() + File.separator;
+            String path = file.getAbsolutePath();
+            if (path.startsWith(base)) return path.substring(base.length());
+        }
+        File parent = file.getParentFile();
+        return parent != null ? parent.getName() + "/" + file.getName() : file.getName();
+    }
+}
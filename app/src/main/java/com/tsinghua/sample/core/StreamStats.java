@@ -0,0 +1,232 @@
+package com.tsinghua.sample.core;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.IntSupplier;
+
+/**
+ * 单个会话输出流的写入遥测：写入量、丢弃数、队列深度、入队到写出延迟直方图、flush/fsync 耗时。
+ *
+ * 计数器只做原子累加，写入线程调用开销为几十纳秒；
+ * 速率（字节/秒、条/秒）由 {@link SessionHealth} 读取快照时按两次快照之差计算。
+ */
+public final class StreamStats {
+
+    /** 流类型 */
+    public static final String KIND_CSV = "csv";
+    public static final String KIND_BINARY = "binary";
+    public static final String KIND_VIDEO = "video";
+    public static final String KIND_AUDIO = "audio";
+
+    /** 延迟直方图桶数：第 i 桶为 [2^i, 2^(i+1)) 微秒，最后一桶兜底（约 > 33 秒） */
+    public static final int LATENCY_BUCKETS = 26;
+
+    private final String name;
+    private final String kind;
+    private final long createdNanos = System.nanoTime();
+
+    private final AtomicLong items = new AtomicLong();
+    private final AtomicLong bytes = new AtomicLong();
+    private final AtomicLong drops = new AtomicLong();
+    private final AtomicLongArray latency = new AtomicLongArray(LATENCY_BUCKETS);
+    private final AtomicLong latencyCount = new AtomicLong();
+    private final AtomicLong latencyMaxNanos = new AtomicLong();
+    private final AtomicLong flushCount = new AtomicLong();
+    private final AtomicLong flushTotalNanos = new AtomicLong();
+    private final AtomicLong flushMaxNanos = new AtomicLong();
+    private final AtomicLong syncCount = new AtomicLong();
+    private final AtomicLong syncTotalNanos = new AtomicLong();
+    private final AtomicLong syncMaxNanos = new AtomicLong();
+    private final AtomicLong maxQueueDepth = new AtomicLong();
+    private volatile IntSupplier queueDepth;
+    private volatile boolean closed;
+
+    // 速率采样（仅 SessionHealth 在快照时访问，由 this 保护）
+    private long lastSampleNanos = createdNanos;
+    private long lastSampleBytes;
+    private long lastSampleItems;
+    private double bytesPerSecond;
+    private double itemsPerSecond;
+
+    public StreamStats(String name, String kind) {
+        this.name = name;
+        this.kind = kind;
+    }
+
+    /** 成功写出 n 条、共 byteCount 字节 */
+    public void recordWrite(int n, long byteCount) {
+        items.addAndGet(n);
+        bytes.addAndGet(byteCount);
+    }
+
+    public void recordDrop(long n) {
+        drops.addAndGet(n);
+    }
+
+    /** 一条数据从入队到被写出（交给文件/编码器）的耗时 */
+    public void recordLatencyNanos(long nanos) {
+        if (nanos < 0) nanos = 0;
+        long us = nanos / 1000;
+        int bucket = us <= 0 ? 0 : Math.min(LATENCY_BUCKETS - 1, 63 - Long.numberOfLeadingZeros(us));
+        latency.incrementAndGet(bucket);
+        latencyCount.incrementAndGet();
+        updateMax(latencyMaxNanos, nanos);
+    }
+
+    public void recordFlush(long nanos) {
+        flushCount.incrementAndGet();
+        flushTotalNanos.addAndGet(nanos);
+        updateMax(flushMaxNanos, nanos);
+    }
+
+    /** 一次 fsync（或映射区 force）的耗时 */
+    public void recordSync(long nanos) {
+        syncCount.incrementAndGet();
+        syncTotalNanos.addAndGet(nanos);
+        updateMax(syncMaxNanos, nanos);
+    }
+
+    /** 设置队列深度来源（有内部队列的流） */
+    public void setQueueDepthSupplier(IntSupplier supplier) {
+        this.queueDepth = supplier;
+    }
+
+    /** 写入线程排空前记录当前积压，用于统计峰值队列深度 */
+    public void observeQueueDepth(int depth) {
+        updateMax(maxQueueDepth, depth);
+    }
+
+    public void markClosed() {
+        closed = true;
+    }
+
+    public boolean isClosed() {
+        return closed;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public String getKind() {
+        return kind;
+    }
+
+    public long getItems() {
+        return items.get();
+    }
+
+    public long getBytes() {
+        return bytes.get();
+    }
+
+    public long getDrops() {
+        return drops.get();
+    }
+
+    public int getQueueDepth() {
+        IntSupplier s = queueDepth;
+        if (s == null) return 0;
+        int depth = s.getAsInt();
+        observeQueueDepth(depth);
+        return depth;
+    }
+
+    /** 延迟分位数估计（取所在桶上界，不超过最大值），单位毫秒；无样本时返回 0 */
+    public double getLatencyPercentileMs(double p) {
+        long total = 0;
+        long[] counts = new long[LATENCY_BUCKETS];
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            counts[i] = latency.get(i);
+            total += counts[i];
+        }
+        if (total == 0) return 0;
+        long rank = (long) Math.ceil(p * total);
+        long seen = 0;
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) return Math.min((1L << (i + 1)) / 1000.0, latencyMaxNanos.get() / 1e6);
+        }
+        return latencyMaxNanos.get() / 1e6;
+    }
+
+    /** 更新速率（两次调用之间的平均值） */
+    synchronized void sampleRates(long nowNanos) {
+        long elapsed = nowNanos - lastSampleNanos;
+        if (elapsed < 200_000_000L) return; // 间隔太短不更新，避免抖动
+        long b = bytes.get();
+        long n = items.get();
+        bytesPerSecond = (b - lastSampleBytes) * 1e9 / elapsed;
+        itemsPerSecond = (n - lastSampleItems) * 1e9 / elapsed;
+        lastSampleNanos = nowNanos;
+        lastSampleBytes = b;
+        lastSampleItems = n;
+    }
+
+    public synchronized double getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    public synchronized double getItemsPerSecond() {
+        return itemsPerSecond;
+    }
+
+    public JsonObject toJson() {
+        long now = System.nanoTime();
+        double lifetimeSec = Math.max(1e-3, (now - createdNanos) / 1e9);
+        JsonObject o = new JsonObject();
+        o.addProperty("name", name);
+        o.addProperty("kind", kind);
+        o.addProperty("closed", closed);
+        o.addProperty("items", items.get());
+        o.addProperty("bytes", bytes.get());
+        o.addProperty("drops", drops.get());
+        o.addProperty("queue_depth", getQueueDepth());
+        o.addProperty("max_queue_depth", maxQueueDepth.get());
+        o.addProperty("bytes_per_sec", round(getBytesPerSecond()));
+        o.addProperty("items_per_sec", round(getItemsPerSecond()));
+        o.addProperty("avg_bytes_per_sec", round(bytes.get() / lifetimeSec));
+        o.addProperty("avg_items_per_sec", round(items.get() / lifetimeSec));
+
+        JsonObject lat = new JsonObject();
+        lat.addProperty("count", latencyCount.get());
+        lat.addProperty("p50_ms", round(getLatencyPercentileMs(0.50)));
+        lat.addProperty("p99_ms", round(getLatencyPercentileMs(0.99)));
+        lat.addProperty("max_ms", round(latencyMaxNanos.get() / 1e6));
+        JsonArray buckets = new JsonArray();
+        for (int i = 0; i < LATENCY_BUCKETS; i++) {
+            buckets.add(latency.get(i));
+        }
+        lat.add("buckets_log2_us", buckets);
+        o.add("latency", lat);
+
+        JsonObject flush = new JsonObject();
+        long fc = flushCount.get();
+        flush.addProperty("count", fc);
+        flush.addProperty("avg_ms", fc == 0 ? 0 : round(flushTotalNanos.get() / 1e6 / fc));
+        flush.addProperty("max_ms", round(flushMaxNanos.get() / 1e6));
+        o.add("flush", flush);
+
+        JsonObject sync = new JsonObject();
+        long sc = syncCount.get();
+        sync.addProperty("count", sc);
+        sync.addProperty("avg_ms", sc == 0 ? 0 : round(syncTotalNanos.get() / 1e6 / sc));
+        sync.addProperty("max_ms", round(syncMaxNanos.get() / 1e6));
+        o.add("sync", sync);
+        return o;
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 100) / 100.0;
+    }
+
+    private static void updateMax(AtomicLong max, long v) {
+        long cur;
+        while (v > (cur = max.get())) {
+            if (max.compareAndSet(cur, v)) return;
+        }
+    }
+}
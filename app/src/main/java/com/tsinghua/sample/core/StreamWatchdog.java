@@ -0,0 +1,307 @@
+package com.tsinghua.sample.core;
+
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.io.File;
+import java.util.Collection;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 数据流存活监控：记录每个流最后一条样本的时刻，流停滞时尝试有限次重启所属模块。
+ *
+ * - 采集回调在样本记录后调用 {@link #feed}（流名为模块名，或"模块名/子流"，如 imu/gyroscope），只做一次写入；
+ * - 两条样本间隔超过模块的 {@link RecordingModule#getStallTimeoutMs()} 时记为 gap；
+ *   检查线程每秒发现仍在停滞的流，调用 {@link RecordingModule#recover()}，每个模块最多 {@link #MAX_RECOVERIES} 次，
+ *   两次之间至少间隔一个停滞时限；
+ * - 登记了 {@link StreamDescriptor} 的流（{@link #expectRate}）按标称采样率检查：未停滞时每 {@link #RATE_WINDOW_MS}
+ *   比较窗口内写出的样本数，低于标称的 {@link #UNDER_RATE_RATIO} 记为 under_rate，恢复后再次低于时重新记录；
+ * - 每个 gap、停滞、欠采样与恢复动作都写入 markers/stream_events.csv，汇总随 manifest.json 写出（stream_watchdog）。
+ */
+public final class StreamWatchdog {
+    private static final String TAG = "StreamWatchdog";
+    public static final String MARKER_FILE = "stream_events.csv";
+
+    static final long CHECK_INTERVAL_MS = 1000;
+    /** 每个模块每次录制的最多恢复次数 */
+    static final int MAX_RECOVERIES = 3;
+    /** 启动后等待第一条样本的额外时间（开始屏障最长等待） */
+    static final long START_GRACE_MS = StartBarrier.DEFAULT_TIMEOUT_MS;
+    /** 采样率检查窗口 */
+    static final long RATE_WINDOW_MS = 5000;
+    /** 实测采样率低于标称的该比例视为欠采样 */
+    static final double UNDER_RATE_RATIO = 0.8;
+
+    private static volatile StreamWatchdog instance;
+
+    /** 一个被监控的模块 */
+    private static final class Watch {
+        final RecordingModule module;
+        final long timeoutMs;
+        int recoveries;
+        long lastRecoveryWallMs = -1;
+        boolean exhausted;
+
+        Watch(RecordingModule module, long timeoutMs) {
+            this.module = module;
+            this.timeoutMs = timeoutMs;
+        }
+    }
+
+    /** 一个流（模块本身也是一个流，任一子流的样本都会更新它） */
+    private static final class Stream {
+        final String name;
+        final Watch watch;
+        final Stream parent;
+        volatile long lastWallMs = -1;
+        // 以下由检查线程与采集线程各自更新，只用于统计
+        volatile long gaps;
+        volatile long maxGapMs;
+        long stalledAtLastMs = Long.MIN_VALUE;
+        // 采样率检查窗口（检查线程）
+        StreamDescriptor rateSource;
+        long rateFromMs = -1;
+        long rateFromSamples;
+        boolean underRate;
+        volatile long underRateEvents;
+        volatile double minRateHz = -1;
+
+        Stream(String name, Watch watch, Stream parent) {
+            this.name = name;
+            this.watch = watch;
+            this.parent = parent;
+        }
+    }
+
+    private final Map<String, Stream> streams = new ConcurrentHashMap<>();
+    /** 流名 → 提供标称与实际样本数的清单条目，整个会话有效 */
+    private final Map<String, StreamDescriptor> expected = new ConcurrentHashMap<>();
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> checkTask;
+    private volatile TimestampRecorder markers;
+    private volatile boolean running;
+    private long startWallMs = -1;
+
+    private StreamWatchdog() {}
+
+    public static StreamWatchdog getInstance() {
+        if (instance == null) {
+            synchronized (StreamWatchdog.class) {
+                if (instance == null) {
+                    instance = new StreamWatchdog();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 会话开始（由 SessionManager 调用）：清空上一会话的记录 */
+    synchronized void reset() {
+        stop();
+        streams.clear();
+        expected.clear();
+        startWallMs = -1;
+    }
+
+    /** 开始监控（模块启动后由协调器调用）；停滞时限为 0 的模块不监控 */
+    public synchronized void start(Collection<RecordingModule> modules) {
+        stop();
+        streams.clear();
+        startWallMs = TimeSync.nowWallMillis();
+        for (RecordingModule m : modules) {
+            long timeout = m.getStallTimeoutMs();
+            if (timeout <= 0) continue;
+            streams.put(m.getName(), new Stream(m.getName(), new Watch(m, timeout), null));
+        }
+        if (streams.isEmpty()) return;
+        File dir = SessionManager.getInstance().subDir(Constants.DIR_MARKERS);
+        if (dir != null) {
+            try {
+                markers = new TimestampRecorder(new File(dir, MARKER_FILE));
+            } catch (Exception e) {
+                Log.e(TAG, "create marker file failed", e);
+            }
+        }
+        if (timer == null) {
+            timer = Executors.newSingleThreadScheduledExecutor(r -> new Thread(r, "StreamWatchdog"));
+        }
+        running = true;
+        checkTask = timer.scheduleWithFixedDelay(this::check, CHECK_INTERVAL_MS, CHECK_INTERVAL_MS,
+                TimeUnit.MILLISECONDS);
+        Log.i(TAG, "Watching " + streams.keySet());
+    }
+
+    /** 停止监控（停止模块前调用，避免把正常停止当作停滞） */
+    public synchronized void stop() {
+        running = false;
+        if (checkTask != null) {
+            checkTask.cancel(false);
+            checkTask = null;
+        }
+        if (markers != null) {
+            markers.close();
+            markers = null;
+        }
+    }
+
+    /**
+     * 按清单条目的标称采样率检查该流是否欠采样（写入方注册清单条目后调用，可早于 {@link #start}）
+     * @param stream 与 {@link #feed} 相同的流名
+     */
+    public void expectRate(String stream, StreamDescriptor descriptor) {
+        if (descriptor != null) expected.put(stream, descriptor);
+    }
+
+    /** 录制中主动停止的模块（如存储降级停止音频）不再监控 */
+    public void unwatch(String module) {
+        streams.values().removeIf(s -> s.watch.module.getName().equals(module));
+    }
+
+    /**
+     * 采集回调中样本已记录（在采集线程调用）。
+     * @param stream 模块名或"模块名/子流"
+     */
+    public void feed(String stream, long wallMs) {
+        if (!running) return;
+        Stream s = streams.get(stream);
+        if (s == null) {
+            int slash = stream.indexOf('/');
+            Stream parent = slash > 0 ? streams.get(stream.substring(0, slash)) : null;
+            if (parent == null) return;
+            s = streams.computeIfAbsent(stream, n -> new Stream(n, parent.watch, parent));
+        }
+        update(s, wallMs);
+        if (s.parent != null) update(s.parent, wallMs);
+    }
+
+    private void update(Stream s, long wallMs) {
+        long prev = s.lastWallMs;
+        s.lastWallMs = wallMs;
+        if (prev >= 0 && wallMs - prev > s.watch.timeoutMs) {
+            long gap = wallMs - prev;
+            s.gaps++;
+            if (gap > s.maxGapMs) s.maxGapMs = gap;
+            marker("gap", s.name, "from_ms=" + prev + " to_ms=" + wallMs + " gap_ms=" + gap);
+        }
+    }
+
+    /** 检查线程：发现停滞的流并尝试恢复所属模块 */
+    private void check() {
+        if (!running) return;
+        long now = TimeSync.nowWallMillis();
+        for (Stream s : streams.values()) {
+            Watch w = s.watch;
+            long last = s.lastWallMs;
+            long since = last >= 0 ? last : startWallMs + START_GRACE_MS;
+            if (now - since <= w.timeoutMs) {
+                checkRate(s, now);
+                continue;
+            }
+            // 停滞期间不计入采样率窗口
+            s.rateFromMs = -1;
+            // 同一次停滞只记录一次，恢复后出现新样本再停滞时重新记录；恢复动作由 recover 自行限频
+            if (s.stalledAtLastMs != last) {
+                s.stalledAtLastMs = last;
+                marker("stall", s.name, "last_ms=" + last + " silent_ms=" + (now - since));
+            }
+            recover(w, now);
+        }
+    }
+
+    /** 比较窗口内写出的样本数与标称采样率 */
+    private void checkRate(Stream s, long now) {
+        StreamDescriptor d = expected.get(s.name);
+        if (d == null || d.getNominalRateHz() <= 0) return;
+        long samples = d.getSampleCount();
+        if (d != s.rateSource || s.rateFromMs < 0) {
+            // 新窗口从第一条样本写出后开始，模块重启后换用新的清单条目
+            s.rateSource = d;
+            s.rateFromMs = samples > 0 ? now : -1;
+            s.rateFromSamples = samples;
+            return;
+        }
+        long span = now - s.rateFromMs;
+        if (span < RATE_WINDOW_MS) return;
+        double rate = (samples - s.rateFromSamples) * 1000.0 / span;
+        s.rateFromMs = now;
+        s.rateFromSamples = samples;
+        if (s.minRateHz < 0 || rate < s.minRateHz) s.minRateHz = rate;
+        double nominal = d.getNominalRateHz();
+        boolean under = rate < nominal * UNDER_RATE_RATIO;
+        if (under && !s.underRate) {
+            s.underRateEvents++;
+            marker("under_rate", s.name, String.format(Locale.US,
+                    "observed_hz=%.2f expected_hz=%.2f window_ms=%d", rate, nominal, span));
+        }
+        s.underRate = under;
+    }
+
+    private void recover(Watch w, long now) {
+        if (w.exhausted) return;
+        if (w.lastRecoveryWallMs >= 0 && now - w.lastRecoveryWallMs < w.timeoutMs) return;
+        String name = w.module.getName();
+        if (w.recoveries >= MAX_RECOVERIES) {
+            w.exhausted = true;
+            marker("recover_exhausted", name, "attempts=" + w.recoveries);
+            return;
+        }
+        w.recoveries++;
+        w.lastRecoveryWallMs = now;
+        boolean acted;
+        try {
+            acted = w.module.recover();
+        } catch (Exception e) {
+            Log.e(TAG, "recover " + name + " failed", e);
+            marker("recover_failed", name, "attempt=" + w.recoveries + " error=" + e.getClass().getSimpleName());
+            return;
+        }
+        if (!acted) {
+            // 模块不支持恢复，不再重复尝试
+            w.exhausted = true;
+            marker("recover_unsupported", name, "");
+            return;
+        }
+        Log.w(TAG, "Restarted " + name + " (attempt " + w.recoveries + ")");
+        marker("recover", name, "attempt=" + w.recoveries + " took_ms=" + (TimeSync.nowWallMillis() - now));
+    }
+
+    private void marker(String event, String stream, String detail) {
+        Log.w(TAG, event + " " + stream + " " + detail);
+        TimestampRecorder m = markers;
+        if (m != null) m.addMarker(event, stream + " " + detail);
+    }
+
+    /** 清单中的监控汇总，未监控时返回 null */
+    JsonObject toJson() {
+        if (startWallMs < 0) return null;
+        JsonObject o = new JsonObject();
+        o.addProperty("marker_file", Constants.DIR_MARKERS + "/" + MARKER_FILE);
+        JsonArray arr = new JsonArray();
+        for (Stream s : streams.values()) {
+            JsonObject e = new JsonObject();
+            e.addProperty("stream", s.name);
+            e.addProperty("stall_timeout_ms", s.watch.timeoutMs);
+            e.addProperty("last_sample_wall_ms", s.lastWallMs);
+            e.addProperty("gaps", s.gaps);
+            e.addProperty("max_gap_ms", s.maxGapMs);
+            if (s.parent == null) e.addProperty("recoveries", s.watch.recoveries);
+            StreamDescriptor d = expected.get(s.name);
+            if (d != null && d.getNominalRateHz() > 0) {
+                e.addProperty("expected_rate_hz", d.getNominalRateHz());
+                e.addProperty("min_window_rate_hz", s.minRateHz < 0 ? -1 : Math.round(s.minRateHz * 100) / 100.0);
+                e.addProperty("under_rate_events", s.underRateEvents);
+            }
+            arr.add(e);
+        }
+        o.add("streams", arr);
+        return o;
+    }
+}
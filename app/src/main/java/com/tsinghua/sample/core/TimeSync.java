@@ -3,6 +3,10 @@ package com.tsinghua.sample.core;
 import android.os.SystemClock;
 import android.util.Log;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * 统一时间基准（与iOS FacialCollection对齐）
  *
@@ -19,13 +23,49 @@ import android.util.Log;
  * 4. 传感器数据使用 sensorNsToWallMillis() 转换
  *
  * 重要：所有模块必须使用此类的方法获取时间戳，禁止直接使用 System.currentTimeMillis()
+ *
+ * 基准以不可变快照 {@link Timebase} 整体替换（无锁读取），每次重新同步 epoch 加一，
+ * 会话内的重新同步及其跳变量记录在 manifest.json 的 timebase 中，供离线校正。
  */
 public class TimeSync {
     private static final String TAG = "TimeSync";
 
-    private static volatile long startWallMillis;
-    private static volatile long startElapsedNanos;
-    private static volatile boolean initialized = false;
+    /**
+     * 时间基准快照（不可变）：一对同时采样的 wall 毫秒与 elapsedRealtime 纳秒，epoch 每次重新同步加一。
+     * 读取方先取一次快照再换算，不会看到一半新一半旧的基准；同一快照换算出的 wall/相对秒彼此一致。
+     */
+    public static final class Timebase {
+        /** 时间基准序号，从 1 开始 */
+        public final int epoch;
+        public final long wallMillis;
+        public final long elapsedNanos;
+        /**
+         * 相对上一基准的跳变（毫秒）：同一时刻新基准换算值减旧基准换算值。
+         * 重新同步后的样本减去该值即可还原到旧基准。第一个基准为 0。
+         */
+        public final long shiftMillis;
+
+        Timebase(int epoch, long wallMillis, long elapsedNanos, long shiftMillis) {
+            this.epoch = epoch;
+            this.wallMillis = wallMillis;
+            this.elapsedNanos = elapsedNanos;
+            this.shiftMillis = shiftMillis;
+        }
+
+        public long toWallMillis(long elapsedNs) {
+            return wallMillis + (elapsedNs - elapsedNanos) / 1_000_000L;
+        }
+
+        public double toRelativeSeconds(long elapsedNs) {
+            return (elapsedNs - elapsedNanos) / 1_000_000_000.0;
+        }
+    }
+
+    /** 保留的历史基准数（用于清单记录会话内的重新同步） */
+    private static final int HISTORY_SIZE = 32;
+
+    private static volatile Timebase timebase;
+    private static final ArrayDeque<Timebase> history = new ArrayDeque<>();
     private static volatile long sessionStartWallMillis;  // 当前会话开始时间
     private static volatile int sessionCount = 0;  // 会话计数，用于调试
 
@@ -34,13 +74,11 @@ public class TimeSync {
      * 建立全局时间基准，确保所有模块使用统一时间戳
      */
     public static synchronized void initializeGlobal() {
-        if (!initialized) {
-            startElapsedNanos = SystemClock.elapsedRealtimeNanos();
-            startWallMillis = System.currentTimeMillis();
-            sessionStartWallMillis = startWallMillis;
-            initialized = true;
-            Log.i(TAG, "Global time sync initialized: wallMs=" + startWallMillis
-                    + ", elapsedNs=" + startElapsedNanos);
+        if (timebase == null) {
+            Timebase tb = rebase();
+            sessionStartWallMillis = tb.wallMillis;
+            Log.i(TAG, "Global time sync initialized: wallMs=" + tb.wallMillis
+                    + ", elapsedNs=" + tb.elapsedNanos);
         } else {
             Log.d(TAG, "Global time sync already initialized, skipping");
         }
@@ -48,22 +86,37 @@ public class TimeSync {
 
     /**
      * 在录制/会话开始时调用，重新同步时间基准
-     * 这会更新时间基准，但保持已初始化状态
+     * 这会更新时间基准（epoch 加一），但保持已初始化状态。
+     * 正在写入的流会随之跳变 shiftMillis，因此只应在会话开始、各模块启动前调用。
      */
     public static synchronized void startSessionClock() {
-        // 同时采样两个时钟，尽量减少误差
-        startElapsedNanos = SystemClock.elapsedRealtimeNanos();
-        startWallMillis = System.currentTimeMillis();
-        sessionStartWallMillis = startWallMillis;
+        Timebase tb = rebase();
+        sessionStartWallMillis = tb.wallMillis;
         sessionCount++;
-        initialized = true;
-        Log.i(TAG, "Session clock started (session #" + sessionCount + "): wallMs="
-                + startWallMillis + ", elapsedNs=" + startElapsedNanos);
+        Log.i(TAG, "Session clock started (session #" + sessionCount + ", epoch " + tb.epoch + "): wallMs="
+                + tb.wallMillis + ", elapsedNs=" + tb.elapsedNanos + ", shiftMs=" + tb.shiftMillis);
+    }
+
+    /** 采样新基准并原子替换（调用方持有类锁） */
+    private static Timebase rebase() {
+        // 同时采样两个时钟，尽量减少误差
+        long elapsed = SystemClock.elapsedRealtimeNanos();
+        long wall = System.currentTimeMillis();
+        Timebase old = timebase;
+        Timebase tb = old == null
+                ? new Timebase(1, wall, elapsed, 0)
+                : new Timebase(old.epoch + 1, wall, elapsed, wall - old.toWallMillis(elapsed));
+        synchronized (history) {
+            history.addLast(tb);
+            if (history.size() > HISTORY_SIZE) history.removeFirst();
+        }
+        timebase = tb;
+        return tb;
     }
 
     /** 重置时钟（会话结束时可选调用） */
     public static synchronized void reset() {
-        // 注意：reset不会将initialized设为false，保持全局时间基准
+        // 注意：reset不会清除时间基准，保持全局时间基准
         // 只重置会话相关的状态
         sessionStartWallMillis = 0;
         Log.i(TAG, "Session clock reset (global time sync remains active)");
@@ -71,16 +124,17 @@ public class TimeSync {
 
     /** 完全重置（仅用于测试或特殊情况） */
     public static synchronized void resetAll() {
-        initialized = false;
-        startWallMillis = 0;
-        startElapsedNanos = 0;
+        timebase = null;
+        synchronized (history) {
+            history.clear();
+        }
         sessionStartWallMillis = 0;
         sessionCount = 0;
         Log.i(TAG, "TimeSync fully reset");
     }
 
     public static boolean isInitialized() {
-        return initialized;
+        return timebase != null;
     }
 
     /** 获取当前会话编号 */
@@ -88,38 +142,50 @@ public class TimeSync {
         return sessionCount;
     }
 
+    /** 当前时间基准快照；需要同时换算多个值时先取快照 */
+    public static Timebase timebase() {
+        return ensure();
+    }
+
+    /** 当前时间基准序号，记录可据此标记所用基准 */
+    public static int epoch() {
+        return ensure().epoch;
+    }
+
+    /** 序号不小于 fromEpoch 的历史基准（按时间顺序，最多保留 {@value #HISTORY_SIZE} 个） */
+    public static List<Timebase> timebasesSince(int fromEpoch) {
+        List<Timebase> list = new ArrayList<>();
+        synchronized (history) {
+            for (Timebase tb : history) {
+                if (tb.epoch >= fromEpoch) list.add(tb);
+            }
+        }
+        return list;
+    }
+
     /** 获取会话开始的墙钟时间（毫秒） */
     public static long getSessionStartWallMillis() {
-        ensure();
-        return startWallMillis;
+        return ensure().wallMillis;
     }
 
     /** 将 sensorTimestamp（ns，基于 elapsedRealtime）转换为 wall 毫秒。 */
     public static long sensorNsToWallMillis(long sensorTimestampNs) {
-        ensure();
-        long deltaNs = sensorTimestampNs - startElapsedNanos;
-        return startWallMillis + deltaNs / 1_000_000L;
+        return ensure().toWallMillis(sensorTimestampNs);
     }
 
     /** 将 sensorTimestamp（ns）转换为相对秒（浮点）。 */
     public static double sensorNsToRelativeSeconds(long sensorTimestampNs) {
-        ensure();
-        long deltaNs = sensorTimestampNs - startElapsedNanos;
-        return deltaNs / 1_000_000_000.0;
+        return ensure().toRelativeSeconds(sensorTimestampNs);
     }
 
     /** 获取当前 wall 毫秒（统一时间戳，所有模块应使用此方法）。 */
     public static long nowWallMillis() {
-        ensure();
-        long deltaNs = SystemClock.elapsedRealtimeNanos() - startElapsedNanos;
-        return startWallMillis + deltaNs / 1_000_000L;
+        return ensure().toWallMillis(SystemClock.elapsedRealtimeNanos());
     }
 
     /** 获取当前相对于会话开始的秒数。 */
     public static double nowRelativeSeconds() {
-        ensure();
-        long deltaNs = SystemClock.elapsedRealtimeNanos() - startElapsedNanos;
-        return deltaNs / 1_000_000_000.0;
+        return ensure().toRelativeSeconds(SystemClock.elapsedRealtimeNanos());
     }
 
     /** 获取当前 elapsedRealtimeNanos（用于传感器时间戳比较）。 */
@@ -127,10 +193,13 @@ public class TimeSync {
         return SystemClock.elapsedRealtimeNanos();
     }
 
-    private static void ensure() {
-        if (!initialized) {
-            Log.w(TAG, "TimeSync not initialized, auto-starting session clock");
-            startSessionClock();
+    private static Timebase ensure() {
+        Timebase tb = timebase;
+        if (tb != null) return tb;
+        Log.w(TAG, "TimeSync not initialized, auto-starting session clock");
+        synchronized (TimeSync.class) {
+            if (timebase == null) startSessionClock();
+            return timebase;
         }
     }
 
@@ -139,7 +208,7 @@ public class TimeSync {
      * 各模块在启动录制时可调用此方法验证时间基准一致
      */
     public static void logTimestampStatus(String moduleName) {
-        if (!initialized) {
+        if (timebase == null) {
             Log.w(TAG, "[" + moduleName + "] TimeSync not yet initialized!");
             return;
         }
@@ -152,14 +221,15 @@ public class TimeSync {
                 ", sessionStart=" + sessionStartWallMillis +
                 ", elapsedMs=" + elapsedSinceStart +
                 ", relativeSec=" + String.format("%.3f", relativeSec) +
-                ", session#" + sessionCount);
+                ", session#" + sessionCount +
+                ", epoch=" + timebase.epoch);
     }
 
     /**
      * 验证传感器时间戳转换（用于调试）
      */
     public static void verifySensorTimestamp(String moduleName, long sensorNs) {
-        if (!initialized) {
+        if (timebase == null) {
             Log.w(TAG, "[" + moduleName + "] Cannot verify - TimeSync not initialized");
             return;
         }
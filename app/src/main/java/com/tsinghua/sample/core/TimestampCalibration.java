@@ -0,0 +1,232 @@
+package com.tsinghua.sample.core;
+
+import android.content.Context;
+import android.hardware.camera2.CameraAccessException;
+import android.hardware.camera2.CameraCharacteristics;
+import android.hardware.camera2.CameraManager;
+import android.hardware.camera2.CameraMetadata;
+import android.util.Log;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 手机内传感器时间戳域标定：把相机 SENSOR_TIMESTAMP、IMU event.timestamp 等原生时间戳换算到
+ * elapsedRealtimeNanos，再经 {@link TimeSync} 换算为会话 wall_ms，取代受调度抖动影响的接收时间。
+ *
+ * 每个时间戳来源对应一个 {@link Domain}：
+ * - 声明为 elapsedRealtime 的来源（相机 TIMESTAMP_SOURCE_REALTIME、AudioTimestamp.TIMEBASE_BOOTTIME）直接使用；
+ * - 其余来源在线估计偏移：d = 接收时刻 - 原生时间戳 ≥ 真实偏移，按 {@link #WINDOW_NS} 分窗取最小值（下包络），
+ *   偏移取最近 {@link #HISTORY} 个窗口最小值的中位数；
+ *   下包络落在 [0, {@link #SAME_DOMAIN_MAX_LATENCY_NS}) 时判定与 elapsedRealtime 同域，偏移为 0。
+ *
+ * 残差（各窗口最小值相对偏移的离散程度、传递延迟）随 manifest.json 写出（timestamp_calibration）。
+ * 换算在传感器回调线程执行，只有比较与几次 volatile 读写，窗口切换时（每秒一次）才排序。
+ */
+public final class TimestampCalibration {
+    private static final String TAG = "TimestampCalibration";
+
+    /** 下包络窗口长度 */
+    static final long WINDOW_NS = 1_000_000_000L;
+    /** 参与偏移估计的窗口数 */
+    static final int HISTORY = 31;
+    /** 传递延迟不超过此值时视为同一时钟域（相机出图延迟可达上百毫秒） */
+    static final long SAME_DOMAIN_MAX_LATENCY_NS = 250_000_000L;
+
+    public static final String SOURCE_REALTIME = "realtime";
+    public static final String SOURCE_UNKNOWN = "unknown";
+
+    private static volatile TimestampCalibration instance;
+
+    private final Map<String, Domain> domains = new ConcurrentHashMap<>();
+
+    private TimestampCalibration() {}
+
+    public static TimestampCalibration getInstance() {
+        if (instance == null) {
+            synchronized (TimestampCalibration.class) {
+                if (instance == null) {
+                    instance = new TimestampCalibration();
+                }
+            }
+        }
+        return instance;
+    }
+
+    /** 会话开始（由 SessionManager 调用）：清空上一会话的标定 */
+    void reset() {
+        domains.clear();
+    }
+
+    /**
+     * 登记一个时间戳来源（如 "imu/accelerometer"、"camera/front"），同名来源复用。
+     * @param source {@link #SOURCE_REALTIME} 表示已知为 elapsedRealtime 域，{@link #SOURCE_UNKNOWN} 需在线估计
+     */
+    public Domain register(String name, String source) {
+        Domain d = domains.get(name);
+        if (d == null || !d.source.equals(source)) {
+            d = new Domain(name, source);
+            domains.put(name, d);
+            Log.i(TAG, "Timestamp domain " + name + ": source=" + source);
+        }
+        return d;
+    }
+
+    /** 相机 SENSOR_TIMESTAMP 的时钟域：TIMESTAMP_SOURCE_REALTIME 时为 elapsedRealtime，否则需在线估计 */
+    public static String cameraSource(Context context, String cameraId) {
+        if (cameraId == null) return SOURCE_UNKNOWN;
+        try {
+            CameraManager manager = (CameraManager) context.getSystemService(Context.CAMERA_SERVICE);
+            Integer source = manager.getCameraCharacteristics(cameraId)
+                    .get(CameraCharacteristics.SENSOR_INFO_TIMESTAMP_SOURCE);
+            return source != null && source == CameraMetadata.SENSOR_INFO_TIMESTAMP_SOURCE_REALTIME
+                    ? SOURCE_REALTIME : SOURCE_UNKNOWN;
+        } catch (CameraAccessException | RuntimeException e) {
+            Log.w(TAG, "timestamp source unavailable: camera " + cameraId, e);
+            return SOURCE_UNKNOWN;
+        }
+    }
+
+    /** 单个时间戳来源的标定状态，由该来源的回调线程调用 */
+    public static final class Domain {
+        final String name;
+        final String source;
+        private final boolean declaredRealtime;
+
+        // 当前偏移：elapsedRealtime = 原生 + offsetNs
+        private volatile long offsetNs;
+        private volatile boolean sameDomain;
+        private volatile boolean calibrated;
+
+        // 当前窗口
+        private long windowStartNs = Long.MIN_VALUE;
+        private long windowMinNs = Long.MAX_VALUE;
+        // 最近窗口的最小值（环形）
+        private final long[] minima = new long[HISTORY];
+        private int minimaCount;
+        private int minimaHead;
+
+        // 统计（同一回调线程写，报告时读）
+        private volatile long samples;
+        private volatile long latencySumNs;
+        private volatile long latencyMaxNs;
+        private volatile long latencyMinNs = Long.MAX_VALUE;
+        private volatile long rejected;
+
+        Domain(String name, String source) {
+            this.name = name;
+            this.source = source;
+            this.declaredRealtime = SOURCE_REALTIME.equals(source);
+            if (declaredRealtime) {
+                sameDomain = true;
+                calibrated = true;
+            }
+        }
+
+        /**
+         * 记录一个样本并返回其 elapsedRealtime 纳秒。
+         * @param nativeNs         原生时间戳（纳秒）
+         * @param receiveElapsedNs 收到该样本时的 elapsedRealtimeNanos
+         */
+        public long toElapsedNs(long nativeNs, long receiveElapsedNs) {
+            long d = receiveElapsedNs - nativeNs;
+            if (!declaredRealtime) observe(d, receiveElapsedNs);
+            long elapsed = nativeNs + offsetNs;
+            long latency = receiveElapsedNs - elapsed;
+            if (latency < 0) {
+                // 换算结果晚于接收时刻：偏移尚未收敛或时钟跳变，退回接收时间
+                rejected++;
+                return receiveElapsedNs;
+            }
+            samples++;
+            latencySumNs += latency;
+            if (latency > latencyMaxNs) latencyMaxNs = latency;
+            if (latency < latencyMinNs) latencyMinNs = latency;
+            return elapsed;
+        }
+
+        /** 原生时间戳 -> 会话 wall_ms */
+        public long toWallMillis(long nativeNs, long receiveElapsedNs) {
+            return TimeSync.timebase().toWallMillis(toElapsedNs(nativeNs, receiveElapsedNs));
+        }
+
+        private void observe(long d, long nowNs) {
+            if (windowStartNs == Long.MIN_VALUE) windowStartNs = nowNs;
+            if (d < windowMinNs) windowMinNs = d;
+            if (!calibrated) {
+                // 第一个窗口结束前用至今的最小值
+                setOffset(windowMinNs);
+            }
+            if (nowNs - windowStartNs < WINDOW_NS) return;
+            minima[minimaHead] = windowMinNs;
+            minimaHead = (minimaHead + 1) % HISTORY;
+            if (minimaCount < HISTORY) minimaCount++;
+            windowStartNs = nowNs;
+            windowMinNs = Long.MAX_VALUE;
+            long[] sorted = Arrays.copyOf(minima, minimaCount);
+            Arrays.sort(sorted);
+            setOffset(sorted[minimaCount / 2]);
+            calibrated = true;
+        }
+
+        private void setOffset(long envelopeNs) {
+            boolean same = envelopeNs >= 0 && envelopeNs < SAME_DOMAIN_MAX_LATENCY_NS;
+            sameDomain = same;
+            offsetNs = same ? 0 : envelopeNs;
+        }
+
+        public boolean isSameDomain() {
+            return sameDomain;
+        }
+
+        public long getOffsetNs() {
+            return offsetNs;
+        }
+
+        JsonObject toJson() {
+            JsonObject o = new JsonObject();
+            o.addProperty("name", name);
+            o.addProperty("source", source);
+            o.addProperty("same_domain", sameDomain);
+            o.addProperty("offset_ns", offsetNs);
+            o.addProperty("samples", samples);
+            o.addProperty("rejected", rejected);
+            long n = samples;
+            if (n > 0) {
+                // 换算后时间到接收时刻的延迟：估计偏移时其最小值即残差下界
+                o.addProperty("latency_min_ms", latencyMinNs / 1e6);
+                o.addProperty("latency_mean_ms", Math.round(latencySumNs / (double) n / 1e3) / 1e3);
+                o.addProperty("latency_max_ms", latencyMaxNs / 1e6);
+            }
+            if (!declaredRealtime) {
+                o.addProperty("residual_ms", residualMs());
+            }
+            return o;
+        }
+
+        /** 各窗口下包络相对所用偏移的 RMS（毫秒），反映偏移估计的稳定性 */
+        private double residualMs() {
+            int n = minimaCount;
+            if (n == 0) return 0;
+            long ref = sameDomain ? 0 : offsetNs;
+            double sumSq = 0;
+            for (int i = 0; i < n; i++) {
+                double r = (minima[i] - ref) / 1e6;
+                sumSq += r * r;
+            }
+            return Math.round(Math.sqrt(sumSq / n) * 1000) / 1000.0;
+        }
+    }
+
+    /** 清单中的标定结果，未登记任何来源时返回 null */
+    JsonArray toJson() {
+        if (domains.isEmpty()) return null;
+        JsonArray arr = new JsonArray();
+        for (Domain d : domains.values()) arr.add(d.toJson());
+        return arr;
+    }
+}
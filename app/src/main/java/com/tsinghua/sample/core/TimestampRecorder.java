@@ -11,7 +11,11 @@ public class TimestampRecorder {
     private int markerCount = 0;
 
     public TimestampRecorder(File file) throws Exception {
-        this.logger = new DataLogger(file, "timestamp_ms,marker_id,label,description");
+        // 手动标记频率低但不可丢失：缓冲满时阻塞等待
+        this.logger = new DataLogger(file, "timestamp_ms,marker_id,label,description",
+                256, DataLogger.OverflowPolicy.BLOCK);
+        // 每批写出后立即 fsync，崩溃/断电也不丢标记
+        this.logger.setDurability(IoScheduler.Durability.BATCH_FSYNC);
     }
 
     public synchronized void addMarker(String label, String description) {
@@ -5,8 +5,15 @@ import android.hardware.usb.*;
 import android.util.Log;
 
 import com.tsinghua.sample.device.model.OximeterData;
+import com.tsinghua.sample.core.BinaryRecordLog;
+import com.tsinghua.sample.core.ClockAlignment;
+import com.tsinghua.sample.core.RecordSchema;
+import com.tsinghua.sample.core.RecordingModule;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.StartBarrier;
+import com.tsinghua.sample.core.StreamWatchdog;
 import com.tsinghua.sample.core.TimeSync;
+import com.tsinghua.sample.core.CsvEncoder;
 import com.tsinghua.sample.core.DataLogger;
 
 import java.io.File;
@@ -16,7 +23,7 @@ import java.nio.ByteBuffer;
 import java.util.*;
 import java.util.concurrent.Semaphore;
 
-public class OximeterManager {
+public class OximeterManager implements RecordingModule {
 
     private static final String TAG = "OximeterManager";
     private static final int VENDOR_ID = 0x1234; // 替换为真实 VID
@@ -36,10 +43,14 @@ public class OximeterManager {
     private final List<OximeterData> buf = new ArrayList<>();
     private final Semaphore lock = new Semaphore(0);
 
-    private boolean alive = false;
+    private volatile boolean alive = false;
     private volatile boolean recording = false;
 
     private DataLogger spo2Logger;
+    // 二进制后端（AppSettings.binary_sensor_log 开启时替代CSV写入）
+    private BinaryRecordLog spo2Binary;
+    // 写入线程复用的行编码器：wall_ms,hr,spo2,bvp
+    private final CsvEncoder spo2Line = new CsvEncoder(64);
     private Thread recordingThread;  // 录制线程引用，用于等待线程结束
     private OximeterDataListener listener;
     private DebugLogListener debugListener;
@@ -218,26 +229,31 @@ public class OximeterManager {
     }
 
 
+    // ping/接收线程只使用启动时的连接，重置接口后旧线程自行退出，不影响新连接
     private void ping() {
+        final UsbDeviceConnection conn = connection;
+        final UsbEndpoint out = endpointOut;
         try {
-            while (alive) {
-                connection.bulkTransfer(endpointOut, new byte[]{0x00, (byte) 0x9b, 0x01, 0x1c}, 4, 300);
-                connection.bulkTransfer(endpointOut, new byte[]{0x00, (byte) 0x9b, 0x00, 0x1b}, 4, 300);
+            while (alive && connection == conn) {
+                conn.bulkTransfer(out, new byte[]{0x00, (byte) 0x9b, 0x01, 0x1c}, 4, 300);
+                conn.bulkTransfer(out, new byte[]{0x00, (byte) 0x9b, 0x00, 0x1b}, 4, 300);
                 Thread.sleep(20000);
             }
         } catch (Exception e) {
             Log.e(TAG, "Ping error: " + e);
-            alive = false;
+            if (connection == conn) alive = false;
         }
     }
 
     private void connect() {
         debugLog("数据接收线程启动");
+        final UsbDeviceConnection conn = connection;
+        final UsbEndpoint in = endpointIn;
         try {
             ByteBuffer buffer = ByteBuffer.allocate(64);
             int packetCount = 0;
-            while (alive) {
-                int len = connection.bulkTransfer(endpointIn, buffer.array(), buffer.capacity(), 300);
+            while (alive && connection == conn) {
+                int len = conn.bulkTransfer(in, buffer.array(), buffer.capacity(), 300);
                 if (len > 0) {
                     packetCount++;
                     long t = TimeSync.nowWallMillis();  // 使用统一时间基准
@@ -310,10 +326,31 @@ public class OximeterManager {
         } finally {
             buf.clear();
             lock.release();
-            if (connection != null) connection.close();
+            if (conn != null) conn.close();
         }
     }
 
+    /**
+     * 重置 USB 接口：停止 ping/接收线程、关闭连接后重新打开并握手，录制（写入线程与文件）不受影响。
+     * @return 重新连接是否成功
+     */
+    public boolean resetUsbInterface() {
+        debugLog("重置USB接口");
+        alive = false;
+        try {
+            // 等待接收线程的 bulkTransfer（300ms 超时）返回并关闭旧连接
+            Thread.sleep(400);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+        connection = null;
+        endpointIn = null;
+        endpointOut = null;
+        connectAndStart();
+        return alive;
+    }
+
     public void startRecording(String path) {
         if (recording) return;
 
@@ -330,9 +367,16 @@ public class OximeterManager {
                         .getString("experiment_id", "default"));
                 File dir = sm.subDir("spo2");
                 if (dir != null && !dir.exists()) dir.mkdirs();
+                boolean binary = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE)
+                        .getBoolean("binary_sensor_log", false);
                 File logFile = new File(dir != null ? dir : new File(path),
-                        "spo2_" + System.currentTimeMillis() + ".csv");
-                spo2Logger = new DataLogger(logFile, "wall_ms,hr,spo2,bvp");
+                        "spo2_" + System.currentTimeMillis() + (binary ? ".bin" : ".csv"));
+                if (binary) {
+                    // 二进制定宽记录，录制结束后导出为同名CSV
+                    spo2Binary = new BinaryRecordLog(logFile, RecordSchema.SPO2);
+                } else {
+                    spo2Logger = new DataLogger(logFile, "wall_ms,hr,spo2,bvp");
+                }
                 Log.d(TAG, "SpO2 logger initialized: " + logFile.getAbsolutePath());
             } catch (Exception e) {
                 Log.e(TAG, "init spo2 logger failed", e);
@@ -348,9 +392,18 @@ public class OximeterManager {
                     synchronized (buf) {
                         if (buf.isEmpty()) continue;
                         OximeterData d = buf.remove(0);
-                        if (spo2Logger != null) {
-                            long wall = TimeSync.nowWallMillis();
-                            spo2Logger.writeLine(wall + "," + d.hr + "," + d.spo2 + "," + d.bvp);
+                        long wall = TimeSync.nowWallMillis();
+                        if ((spo2Logger != null || spo2Binary != null)
+                                && StartBarrier.getInstance().admit("spo2", wall)) {
+                            StreamWatchdog.getInstance().feed("spo2", wall);
+                            if (spo2Binary != null) {
+                                spo2Binary.begin().putLong(wall).putInt(d.hr)
+                                        .putInt(d.spo2).putInt(d.bvp).end();
+                            } else {
+                                spo2Line.reset().appendLong(wall).comma().appendInt(d.hr).comma()
+                                        .appendInt(d.spo2).comma().appendInt(d.bvp);
+                                spo2Logger.writeLine(spo2Line);
+                            }
                         }
                     }
                 } catch (InterruptedException e) {
@@ -366,30 +419,80 @@ public class OximeterManager {
     }
 
     public void stopRecording() {
+        // 在后台线程等待录制线程退出并清理资源，避免阻塞主线程
+        Runnable cleanup = detachRecording();
+        if (cleanup != null) new Thread(cleanup, "SpO2-Cleanup").start();
+    }
+
+    /** 停止写入循环并取出录制资源，返回等待线程退出、关闭文件的清理动作（没有需要清理的资源时为 null） */
+    private Runnable detachRecording() {
         recording = false;
 
-        // 在后台线程等待录制线程退出并清理资源，避免阻塞主线程
         final Thread threadToJoin = recordingThread;
         final DataLogger loggerToClose = spo2Logger;
+        final BinaryRecordLog binaryToClose = spo2Binary;
         recordingThread = null;
         spo2Logger = null;
+        spo2Binary = null;
 
-        if (threadToJoin != null || loggerToClose != null) {
-            new Thread(() -> {
-                if (threadToJoin != null) {
-                    try {
-                        threadToJoin.join(2000);  // 最多等待2秒
-                    } catch (InterruptedException e) {
-                        Log.w(TAG, "Interrupted while waiting for recording thread");
-                        Thread.currentThread().interrupt();
-                    }
-                }
-                if (loggerToClose != null) {
-                    loggerToClose.close();
+        if (threadToJoin == null && loggerToClose == null && binaryToClose == null) return null;
+        return () -> {
+            if (threadToJoin != null) {
+                try {
+                    threadToJoin.join(2000);  // 最多等待2秒
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Interrupted while waiting for recording thread");
+                    Thread.currentThread().interrupt();
                 }
-                Log.d(TAG, "SpO2 recording cleanup completed");
-            }, "SpO2-Cleanup").start();
+            }
+            if (loggerToClose != null) {
+                loggerToClose.close();
+            }
+            if (binaryToClose != null) {
+                binaryToClose.close();
+            }
+            Log.d(TAG, "SpO2 recording cleanup completed");
+        };
+    }
+
+    @Override
+    public String getName() {
+        return "spo2";
+    }
+
+    @Override
+    public String getLabel() {
+        return "血氧仪";
+    }
+
+    @Override
+    public boolean start() {
+        if (!isConnected()) {
+            Log.w(TAG, "SpO2 device not connected, skipping");
+            return false;
         }
+        startRecording("unused");
+        ClockAlignment.getInstance().registerReceiveTimeOnly("spo2");
+        return true;
+    }
+
+    @Override
+    public long getStallTimeoutMs() {
+        return 5000;
+    }
+
+    /** USB 数据停滞：重置 USB 接口（录制与写入线程不受影响） */
+    @Override
+    public boolean recover() {
+        if (!resetUsbInterface()) throw new IllegalStateException("USB reset failed");
+        return true;
+    }
+
+    /** 协调器的停止线程上同步等待写入线程退出并关闭文件 */
+    @Override
+    public void stop() {
+        Runnable cleanup = detachRecording();
+        if (cleanup != null) cleanup.run();
     }
 
     public void disconnect() {
@@ -400,9 +503,11 @@ public class OximeterManager {
         // 捕获需要清理的资源引用
         final Thread threadToJoin = recordingThread;
         final DataLogger loggerToClose = spo2Logger;
+        final BinaryRecordLog binaryToClose = spo2Binary;
         final UsbDeviceConnection connToClose = connection;
         recordingThread = null;
         spo2Logger = null;
+        spo2Binary = null;
         connection = null;
 
         // 清理endpoints以便重新连接
@@ -414,7 +519,7 @@ public class OximeterManager {
         preview.clear();
 
         // 在后台线程执行阻塞操作，避免ANR
-        if (threadToJoin != null || loggerToClose != null || connToClose != null) {
+        if (threadToJoin != null || loggerToClose != null || binaryToClose != null || connToClose != null) {
             new Thread(() -> {
                 // 等待录制线程退出
                 if (threadToJoin != null) {
@@ -439,6 +544,9 @@ public class OximeterManager {
                 if (loggerToClose != null) {
                     loggerToClose.close();
                 }
+                if (binaryToClose != null) {
+                    binaryToClose.close();
+                }
                 Log.d(TAG, "SpO2 disconnect cleanup completed");
             }, "SpO2-Disconnect").start();
         }
@@ -0,0 +1,148 @@
+package com.tsinghua.sample.device;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.tsinghua.sample.core.BinaryRecordLog;
+import com.tsinghua.sample.core.ClockAlignment;
+import com.tsinghua.sample.core.DataLogger;
+import com.tsinghua.sample.core.RecordSchema;
+import com.tsinghua.sample.core.RecordingModule;
+import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.utils.NotificationHandler;
+
+import java.io.File;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * 指环同步测量（对齐iOS ringController.beginSynchronizedMeasurement）：
+ * 数据经 {@link NotificationHandler} 写入 ring/ring_data.csv（或开启 binary_sensor_log 时的 ring_data.bin），
+ * 测量期间周期往返校时，把 frame_ts 对齐到会话时基。
+ */
+public class RingRecordingModule implements RecordingModule {
+    private static final String TAG = "RingRecordingModule";
+
+    private final Context context;
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private volatile BinaryRecordLog ringBinaryLog;
+    private volatile DataLogger ringLogger;
+    private int durationSeconds;
+
+    public RingRecordingModule(Context context) {
+        this.context = context;
+    }
+
+    @Override
+    public String getName() {
+        return "ring";
+    }
+
+    @Override
+    public String getLabel() {
+        return "指环";
+    }
+
+    @Override
+    public void prepare(File sessionDir, int durationSeconds) {
+        this.durationSeconds = durationSeconds;
+    }
+
+    @Override
+    public boolean start() {
+        // 开始新一轮录制前先清空波形图，避免与上一轮波形混叠（界面操作回到主线程）
+        mainHandler.post(NotificationHandler::clearRingPlots);
+
+        // 设置测量时长
+        NotificationHandler.setMeasurementTime(durationSeconds);
+
+        // 获取当前会话目录用于数据落盘
+        File sessionDir = SessionManager.getInstance().getSessionDir();
+        if (sessionDir != null) {
+            try {
+                if (isBinarySensorLogEnabled()) {
+                    // 二进制定宽记录，停止后导出为 ring_data.csv
+                    File ringFile = new File(SessionManager.getInstance().subDir("ring"), "ring_data.bin");
+                    ringBinaryLog = new BinaryRecordLog(ringFile, RecordSchema.RING);
+                    NotificationHandler.setBinaryLog(ringBinaryLog);
+                    Log.d(TAG, "Ring BinaryRecordLog set to: " + ringFile.getAbsolutePath());
+                } else {
+                    // 创建DataLogger用于指环数据记录
+                    File ringFile = new File(SessionManager.getInstance().subDir("ring"), "ring_data.csv");
+                    String header = "wall_ms,frame_ts,green,red,ir,accX,accY,accZ,gyroX,gyroY,gyroZ,temp0,temp1,temp2";
+                    ringLogger = new DataLogger(ringFile, header);
+                    NotificationHandler.setDataLogger(ringLogger);
+                    Log.d(TAG, "Ring DataLogger set to: " + ringFile.getAbsolutePath());
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to create ring DataLogger", e);
+            }
+        }
+
+        // 启动主动测量（内部会检查连接状态）
+        boolean started = NotificationHandler.startActiveMeasurement();
+        if (started) {
+            Log.d(TAG, "Ring synchronized measurement started, duration: " + durationSeconds + "s");
+            // 周期往返校时，把指环 frame_ts 对齐到会话时基（AppSettings.clock_sync_interval_s，0 为关闭）
+            SharedPreferences prefs = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
+            ClockAlignment.getInstance().startProbing("ring", NotificationHandler::sendClockProbe,
+                    prefs.getInt("clock_sync_interval_s", 10) * 1000L);
+        } else {
+            Log.w(TAG, "Failed to start ring measurement (not connected or already measuring)");
+        }
+        return started;
+    }
+
+    @Override
+    public void stop() {
+        ClockAlignment.getInstance().stopProbing("ring");
+        NotificationHandler.stopMeasurement();
+        NotificationHandler.setDataLogger(null);
+        DataLogger logger = ringLogger;
+        if (logger != null) {
+            ringLogger = null;
+            logger.close();
+        }
+        BinaryRecordLog binaryLog = ringBinaryLog;
+        if (binaryLog != null) {
+            NotificationHandler.setBinaryLog(null);
+            ringBinaryLog = null;
+            binaryLog.close();
+        }
+        Log.d(TAG, "Ring measurement stopped");
+    }
+
+    @Override
+    public long getStallTimeoutMs() {
+        return 3000;
+    }
+
+    /** 实时数据停滞：重新下发停止/开始测量指令，让指环重新推送通知 */
+    @Override
+    public boolean recover() {
+        if (!NotificationHandler.isRingConnected()) {
+            throw new IllegalStateException("ring not connected");
+        }
+        NotificationHandler.stopMeasurement();
+        if (!NotificationHandler.startActiveMeasurement()) {
+            throw new IllegalStateException("ring measurement restart failed");
+        }
+        Log.w(TAG, "Ring measurement restarted");
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        DataLogger logger = ringLogger;
+        if (logger != null) return logger.flush();
+        BinaryRecordLog binaryLog = ringBinaryLog;
+        return binaryLog != null ? binaryLog.flush() : CompletableFuture.completedFuture(null);
+    }
+
+    private boolean isBinarySensorLogEnabled() {
+        SharedPreferences prefs = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
+        return prefs.getBoolean("binary_sensor_log", false);
+    }
+}
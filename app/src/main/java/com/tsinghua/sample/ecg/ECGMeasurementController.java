@@ -5,8 +5,13 @@ import android.os.Handler;
 import android.os.Looper;
 import android.util.Log;
 
+import com.tsinghua.sample.core.ClockAlignment;
+import com.tsinghua.sample.core.CsvEncoder;
 import com.tsinghua.sample.core.DataLogger;
+import com.tsinghua.sample.core.RecordingModule;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.StartBarrier;
+import com.tsinghua.sample.core.StreamWatchdog;
 import com.tsinghua.sample.core.TimeSync;
 import com.vivalnk.sdk.DataReceiveListener;
 import com.vivalnk.sdk.VitalClient;
@@ -39,7 +44,7 @@ import java.util.concurrent.CopyOnWriteArraySet;
  *
  * 设计目标：完全重写，不依赖旧代码或 git 历史，实现「一键录制」中同步启动/停止心电测量。
  */
-public class ECGMeasurementController {
+public class ECGMeasurementController implements RecordingModule {
     private static final String TAG = "ECGController";
 
     public enum ConnectionState {DISCONNECTED, CONNECTING, CONNECTED, READY}
@@ -78,8 +83,12 @@ public class ECGMeasurementController {
     private boolean scanning = false;
     private boolean measuring = false;
     private DataLogger ecgLogger;
+    private final CsvEncoder ecgLine = new CsvEncoder(1024);
     private File ecgFile;
     private Integer lastBatteryPercent;
+    // 一键录制（RecordingModule）的会话参数
+    private File moduleSessionDir;
+    private int moduleDurationSeconds;
 
     private ECGMeasurementController() {
     }
@@ -259,7 +268,8 @@ public class ECGMeasurementController {
         try {
             // header 与 iOS 尽量对齐，保留导联状态
             String header = "wall_ms,ecg_mv,heart_rate,respiratory_rate,lead_on";
-            ecgLogger = new DataLogger(ecgFile, header);
+            // 每行约1s的波形（上百个采样点），槽位较大，容量取小值
+            ecgLogger = new DataLogger(ecgFile, header, 512, DataLogger.OverflowPolicy.DROP_NEWEST);
             measuring = true;
             log("心电测量开始，文件: " + ecgFile.getName());
         } catch (Exception e) {
@@ -280,6 +290,71 @@ public class ECGMeasurementController {
 
     // endregion
 
+    // region RecordingModule
+
+    @Override
+    public String getName() {
+        return "ecg";
+    }
+
+    @Override
+    public String getLabel() {
+        return "ECG";
+    }
+
+    @Override
+    public void prepare(File sessionDir, int durationSeconds) {
+        moduleSessionDir = sessionDir;
+        moduleDurationSeconds = durationSeconds;
+    }
+
+    @Override
+    public boolean start() {
+        if (!isConnected()) {
+            Log.w(TAG, "ECG device not connected, skipping");
+            return false;
+        }
+        beginSynchronizedMeasurement(moduleDurationSeconds, moduleSessionDir);
+        if (measuring) ClockAlignment.getInstance().registerReceiveTimeOnly("ecg");
+        return measuring;
+    }
+
+    @Override
+    public void stop() {
+        stopSynchronizedMeasurement();
+    }
+
+    /** 每行约 1s 的波形 */
+    @Override
+    public long getStallTimeoutMs() {
+        return 5000;
+    }
+
+    /** 数据停滞：重新注册数据接收、使能通知并切回 FullDualMode 数据流 */
+    @Override
+    public boolean recover() {
+        Device d = connectedDevice;
+        if (d == null || !isConnected()) {
+            throw new IllegalStateException("ECG not connected");
+        }
+        VitalClient.getInstance().unregisterDataReceiver(d);
+        VitalClient.getInstance().registerDataReceiver(d, dataListener);
+        VitalClient.getInstance().enableNotification(d, noopCallback);
+        VV330Manager manager = vv330Manager;
+        if (manager != null) {
+            manager.switchToFullDualMode(d, new Callback() {
+                @Override
+                public void onError(int code, String msg) {
+                    log("恢复数据流时切换数据模式失败[" + code + "]: " + msg);
+                }
+            });
+        }
+        log("心电数据停滞，已重新使能数据流");
+        return true;
+    }
+
+    // endregion
+
     // region Internal plumbing
 
     private boolean containsDevice(List<Device> list, Device target) {
@@ -420,12 +495,7 @@ public class ECGMeasurementController {
         boolean effectiveLeadOn = leadOn && ecgSignalValid;
 
         if (measuring && ecgLogger != null && ecgMv != null && ecgMv.length > 0) {
-            String ecgStr = formatEcg(ecgMv);
-            String line = wall + ",\"" + ecgStr + "\"," +
-                    (hr != null ? hr : "") + "," +
-                    (rr != null ? rr : "") + "," +
-                    (effectiveLeadOn ? 1 : 0);
-            ecgLogger.writeLine(line);
+            writeEcgLine(wall, ecgMv, hr, rr, effectiveLeadOn);
         }
 
         ECGRealtimeData packet = new ECGRealtimeData();
@@ -481,12 +551,7 @@ public class ECGMeasurementController {
         long wall = TimeSync.nowWallMillis();
 
         if (measuring && ecgLogger != null) {
-            String ecgStr = formatEcg(ecgMv);
-            String line = wall + ",\"" + ecgStr + "\"," +
-                    (hr != null ? hr : "") + "," +
-                    (rr != null ? rr : "") + "," +
-                    (lead ? 1 : 0);
-            ecgLogger.writeLine(line);
+            writeEcgLine(wall, ecgMv, hr, rr, lead);
         }
 
         ECGRealtimeData packet = new ECGRealtimeData();
@@ -500,13 +565,25 @@ public class ECGMeasurementController {
         notifyRealtime(packet);
     }
 
-    private String formatEcg(float[] ecg) {
-        StringBuilder sb = new StringBuilder();
-        for (int i = 0; i < ecg.length; i++) {
-            if (i > 0) sb.append(';');
-            sb.append(String.format(Locale.US, "%.5f", ecg[i]));
+    /** wall_ms,"ecg_mv(%.5f 以;分隔)",heart_rate,respiratory_rate,lead_on */
+    private void writeEcgLine(long wall, float[] ecg, Integer hr, Integer rr, boolean lead) {
+        DataLogger logger = ecgLogger;
+        if (logger == null || !StartBarrier.getInstance().admit("ecg", wall)) return;
+        StreamWatchdog.getInstance().feed("ecg", wall);
+        // SDK 回调与 map 回调可能在不同线程，编码器复用需串行
+        synchronized (ecgLine) {
+            ecgLine.reset().appendLong(wall).comma().append('"');
+            for (int i = 0; i < ecg.length; i++) {
+                if (i > 0) ecgLine.append(';');
+                ecgLine.appendFixed(ecg[i], 5);
+            }
+            ecgLine.append('"').comma();
+            if (hr != null) ecgLine.appendInt(hr);
+            ecgLine.comma();
+            if (rr != null) ecgLine.appendInt(rr);
+            ecgLine.comma().append(lead ? '1' : '0');
+            logger.writeLine(ecgLine);
         }
-        return sb.toString();
     }
 
     private void notifyRealtime(ECGRealtimeData data) {
@@ -19,6 +19,7 @@ import android.hardware.camera2.CaptureRequest;
 import android.media.Image;
 import android.media.ImageReader;
 import android.os.Build;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -35,9 +36,16 @@ import androidx.fragment.app.FragmentActivity;
 
 import com.google.mediapipe.solutions.facemesh.FaceMesh;
 import com.google.mediapipe.solutions.facemesh.FaceMeshOptions;
+import com.tsinghua.sample.core.SessionHealth;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.SessionManifest;
+import com.tsinghua.sample.core.StorageBudget;
+import com.tsinghua.sample.core.StreamDescriptor;
+import com.tsinghua.sample.core.StreamStats;
+import com.tsinghua.sample.core.TimeSync;
 import com.tsinghua.sample.utils.FacePreprocessor;
 import com.tsinghua.sample.utils.HeartRateEstimator;
+import com.tsinghua.sample.utils.SpectralBackend;
 import com.tsinghua.sample.utils.PlotView;
 import com.tsinghua.sample.utils.VideoQualityEvaluator;
 
@@ -106,6 +114,7 @@ public class CameraFaceProcessor {
     private long recordingStartTimeNs = 0;  // 录制开始时间（纳秒）
     private static final int FRAME_RATE = 30;
     private static final int I_FRAME_INTERVAL = 1;
+    private static final int VIDEO_BIT_RATE = 8000000; // 8 Mbps 高画质
     private static final int VIDEO_WIDTH = 480;  // 旋转后的宽度
     private static final int VIDEO_HEIGHT = 640; // 旋转后的高度
     private final Object encoderLock = new Object();
@@ -113,6 +122,9 @@ public class CameraFaceProcessor {
     // 帧计数统计（用于调试）
     private int encodedFrameCount = 0;
     private int droppedFrameCount = 0;
+    // 写入遥测（会话结束时汇总到 info/health.json）
+    private volatile StreamStats videoStats;
+    private volatile StreamDescriptor videoDescriptor;
 
     // 异步文件写入线程池
     private final ExecutorService fileWriteExecutor = Executors.newSingleThreadExecutor();
@@ -251,7 +263,9 @@ public class CameraFaceProcessor {
                 // 配置 MediaFormat
                 MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, VIDEO_WIDTH, VIDEO_HEIGHT);
                 format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
-                format.setInteger(MediaFormat.KEY_BIT_RATE, 8000000); // 8 Mbps 高画质
+                // 存储空间不足时按 StorageBudget 降低码率
+                format.setInteger(MediaFormat.KEY_BIT_RATE,
+                        (int) (VIDEO_BIT_RATE * StorageBudget.getInstance().getVideoBitrateRatio()));
                 format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
                 format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
                 // 使用 CBR 模式确保比特率
@@ -269,6 +283,12 @@ public class CameraFaceProcessor {
                 recordingStartTimeNs = System.nanoTime();  // 记录开始时间
                 encodedFrameCount = 0;  // 重置帧计数
                 droppedFrameCount = 0;
+                videoStats = SessionHealth.getInstance().register(
+                        frontDir.getName() + "/" + new File(currentVideoPath).getName(), StreamStats.KIND_VIDEO);
+                videoDescriptor = SessionManifest.getInstance().register(new File(currentVideoPath),
+                        StreamStats.KIND_VIDEO, "mp4/h264", VIDEO_WIDTH + "x" + VIDEO_HEIGHT);
+                videoDescriptor.setNominalRateHz(FRAME_RATE);
+                videoDescriptor.disableChecksum();
                 isRecording = true;
 
                 // 重置质量评估器
@@ -285,6 +305,26 @@ public class CameraFaceProcessor {
     /**
      * 释放 MediaCodec + MediaMuxer 资源
      */
+    /**
+     * 录制中降低编码码率（存储空间不足时）
+     * @return 编码器正在运行并已调整时返回 true
+     */
+    public boolean lowerVideoBitrate(double ratio) {
+        synchronized (encoderLock) {
+            if (mediaCodec == null || !isRecording) return false;
+            try {
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, (int) (VIDEO_BIT_RATE * ratio));
+                mediaCodec.setParameters(params);
+                Log.i(TAG, "Video bitrate lowered to " + (int) (VIDEO_BIT_RATE * ratio));
+                return true;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "调整码率失败", e);
+                return false;
+            }
+        }
+    }
+
     private void releaseVideoEncoder() {
         Log.d(TAG, "releaseVideoEncoder called, isRecording=" + isRecording);
         Log.d(TAG, "录制统计 - 总编码帧数: " + encodedFrameCount + ", 丢帧数: " + droppedFrameCount);
@@ -316,6 +356,8 @@ public class CameraFaceProcessor {
                 }
                 mediaMuxer = null;
             }
+            if (videoStats != null) videoStats.markClosed();
+            if (videoDescriptor != null) videoDescriptor.markClosed();
 
             videoTrackIndex = -1;
             muxerStarted = false;
@@ -385,6 +427,7 @@ public class CameraFaceProcessor {
                     }
                 } else {
                     droppedFrameCount++;
+                    if (videoStats != null) videoStats.recordDrop(1);
                     if (droppedFrameCount % 10 == 0) {
                         Log.w(TAG, "丢帧（无可用缓冲区）, 已丢弃: " + droppedFrameCount);
                     }
@@ -437,6 +480,19 @@ public class CameraFaceProcessor {
                     outputBuffer.position(bufferInfo.offset);
                     outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
                     mediaMuxer.writeSampleData(videoTrackIndex, outputBuffer, bufferInfo);
+                    // 采集到封装写入的延迟
+                    long muxLatencyNs = System.nanoTime()
+                            - (recordingStartTimeNs + bufferInfo.presentationTimeUs * 1000);
+                    StreamStats stats = videoStats;
+                    if (stats != null) {
+                        stats.recordWrite(1, bufferInfo.size);
+                        stats.recordLatencyNanos(muxLatencyNs);
+                    }
+                    StreamDescriptor descriptor = videoDescriptor;
+                    if (descriptor != null) {
+                        descriptor.onSample(TimeSync.nowWallMillis() - muxLatencyNs / 1_000_000L);
+                        descriptor.onBytes(bufferInfo.size);
+                    }
                 }
                 mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
                 if ((bufferInfo.flags & MediaCodec.BUFFER_FLAG_END_OF_STREAM) != 0) {
@@ -589,13 +645,16 @@ public class CameraFaceProcessor {
                     InputStream welchModelStream = assetManager.open("welch_psd.onnx");
                     InputStream hrModelStream = assetManager.open("get_hr.onnx");
 
+                    SharedPreferences settings = activity.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
                     heartRateEstimator = new HeartRateEstimator(
                             modelStream,
                             stateJsonStream,
                             welchModelStream,
                             hrModelStream,
                             plotView,
-                            baseDir
+                            baseDir,
+                            settings.getString("hr_spectrum_backend", SpectralBackend.WELCH),
+                            settings.getString("hr_spectrum_compare", "")
                     );
 
                     // 设置心率回调监听器
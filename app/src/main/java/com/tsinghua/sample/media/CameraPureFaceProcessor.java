@@ -18,6 +18,7 @@ import android.hardware.camera2.CameraMetadata;
 import android.hardware.camera2.CaptureRequest;
 import android.media.Image;
 import android.media.ImageReader;
+import android.os.Bundle;
 import android.os.Environment;
 import android.os.Handler;
 import android.os.HandlerThread;
@@ -34,9 +35,18 @@ import androidx.fragment.app.FragmentActivity;
 
 import com.google.mediapipe.solutions.facemesh.FaceMesh;
 import com.google.mediapipe.solutions.facemesh.FaceMeshOptions;
+import com.tsinghua.sample.core.SessionHealth;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.SessionManifest;
+import com.tsinghua.sample.core.StartBarrier;
+import com.tsinghua.sample.core.StorageBudget;
+import com.tsinghua.sample.core.StreamDescriptor;
+import com.tsinghua.sample.core.StreamStats;
+import com.tsinghua.sample.core.TimeSync;
+import com.tsinghua.sample.core.TimestampCalibration;
 import com.tsinghua.sample.utils.FacePreprocessor;
 import com.tsinghua.sample.utils.HeartRateEstimator;
+import com.tsinghua.sample.utils.SpectralBackend;
 import com.tsinghua.sample.utils.PlotView;
 import com.tsinghua.sample.utils.VideoQualityEvaluator;
 
@@ -103,6 +113,7 @@ public class CameraPureFaceProcessor {
     private long recordingStartTimeNs = 0;  // 录制开始时间（纳秒）
     private static final int FRAME_RATE = 30;
     private static final int I_FRAME_INTERVAL = 1;
+    private static final int VIDEO_BIT_RATE = 8000000; // 8 Mbps 高画质
     private static final int VIDEO_WIDTH = 640;  // 相机原生宽度（不旋转）
     private static final int VIDEO_HEIGHT = 480; // 相机原生高度（不旋转）
     private final Object encoderLock = new Object();
@@ -110,6 +121,13 @@ public class CameraPureFaceProcessor {
     // 帧计数统计（用于调试）
     private int encodedFrameCount = 0;
     private int droppedFrameCount = 0;
+    // 写入遥测（会话结束时汇总到 info/health.json）
+    private volatile StreamStats videoStats;
+    private volatile StreamDescriptor videoDescriptor;
+    // 帧时间戳（Image.getTimestamp）的时钟域，打开摄像头时由 SENSOR_INFO_TIMESTAMP_SOURCE 确定
+    private volatile String frameTimestampSource = TimestampCalibration.SOURCE_UNKNOWN;
+    private volatile TimestampCalibration.Domain frameTimestampDomain;
+    private long lastFrameTimeNs;
 
     // 视频编码线程池（使用有界队列，防止内存堆积）
     // 编码线程优先级在首次执行任务时设置
@@ -305,7 +323,9 @@ public class CameraPureFaceProcessor {
                 // 配置 MediaFormat
                 MediaFormat format = MediaFormat.createVideoFormat(MediaFormat.MIMETYPE_VIDEO_AVC, VIDEO_WIDTH, VIDEO_HEIGHT);
                 format.setInteger(MediaFormat.KEY_COLOR_FORMAT, MediaCodecInfo.CodecCapabilities.COLOR_FormatYUV420SemiPlanar);
-                format.setInteger(MediaFormat.KEY_BIT_RATE, 8000000); // 8 Mbps 高画质
+                // 存储空间不足时按 StorageBudget 降低码率
+                format.setInteger(MediaFormat.KEY_BIT_RATE,
+                        (int) (VIDEO_BIT_RATE * StorageBudget.getInstance().getVideoBitrateRatio()));
                 format.setInteger(MediaFormat.KEY_FRAME_RATE, FRAME_RATE);
                 format.setInteger(MediaFormat.KEY_I_FRAME_INTERVAL, I_FRAME_INTERVAL);
                 // 使用 CBR 模式确保比特率
@@ -326,6 +346,15 @@ public class CameraPureFaceProcessor {
                 recordingStartTimeNs = System.nanoTime();  // 记录开始时间
                 encodedFrameCount = 0;  // 重置帧计数
                 droppedFrameCount = 0;
+                videoStats = SessionHealth.getInstance().register(
+                        frontDir.getName() + "/" + new File(currentVideoPath).getName(), StreamStats.KIND_VIDEO);
+                videoDescriptor = SessionManifest.getInstance().register(new File(currentVideoPath),
+                        StreamStats.KIND_VIDEO, "mp4/h264", VIDEO_WIDTH + "x" + VIDEO_HEIGHT);
+                videoDescriptor.setNominalRateHz(FRAME_RATE);
+                videoDescriptor.disableChecksum();
+                frameTimestampDomain = TimestampCalibration.getInstance()
+                        .register("camera/front", frameTimestampSource);
+                videoStats.setQueueDepthSupplier(encoderQueue::size);
                 isRecording = true;
 
                 Log.d(TAG, "MediaCodec + MediaMuxer 初始化成功: " + currentVideoPath);
@@ -339,6 +368,26 @@ public class CameraPureFaceProcessor {
     /**
      * 释放 MediaCodec + MediaMuxer 资源（异步执行，避免阻塞主线程）
      */
+    /**
+     * 录制中降低编码码率（存储空间不足时）
+     * @return 编码器正在运行并已调整时返回 true
+     */
+    public boolean lowerVideoBitrate(double ratio) {
+        synchronized (encoderLock) {
+            if (mediaCodec == null || !isRecording) return false;
+            try {
+                Bundle params = new Bundle();
+                params.putInt(MediaCodec.PARAMETER_KEY_VIDEO_BITRATE, (int) (VIDEO_BIT_RATE * ratio));
+                mediaCodec.setParameters(params);
+                Log.i(TAG, "Video bitrate lowered to " + (int) (VIDEO_BIT_RATE * ratio));
+                return true;
+            } catch (IllegalStateException e) {
+                Log.e(TAG, "调整码率失败", e);
+                return false;
+            }
+        }
+    }
+
     private void releaseVideoEncoder() {
         Log.d(TAG, "releaseVideoEncoder called, isRecording=" + isRecording);
         Log.d(TAG, "录制统计 - 总编码帧数: " + encodedFrameCount + ", 丢帧数: " + droppedFrameCount);
@@ -387,6 +436,8 @@ public class CameraPureFaceProcessor {
             }
             mediaMuxer = null;
         }
+        if (videoStats != null) videoStats.markClosed();
+        if (videoDescriptor != null) videoDescriptor.markClosed();
 
         videoTrackIndex = -1;
         muxerStarted = false;
@@ -438,6 +489,7 @@ public class CameraPureFaceProcessor {
                     }
                 } else {
                     droppedFrameCount++;
+                    if (videoStats != null) videoStats.recordDrop(1);
                     if (droppedFrameCount % 10 == 0) {
                         Log.w(TAG, "丢帧（无可用缓冲区）, 已丢弃: " + droppedFrameCount);
                     }
@@ -498,6 +550,19 @@ public class CameraPureFaceProcessor {
                     outputBuffer.position(bufferInfo.offset);
                     outputBuffer.limit(bufferInfo.offset + bufferInfo.size);
                     mediaMuxer.writeSampleData(videoTrackIndex, outputBuffer, bufferInfo);
+                    // 采集到封装写入的延迟
+                    long muxLatencyNs = System.nanoTime()
+                            - (recordingStartTimeNs + bufferInfo.presentationTimeUs * 1000);
+                    StreamStats stats = videoStats;
+                    if (stats != null) {
+                        stats.recordWrite(1, bufferInfo.size);
+                        stats.recordLatencyNanos(muxLatencyNs);
+                    }
+                    StreamDescriptor descriptor = videoDescriptor;
+                    if (descriptor != null) {
+                        descriptor.onSample(TimeSync.nowWallMillis() - muxLatencyNs / 1_000_000L);
+                        descriptor.onBytes(bufferInfo.size);
+                    }
                 }
                 mediaCodec.releaseOutputBuffer(outputBufferIndex, false);
                 processedBuffers++;
@@ -634,10 +699,25 @@ public class CameraPureFaceProcessor {
         // 检查队列是否满，满则直接丢弃这帧（避免无意义的内存分配）
         if (encoderQueue.remainingCapacity() == 0) {
             droppedFrameCount++;
+            if (videoStats != null) videoStats.recordDrop(1);
             return;
         }
 
-        final long captureTimeNs = System.nanoTime();
+        // 用硬件帧时间戳扣除出图延迟，得到采集时刻（System.nanoTime 域），PTS 不受回调调度抖动影响
+        long captureTimeNs = System.nanoTime();
+        long latencyNs = 0;
+        TimestampCalibration.Domain domain = frameTimestampDomain;
+        if (domain != null) {
+            long receiveNs = TimeSync.nowElapsedNanos();
+            latencyNs = receiveNs - domain.toElapsedNs(image.getTimestamp(), receiveNs);
+            captureTimeNs -= latencyNs;
+        }
+        // 摄像头由界面启动、不参与开始屏障，只记录第一帧相对放行时刻的偏差
+        StartBarrier.getInstance().observe("camera/front", TimeSync.nowWallMillis() - latencyNs / 1_000_000);
+        // MediaMuxer 要求 PTS 非负且递增
+        captureTimeNs = Math.max(captureTimeNs, Math.max(recordingStartTimeNs, lastFrameTimeNs + 1000));
+        lastFrameTimeNs = captureTimeNs;
+        final long frameTimeNs = captureTimeNs;
 
         // 复用或创建 NV12 缓冲区
         int bufferSize = VIDEO_WIDTH * VIDEO_HEIGHT * 3 / 2;
@@ -652,7 +732,7 @@ public class CameraPureFaceProcessor {
         final byte[] nv12Data = nv12Buffer.clone();
 
         videoEncoderExecutor.execute(() -> {
-            writeNv12ToVideoInternal(nv12Data, captureTimeNs);
+            writeNv12ToVideoInternal(nv12Data, frameTimeNs);
         });
     }
 
@@ -730,6 +810,7 @@ public class CameraPureFaceProcessor {
                     }
                 } else {
                     droppedFrameCount++;
+                    if (videoStats != null) videoStats.recordDrop(1);
                     if (droppedFrameCount % 30 == 0) {
                         Log.w(TAG, "编码器丢帧(无可用缓冲): " + droppedFrameCount);
                     }
@@ -831,6 +912,7 @@ public class CameraPureFaceProcessor {
                 return;
             }
 
+            frameTimestampSource = TimestampCalibration.cameraSource(activity, cameraId);
             manager.openCamera(cameraId, stateCallback, backgroundHandler);
 
             // 如果已经预加载模型，跳过异步加载，但更新日志路径到 front 目录
@@ -852,13 +934,16 @@ public class CameraPureFaceProcessor {
                     InputStream welchModelStream = assetManager.open("welch_psd.onnx");
                     InputStream hrModelStream = assetManager.open("get_hr.onnx");
 
+                    SharedPreferences settings = activity.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
                     heartRateEstimator = new HeartRateEstimator(
                             modelStream,
                             stateJsonStream,
                             welchModelStream,
                             hrModelStream,
                             plotView,
-                            baseDir
+                            baseDir,
+                            settings.getString("hr_spectrum_backend", SpectralBackend.WELCH),
+                            settings.getString("hr_spectrum_compare", "")
                     );
 
                     // 设置心率回调监听器
@@ -14,17 +14,28 @@ import android.os.HandlerThread;
 import android.os.Looper;
 import android.util.Log;
 
+import com.google.gson.JsonObject;
+import com.tsinghua.sample.core.BinaryRecordLog;
+import com.tsinghua.sample.core.CsvEncoder;
 import com.tsinghua.sample.core.DataLogger;
+import com.tsinghua.sample.core.RecordSchema;
+import com.tsinghua.sample.core.RecordingModule;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.StartBarrier;
+import com.tsinghua.sample.core.StreamWatchdog;
 import com.tsinghua.sample.core.TimeSync;
+import com.tsinghua.sample.core.TimestampCalibration;
 
 import java.io.BufferedWriter;
 import java.io.File;
 import java.io.FileWriter;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
-public class IMURecorder implements SensorEventListener {
+public class IMURecorder implements SensorEventListener, RecordingModule {
     private SensorManager sensorManager;
     private Sensor accelerometer;
     private Sensor gyroscope;
@@ -46,8 +57,14 @@ public class IMURecorder implements SensorEventListener {
     // 流式写入相关
     private DataLogger accelerometerWriter;
     private DataLogger gyroscopeWriter;
+    // 二进制后端（AppSettings.binary_sensor_log 开启时替代CSV写入）
+    private BinaryRecordLog accelerometerBinary;
+    private BinaryRecordLog gyroscopeBinary;
     private File accelerometerFile;
     private File gyroscopeFile;
+    // 传感器时间戳域标定（传感器线程使用）
+    private volatile TimestampCalibration.Domain accelerometerDomain;
+    private volatile TimestampCalibration.Domain gyroscopeDomain;
 
     // 后台线程处理传感器回调，避免阻塞主线程
     private HandlerThread sensorThread;
@@ -56,9 +73,14 @@ public class IMURecorder implements SensorEventListener {
     // 主线程Handler，用于UI更新回调
     private final Handler mainHandler = new Handler(Looper.getMainLooper());
 
-    // 用于UI更新的最新数据
-    private String lastAccelData = "";
-    private String lastGyroData = "";
+    // 用于UI更新的最新数据（只保存数值，通知时再格式化，避免每个事件都分配字符串）
+    private float lastAccelX, lastAccelY, lastAccelZ;
+    private float lastGyroX, lastGyroY, lastGyroZ;
+    private boolean hasAccelData = false;
+    private boolean hasGyroData = false;
+
+    // 传感器线程复用的行编码器：%d,%d,%.6f,%f,%f,%f
+    private final CsvEncoder lineEncoder = new CsvEncoder(96);
 
     // 缓冲区大小，可以根据需要调整
     private static final int BUFFER_SIZE = 8192;
@@ -91,6 +113,11 @@ public class IMURecorder implements SensorEventListener {
             return;
         }
 
+        accelerometerDomain = TimestampCalibration.getInstance()
+                .register("imu/accelerometer", TimestampCalibration.SOURCE_UNKNOWN);
+        gyroscopeDomain = TimestampCalibration.getInstance()
+                .register("imu/gyroscope", TimestampCalibration.SOURCE_UNKNOWN);
+
         // 重置计数器
         accelerometerDataCount = 0;
         gyroscopeDataCount = 0;
@@ -164,6 +191,15 @@ public class IMURecorder implements SensorEventListener {
             if (outputDirectory == null) return false;
             File imuDir = sessionManager.subDir("imu");
 
+            if (prefs.getBoolean("binary_sensor_log", false)) {
+                // 二进制定宽记录，录制结束后导出为同名CSV
+                accelerometerFile = new File(imuDir, "imu_accelerometer_data.bin");
+                gyroscopeFile = new File(imuDir, "imu_gyroscope_data.bin");
+                accelerometerBinary = new BinaryRecordLog(accelerometerFile, RecordSchema.ACCELEROMETER);
+                gyroscopeBinary = new BinaryRecordLog(gyroscopeFile, RecordSchema.GYROSCOPE);
+                return true;
+            }
+
             // 创建文件
             accelerometerFile = new File(imuDir, "imu_accelerometer_data.csv");
             gyroscopeFile = new File(imuDir, "imu_gyroscope_data.csv");
@@ -192,6 +228,19 @@ public class IMURecorder implements SensorEventListener {
             gyroscopeWriter.close();
             gyroscopeWriter = null;
         }
+        if (accelerometerBinary != null) {
+            accelerometerBinary.close();
+            accelerometerBinary = null;
+        }
+        if (gyroscopeBinary != null) {
+            gyroscopeBinary.close();
+            gyroscopeBinary = null;
+        }
+    }
+
+    private boolean hasWriters() {
+        return (accelerometerWriter != null && gyroscopeWriter != null)
+                || (accelerometerBinary != null && gyroscopeBinary != null);
     }
 
     public void setOnDataUpdateListener(OnDataUpdateListener listener) {
@@ -200,14 +249,12 @@ public class IMURecorder implements SensorEventListener {
 
     @Override
     public void onSensorChanged(SensorEvent event) {
-        if (!isRecording || accelerometerWriter == null || gyroscopeWriter == null) {
+        if (!isRecording || !hasWriters()) {
             // 添加日志帮助调试为什么事件被忽略
             if (!isRecording) {
                 Log.w(TAG, "onSensorChanged: isRecording=false, ignoring event");
-            } else if (accelerometerWriter == null) {
-                Log.w(TAG, "onSensorChanged: accelerometerWriter is null");
-            } else if (gyroscopeWriter == null) {
-                Log.w(TAG, "onSensorChanged: gyroscopeWriter is null");
+            } else {
+                Log.w(TAG, "onSensorChanged: IMU writers are null");
             }
             return;
         }
@@ -224,10 +271,20 @@ public class IMURecorder implements SensorEventListener {
         }
 
         long sensorTimestamp = event.timestamp; // ns, monotonic (但可能与系统时钟不同步)
-        // 使用实际接收时间计算 wallMs 和 relativeSec，而不是传感器时间戳
-        // 因为某些设备上 event.timestamp 与 SystemClock.elapsedRealtimeNanos() 不同步
-        long wallMs = TimeSync.nowWallMillis();
-        double relativeSec = TimeSync.nowRelativeSeconds();
+        // 某些设备上 event.timestamp 与 SystemClock.elapsedRealtimeNanos() 不同域：
+        // 按接收时间在线标定偏移后换算，得到硬件采样时刻而非带调度抖动的接收时刻
+        TimestampCalibration.Domain domain = event.sensor.getType() == Sensor.TYPE_ACCELEROMETER
+                ? accelerometerDomain : gyroscopeDomain;
+        long elapsedNs = domain != null
+                ? domain.toElapsedNs(sensorTimestamp, TimeSync.nowElapsedNanos()) : TimeSync.nowElapsedNanos();
+        // 同一基准快照换算，wall_ms 与 relative_s 一致
+        TimeSync.Timebase tb = TimeSync.timebase();
+        long wallMs = tb.toWallMillis(elapsedNs);
+        double relativeSec = tb.toRelativeSeconds(elapsedNs);
+        // 开始屏障放行前的样本不记录，各模块从同一时刻开始
+        if (!StartBarrier.getInstance().admit("imu", wallMs)) return;
+        StreamWatchdog.getInstance().feed(event.sensor.getType() == Sensor.TYPE_ACCELEROMETER
+                ? "imu/accelerometer" : "imu/gyroscope", wallMs);
         float x = event.values[0];
         float y = event.values[1];
         float z = event.values[2];
@@ -235,16 +292,21 @@ public class IMURecorder implements SensorEventListener {
         try {
             if (event.sensor.getType() == Sensor.TYPE_ACCELEROMETER) {
                 totalAccelEvents++;
-                String data = String.format(Locale.getDefault(), "%d,%d,%.6f,%f,%f,%f",
-                        sensorTimestamp, wallMs, relativeSec, x, y, z);
-                accelerometerWriter.writeLine(data);
+                if (accelerometerBinary != null) {
+                    accelerometerBinary.begin().putLong(sensorTimestamp).putLong(wallMs)
+                            .putDouble(relativeSec).putFloat(x).putFloat(y).putFloat(z).end();
+                } else {
+                    accelerometerWriter.writeLine(encodeLine(sensorTimestamp, wallMs, relativeSec, x, y, z));
+                }
 
                 // 保存最新数据用于UI更新
-                lastAccelData = String.format(Locale.getDefault(), "x: %f, y: %f, z: %f", x, y, z);
+                lastAccelX = x;
+                lastAccelY = y;
+                lastAccelZ = z;
+                hasAccelData = true;
 
                 accelerometerDataCount++;
                 if (accelerometerDataCount >= UPDATE_INTERVAL) {
-                    accelerometerWriter.flush(); // 定期刷新到磁盘
                     notifyDataUpdate();
                     accelerometerDataCount = 0;
                 }
@@ -252,16 +314,21 @@ public class IMURecorder implements SensorEventListener {
             } else if (event.sensor.getType() == Sensor.TYPE_GYROSCOPE) {
                 totalGyroEvents++;
                 // 直接写入到文件
-                String data = String.format(Locale.getDefault(), "%d,%d,%.6f,%f,%f,%f",
-                        sensorTimestamp, wallMs, relativeSec, x, y, z);
-                gyroscopeWriter.writeLine(data);
+                if (gyroscopeBinary != null) {
+                    gyroscopeBinary.begin().putLong(sensorTimestamp).putLong(wallMs)
+                            .putDouble(relativeSec).putFloat(x).putFloat(y).putFloat(z).end();
+                } else {
+                    gyroscopeWriter.writeLine(encodeLine(sensorTimestamp, wallMs, relativeSec, x, y, z));
+                }
 
                 // 保存最新数据用于UI更新
-                lastGyroData = String.format(Locale.getDefault(), "x: %f, y: %f, z: %f", x, y, z);
+                lastGyroX = x;
+                lastGyroY = y;
+                lastGyroZ = z;
+                hasGyroData = true;
 
                 gyroscopeDataCount++;
                 if (gyroscopeDataCount >= UPDATE_INTERVAL) {
-                    gyroscopeWriter.flush(); // 定期刷新到磁盘
                     notifyDataUpdate();
                     gyroscopeDataCount = 0;
                 }
@@ -273,11 +340,24 @@ public class IMURecorder implements SensorEventListener {
         }
     }
 
+    /** 与原 String.format("%d,%d,%.6f,%f,%f,%f") 逐字节一致（小数点固定为 '.'） */
+    private CsvEncoder encodeLine(long sensorNs, long wallMs, double relativeSec, float x, float y, float z) {
+        return lineEncoder.reset()
+                .appendLong(sensorNs).comma()
+                .appendLong(wallMs).comma()
+                .appendFixed(relativeSec, 6).comma()
+                .appendFixed(x, 6).comma()
+                .appendFixed(y, 6).comma()
+                .appendFixed(z, 6);
+    }
+
     private void notifyDataUpdate() {
-        if (dataUpdateListener != null && !lastAccelData.isEmpty() && !lastGyroData.isEmpty()) {
+        if (dataUpdateListener != null && hasAccelData && hasGyroData) {
             // 捕获当前数据以在主线程使用
-            final String accel = lastAccelData;
-            final String gyro = lastGyroData;
+            final String accel = String.format(Locale.getDefault(), "x: %f, y: %f, z: %f",
+                    lastAccelX, lastAccelY, lastAccelZ);
+            final String gyro = String.format(Locale.getDefault(), "x: %f, y: %f, z: %f",
+                    lastGyroX, lastGyroY, lastGyroZ);
             // 切换到主线程更新UI
             mainHandler.post(() -> {
                 if (dataUpdateListener != null) {
@@ -317,16 +397,71 @@ public class IMURecorder implements SensorEventListener {
         return isRecording;
     }
 
-    // 强制刷新缓冲区到磁盘（可在需要时调用）
-    public void flushToDisk() {
-        if (isRecording) {
-            if (accelerometerWriter != null) {
-                accelerometerWriter.flush();
-            }
-            if (gyroscopeWriter != null) {
-                gyroscopeWriter.flush();
-            }
+    // 强制刷新缓冲区到磁盘（可在需要时调用）；返回的屏障在两路数据都落盘后完成，不阻塞调用线程
+    public CompletableFuture<Void> flushToDisk() {
+        if (!isRecording) return CompletableFuture.completedFuture(null);
+        List<CompletableFuture<Void>> barriers = new ArrayList<>(2);
+        if (accelerometerWriter != null) barriers.add(accelerometerWriter.flush());
+        if (gyroscopeWriter != null) barriers.add(gyroscopeWriter.flush());
+        if (accelerometerBinary != null) barriers.add(accelerometerBinary.flush());
+        if (gyroscopeBinary != null) barriers.add(gyroscopeBinary.flush());
+        return CompletableFuture.allOf(barriers.toArray(new CompletableFuture[0]));
+    }
+
+    @Override
+    public String getName() {
+        return "imu";
+    }
+
+    @Override
+    public String getLabel() {
+        return "IMU";
+    }
+
+    @Override
+    public boolean start() {
+        startRecording();
+        return isRecording;
+    }
+
+    @Override
+    public void stop() {
+        if (isRecording) stopRecording();
+    }
+
+    @Override
+    public CompletableFuture<Void> flush() {
+        return flushToDisk();
+    }
+
+    @Override
+    public long getStallTimeoutMs() {
+        return 2000;
+    }
+
+    /** 传感器回调停滞：重新注册监听，传感器线程已退出时重建 */
+    @Override
+    public boolean recover() {
+        if (!isRecording) return false;
+        sensorManager.unregisterListener(this);
+        if (sensorThread == null || !sensorThread.isAlive()) {
+            sensorThread = new HandlerThread("IMUSensorThread");
+            sensorThread.start();
+            sensorHandler = new Handler(sensorThread.getLooper());
         }
+        boolean accelRegistered = sensorManager.registerListener(this, accelerometer, SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
+        boolean gyroRegistered = sensorManager.registerListener(this, gyroscope, SensorManager.SENSOR_DELAY_FASTEST, sensorHandler);
+        Log.w(TAG, "Sensors re-registered: accel=" + accelRegistered + ", gyro=" + gyroRegistered);
+        if (!accelRegistered && !gyroRegistered) throw new IllegalStateException("sensor registration failed");
+        return true;
+    }
+
+    @Override
+    public JsonObject health() {
+        JsonObject o = new JsonObject();
+        o.addProperty("accel_events", totalAccelEvents);
+        o.addProperty("gyro_events", totalGyroEvents);
+        return o;
     }
 
     public interface OnDataUpdateListener {
@@ -7,6 +7,7 @@ import android.content.SharedPreferences;
 
 import android.media.AudioFormat;
 import android.media.AudioRecord;
+import android.media.AudioTimestamp;
 import android.media.MediaRecorder;
 import android.util.Log;
 
@@ -15,21 +16,34 @@ import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
 
+import com.tsinghua.sample.core.RecordingModule;
+import com.tsinghua.sample.core.SegmentPolicy;
+import com.tsinghua.sample.core.SessionHealth;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.SessionManifest;
+import com.tsinghua.sample.core.StartBarrier;
+import com.tsinghua.sample.core.StorageBudget;
+import com.tsinghua.sample.core.StreamWatchdog;
+import com.tsinghua.sample.core.StreamDescriptor;
+import com.tsinghua.sample.core.StreamStats;
 import com.tsinghua.sample.core.TimeSync;
+import com.tsinghua.sample.core.TimestampCalibration;
 
-public class MultiMicAudioRecorderHelper {
+public class MultiMicAudioRecorderHelper implements RecordingModule {
 
     private static final String TAG = "MultiMicAudioRecorder";
     private static final int SAMPLE_RATE_IN_HZ = 44100;  // 采样率 44.1kHz
     private static final int CHANNEL_CONFIG = AudioFormat.CHANNEL_IN_STEREO;
     private static final int AUDIO_FORMAT = AudioFormat.ENCODING_PCM_16BIT;  // 16-bit 编码格式
+    private static final int CHANNEL_COUNT = 2;  // 与 CHANNEL_CONFIG 对应
+    private static final int BYTES_PER_FRAME = 2 * CHANNEL_COUNT;
+    // 停止时等待录音线程写完最后一块缓冲并关闭文件的上限
+    private static final long THREAD_JOIN_TIMEOUT_MS = 2000;
     public File outputDirectory;
 
     private AudioRecord audioRecord1, audioRecord2;  // 假设我们使用两个麦克风
-    private boolean isRecording = false;
+    private volatile boolean isRecording = false;
     private Thread recordingThread1, recordingThread2;
-    private FileOutputStream fos1, fos2, timestampFos1, timestampFos2;
     private Context context;
 
     // 设置数据更新监听器
@@ -73,13 +87,15 @@ public class MultiMicAudioRecorderHelper {
             outputDirectory = SessionManager.getInstance().subDir("audio");
             if (outputDirectory != null && !outputDirectory.exists()) outputDirectory.mkdirs();
 
-            // 创建文件输出流，用于存储音频数据
-            fos1 = new FileOutputStream(new File(outputDirectory, "mic1_audio_record.pcm"));
-            fos2 = new FileOutputStream(new File(outputDirectory, "mic2_audio_record.pcm"));
-
-            // 创建文件输出流，用于存储时间戳
-            timestampFos1 = new FileOutputStream(new File(outputDirectory, "mic1_timestamp.txt"));
-            timestampFos2 = new FileOutputStream(new File(outputDirectory, "mic2_timestamp.txt"));
+            // 创建音频与时间戳文件（开启分段时为各自的首个分段）
+            SessionHealth health = SessionHealth.getInstance();
+            String dirName = outputDirectory.getName();
+            AudioRecordRunnable mic1 = new AudioRecordRunnable(audioRecord1, "mic1", bufferSize,
+                    health.register(dirName + "/mic1_audio_record.pcm", StreamStats.KIND_AUDIO),
+                    describe("mic1"));
+            AudioRecordRunnable mic2 = new AudioRecordRunnable(audioRecord2, "mic2", bufferSize,
+                    health.register(dirName + "/mic2_audio_record.pcm", StreamStats.KIND_AUDIO),
+                    describe("mic2"));
 
             // 开始录音
             audioRecord1.startRecording();
@@ -87,8 +103,8 @@ public class MultiMicAudioRecorderHelper {
             isRecording = true;
 
             // 启动线程分别读取录音数据
-            recordingThread1 = new Thread(new AudioRecordRunnable(audioRecord1, fos1, timestampFos1, bufferSize));
-            recordingThread2 = new Thread(new AudioRecordRunnable(audioRecord2, fos2, timestampFos2, bufferSize));
+            recordingThread1 = new Thread(mic1, "AudioRecord-mic1");
+            recordingThread2 = new Thread(mic2, "AudioRecord-mic2");
             recordingThread1.start();
             recordingThread2.start();
         } catch (IOException e) {
@@ -96,55 +112,177 @@ public class MultiMicAudioRecorderHelper {
         }
     }
 
+    /** 会话清单条目：PCM 文件为主文件（参与校验），时间戳文件一并列出 */
+    private StreamDescriptor describe(String mic) {
+        StreamDescriptor d = SessionManifest.getInstance().register(
+                new File(outputDirectory, mic + "_audio_record.pcm"), StreamStats.KIND_AUDIO, "pcm_s16le",
+                SAMPLE_RATE_IN_HZ + "Hz," + CHANNEL_COUNT + "ch");
+        d.addFile(SessionManifest.getInstance().getSessionDir(), new File(outputDirectory, mic + "_timestamp.txt"));
+        d.setNominalRateHz(SAMPLE_RATE_IN_HZ);
+        return d;
+    }
+
     // 方法：停止录音
     public void stopRecording() {
         if (audioRecord1 != null && isRecording) {
             isRecording = false;
             audioRecord1.stop();
             audioRecord2.stop();
+
+            // 先等录音线程退出（其中的 read 会在 stop 后返回），再释放 AudioRecord，避免在 read 中途释放；
+            // 超时的线程不再等待，由其在退出前自行关闭文件
+            try {
+                joinRecordingThread(recordingThread1);
+                joinRecordingThread(recordingThread2);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
             audioRecord1.release();
             audioRecord2.release();
+        }
+    }
 
-            try {
-                if (recordingThread1 != null) {
-                    recordingThread1.join();
-                }
-                if (recordingThread2 != null) {
-                    recordingThread2.join();
-                }
+    private static void joinRecordingThread(Thread thread) throws InterruptedException {
+        if (thread == null) return;
+        thread.join(THREAD_JOIN_TIMEOUT_MS);
+        if (thread.isAlive()) Log.w(TAG, thread.getName() + " still running after " + THREAD_JOIN_TIMEOUT_MS + "ms");
+    }
 
-                if (fos1 != null) {
-                    fos1.close();
-                }
-                if (fos2 != null) {
-                    fos2.close();
-                }
-                if (timestampFos1 != null) {
-                    timestampFos1.close();
-                }
-                if (timestampFos2 != null) {
-                    timestampFos2.close();
-                }
+    public boolean isRecording() {
+        return isRecording;
+    }
 
-            } catch (IOException | InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+    @Override
+    public String getName() {
+        return "audio";
+    }
+
+    @Override
+    public String getLabel() {
+        return "音频";
+    }
+
+    @Override
+    public boolean start() {
+        startRecording();
+        return isRecording;
+    }
+
+    @Override
+    public void stop() {
+        stopRecording();
+    }
+
+    /** 音频停滞只记录 gap，不重启（重建 AudioRecord 会切断 PCM 与时间戳的帧位置对应） */
+    @Override
+    public long getStallTimeoutMs() {
+        return 2000;
     }
 
     // 内部线程类：负责读取录音数据并写入文件
     // 在AudioRecordRunnable的run方法中处理音频数据并获取波形数据
     private class AudioRecordRunnable implements Runnable {
         private AudioRecord audioRecord;
+        private final String mic;
+        private final String watchName;
         private FileOutputStream fos;
         private FileOutputStream timestampFos;
         private int bufferSize;
+        private final StreamStats stats;
+        private final StreamDescriptor descriptor;
+
+        // 分段：按每块的 wall 时间戳切换，PCM 与时间戳文件同步滚动
+        private final boolean rolling = SegmentPolicy.isEnabled();
+        private File segmentFile;
+        private int segmentWindow = -1;
+        private int segmentPart;
+        private long segmentBytes;
+        // PCM 已预分配空间，关闭前截断到实际长度
+        private boolean preallocated;
+        // 块时间戳：由 AudioRecord.getTimestamp（BOOTTIME，即 elapsedRealtime）按帧位置推算块末帧的采集时刻
+        private final AudioTimestamp audioTimestamp = new AudioTimestamp();
+        private final TimestampCalibration.Domain timestampDomain;
+        private long framesRead;
 
-        public AudioRecordRunnable(AudioRecord audioRecord, FileOutputStream fos, FileOutputStream timestampFos, int bufferSize) {
+        public AudioRecordRunnable(AudioRecord audioRecord, String mic, int bufferSize,
+                                   StreamStats stats, StreamDescriptor descriptor) throws IOException {
             this.audioRecord = audioRecord;
-            this.fos = fos;
-            this.timestampFos = timestampFos;
+            this.mic = mic;
+            this.watchName = "audio/" + mic;
             this.bufferSize = bufferSize;
+            this.stats = stats;
+            this.descriptor = descriptor;
+            StreamWatchdog.getInstance().expectRate(watchName, descriptor);
+            this.timestampDomain = TimestampCalibration.getInstance()
+                    .register("audio/" + mic, TimestampCalibration.SOURCE_REALTIME);
+            if (rolling) {
+                openSegment(SegmentPolicy.windowOf(TimeSync.nowWallMillis()), 0);
+            } else {
+                File pcm = new File(outputDirectory, mic + "_audio_record.pcm");
+                fos = new FileOutputStream(pcm);
+                timestampFos = new FileOutputStream(new File(outputDirectory, mic + "_timestamp.txt"));
+                preallocate(pcm);
+            }
+        }
+
+        /** 切换到新的分段（录音线程）：上一段 fsync 后关闭 */
+        private void openSegment(int window, int part) throws IOException {
+            File previous = segmentFile;
+            closeFiles(true);
+            File pcm = SegmentPolicy.segmentFile(new File(outputDirectory, mic + "_audio_record.pcm"), window, part);
+            File timestamps = SegmentPolicy.segmentFile(new File(outputDirectory, mic + "_timestamp.txt"), window, part);
+            fos = new FileOutputStream(pcm);
+            timestampFos = new FileOutputStream(timestamps);
+            preallocate(pcm);
+            segmentFile = pcm;
+            if (previous != null) {
+                SegmentPolicy.notifyClosed(descriptor.getName(), previous, segmentWindow, segmentPart);
+            }
+            segmentWindow = window;
+            segmentPart = part;
+            segmentBytes = 0;
+            descriptor.beginSegment(pcm, window, part);
+            descriptor.addFile(SessionManifest.getInstance().getSessionDir(), timestamps);
+        }
+
+        /**
+         * 刚读到的一块（frames 帧）末帧的采集时刻（wall 毫秒）。
+         * 取不到硬件时间戳时退回读取完成时刻。
+         */
+        private long chunkWallMillis(int frames) {
+            long receiveNs = TimeSync.nowElapsedNanos();
+            long endFrame = framesRead + frames;
+            framesRead = endFrame;
+            if (audioRecord.getTimestamp(audioTimestamp, AudioTimestamp.TIMEBASE_BOOTTIME) != AudioRecord.SUCCESS) {
+                return TimeSync.timebase().toWallMillis(receiveNs);
+            }
+            long captureNs = audioTimestamp.nanoTime
+                    + (endFrame - audioTimestamp.framePosition) * 1_000_000_000L / SAMPLE_RATE_IN_HZ;
+            return timestampDomain.toWallMillis(captureNs, receiveNs);
+        }
+
+        /** 按剩余录制时长（开启分段时为一段）预分配 PCM 空间 */
+        private void preallocate(File pcm) {
+            StorageBudget budget = StorageBudget.getInstance();
+            long bytes = budget.preallocationBytes((long) SAMPLE_RATE_IN_HZ * BYTES_PER_FRAME);
+            preallocated = bytes > 0 && budget.preallocate(fos, pcm, bytes) > 0;
+        }
+
+        private void closeFiles(boolean sync) {
+            try {
+                if (fos != null) {
+                    if (preallocated) StorageBudget.trimToPosition(fos);
+                    if (sync) fos.getFD().sync();
+                    fos.close();
+                }
+                if (timestampFos != null) timestampFos.close();
+            } catch (IOException e) {
+                Log.e(TAG, "close audio file error: " + mic, e);
+            } finally {
+                fos = null;
+                timestampFos = null;
+                preallocated = false;
+            }
         }
 
         @Override
@@ -154,17 +292,44 @@ public class MultiMicAudioRecorderHelper {
             while (isRecording) {
                 bytesRead = audioRecord.read(buffer, 0, buffer.length);
                 if (bytesRead > 0 && fos != null) {
+                    long readDoneNs = System.nanoTime();
                     try {
-                        long timestamp = TimeSync.nowWallMillis();  // 统一 wall 毫秒
+                        long timestamp = chunkWallMillis(bytesRead / BYTES_PER_FRAME);  // 统一 wall 毫秒
+                        // 开始屏障放行前的音频块不记录
+                        if (!StartBarrier.getInstance().admit("audio", timestamp)) continue;
+                        StreamWatchdog.getInstance().feed(watchName, timestamp);
+                        if (rolling) {
+                            int window = SegmentPolicy.windowOf(timestamp);
+                            if (window > segmentWindow) {
+                                openSegment(window, 0);
+                            } else if (SegmentPolicy.exceedsSize(segmentBytes, 0, bytesRead)) {
+                                openSegment(segmentWindow, segmentPart + 1);
+                            }
+                            segmentBytes += bytesRead;
+                        }
                         timestampFos.write((timestamp + "\n").getBytes());  // 写入时间戳到文件
 
                         fos.write(buffer, 0, bytesRead);  // 写入音频数据到文件
-
+                        // 读到一块后同步写入：延迟即本次写入耗时
+                        stats.recordWrite(1, bytesRead);
+                        stats.recordLatencyNanos(System.nanoTime() - readDoneNs);
+                        descriptor.onBytes(buffer, 0, bytesRead);
+                        descriptor.onSamples(bytesRead / BYTES_PER_FRAME, timestamp);
                     } catch (IOException e) {
+                        stats.recordDrop(1);
                         e.printStackTrace();
                     }
+                } else if (bytesRead < 0) {
+                    // AudioRecord 读取错误（ERROR_INVALID_OPERATION 等），本块数据丢失
+                    stats.recordDrop(1);
                 }
             }
+            closeFiles(false);
+            if (segmentFile != null) {
+                SegmentPolicy.notifyClosed(descriptor.getName(), segmentFile, segmentWindow, segmentPart);
+            }
+            stats.markClosed();
+            descriptor.markClosed();
         }
 
     }
@@ -23,8 +23,12 @@ import android.widget.Toast;
 
 import androidx.annotation.NonNull;
 
+import com.tsinghua.sample.core.BinaryCsvExporter;
 import com.tsinghua.sample.core.FrameMetadataRecorder;
+import com.tsinghua.sample.core.RecordingModule;
 import com.tsinghua.sample.core.SessionManager;
+import com.tsinghua.sample.core.StorageBudget;
+import com.tsinghua.sample.core.TimestampCalibration;
 
 import java.io.File;
 import java.io.IOException;
@@ -33,7 +37,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
 
-public class RecorderHelper {
+public class RecorderHelper implements RecordingModule {
     private static final String TAG = "RecorderHelper";
     private final CameraHelper cameraHelper;
     private final Context context;
@@ -74,6 +78,12 @@ public class RecorderHelper {
         return String.valueOf(System.currentTimeMillis());
     }
 
+    /** 按摄像头的 SENSOR_INFO_TIMESTAMP_SOURCE 登记帧时间戳的时钟域 */
+    private TimestampCalibration.Domain cameraTimestampDomain(CameraDevice device, String name) {
+        String source = TimestampCalibration.cameraSource(context, device != null ? device.getId() : null);
+        return TimestampCalibration.getInstance().register(name, source);
+    }
+
     private void prepareDirectories() {
         SharedPreferences prefs = context.getSharedPreferences("AppSettings", MODE_PRIVATE);
         String experimentId = prefs.getString("experiment_id", "default");
@@ -81,6 +91,12 @@ public class RecorderHelper {
         outputDirectory = sm.ensureSession(context, experimentId);
     }
 
+    /** 帧元数据文件扩展名：开启 binary_sensor_log 时写 .bin，录制结束后导出为同名CSV */
+    private String metadataExtension() {
+        SharedPreferences prefs = context.getSharedPreferences("AppSettings", MODE_PRIVATE);
+        return prefs.getBoolean("binary_sensor_log", false) ? BinaryCsvExporter.EXTENSION : ".csv";
+    }
+
     public void setupFrontRecording() {
         startTimestamp = null;
         outputDirectory = null;
@@ -93,12 +109,13 @@ public class RecorderHelper {
         if (!frontDir.exists()) frontDir.mkdirs();
         File frontOutputFile = new File(frontDir, "front_camera_" + startTimestamp + ".mp4");
         currentFrontVideoPath = frontOutputFile.getAbsolutePath();  // 保存视频路径
-        File metaFile = new File(frontDir, "frame_metadata_front_" + startTimestamp + ".csv");
+        File metaFile = new File(frontDir, "frame_metadata_front_" + startTimestamp + metadataExtension());
 
         Log.d(TAG, "Setting up front recording, output: " + currentFrontVideoPath);
 
         try {
-            frontMetaRecorder = new FrameMetadataRecorder(metaFile);
+            frontMetaRecorder = new FrameMetadataRecorder(metaFile,
+                    cameraTimestampDomain(cameraHelper.getCameraDeviceFront(), "camera/front"));
         } catch (Exception e) {
             Log.e(TAG, "init front metadata recorder failed", e);
         }
@@ -203,12 +220,13 @@ public class RecorderHelper {
         File backDir = new File(outputDirectory, "back");
         if (!backDir.exists()) backDir.mkdirs();
         File backOutputFile = new File(backDir, "back_camera_" + startTimestamp + ".mp4");
-        File metaFile = new File(backDir, "frame_metadata_back_" + startTimestamp + ".csv");
+        File metaFile = new File(backDir, "frame_metadata_back_" + startTimestamp + metadataExtension());
 
         Log.d(TAG, "Setting up back recording, output: " + backOutputFile.getAbsolutePath());
 
         try {
-            backMetaRecorder = new FrameMetadataRecorder(metaFile);
+            backMetaRecorder = new FrameMetadataRecorder(metaFile,
+                    cameraTimestampDomain(cameraHelper.getCameraDeviceBack(), "camera/back"));
         } catch (Exception e) {
             Log.e(TAG, "init back metadata recorder failed", e);
         }
@@ -398,6 +416,8 @@ public class RecorderHelper {
 
             // 根据分辨率调整码率
             int bitRate = (videoSize.getWidth() * videoSize.getHeight() >= 1920 * 1080) ? 10000000 : 6000000;
+            // 存储空间不足时按 StorageBudget 降低码率（MediaRecorder 只在 prepare 前生效）
+            bitRate = (int) (bitRate * StorageBudget.getInstance().getVideoBitrateRatio());
             recorder.setVideoEncodingBitRate(bitRate);
             recorder.setOrientationHint(rotate);
 
@@ -477,6 +497,41 @@ public class RecorderHelper {
         }
     }
 
+    @Override
+    public String getName() {
+        return "camera";
+    }
+
+    @Override
+    public String getLabel() {
+        return "摄像头";
+    }
+
+    @Override
+    public List<String> getOutputDirs() {
+        return Arrays.asList("front", "back");
+    }
+
+    /** 前置摄像头，双摄模式下同时启动后置 */
+    @Override
+    public boolean start() {
+        setupFrontRecording();
+        if (isDualCameraMode) setupBackRecording();
+        return mediaRecorderFront != null;
+    }
+
+    @Override
+    public void stop() {
+        stopFrontRecording();
+        stopBackRecording();
+    }
+
+    /** MediaRecorder.stop 需要写完 moov，长录制时较慢 */
+    @Override
+    public long getStopDeadlineMs() {
+        return 5000;
+    }
+
     public static Bitmap convertJPEGToBitmap(Image image) {
         ByteBuffer buffer = image.getPlanes()[0].getBuffer();
         byte[] bytes = new byte[buffer.remaining()];
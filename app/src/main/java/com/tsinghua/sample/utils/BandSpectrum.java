@@ -0,0 +1,170 @@
+package com.tsinghua.sample.utils;
+
+import java.util.Arrays;
+
+/**
+ * 限带缩放谱：只在心率频带内用 Goertzel 计算 Welch 平均周期图，找功率最大的频点。
+ *
+ * 两级搜索：先以 fs/(4·nperseg) 的粗网格扫描整个频带找到主峰所在的主瓣，
+ * 再在主峰 ±1 个粗网格内按 Welch 路径的频率网格（fs/nfft）细扫，
+ * 因此峰值频率与补零到 nfft 的 FFT 路径落在同一网格上，计算量只有频带内的几百个频点。
+ * 分段与去均值和 {@link StreamingWelch} 相同：整个窗口减去窗口均值，段从最早的样本起按 50% 重叠排列，
+ * 每段加 Hann 窗。非线程安全，每个估计器持有一个实例。
+ */
+public final class BandSpectrum implements SpectralBackend {
+
+    /** 粗网格相对段长的细分倍数 */
+    private static final int COARSE_OVERSAMPLE = 4;
+
+    private int nperseg = -1;
+    private double[] window;
+    private double windowSumSq;
+    private double[][] segments = new double[0][];
+    private int segmentCount;
+
+    private double fs;
+    private double peakFrequency;
+    private double peakPower;
+    private int evaluatedBins;
+    private double[] windowSignal = new double[0];
+
+    @Override
+    public String getName() {
+        return BAND;
+    }
+
+    @Override
+    public double peakFrequency(StreamingWelch window, double fs, int nperseg, int nfft,
+                                double minFreq, double maxFreq) {
+        if (windowSignal.length < window.getWindowLength()) {
+            windowSignal = new double[window.getWindowLength()];
+        }
+        int length = window.copyWindow(windowSignal);
+        compute(windowSignal, length, fs, nperseg, nfft, minFreq, maxFreq);
+        return peakFrequency;
+    }
+
+    /**
+     * 计算频带 (fMin, fMax) 内的峰值，结果经 {@link #getPeakFrequency()}、{@link #getPeakPower()} 读取。
+     * @param signal        输入信号
+     * @param length        有效长度
+     * @param fs            采样频率
+     * @param nperseg       每段长度
+     * @param nfftRequested Welch 路径的 FFT 点数（会调整为2的幂次），决定细网格
+     * @param fMin          频带下限（Hz，不含）
+     * @param fMax          频带上限（Hz，不含）
+     */
+    public void compute(double[] signal, int length, double fs, int nperseg, int nfftRequested,
+                        double fMin, double fMax) {
+        nperseg = Math.max(2, Math.min(nperseg, length));
+        int nfft = RealFftPlan.nextPowerOf2(Math.max(nfftRequested, nperseg));
+        prepare(nperseg, length);
+        this.fs = fs;
+
+        // 去窗口均值、加窗后的各段
+        double mean = 0;
+        for (int i = 0; i < length; i++) mean += signal[i];
+        mean /= length;
+        int step = nperseg - nperseg / 2;
+        int count = 0;
+        for (int start = 0; start + nperseg <= length && count < segments.length; start += step) {
+            double[] seg = segments[count++];
+            for (int i = 0; i < nperseg; i++) {
+                seg[i] = (signal[start + i] - mean) * window[i];
+            }
+        }
+        segmentCount = count;
+        peakFrequency = 0;
+        peakPower = -1;
+        evaluatedBins = 0;
+        if (count == 0) return;
+
+        // 粗扫：找主峰所在主瓣
+        double coarse = fs / (COARSE_OVERSAMPLE * nperseg);
+        double coarsePeak = -1;
+        double coarsePower = -1;
+        for (int j = (int) Math.floor(fMin / coarse) + 1; j * coarse < fMax; j++) {
+            double f = j * coarse;
+            double p = power(f);
+            if (p > coarsePower) {
+                coarsePower = p;
+                coarsePeak = f;
+            }
+        }
+        if (coarsePeak < 0) return;
+
+        // 细扫：在 Welch 路径的频率网格上定位峰值
+        double fine = fs / nfft;
+        int from = (int) Math.ceil((coarsePeak - coarse) / fine);
+        int to = (int) Math.floor((coarsePeak + coarse) / fine);
+        for (int i = Math.max(from, 0); i <= to; i++) {
+            double f = i * fine;
+            if (f <= fMin || f >= fMax) continue;
+            double p = power(f);
+            if (p > peakPower) {
+                peakPower = p;
+                peakFrequency = f;
+            }
+        }
+
+        // 与 Welch 路径相同的 density 归一化（单边谱乘2）
+        peakPower *= 2 / (fs * windowSumSq * count);
+    }
+
+    /** 频率 f 处各段 |X(f)|² 之和（Goertzel） */
+    private double power(double f) {
+        evaluatedBins++;
+        double w = 2 * Math.PI * f / fs;
+        double coeff = 2 * Math.cos(w);
+        double sum = 0;
+        for (int s = 0; s < segmentCount; s++) {
+            double[] seg = segments[s];
+            double s1 = 0, s2 = 0;
+            for (int i = 0; i < nperseg; i++) {
+                double s0 = seg[i] + coeff * s1 - s2;
+                s2 = s1;
+                s1 = s0;
+            }
+            sum += s1 * s1 + s2 * s2 - coeff * s1 * s2;
+        }
+        return sum;
+    }
+
+    /** 段长变化时重算窗函数与段缓冲 */
+    private void prepare(int nperseg, int length) {
+        if (nperseg != this.nperseg) {
+            this.nperseg = nperseg;
+            window = RealFftPlan.hannWindow(nperseg);
+            double sumSq = 0;
+            for (double w : window) sumSq += w * w;
+            windowSumSq = sumSq;
+            segments = new double[0][];
+        }
+        int step = nperseg - nperseg / 2;
+        int needed = (length - nperseg) / step + 1;
+        if (segments.length < needed) {
+            double[][] grown = Arrays.copyOf(segments, needed);
+            for (int i = segments.length; i < needed; i++) grown[i] = new double[nperseg];
+            segments = grown;
+        }
+    }
+
+    /** 峰值频率（Hz），频带内无频点时为 0 */
+    public double getPeakFrequency() {
+        return peakFrequency;
+    }
+
+    /** 峰值处的功率谱密度，与 Welch 路径同一归一化 */
+    public double getPeakPower() {
+        return peakPower;
+    }
+
+    /** 上一次 compute 计算的频点数（粗扫加细扫） */
+    public int getEvaluatedBins() {
+        return evaluatedBins;
+    }
+
+    public int getSegments() {
+        return segmentCount;
+    }
+}
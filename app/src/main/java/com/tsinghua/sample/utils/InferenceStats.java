@@ -0,0 +1,59 @@
+package com.tsinghua.sample.utils;
+
+import android.os.Debug;
+import android.util.Log;
+
+import java.util.Arrays;
+
+/**
+ * 推理耗时与分配统计：逐次记录耗时，每 windowSize 次在日志中输出 p50/p99/max 耗时，
+ * 以及期间每次调用平均的 Java 分配字节数（ART 计数 art.gc.bytes-allocated，为进程内全部线程之和，作趋势参考）。
+ * 记录本身不分配内存。非线程安全。
+ */
+final class InferenceStats {
+    private final String tag;
+    private final String label;
+    private final long[] latencies;
+    private final long[] sorted;
+    private int count;
+    private long allocStart = -1;
+
+    InferenceStats(String tag, String label, int windowSize) {
+        this.tag = tag;
+        this.label = label;
+        this.latencies = new long[windowSize];
+        this.sorted = new long[windowSize];
+    }
+
+    /** 记录一次调用耗时（纳秒） */
+    void record(long nanos) {
+        if (count == 0 && allocStart < 0) allocStart = allocatedBytes();
+        latencies[count++] = nanos;
+        if (count == latencies.length) report();
+    }
+
+    private void report() {
+        int n = count;
+        System.arraycopy(latencies, 0, sorted, 0, n);
+        Arrays.sort(sorted, 0, n);
+        long p50 = sorted[n / 2];
+        long p99 = sorted[Math.max(0, (int) Math.ceil(n * 0.99) - 1)];
+        long max = sorted[n - 1];
+        long alloc = allocatedBytes();
+        String perCall = alloc >= 0 && allocStart >= 0 ? String.valueOf((alloc - allocStart) / n) : "n/a";
+        Log.i(tag, String.format("%s: n=%d, p50=%.2f ms, p99=%.2f ms, max=%.2f ms, alloc=%s B/call",
+                label, n, p50 / 1e6, p99 / 1e6, max / 1e6, perCall));
+        count = 0;
+        // 日志本身的分配计入下一窗口，窗口足够长时可忽略
+        allocStart = alloc;
+    }
+
+    private static long allocatedBytes() {
+        try {
+            String v = Debug.getRuntimeStat("art.gc.bytes-allocated");
+            return v != null ? Long.parseLong(v) : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+}
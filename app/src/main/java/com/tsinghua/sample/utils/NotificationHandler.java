@@ -105,6 +105,8 @@ public class NotificationHandler {
     private static Timer exerciseTimer;
     private static Timer measurementTimer; // 新增：测量计时器
     private static int currentSegment = 0;
+    // 自动校时包的 Frame ID（-1 表示没有等待回复的校时包）
+    private static volatile int clockProbeFrameId = -1;
 
     // 设置PlotView的方法
     public static void setPlotViewG(PlotView chartView) { plotViewG = chartView; }
@@ -128,12 +130,15 @@ public class NotificationHandler {
 
     private static LogRecorder logRecorder;
     private static com.tsinghua.sample.core.DataLogger dataLogger;
+    private static com.tsinghua.sample.core.BinaryRecordLog binaryLog;
 
     // 数据去重：防止多个监听器导致同一数据被重复写入（使用数值比较避免字符串开销）
     private static long lastWrittenFrameTs = -1;
     private static long lastWrittenGreen = -1;
     private static long lastWrittenRed = -1;
     private static long lastWrittenIr = -1;
+    // 实时数据行编码器（BLE 回调线程复用）
+    private static final com.tsinghua.sample.core.CsvEncoder ringLine = new com.tsinghua.sample.core.CsvEncoder(128);
 
     // 添加设置日志记录器的方法
     public static void setLogRecorder(LogRecorder recorder) {
@@ -153,6 +158,15 @@ public class NotificationHandler {
         lastWrittenIr = -1;
     }
 
+    /** 二进制结构化数据落盘（开启 binary_sensor_log 时替代 dataLogger）。 */
+    public static void setBinaryLog(com.tsinghua.sample.core.BinaryRecordLog log) {
+        binaryLog = log;
+        lastWrittenFrameTs = -1;
+        lastWrittenGreen = -1;
+        lastWrittenRed = -1;
+        lastWrittenIr = -1;
+    }
+
     // 添加内部recordLog方法
     private static void recordLog(String message) {
         // 输出到Android Log（保持原有功能）
@@ -513,6 +527,46 @@ public class NotificationHandler {
         Log.i(TAG, "Exercise completed");
     }
 
+    /**
+     * 发送自动校时包（Cmd 0x10 / Subcmd 0x02，与手动“时间校准”相同格式），由 ClockAlignment 周期调用。
+     * @param hostSendWallMs 会话 wall_ms，指环在回复中原样回传
+     */
+    public static boolean sendClockProbe(long hostSendWallMs) {
+        if (deviceCommandCallback == null || !isRingConnected()) return false;
+        byte[] command = new byte[12];
+        int frameId = currentFrameId++ & 0xFF;
+        command[0] = 0x00;  // Frame Type
+        command[1] = (byte) frameId;
+        command[2] = 0x10;  // Cmd
+        command[3] = 0x02;  // Subcmd
+        for (int i = 0; i < 8; i++) {
+            command[4 + i] = (byte) ((hostSendWallMs >> (i * 8)) & 0xFF);
+        }
+        clockProbeFrameId = frameId;
+        deviceCommandCallback.sendCommand(command);
+        return true;
+    }
+
+    /**
+     * 自动校时包的回复：交给 ClockAlignment 并返回 true（不再转给界面的手动校时处理）。
+     * 应在收到指令响应后尽早调用，接收时间即往返的 t3。
+     */
+    public static boolean onClockProbeResponse(byte[] data) {
+        long t3 = com.tsinghua.sample.core.TimeSync.nowWallMillis();
+        if (data == null || data.length < 28 || (data[0] & 0xFF) != 0x00
+                || (data[2] & 0xFF) != 0x10 || (data[3] & 0xFF) != 0x02) {
+            return false;
+        }
+        int frameId = data[1] & 0xFF;
+        if (frameId != clockProbeFrameId) return false;
+        clockProbeFrameId = -1;
+        long t0 = readUInt64LE(data, 4);
+        long t1 = readUInt64LE(data, 12);
+        long t2 = readUInt64LE(data, 20);
+        com.tsinghua.sample.core.ClockAlignment.getInstance().onRoundTrip("ring", t0, t1, t2, t3);
+        return true;
+    }
+
     // 构建主动测量指令
     private static byte[] buildActiveMeasurementCommand(MeasurementConfig config) {
         // 指令格式: Frame Type(1) + Frame ID(1) + Cmd(1) + Subcmd(1) + Data(7)
@@ -826,6 +880,9 @@ public class NotificationHandler {
      */
     private static String handleTimeSyncResponse(byte[] data, int frameId) {
         Log.d(TAG, "Processing time sync response");
+        if (onClockProbeResponse(data)) {
+            return "Clock probe response (Frame ID: " + frameId + ")";
+        }
 
         try {
             // 通知回调处理详细解析
@@ -1280,7 +1337,8 @@ public class NotificationHandler {
             updateRealtimeCharts(green, red, ir, accX, accY, accZ, gyroX, gyroY, gyroZ, temp0, temp1, temp2);
 
             // 结构化数据写入（如果有 dataLogger）- 带去重逻辑
-            if (dataLogger != null) {
+            com.tsinghua.sample.core.BinaryRecordLog binLog = binaryLog;
+            if (dataLogger != null || binLog != null) {
                 // 去重：使用数值直接比较（避免字符串开销）
                 boolean isDuplicate = (frameTimestampMs == lastWrittenFrameTs
                         && green == lastWrittenGreen
@@ -1294,15 +1352,27 @@ public class NotificationHandler {
                     lastWrittenIr = ir;
 
                     long wall = com.tsinghua.sample.core.TimeSync.nowWallMillis();
-                    String line = String.format(
-                            Locale.US,
-                            "%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d",
-                            wall, frameTimestampMs, green, red, ir,
-                            accX, accY, accZ,
-                            gyroX, gyroY, gyroZ,
-                            temp0, temp1, temp2
-                    );
-                    dataLogger.writeLine(line);
+                    // 开始屏障放行前的样本不记录
+                    boolean admitted = com.tsinghua.sample.core.StartBarrier.getInstance().admit("ring", wall);
+                    if (admitted) com.tsinghua.sample.core.StreamWatchdog.getInstance().feed("ring", wall);
+                    if (binLog != null && admitted) {
+                        binLog.begin().putLong(wall).putLong(frameTimestampMs)
+                                .putUnsignedInt(green).putUnsignedInt(red).putUnsignedInt(ir)
+                                .putShort(accX).putShort(accY).putShort(accZ)
+                                .putShort(gyroX).putShort(gyroY).putShort(gyroZ)
+                                .putShort(temp0).putShort(temp1).putShort(temp2)
+                                .end();
+                    }
+                    if (dataLogger != null && admitted) {
+                        // 零分配编码，与原 14 个 %d 的输出一致
+                        ringLine.reset()
+                                .appendLong(wall).comma().appendLong(frameTimestampMs).comma()
+                                .appendLong(green).comma().appendLong(red).comma().appendLong(ir).comma()
+                                .appendInt(accX).comma().appendInt(accY).comma().appendInt(accZ).comma()
+                                .appendInt(gyroX).comma().appendInt(gyroY).comma().appendInt(gyroZ).comma()
+                                .appendInt(temp0).comma().appendInt(temp1).comma().appendInt(temp2);
+                        dataLogger.writeLine(ringLine);
+                    }
                 }
             }
 
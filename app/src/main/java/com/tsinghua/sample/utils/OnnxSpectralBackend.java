@@ -0,0 +1,94 @@
+package com.tsinghua.sample.utils;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * ONNX 后端：内置的 welch_psd.onnx（输入 [1,1,300]，输出 freqs[15001]、psd[1,15001]）
+ * 与 get_hr.onnx（0.5–3 Hz 内 argmax，输出 bpm）。
+ *
+ * 模型按 30 fps、nperseg=96、nfft=30000 导出，段参数不随实际帧率变化；
+ * 频率轴在送入 get_hr 前按实际采样率缩放，使峰值换算到真实频率。
+ */
+public final class OnnxSpectralBackend implements SpectralBackend {
+
+    /** 模型固定的输入长度 */
+    public static final int INPUT_LENGTH = 300;
+    /** 模型导出时假定的采样率 */
+    private static final double MODEL_FS = 30.0;
+
+    private final OrtEnvironment env;
+    private final OrtSession welchSession;
+    private final OrtSession hrSession;
+    private final long[] inputShape = {1, 1, INPUT_LENGTH};
+    private final FloatBuffer input = ByteBuffer
+            .allocateDirect(INPUT_LENGTH * 4)
+            .order(ByteOrder.nativeOrder())
+            .asFloatBuffer();
+    private final double[] signal = new double[INPUT_LENGTH];
+    private final Map<String, OnnxTensor> hrFeeds = new HashMap<>();
+    private FloatBuffer scaledFreqs;
+
+    public OnnxSpectralBackend(OrtEnvironment env, byte[] welchModel, byte[] hrModel,
+                               OrtSession.SessionOptions options) throws OrtException {
+        this.env = env;
+        welchSession = env.createSession(welchModel, options);
+        hrSession = env.createSession(hrModel, options);
+    }
+
+    @Override
+    public String getName() {
+        return ONNX;
+    }
+
+    @Override
+    public double peakFrequency(StreamingWelch window, double fs, int nperseg, int nfft,
+                                double minFreq, double maxFreq) throws OrtException {
+        int length = window.copyWindow(signal);
+        if (length != INPUT_LENGTH) {
+            throw new IllegalStateException("ONNX welch expects " + INPUT_LENGTH + " samples, got " + length);
+        }
+        input.clear();
+        for (int i = 0; i < INPUT_LENGTH; i++) input.put((float) signal[i]);
+        input.flip();
+
+        try (OnnxTensor in = OnnxTensor.createTensor(env, input, inputShape);
+             OrtSession.Result psdResult = welchSession.run(Collections.singletonMap("input", in))) {
+            OnnxTensor freqs = (OnnxTensor) psdResult.get("freqs")
+                    .orElseThrow(() -> new IllegalStateException("welch_psd.onnx: no freqs output"));
+            OnnxTensor psd = (OnnxTensor) psdResult.get("psd")
+                    .orElseThrow(() -> new IllegalStateException("welch_psd.onnx: no psd output"));
+
+            // 频率轴按实际采样率缩放
+            FloatBuffer src = freqs.getFloatBuffer();
+            int n = src.remaining();
+            if (scaledFreqs == null || scaledFreqs.capacity() != n) {
+                scaledFreqs = ByteBuffer.allocateDirect(n * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+            }
+            float scale = (float) (fs / MODEL_FS);
+            scaledFreqs.clear();
+            for (int i = 0; i < n; i++) scaledFreqs.put(src.get(i) * scale);
+            scaledFreqs.flip();
+
+            try (OnnxTensor freqTensor = OnnxTensor.createTensor(env, scaledFreqs, freqs.getInfo().getShape())) {
+                hrFeeds.put("freqs", freqTensor);
+                hrFeeds.put("psd", psd);
+                try (OrtSession.Result hrResult = hrSession.run(hrFeeds)) {
+                    float bpm = ((OnnxTensor) hrResult.get(0)).getFloatBuffer().get(0);
+                    return bpm / 60.0;
+                } finally {
+                    hrFeeds.clear();
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,112 @@
+package com.tsinghua.sample.utils;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ai.onnxruntime.NodeInfo;
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OnnxValue;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
+
+/**
+ * ORT 会话上的 {@link SignalSession}：输入输出签名在创建时读取一次，
+ * 绑定的缓冲包装为 direct buffer 上的张量（ORT 直接使用，不复制），feed 与 pinned output 的 Map 在绑定时建好。
+ * 会话本身由调用方管理。
+ */
+final class OrtSignalSession implements SignalSession {
+    private final OrtEnvironment env;
+    private final OrtSession session;
+    private final List<String> inputNames;
+    private final List<String> outputNames;
+    private final Map<String, NodeInfo> inputInfo;
+
+    OrtSignalSession(OrtEnvironment env, OrtSession session) throws OrtException {
+        this.env = env;
+        this.session = session;
+        this.inputNames = new ArrayList<>(session.getInputNames());
+        this.outputNames = new ArrayList<>(session.getOutputNames());
+        this.inputInfo = session.getInputInfo();
+    }
+
+    @Override
+    public List<String> getInputNames() {
+        return inputNames;
+    }
+
+    @Override
+    public List<String> getOutputNames() {
+        return outputNames;
+    }
+
+    @Override
+    public long[] getInputShape(String name) {
+        NodeInfo node = inputInfo.get(name);
+        return node != null && node.getInfo() instanceof TensorInfo ? ((TensorInfo) node.getInfo()).getShape() : null;
+    }
+
+    @Override
+    public Binding bind(List<Port> inputs, List<Port> outputs) throws OrtException {
+        return new OrtBinding(inputs, outputs);
+    }
+
+    private final class OrtBinding implements Binding {
+        private final List<OnnxTensor> tensors = new ArrayList<>();
+        private final Map<String, OnnxTensor> feeds;
+        private final Map<String, OnnxValue> pinned;
+        private final FloatBuffer[] outputBuffers;
+
+        OrtBinding(List<Port> inputs, List<Port> outputs) throws OrtException {
+            feeds = new HashMap<>(inputs.size() * 2);
+            pinned = new HashMap<>(outputs.size() * 2);
+            outputBuffers = new FloatBuffer[outputs.size()];
+            try {
+                for (Port p : inputs) feeds.put(p.name, track(p));
+                for (int i = 0; i < outputs.size(); i++) {
+                    Port p = outputs.get(i);
+                    pinned.put(p.name, track(p));
+                    outputBuffers[i] = p.buffer;
+                }
+            } catch (OrtException e) {
+                close();
+                throw e;
+            }
+        }
+
+        private OnnxTensor track(Port port) throws OrtException {
+            OnnxTensor tensor = OnnxTensor.createTensor(env, port.buffer, port.shape);
+            tensors.add(tensor);
+            return tensor;
+        }
+
+        @Override
+        public void run() throws OrtException {
+            try (OrtSession.Result ignored = session.run(feeds, pinned)) {
+                // 输出已写入绑定的缓冲
+            }
+        }
+
+        @Override
+        public void runCopying() throws OrtException {
+            try (OrtSession.Result result = session.run(feeds)) {
+                for (int i = 0; i < outputBuffers.length; i++) {
+                    FloatBuffer dst = outputBuffers[i];
+                    dst.clear();
+                    dst.put(((OnnxTensor) result.get(i)).getFloatBuffer());
+                    dst.clear();
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            for (OnnxTensor t : tensors) t.close();
+            tensors.clear();
+        }
+    }
+}
@@ -0,0 +1,150 @@
+package com.tsinghua.sample.utils;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 实数输入 FFT 的预计算方案，按点数缓存（{@link #forSize}）：
+ * n 点实序列按偶/奇下标打包成 n/2 点复序列做基 2 FFT，再拆分出 0..n/2 的单边谱，运算量约为同长复数 FFT 的一半。
+ *
+ * 旋转因子表与位反转置换只在创建时计算一次；方案本身不可变，可跨线程共用，工作缓冲由调用方提供。
+ */
+public final class RealFftPlan {
+    private static final Map<Integer, RealFftPlan> CACHE = new ConcurrentHashMap<>();
+
+    /** 实数点数 */
+    private final int n;
+    /** 复数 FFT 点数 n/2 */
+    private final int half;
+    private final int[] bitReverse;
+    // 复数 FFT 旋转因子 exp(-2πi·k/half)，k < half/2
+    private final double[] twiddleRe;
+    private final double[] twiddleIm;
+    // 拆分旋转因子 exp(-2πi·k/n)，k <= half
+    private final double[] splitRe;
+    private final double[] splitIm;
+
+    /** 取 n 点（2 的幂次，>= 4）的方案，首次调用时创建 */
+    public static RealFftPlan forSize(int n) {
+        if (n < 4 || Integer.bitCount(n) != 1) {
+            throw new IllegalArgumentException("FFT size must be a power of 2 >= 4: " + n);
+        }
+        return CACHE.computeIfAbsent(n, RealFftPlan::new);
+    }
+
+    /** 大于等于 n 的最小 2 的幂次 */
+    public static int nextPowerOf2(int n) {
+        int power = 1;
+        while (power < n) {
+            power *= 2;
+        }
+        return power;
+    }
+
+    /** 对称 Hann 窗函数，StreamingWelch 与 BandSpectrum 共用 */
+    static double[] hannWindow(int length) {
+        double[] window = new double[length];
+        for (int i = 0; i < length; i++) {
+            window[i] = 0.5 * (1 - Math.cos(2 * Math.PI * i / (length - 1)));
+        }
+        return window;
+    }
+
+    private RealFftPlan(int n) {
+        this.n = n;
+        this.half = n / 2;
+
+        int bits = Integer.numberOfTrailingZeros(half);
+        bitReverse = new int[half];
+        for (int i = 0; i < half; i++) {
+            bitReverse[i] = bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+        }
+
+        twiddleRe = new double[half / 2];
+        twiddleIm = new double[half / 2];
+        for (int k = 0; k < half / 2; k++) {
+            double angle = -2 * Math.PI * k / half;
+            twiddleRe[k] = Math.cos(angle);
+            twiddleIm[k] = Math.sin(angle);
+        }
+
+        splitRe = new double[half + 1];
+        splitIm = new double[half + 1];
+        for (int k = 0; k <= half; k++) {
+            double angle = -2 * Math.PI * k / n;
+            splitRe[k] = Math.cos(angle);
+            splitIm[k] = Math.sin(angle);
+        }
+    }
+
+    public int size() {
+        return n;
+    }
+
+    /**
+     * 原地复数 FFT（n/2 点）。调用前按 re[k] = x[2k]、im[k] = x[2k+1] 打包实数输入。
+     * @param re 实部，长度 >= n/2
+     * @param im 虚部，长度 >= n/2
+     */
+    public void transform(double[] re, double[] im) {
+        for (int i = 0; i < half; i++) {
+            int j = bitReverse[i];
+            if (j > i) {
+                double tempR = re[i];
+                double tempI = im[i];
+                re[i] = re[j];
+                im[i] = im[j];
+                re[j] = tempR;
+                im[j] = tempI;
+            }
+        }
+
+        for (int size = 2; size <= half; size *= 2) {
+            int halfSize = size / 2;
+            int stride = half / size;
+            for (int i = 0; i < half; i += size) {
+                for (int j = 0, t = 0; j < halfSize; j++, t += stride) {
+                    double wr = twiddleRe[t];
+                    double wi = twiddleIm[t];
+
+                    int idx1 = i + j;
+                    int idx2 = idx1 + halfSize;
+
+                    double tr = wr * re[idx2] - wi * im[idx2];
+                    double ti = wr * im[idx2] + wi * re[idx2];
+
+                    re[idx2] = re[idx1] - tr;
+                    im[idx2] = im[idx1] - ti;
+                    re[idx1] += tr;
+                    im[idx1] += ti;
+                }
+            }
+        }
+    }
+
+    /**
+     * 由 {@link #transform} 的结果拆分出实数序列的单边谱，把 |X[k]|² 累加到 power[k]（k = 0..n/2）。
+     * @param power 长度 >= n/2 + 1
+     */
+    public void accumulatePower(double[] re, double[] im, double[] power) {
+        for (int k = 0; k <= half; k++) {
+            int a = k == half ? 0 : k;
+            int b = k == 0 ? 0 : half - k;
+            double zr = re[a], zi = im[a];
+            double cr = re[b], ci = -im[b];  // conj(Z[half - k])
+
+            // 偶序列谱 E = (Z[k] + conj(Z[half-k])) / 2，奇序列谱 O = (Z[k] - conj(Z[half-k])) / 2i
+            double er = (zr + cr) * 0.5;
+            double ei = (zi + ci) * 0.5;
+            double or = (zi - ci) * 0.5;
+            double oi = -(zr - cr) * 0.5;
+
+            // X[k] = E + exp(-2πi·k/n)·O
+            double wr = splitRe[k];
+            double wi = splitIm[k];
+            double xr = er + wr * or - wi * oi;
+            double xi = ei + wr * oi + wi * or;
+            power[k] += xr * xr + xi * xi;
+        }
+    }
+}
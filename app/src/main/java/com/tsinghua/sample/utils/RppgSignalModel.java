@@ -0,0 +1,281 @@
+package com.tsinghua.sample.utils;
+
+import android.util.Log;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * rPPG 信号模型（model.onnx）的逐帧推理。模型输入 0 为 36×36×3 帧，最后一个输入为 Δt（秒，标量），
+ * 中间为循环隐藏状态；输出 0 为本帧信号，其后的输出与状态输入按顺序一一对应。
+ *
+ * 稳态下 Java 侧不分配内存：帧、Δt、信号输出与两套隐藏状态都是创建时分配的 direct buffer，
+ * 经 {@link SignalSession} 按奇偶帧各绑定一次（设备上为 {@link OrtSignalSession}，ORT 直接使用这些缓冲，不复制）。
+ * 本帧以状态 A 为输入、新状态经 ORT pinned outputs 直接写入状态 B，下一帧交换；
+ * 运行时不支持 pinned outputs（输出形状与预分配不符等）时退回为把输出复制进状态缓冲。
+ *
+ * 批量模式 {@link #runBatch}：模型声明了序列轴（帧输入第 1 维不为 1）且 Δt 为逐帧向量时，
+ * 一次 ORT 调用推理整段 [1, N, 36, 36, 3]，隐藏状态同样经双缓冲带到下一批；
+ * 内置的 model.onnx 是单步导出（帧输入固定为 [1, 1, 36, 36, 3]、Δt 为标量），此时批内逐帧推理，
+ * 结果与逐帧调用 {@link #run} 完全一致。
+ * 非线程安全，由估计器的推理线程调用。
+ */
+final class RppgSignalModel {
+    private static final String TAG = "RppgSignalModel";
+
+    static final int FRAME_SIZE = 36;
+    static final int CHANNELS = 3;
+    /** 一帧展开后的浮点数 */
+    static final int FRAME_FLOATS = FRAME_SIZE * FRAME_SIZE * CHANNELS;
+
+    private final SignalSession session;
+    private final String frameName;
+    private final String dtName;
+    private final String signalName;
+    private final String[] stateNames;
+    private final String[] stateOutputNames;
+    private final long[][] stateShapes;
+
+    private final FloatBuffer frameBuffer = directFloats(FRAME_FLOATS);
+    private final FloatBuffer dtBuffer = directFloats(1);
+    private final FloatBuffer signalBuffer = directFloats(1);
+    private final FloatBuffer[][] stateBuffers = new FloatBuffer[2][];
+
+    // 按奇偶帧各一份：steps[p] 以 stateBuffers[p] 为状态输入，新状态写入 stateBuffers[1 - p]
+    private final SignalSession.Binding[] steps = new SignalSession.Binding[2];
+    private int current;
+    private boolean pinnedOutputs = true;
+
+    // 序列推理：帧输入与 Δt 的声明形状（-1 为动态维），不支持时 sequenceEnabled 为 false
+    private final long[] frameShape;
+    private final long[] dtShape;
+    private boolean sequenceEnabled;
+    private SequenceFeeds sequence;
+
+    /**
+     * @param initialState 状态输入名到初始值（按行展开）；缺少的状态以 0 初始化
+     */
+    RppgSignalModel(SignalSession session, Map<String, float[]> initialState) throws OrtException {
+        this.session = session;
+        List<String> inputs = session.getInputNames();
+        List<String> outputs = session.getOutputNames();
+        int stateCount = inputs.size() - 2;
+        if (stateCount < 0 || outputs.size() != stateCount + 1) {
+            throw new IllegalStateException("Unexpected signal model signature: inputs=" + inputs + ", outputs=" + outputs);
+        }
+        frameName = inputs.get(0);
+        dtName = inputs.get(inputs.size() - 1);
+        signalName = outputs.get(0);
+        stateNames = inputs.subList(1, inputs.size() - 1).toArray(new String[0]);
+        stateOutputNames = outputs.subList(1, outputs.size()).toArray(new String[0]);
+
+        // 两套隐藏状态，形状取自模型输入
+        stateShapes = new long[stateCount][];
+        stateBuffers[0] = new FloatBuffer[stateCount];
+        stateBuffers[1] = new FloatBuffer[stateCount];
+        for (int i = 0; i < stateCount; i++) {
+            long[] shape = session.getInputShape(stateNames[i]);
+            int size = 1;
+            for (long dim : shape) size *= (int) dim;
+            float[] init = initialState.get(stateNames[i]);
+            if (init != null && init.length == size) {
+                stateBuffers[0][i] = directFloats(size);
+                stateBuffers[0][i].put(init).clear();
+            } else {
+                Log.w(TAG, "No initial value for state " + stateNames[i] + ", using zeros");
+                stateBuffers[0][i] = directFloats(size);
+            }
+            stateBuffers[1][i] = directFloats(size);
+            stateShapes[i] = shape;
+        }
+
+        try {
+            for (int p = 0; p < 2; p++) {
+                steps[p] = bind(p, frameBuffer, new long[]{1, 1, FRAME_SIZE, FRAME_SIZE, CHANNELS},
+                        dtBuffer, new long[]{}, signalBuffer, new long[]{1, 1});
+            }
+        } catch (OrtException e) {
+            close();
+            throw e;
+        }
+        frameShape = session.getInputShape(frameName);
+        dtShape = session.getInputShape(dtName);
+        sequenceEnabled = frameShape != null && frameShape.length == 5 && frameShape[1] != 1
+                && dtShape != null && dtShape.length >= 1;
+        Log.d(TAG, "Signal model: " + stateCount + " states, frame=" + frameName + ", dt=" + dtName
+                + ", sequence=" + sequenceEnabled);
+    }
+
+    /** 绑定一组帧、Δt、信号缓冲：状态输入取 stateBuffers[p]，新状态写入 stateBuffers[1 - p] */
+    private SignalSession.Binding bind(int p, FloatBuffer frames, long[] fShape, FloatBuffer dts, long[] tShape,
+                                       FloatBuffer signal, long[] sShape) throws OrtException {
+        List<SignalSession.Port> in = new ArrayList<>(stateNames.length + 2);
+        List<SignalSession.Port> out = new ArrayList<>(stateNames.length + 1);
+        in.add(new SignalSession.Port(frameName, frames, fShape));
+        in.add(new SignalSession.Port(dtName, dts, tShape));
+        out.add(new SignalSession.Port(signalName, signal, sShape));
+        for (int i = 0; i < stateNames.length; i++) {
+            in.add(new SignalSession.Port(stateNames[i], stateBuffers[p][i], stateShapes[i]));
+            out.add(new SignalSession.Port(stateOutputNames[i], stateBuffers[1 - p][i], stateShapes[i]));
+        }
+        return session.bind(in, out);
+    }
+
+    /**
+     * 推理一帧，隐藏状态推进到下一帧
+     * @param frame     36×36×3 帧
+     * @param dtSeconds 与上一帧的间隔（秒）
+     * @return 本帧信号输出
+     */
+    float run(float[][][] frame, float dtSeconds) throws OrtException {
+        int i = 0;
+        for (int y = 0; y < FRAME_SIZE; y++) {
+            for (int x = 0; x < FRAME_SIZE; x++) {
+                float[] p = frame[y][x];
+                frameBuffer.put(i++, p[0]);
+                frameBuffer.put(i++, p[1]);
+                frameBuffer.put(i++, p[2]);
+            }
+        }
+        return step(dtSeconds);
+    }
+
+    /**
+     * 按时间顺序推理 count 帧，隐藏状态推进到最后一帧之后
+     * @param frames 按帧连续存放的 36×36×3 数据，长度至少 count × {@link #FRAME_FLOATS}
+     * @param dts    各帧与上一帧的间隔（秒）
+     * @param out    各帧信号输出
+     */
+    void runBatch(float[] frames, float[] dts, int count, float[] out) throws OrtException {
+        if (count > 1 && sequenceEnabled && supportsLength(count)) {
+            try {
+                runSequence(frames, dts, count, out);
+                return;
+            } catch (OrtException e) {
+                // 状态 A 未被改动，整批按逐帧重跑
+                Log.w(TAG, "Sequence inference failed, stepping frame by frame", e);
+                sequenceEnabled = false;
+                if (sequence != null) sequence.close();
+                sequence = null;
+            }
+        }
+        for (int f = 0; f < count; f++) {
+            frameBuffer.clear();
+            frameBuffer.put(frames, f * FRAME_FLOATS, FRAME_FLOATS).clear();
+            out[f] = step(dts[f]);
+        }
+    }
+
+    /** 帧输入的序列维为动态维或恰为 count */
+    private boolean supportsLength(int count) {
+        return frameShape[1] < 0 || frameShape[1] == count;
+    }
+
+    private void runSequence(float[] frames, float[] dts, int count, float[] out) throws OrtException {
+        SequenceFeeds seq = sequence;
+        if (seq == null || seq.length != count) {
+            // 长度变化（如末尾不足一批）时重建
+            if (seq != null) seq.close();
+            sequence = null;
+            seq = sequence = new SequenceFeeds(count);
+        }
+        seq.frames.clear();
+        seq.frames.put(frames, 0, count * FRAME_FLOATS).clear();
+        seq.dts.clear();
+        seq.dts.put(dts, 0, count).clear();
+
+        // 各帧信号与最后一帧之后的状态写入 seq.signal、stateBuffers[1 - current]
+        seq.steps[current].run();
+        current = 1 - current;
+        for (int f = 0; f < count; f++) out[f] = seq.signal.get(f);
+    }
+
+    private float step(float dtSeconds) throws OrtException {
+        dtBuffer.put(0, dtSeconds);
+
+        SignalSession.Binding binding = steps[current];
+        if (pinnedOutputs) {
+            try {
+                // 信号与新状态写入 signalBuffer、stateBuffers[1 - current]
+                binding.run();
+            } catch (OrtException e) {
+                Log.w(TAG, "Pinned outputs unavailable, copying outputs instead", e);
+                pinnedOutputs = false;
+                binding.runCopying();
+            }
+        } else {
+            // 退回路径：由运行时分配输出，再复制进下一套状态缓冲
+            binding.runCopying();
+        }
+        current = 1 - current;
+        return signalBuffer.get(0);
+    }
+
+    /** 固定长度 count 的序列输入、输出缓冲与绑定，共用两套隐藏状态 */
+    private final class SequenceFeeds {
+        final int length;
+        final FloatBuffer frames;
+        final FloatBuffer dts;
+        final FloatBuffer signal;
+        final SignalSession.Binding[] steps = new SignalSession.Binding[2];
+
+        SequenceFeeds(int length) throws OrtException {
+            this.length = length;
+            frames = directFloats(length * FRAME_FLOATS);
+            dts = directFloats(length);
+            signal = directFloats(length);
+            long[] fShape = frameShape.clone();
+            fShape[1] = length;
+            long[] tShape = dtShape.clone();
+            for (int d = 0; d < tShape.length; d++) {
+                if (tShape[d] < 0) tShape[d] = length;
+            }
+            try {
+                for (int p = 0; p < 2; p++) {
+                    steps[p] = bind(p, frames, fShape, dts, tShape, signal, new long[]{length, 1});
+                }
+            } catch (OrtException e) {
+                close();
+                throw e;
+            }
+        }
+
+        void close() {
+            for (SignalSession.Binding b : steps) {
+                if (b != null) b.close();
+            }
+        }
+    }
+
+    /** 是否支持一次推理整段序列 */
+    boolean isSequenceEnabled() {
+        return sequenceEnabled;
+    }
+
+    /** 是否走 pinned outputs（零分配）路径 */
+    boolean isPinned() {
+        return pinnedOutputs;
+    }
+
+    /** 释放全部绑定（会话由调用方管理） */
+    void close() {
+        if (sequence != null) {
+            sequence.close();
+            sequence = null;
+        }
+        for (int p = 0; p < 2; p++) {
+            if (steps[p] != null) steps[p].close();
+            steps[p] = null;
+        }
+    }
+
+    private static FloatBuffer directFloats(int count) {
+        return ByteBuffer.allocateDirect(count * 4).order(ByteOrder.nativeOrder()).asFloatBuffer();
+    }
+}
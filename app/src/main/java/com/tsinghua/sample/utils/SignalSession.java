@@ -0,0 +1,52 @@
+package com.tsinghua.sample.utils;
+
+import java.nio.FloatBuffer;
+import java.util.List;
+
+import ai.onnxruntime.OrtException;
+
+/**
+ * {@link RppgSignalModel} 用到的模型会话操作：读取输入输出签名，把预分配的缓冲绑定为一次推理的输入输出。
+ * 设备上由 {@link OrtSignalSession} 实现；单元测试中替换为纯 Java 的假会话，不加载 ORT 原生库。
+ */
+interface SignalSession {
+
+    List<String> getInputNames();
+
+    List<String> getOutputNames();
+
+    /** 输入的声明形状（-1 为动态维），不是张量输入时为 null */
+    long[] getInputShape(String name);
+
+    /**
+     * 把缓冲绑定为一组输入输出，之后每次 {@link Binding#run} 都读写同一组缓冲
+     * @param inputs  输入，按名称
+     * @param outputs 输出，按名称；顺序与 {@link #getOutputNames()} 一致
+     */
+    Binding bind(List<Port> inputs, List<Port> outputs) throws OrtException;
+
+    /** 一个输入或输出：名称、direct 缓冲与形状 */
+    final class Port {
+        final String name;
+        final FloatBuffer buffer;
+        final long[] shape;
+
+        Port(String name, FloatBuffer buffer, long[] shape) {
+            this.name = name;
+            this.buffer = buffer;
+            this.shape = shape;
+        }
+    }
+
+    /** 绑定好的一次推理 */
+    interface Binding {
+
+        /** 推理，输出直接写入绑定的输出缓冲（pinned outputs）；运行时不支持时抛出异常，输出缓冲不变 */
+        void run() throws OrtException;
+
+        /** 推理，输出由运行时分配后复制进绑定的输出缓冲 */
+        void runCopying() throws OrtException;
+
+        void close();
+    }
+}
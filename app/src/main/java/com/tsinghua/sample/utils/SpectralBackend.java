@@ -0,0 +1,29 @@
+package com.tsinghua.sample.utils;
+
+/**
+ * 心率谱估计后端：在信号窗口上找心率频带内功率最大的频率。
+ * 由 AppSettings.hr_spectrum_backend 选择，未选用的后端不创建（ONNX 后端的模型只在选用时读取、建会话）；
+ * hr_spectrum_compare 可再指定一个后端，在同一窗口上对照峰值与耗时。
+ */
+public interface SpectralBackend {
+
+    /** 补零 FFT 的 Welch（{@link StreamingWelch}） */
+    String WELCH = "welch";
+    /** 频带缩放谱（{@link BandSpectrum}） */
+    String BAND = "band";
+    /** 内置的 welch_psd.onnx + get_hr.onnx（{@link OnnxSpectralBackend}） */
+    String ONNX = "onnx";
+
+    String getName();
+
+    /**
+     * 估计频带内的峰值频率。
+     * @param window  信号窗口（Welch 后端同时使用其周期图缓存）
+     * @param fs      实际采样率
+     * @param nperseg Welch 每段长度；参数固化在模型中的后端忽略
+     * @param nfft    Welch FFT 点数；参数固化在模型中的后端忽略
+     * @return 峰值频率（Hz）
+     */
+    double peakFrequency(StreamingWelch window, double fs, int nperseg, int nfft,
+                         double minFreq, double maxFreq) throws Exception;
+}
@@ -0,0 +1,166 @@
+package com.tsinghua.sample.utils;
+
+import java.util.Arrays;
+
+/**
+ * 滑动窗口上的 Welch 功率谱密度：样本逐个 {@link #add} 进环形缓冲，{@link #compute} 在最近 windowLength 个样本上估计，
+ * 计算时不复制装箱列表，FFT 计划与段缓冲在参数不变时复用。
+ *
+ * 分段与去均值和原 HeartRateEstimator.welchPSD 一致：整个窗口减去窗口均值，
+ * 段从窗口最早的样本起按 50% 重叠排列，放不下的尾部样本不参与；每段加 Hann 窗后补零做 {@link RealFftPlan}。
+ * 段位置随窗口起点移动，相邻两次更新的段一般不重合，因此每次更新都重算全部段
+ * （默认 300 样本窗口、nperseg≈256 时只有一段，即每次一次 nfft 点实数 FFT）。
+ * 非线程安全，每个估计器持有一个实例。
+ */
+public final class StreamingWelch {
+
+    private final int windowLength;
+    private final double[] history;
+    private long count;
+
+    private int nperseg = -1;
+    private int nfft;
+    private RealFftPlan plan;
+    private double[] window;
+    private double windowSumSq;
+    private double[] re = new double[0];
+    private double[] im = new double[0];
+    private final double[] segment;
+
+    private double[] psd = new double[0];
+    private double fs;
+    private int segments;
+
+    /** @param windowLength 参与估计的最近样本数 */
+    public StreamingWelch(int windowLength) {
+        this.windowLength = windowLength;
+        this.history = new double[windowLength];
+        this.segment = new double[windowLength];
+    }
+
+    public void add(double value) {
+        history[(int) (count % windowLength)] = value;
+        count++;
+    }
+
+    /** 已加入的样本总数 */
+    public long getCount() {
+        return count;
+    }
+
+    /** 窗口长度 */
+    public int getWindowLength() {
+        return windowLength;
+    }
+
+    /** 窗口是否已填满 */
+    public boolean isFull() {
+        return count >= windowLength;
+    }
+
+    /**
+     * 按时间顺序复制窗口内的样本
+     * @return 复制的样本数
+     */
+    public int copyWindow(double[] out) {
+        int n = (int) Math.min(count, windowLength);
+        long start = count - n;
+        for (int i = 0; i < n; i++) {
+            out[i] = history[(int) ((start + i) % windowLength)];
+        }
+        return n;
+    }
+
+    public void reset() {
+        count = 0;
+    }
+
+    /**
+     * 计算窗口内的 PSD，结果经 {@link #psd()}、{@link #frequency} 读取。
+     * @param fs            采样频率
+     * @param nperseg       每段长度（不超过窗口内样本数）
+     * @param nfftRequested 请求的 FFT 点数（会调整为2的幂次）
+     */
+    public void compute(double fs, int nperseg, int nfftRequested) {
+        int length = copyWindow(segment);
+        nperseg = Math.max(2, Math.min(nperseg, length));
+        int n = RealFftPlan.nextPowerOf2(Math.max(Math.max(nfftRequested, nperseg), 4));
+        prepare(nperseg, n);
+        this.fs = fs;
+
+        // 去除窗口均值（scipy.welch 默认 detrend='constant'，与原实现一样按整个窗口计算）
+        double mean = 0;
+        for (int i = 0; i < length; i++) mean += segment[i];
+        mean /= length;
+
+        int half = n / 2;
+        int packed = (nperseg + 1) / 2;
+        int step = nperseg - nperseg / 2;  // 50% 重叠（scipy 默认）
+        Arrays.fill(psd, 0);
+        int used = 0;
+        for (int start = 0; start + nperseg <= length; start += step) {
+            // 加窗后按偶/奇下标打包为复序列，补零到 nfft/2
+            for (int k = 0; k < packed; k++) {
+                int i = 2 * k;
+                re[k] = (segment[start + i] - mean) * window[i];
+                im[k] = i + 1 < nperseg ? (segment[start + i + 1] - mean) * window[i + 1] : 0;
+            }
+            Arrays.fill(re, packed, half, 0);
+            Arrays.fill(im, packed, half, 0);
+            plan.transform(re, im);
+            plan.accumulatePower(re, im, psd);
+            used++;
+        }
+        segments = used;
+
+        // density 归一化并平均；单边谱除 DC 和 Nyquist 外乘2
+        if (used > 0) {
+            double scale = 1.0 / (fs * windowSumSq * used);
+            for (int i = 0; i <= half; i++) {
+                psd[i] *= (i > 0 && i < half) ? 2 * scale : scale;
+            }
+        }
+    }
+
+    /** FFT 点数变化时重建方案与缓冲，段长变化时重算窗函数 */
+    private void prepare(int nperseg, int n) {
+        if (n != nfft) {
+            nfft = n;
+            plan = RealFftPlan.forSize(n);
+            re = new double[n / 2];
+            im = new double[n / 2];
+            psd = new double[n / 2 + 1];
+        }
+        if (nperseg != this.nperseg) {
+            this.nperseg = nperseg;
+            window = RealFftPlan.hannWindow(nperseg);
+            double sumSq = 0;
+            for (double w : window) sumSq += w * w;
+            windowSumSq = sumSq;
+        }
+    }
+
+    /** PSD（长度 {@link #size()}），下一次 compute 时覆盖 */
+    public double[] psd() {
+        return psd;
+    }
+
+    /** 单边谱点数 nfft/2 + 1 */
+    public int size() {
+        return nfft / 2 + 1;
+    }
+
+    /** 第 i 个频点（Hz） */
+    public double frequency(int i) {
+        return i * fs / nfft;
+    }
+
+    public int getNfft() {
+        return nfft;
+    }
+
+    /** 上一次 compute 平均的段数 */
+    public int getSegments() {
+        return segments;
+    }
+}
@@ -1,6 +1,7 @@
 package com.tsinghua.sample.utils;
 
 import android.content.Context;
+import android.content.SharedPreferences;
 import android.graphics.Bitmap;
 import android.graphics.ImageFormat;
 import android.graphics.Rect;
@@ -172,11 +173,16 @@ public class VideoPostProcessor {
 
         // 2. 初始化HeartRateEstimator
         notifyProgress(listener, 5, 100, "初始化心率模型...");
+        SharedPreferences settings = context.getSharedPreferences("AppSettings", Context.MODE_PRIVATE);
         heartRateEstimator = new HeartRateEstimator(
                 modelStream, stateJsonStream, welchModelStream, hrModelStream,
                 null,  // 不需要PlotView
-                frontDir  // 日志输出到front目录
+                frontDir,  // 日志输出到front目录
+                settings.getString("hr_spectrum_backend", SpectralBackend.WELCH),
+                settings.getString("hr_spectrum_compare", "")
         );
+        // 离线处理不要求实时，信号模型按批推理（AppSettings.rppg_batch_frames，1 为逐帧）
+        heartRateEstimator.setInferenceBatchSize(settings.getInt("rppg_batch_frames", 30));
 
         // 3. 流式处理：边解码边处理，避免存储所有帧导致OOM
         notifyProgress(listener, 10, 100, "开始处理视频...");
@@ -230,6 +236,14 @@ public class VideoPostProcessor {
         // 执行流式解码和处理
         boolean success = decodeAndProcessVideo(videoPath, listener, frameProcessor);
 
+        // 推理末尾不足一批的帧
+        try {
+            Float hr = heartRateEstimator.flushBatch();
+            if (hr != null) heartRateValues.add(hr);
+        } catch (Exception e) {
+            Log.w(TAG, "末批推理失败", e);
+        }
+
         if (isCancelled) {
             result.errorMessage = "用户取消";
             return;
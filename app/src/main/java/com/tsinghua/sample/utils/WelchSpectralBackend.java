@@ -0,0 +1,39 @@
+package com.tsinghua.sample.utils;
+
+import android.util.Log;
+
+/**
+ * Java Welch 后端：在 {@link StreamingWelch} 的窗口上计算补零到 nfft 的 PSD，在频带内找最大值
+ */
+public final class WelchSpectralBackend implements SpectralBackend {
+    private static final String TAG = "WelchSpectralBackend";
+
+    @Override
+    public String getName() {
+        return WELCH;
+    }
+
+    @Override
+    public double peakFrequency(StreamingWelch window, double fs, int nperseg, int nfft,
+                                double minFreq, double maxFreq) {
+        // 计算 Welch PSD（内部会将 nfft 调整为2的幂次，整个窗口先减去均值）
+        window.compute(fs, nperseg, nfft);
+        double[] psd = window.psd();
+        Log.d(TAG, String.format("Welch: nfft=%d, nperseg=%d, segments=%d, freqRes=%.4f Hz",
+                window.getNfft(), nperseg, window.getSegments(), fs / window.getNfft()));
+
+        // 找到心率范围内的最大峰值
+        double maxPower = -1;
+        double peakFreq = 0;
+        for (int i = 0, n = window.size(); i < n; i++) {
+            double freq = window.frequency(i);
+            if (freq > minFreq && freq < maxFreq) {
+                if (psd[i] > maxPower) {
+                    maxPower = psd[i];
+                    peakFreq = freq;
+                }
+            }
+        }
+        return peakFreq;
+    }
+}
@@ -0,0 +1,106 @@
+package com.tsinghua.sample.core;
+
+import org.junit.Test;
+
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * CsvEncoder 与 String.format(Locale.US, ...) 的逐字节一致性。
+ */
+public class CsvEncoderTest {
+
+    private final CsvEncoder line = new CsvEncoder(16);
+
+    private static String format(double v, int precision) {
+        return String.format(Locale.US, "%." + precision + "f", v);
+    }
+
+    private String fixed(double v, int precision) {
+        return line.reset().appendFixed(v, precision).toString();
+    }
+
+    @Test
+    public void integers_matchToString() {
+        long[] values = {0, 1, -1, 9, 10, -10, 123456789, Integer.MAX_VALUE, Integer.MIN_VALUE,
+                Long.MAX_VALUE, Long.MIN_VALUE, 1_700_000_000_123L};
+        for (long v : values) {
+            assertEquals(Long.toString(v), line.reset().appendLong(v).toString());
+        }
+        assertEquals(Integer.toString(Integer.MIN_VALUE),
+                line.reset().appendInt(Integer.MIN_VALUE).toString());
+    }
+
+    @Test
+    public void fixed_specialValues() {
+        for (int p = 0; p <= 9; p++) {
+            assertEquals(format(Double.NaN, p), fixed(Double.NaN, p));
+            assertEquals(format(Double.POSITIVE_INFINITY, p), fixed(Double.POSITIVE_INFINITY, p));
+            assertEquals(format(Double.NEGATIVE_INFINITY, p), fixed(Double.NEGATIVE_INFINITY, p));
+            assertEquals(format(-0.0, p), fixed(-0.0, p));
+            assertEquals(format(0.0, p), fixed(0.0, p));
+        }
+    }
+
+    @Test
+    public void fixed_roundingBoundaries() {
+        // Formatter 按最短十进制表示 HALF_UP 舍入
+        double[] values = {0.5, 1.5, 2.5, -2.5, 0.125, 0.375, 1.005, 2.675, 0.0000005, 9.9999995,
+                0.05, 0.15, 0.25, 0.35, 1e-7, 123.4565, -0.0049, 999999.9999995};
+        for (double v : values) {
+            for (int p = 0; p <= 9; p++) {
+                assertEquals(v + " %." + p + "f", format(v, p), fixed(v, p));
+            }
+        }
+    }
+
+    @Test
+    public void fixed_randomValues() {
+        Random random = new Random(42);
+        for (int i = 0; i < 200_000; i++) {
+            int p = random.nextInt(10);
+            double v;
+            switch (i % 4) {
+                case 0:  // 传感器量级
+                    v = (random.nextDouble() - 0.5) * 40;
+                    break;
+                case 1:  // 相对秒数
+                    v = random.nextDouble() * 3600;
+                    break;
+                case 2:  // 已是 N 位小数的值，最容易落在舍入临界点
+                    v = Math.round(random.nextGaussian() * 1e6) / 1e6;
+                    break;
+                default:  // 大数（超出快速路径时回退）
+                    v = random.nextGaussian() * 1e12;
+                    break;
+            }
+            assertEquals(v + " %." + p + "f", format(v, p), fixed(v, p));
+        }
+    }
+
+    @Test
+    public void fixed_floatArgumentWidenedLikeFormatter() {
+        Random random = new Random(7);
+        for (int i = 0; i < 50_000; i++) {
+            float v = (random.nextFloat() - 0.5f) * 20;
+            assertEquals(String.format(Locale.US, "%.6f", v),
+                    line.reset().appendFixed(v, 6).toString());
+        }
+    }
+
+    @Test
+    public void fullLine_matchesFormattedLine() {
+        long sensorNs = 123_456_789_012L;
+        long wallMs = 1_700_000_000_123L;
+        double relSec = 12.3456785;
+        float x = -0.0123f, y = 9.80665f, z = 0.5f;
+        String expected = String.format(Locale.US, "%d,%d,%.6f,%.6f,%.6f,%.6f",
+                sensorNs, wallMs, relSec, x, y, z);
+        line.reset().appendLong(sensorNs).comma().appendLong(wallMs).comma()
+                .appendFixed(relSec, 6).comma().appendFixed(x, 6).comma()
+                .appendFixed(y, 6).comma().appendFixed(z, 6);
+        assertEquals(expected, line.toString());
+    }
+}
@@ -0,0 +1,113 @@
+package com.tsinghua.sample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * BandSpectrum 的峰值与 StreamingWelch 补零 FFT 路径在频带内的峰值频点一致，且只计算频带内的少量频点。
+ * 参数与 HeartRateEstimator 相同：nfft=20000（取 32768），nperseg=256/30·fs，频带 0.5–3.0 Hz。
+ */
+public class BandSpectrumTest {
+
+    private static final double MIN_FREQ = 0.5;
+    private static final double MAX_FREQ = 3.0;
+    private static final int NFFT = 20000;
+
+    /** Welch 路径的频带内峰值频点下标 */
+    private static int welchPeakBin(StreamingWelch welch) {
+        double[] psd = welch.psd();
+        int peak = -1;
+        for (int i = 0; i < welch.size(); i++) {
+            double f = welch.frequency(i);
+            if (f > MIN_FREQ && f < MAX_FREQ && (peak < 0 || psd[i] > psd[peak])) peak = i;
+        }
+        return peak;
+    }
+
+    /** 心率正弦（含二次谐波）+ 呼吸漂移 + 白噪声 */
+    private static double[] pulse(Random random, int n, double fs, double hz, double noise) {
+        double[] x = new double[n];
+        double phase = random.nextDouble() * 2 * Math.PI;
+        for (int i = 0; i < n; i++) {
+            double t = i / fs;
+            x[i] = Math.sin(2 * Math.PI * hz * t + phase)
+                    + 0.3 * Math.sin(4 * Math.PI * hz * t + phase)
+                    + 0.5 * Math.sin(2 * Math.PI * 0.25 * t)
+                    + noise * random.nextGaussian() + 100;
+        }
+        return x;
+    }
+
+    private static void feed(StreamingWelch welch, double[] x) {
+        welch.reset();
+        for (double v : x) welch.add(v);
+    }
+
+    @Test
+    public void peakMatchesWelchPeakBin() {
+        Random random = new Random(17);
+        double fs = 30;
+        int windowLength = 300;
+        int nperseg = (int) Math.min(windowLength - 1, 256.0 / 30.0 * fs);
+        StreamingWelch welch = new StreamingWelch(windowLength);
+        BandSpectrum band = new BandSpectrum();
+        for (int trial = 0; trial < 200; trial++) {
+            double hz = 0.8 + random.nextDouble() * 1.9;  // 48–162 bpm
+            feed(welch, pulse(random, windowLength, fs, hz, 0.3));
+
+            welch.compute(fs, nperseg, NFFT);
+            int bin = welchPeakBin(welch);
+            double bandPeak = band.peakFrequency(welch, fs, nperseg, NFFT, MIN_FREQ, MAX_FREQ);
+
+            assertEquals("trial " + trial + " hz=" + hz, welch.frequency(bin), bandPeak, 1e-9);
+            assertEquals("trial " + trial + " power", welch.psd()[bin], band.getPeakPower(),
+                    welch.psd()[bin] * 1e-6);
+            assertEquals(welch.getSegments(), band.getSegments());
+        }
+    }
+
+    @Test
+    public void peakMatchesAcrossSampleRatesAndStreamPositions() {
+        Random random = new Random(23);
+        BandSpectrum band = new BandSpectrum();
+        double[] rates = {25, 29.7, 30, 60};
+        for (double fs : rates) {
+            int windowLength = (int) (fs * 10);
+            int nperseg = (int) Math.min(windowLength - 1, 256.0 / 30.0 * fs);
+            double[] x = pulse(random, windowLength * 2, fs, 1.3, 0.5);
+            StreamingWelch welch = new StreamingWelch(windowLength);
+            // 流中不同位置：窗口起点随新样本移动，分段方式须与 Welch 路径一致
+            for (int i = 0; i < x.length; i++) {
+                welch.add(x[i]);
+                if (!welch.isFull() || i % 13 != 0) continue;
+                welch.compute(fs, nperseg, NFFT);
+                int bin = welchPeakBin(welch);
+                double bandPeak = band.peakFrequency(welch, fs, nperseg, NFFT, MIN_FREQ, MAX_FREQ);
+                assertEquals("fs=" + fs + " i=" + i, welch.frequency(bin), bandPeak, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void evaluatesFarFewerBinsThanFft() {
+        double fs = 30;
+        StreamingWelch welch = new StreamingWelch(300);
+        feed(welch, pulse(new Random(2), 300, fs, 1.1, 0.2));
+        BandSpectrum band = new BandSpectrum();
+        band.peakFrequency(welch, fs, 256, NFFT, MIN_FREQ, MAX_FREQ);
+        int bandBins = (int) ((MAX_FREQ - MIN_FREQ) / (fs / RealFftPlan.nextPowerOf2(NFFT)));
+        assertTrue("evaluated=" + band.getEvaluatedBins(), band.getEvaluatedBins() < bandBins / 4);
+    }
+
+    @Test
+    public void emptyBandReturnsZero() {
+        StreamingWelch welch = new StreamingWelch(300);
+        feed(welch, pulse(new Random(4), 300, 30, 1.0, 0.1));
+        BandSpectrum band = new BandSpectrum();
+        assertEquals(0.0, band.peakFrequency(welch, 30, 256, NFFT, 2.0, 2.0), 0.0);
+        assertEquals(0, band.getEvaluatedBins());
+    }
+}
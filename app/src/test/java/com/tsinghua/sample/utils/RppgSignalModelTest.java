@@ -0,0 +1,290 @@
+package com.tsinghua.sample.utils;
+
+import org.junit.Test;
+
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ai.onnxruntime.OrtException;
+
+import static org.junit.Assert.*;
+
+/**
+ * RppgSignalModel 在假会话上的测试：逐帧推理与参考实现一致（pinned 与复制两条路径），
+ * 批量推理与逐帧推理逐帧一致（单步模型、动态/定长序列轴模型、序列推理失败回退）。
+ */
+public class RppgSignalModelTest {
+
+    private static final int FRAMES = 100;
+    private static final int S0 = 3;
+    private static final int S1 = 4;
+
+    /**
+     * 纯 Java 的循环模型：输入 frame、s0[1,3]、s1[2,2]、dt，输出 signal、s0'、s1'。
+     * 帧输入第 1 维为 N 时按序推理 N 帧，状态在帧间传递。
+     */
+    static final class FakeSession implements SignalSession {
+        final long[] frameShape;
+        final long[] dtShape;
+        boolean pinnedSupported = true;
+        boolean sequenceFails;
+        int calls;
+        int sequenceCalls;
+
+        FakeSession(long[] frameShape, long[] dtShape) {
+            this.frameShape = frameShape;
+            this.dtShape = dtShape;
+        }
+
+        /** 单步导出：[1, 1, 36, 36, 3]，Δt 为标量 */
+        static FakeSession singleStep() {
+            return new FakeSession(new long[]{1, 1, 36, 36, 3}, new long[]{});
+        }
+
+        /** 序列导出：第 1 维为 length（-1 为动态），Δt 为逐帧向量 */
+        static FakeSession sequence(long length) {
+            return new FakeSession(new long[]{1, length, 36, 36, 3}, new long[]{length});
+        }
+
+        @Override
+        public List<String> getInputNames() {
+            return Arrays.asList("frame", "s0", "s1", "dt");
+        }
+
+        @Override
+        public List<String> getOutputNames() {
+            return Arrays.asList("signal", "s0_out", "s1_out");
+        }
+
+        @Override
+        public long[] getInputShape(String name) {
+            switch (name) {
+                case "frame":
+                    return frameShape;
+                case "dt":
+                    return dtShape;
+                case "s0":
+                    return new long[]{1, S0};
+                case "s1":
+                    return new long[]{2, 2};
+                default:
+                    return null;
+            }
+        }
+
+        @Override
+        public Binding bind(List<Port> inputs, List<Port> outputs) {
+            Map<String, Port> in = new HashMap<>();
+            for (Port p : inputs) in.put(p.name, p);
+            Port frame = in.get("frame");
+            Port dt = in.get("dt");
+            Port s0 = in.get("s0");
+            Port s1 = in.get("s1");
+            Port signal = outputs.get(0);
+            Port s0Out = outputs.get(1);
+            Port s1Out = outputs.get(2);
+            int n = (int) frame.shape[1];
+            return new Binding() {
+                @Override
+                public void run() throws OrtException {
+                    calls++;
+                    if (n > 1) sequenceCalls++;
+                    if (!pinnedSupported) throw new OrtException("pinned outputs not supported");
+                    if (n > 1 && sequenceFails) throw new OrtException("sequence run failed");
+                    compute();
+                }
+
+                @Override
+                public void runCopying() {
+                    calls++;
+                    compute();
+                }
+
+                private void compute() {
+                    float[] a = read(s0.buffer, S0);
+                    float[] b = read(s1.buffer, S1);
+                    for (int f = 0; f < n; f++) {
+                        float mean = 0;
+                        for (int i = 0; i < RppgSignalModel.FRAME_FLOATS; i++) {
+                            mean += frame.buffer.get(f * RppgSignalModel.FRAME_FLOATS + i);
+                        }
+                        mean /= RppgSignalModel.FRAME_FLOATS;
+                        float d = dt.shape.length == 0 ? dt.buffer.get(0) : dt.buffer.get(f);
+                        signal.buffer.put(f, Reference.step(a, b, mean, d));
+                    }
+                    write(s0Out.buffer, a);
+                    write(s1Out.buffer, b);
+                }
+
+                @Override
+                public void close() {
+                }
+            };
+        }
+
+        private static float[] read(FloatBuffer buf, int n) {
+            float[] v = new float[n];
+            for (int i = 0; i < n; i++) v[i] = buf.get(i);
+            return v;
+        }
+
+        private static void write(FloatBuffer buf, float[] v) {
+            for (int i = 0; i < v.length; i++) buf.put(i, v[i]);
+        }
+    }
+
+    /** 假模型的一步：更新状态 a、b，返回信号 */
+    static final class Reference {
+        static float step(float[] a, float[] b, float mean, float dt) {
+            for (int k = 0; k < a.length; k++) {
+                a[k] = (float) Math.tanh(0.8f * a[k] + mean * dt * (k + 1));
+            }
+            for (int k = 0; k < b.length; k++) {
+                b[k] = 0.5f * b[k] + 0.1f * a[k % a.length];
+            }
+            float s = 0;
+            for (float v : a) s += v;
+            for (float v : b) s += v;
+            return s;
+        }
+    }
+
+    private static final float[] INITIAL_S0 = {0.1f, -0.2f, 0.3f};
+
+    /** 只给 s0 初值，s1 由模型以 0 初始化 */
+    private static Map<String, float[]> initialState() {
+        Map<String, float[]> init = new HashMap<>();
+        init.put("s0", INITIAL_S0.clone());
+        return init;
+    }
+
+    private final float[] frames = new float[FRAMES * RppgSignalModel.FRAME_FLOATS];
+    private final float[] dts = new float[FRAMES];
+
+    public RppgSignalModelTest() {
+        Random random = new Random(29);
+        for (int i = 0; i < frames.length; i++) frames[i] = random.nextFloat();
+        for (int f = 0; f < FRAMES; f++) dts[f] = 1 / 30f + (random.nextFloat() - 0.5f) * 0.004f;
+    }
+
+    private float[][][] frame(int f) {
+        float[][][] frame = new float[RppgSignalModel.FRAME_SIZE][RppgSignalModel.FRAME_SIZE][RppgSignalModel.CHANNELS];
+        int i = f * RppgSignalModel.FRAME_FLOATS;
+        for (int y = 0; y < RppgSignalModel.FRAME_SIZE; y++) {
+            for (int x = 0; x < RppgSignalModel.FRAME_SIZE; x++) {
+                for (int c = 0; c < RppgSignalModel.CHANNELS; c++) frame[y][x][c] = frames[i++];
+            }
+        }
+        return frame;
+    }
+
+    private float[] reference() {
+        float[] a = INITIAL_S0.clone();
+        float[] b = new float[S1];
+        float[] out = new float[FRAMES];
+        for (int f = 0; f < FRAMES; f++) {
+            float mean = 0;
+            for (int i = 0; i < RppgSignalModel.FRAME_FLOATS; i++) {
+                mean += frames[f * RppgSignalModel.FRAME_FLOATS + i];
+            }
+            mean /= RppgSignalModel.FRAME_FLOATS;
+            out[f] = Reference.step(a, b, mean, dts[f]);
+        }
+        return out;
+    }
+
+    private float[] runPerFrame(FakeSession session) throws OrtException {
+        RppgSignalModel model = new RppgSignalModel(session, initialState());
+        float[] out = new float[FRAMES];
+        for (int f = 0; f < FRAMES; f++) out[f] = model.run(frame(f), dts[f]);
+        model.close();
+        return out;
+    }
+
+    private float[] runBatched(RppgSignalModel model, int batch) throws OrtException {
+        float[] out = new float[FRAMES];
+        float[] batchFrames = new float[batch * RppgSignalModel.FRAME_FLOATS];
+        float[] batchDts = new float[batch];
+        float[] batchOut = new float[batch];
+        for (int start = 0; start < FRAMES; start += batch) {
+            // 末尾不足一批时以较短的批推理
+            int n = Math.min(batch, FRAMES - start);
+            System.arraycopy(frames, start * RppgSignalModel.FRAME_FLOATS, batchFrames, 0,
+                    n * RppgSignalModel.FRAME_FLOATS);
+            System.arraycopy(dts, start, batchDts, 0, n);
+            model.runBatch(batchFrames, batchDts, n, batchOut);
+            System.arraycopy(batchOut, 0, out, start, n);
+        }
+        return out;
+    }
+
+    @Test
+    public void perFrame_matchesReference() throws OrtException {
+        FakeSession session = FakeSession.singleStep();
+        assertArrayEquals(reference(), runPerFrame(session), 0f);
+        assertEquals(FRAMES, session.calls);
+    }
+
+    @Test
+    public void perFrame_copyingFallbackMatchesReference() throws OrtException {
+        FakeSession session = FakeSession.singleStep();
+        session.pinnedSupported = false;
+        RppgSignalModel model = new RppgSignalModel(session, initialState());
+        float[] out = new float[FRAMES];
+        for (int f = 0; f < FRAMES; f++) out[f] = model.run(frame(f), dts[f]);
+        assertFalse(model.isPinned());
+        assertArrayEquals(reference(), out, 0f);
+    }
+
+    @Test
+    public void batch_singleStepModelMatchesPerFrame() throws OrtException {
+        float[] expected = runPerFrame(FakeSession.singleStep());
+        for (int batch : new int[]{1, 7, 16, 30}) {
+            FakeSession session = FakeSession.singleStep();
+            RppgSignalModel model = new RppgSignalModel(session, initialState());
+            assertFalse(model.isSequenceEnabled());
+            assertArrayEquals("batch=" + batch, expected, runBatched(model, batch), 0f);
+            assertEquals(FRAMES, session.calls);
+        }
+    }
+
+    @Test
+    public void batch_sequenceModelMatchesPerFrameWithOneCallPerBatch() throws OrtException {
+        float[] expected = runPerFrame(FakeSession.singleStep());
+        for (int batch : new int[]{7, 16, 30}) {
+            FakeSession session = FakeSession.sequence(-1);
+            RppgSignalModel model = new RppgSignalModel(session, initialState());
+            assertTrue(model.isSequenceEnabled());
+            assertArrayEquals("batch=" + batch, expected, runBatched(model, batch), 0f);
+            int batches = (FRAMES + batch - 1) / batch;
+            assertEquals("batch=" + batch, batches, session.calls);
+        }
+    }
+
+    @Test
+    public void batch_fixedSequenceLengthStepsShortTail() throws OrtException {
+        float[] expected = runPerFrame(FakeSession.singleStep());
+        FakeSession session = FakeSession.sequence(16);
+        RppgSignalModel model = new RppgSignalModel(session, initialState());
+        assertArrayEquals(expected, runBatched(model, 16), 0f);
+        // 6 个整批各一次序列推理，末尾 4 帧逐帧推理
+        assertEquals(6, session.sequenceCalls);
+        assertEquals(6 + FRAMES % 16, session.calls);
+        assertTrue(model.isSequenceEnabled());
+    }
+
+    @Test
+    public void batch_failedSequenceRunFallsBackToSteps() throws OrtException {
+        float[] expected = runPerFrame(FakeSession.singleStep());
+        FakeSession session = FakeSession.sequence(-1);
+        session.sequenceFails = true;
+        RppgSignalModel model = new RppgSignalModel(session, initialState());
+        assertArrayEquals(expected, runBatched(model, 16), 0f);
+        assertFalse(model.isSequenceEnabled());
+        assertEquals(1, session.sequenceCalls);
+    }
+}
@@ -0,0 +1,298 @@
+package com.tsinghua.sample.utils;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+/**
+ * RealFftPlan 与 StreamingWelch 对照朴素 DFT 与原 welchPSD 实现的正确性测试。
+ */
+public class StreamingWelchTest {
+
+    /** 朴素 DFT 的单边功率谱 |X[k]|²，k = 0..n/2（x 之后补零到 n） */
+    static double[] naivePower(double[] x, int len, int n) {
+        double[] power = new double[n / 2 + 1];
+        for (int k = 0; k <= n / 2; k++) {
+            double sr = 0, si = 0;
+            for (int t = 0; t < len; t++) {
+                double angle = -2 * Math.PI * (long) k * t / n;
+                sr += x[t] * Math.cos(angle);
+                si += x[t] * Math.sin(angle);
+            }
+            power[k] = sr * sr + si * si;
+        }
+        return power;
+    }
+
+    /**
+     * 朴素 Welch：取最近 windowLength 个样本，整个窗口减去均值，段从最早的样本起按 50% 重叠排列，
+     * 每段加 Hann 窗，density 归一化后平均。
+     * @param signal 全部样本，count 为已加入的样本数
+     */
+    static double[] naiveWelch(double[] signal, int count, int windowLength, double fs, int nperseg, int nfft) {
+        int step = nperseg - nperseg / 2;
+        int oldest = Math.max(0, count - windowLength);
+        double[] window = RealFftPlan.hannWindow(nperseg);
+        double sumSq = 0;
+        for (double w : window) sumSq += w * w;
+        double mean = 0;
+        for (int i = oldest; i < count; i++) mean += signal[i];
+        mean /= count - oldest;
+
+        double[] psd = new double[nfft / 2 + 1];
+        double[] seg = new double[nperseg];
+        int used = 0;
+        for (int start = oldest; start + nperseg <= count; start += step) {
+            for (int i = 0; i < nperseg; i++) seg[i] = (signal[start + i] - mean) * window[i];
+            double[] p = naivePower(seg, nperseg, nfft);
+            for (int i = 0; i < psd.length; i++) psd[i] += p[i];
+            used++;
+        }
+        int half = nfft / 2;
+        double scale = 1.0 / (fs * sumSq * used);
+        for (int i = 0; i <= half; i++) psd[i] *= (i > 0 && i < half) ? 2 * scale : scale;
+        return psd;
+    }
+
+    /**
+     * 原 HeartRateEstimator.welchPSD 的副本（复数 FFT、逐点三角函数），作为 StreamingWelch 的对照基准。
+     * signal 为已去均值的整个窗口，返回 [频率数组, PSD数组]。
+     */
+    static final class LegacyWelch {
+        static double[][] welchPSD(double[] signal, double fs, int nperseg, int nfftRequested) {
+            int nfft = nextPowerOf2(Math.max(nfftRequested, nperseg));
+            int noverlap = nperseg / 2;
+            int step = nperseg - noverlap;
+            int nSegments = Math.max(1, (signal.length - noverlap) / step);
+            double[] window = hannWindow(nperseg);
+            double windowSum = 0;
+            for (double w : window) windowSum += w * w;
+
+            int nFreqs = nfft / 2 + 1;
+            double[] psdSum = new double[nFreqs];
+            int actualSegments = 0;
+            for (int seg = 0; seg < nSegments; seg++) {
+                int start = seg * step;
+                if (start + nperseg > signal.length) break;
+                double[] segmentReal = new double[nfft];
+                double[] segmentImag = new double[nfft];
+                for (int i = 0; i < nperseg; i++) {
+                    segmentReal[i] = signal[start + i] * window[i];
+                }
+                fft(segmentReal, segmentImag);
+                for (int i = 0; i < nFreqs; i++) {
+                    double power = (segmentReal[i] * segmentReal[i] + segmentImag[i] * segmentImag[i]);
+                    power /= (fs * windowSum);
+                    if (i > 0 && i < nfft / 2) {
+                        power *= 2;
+                    }
+                    psdSum[i] += power;
+                }
+                actualSegments++;
+            }
+            if (actualSegments > 0) {
+                for (int i = 0; i < nFreqs; i++) {
+                    psdSum[i] /= actualSegments;
+                }
+            }
+            double[] freqs = new double[nFreqs];
+            for (int i = 0; i < nFreqs; i++) {
+                freqs[i] = i * fs / nfft;
+            }
+            return new double[][]{freqs, psdSum};
+        }
+
+        /** 原实现的频带峰值：严格大于才替换，取第一个最大值 */
+        static double peakFrequency(double[][] welch, double minFreq, double maxFreq) {
+            double maxPower = -1;
+            double peakFreq = 0;
+            for (int i = 0; i < welch[0].length; i++) {
+                if (welch[0][i] > minFreq && welch[0][i] < maxFreq && welch[1][i] > maxPower) {
+                    maxPower = welch[1][i];
+                    peakFreq = welch[0][i];
+                }
+            }
+            return peakFreq;
+        }
+
+        private static double[] hannWindow(int length) {
+            double[] window = new double[length];
+            for (int i = 0; i < length; i++) {
+                window[i] = 0.5 * (1 - Math.cos(2 * Math.PI * i / (length - 1)));
+            }
+            return window;
+        }
+
+        private static void fft(double[] real, double[] imag) {
+            int n = real.length;
+            int bits = (int) (Math.log(n) / Math.log(2));
+            for (int i = 0; i < n; i++) {
+                int j = bitReverse(i, bits);
+                if (j > i) {
+                    double tempR = real[i];
+                    double tempI = imag[i];
+                    real[i] = real[j];
+                    imag[i] = imag[j];
+                    real[j] = tempR;
+                    imag[j] = tempI;
+                }
+            }
+            for (int size = 2; size <= n; size *= 2) {
+                int halfSize = size / 2;
+                double angle = -2 * Math.PI / size;
+                for (int i = 0; i < n; i += size) {
+                    for (int j = 0; j < halfSize; j++) {
+                        double wr = Math.cos(angle * j);
+                        double wi = Math.sin(angle * j);
+                        int idx1 = i + j;
+                        int idx2 = i + j + halfSize;
+                        double tr = wr * real[idx2] - wi * imag[idx2];
+                        double ti = wr * imag[idx2] + wi * real[idx2];
+                        real[idx2] = real[idx1] - tr;
+                        imag[idx2] = imag[idx1] - ti;
+                        real[idx1] = real[idx1] + tr;
+                        imag[idx1] = imag[idx1] + ti;
+                    }
+                }
+            }
+        }
+
+        private static int bitReverse(int x, int bits) {
+            int result = 0;
+            for (int i = 0; i < bits; i++) {
+                result = (result << 1) | (x & 1);
+                x >>= 1;
+            }
+            return result;
+        }
+
+        private static int nextPowerOf2(int n) {
+            int power = 1;
+            while (power < n) {
+                power *= 2;
+            }
+            return power;
+        }
+    }
+
+    private static void assertSpectrumEquals(String msg, double[] expected, double[] actual, int size) {
+        double peak = 0;
+        for (int i = 0; i < size; i++) peak = Math.max(peak, Math.abs(expected[i]));
+        double tol = Math.max(peak, 1e-12) * 1e-9;
+        for (int i = 0; i < size; i++) {
+            assertEquals(msg + " bin " + i, expected[i], actual[i], tol);
+        }
+    }
+
+    private static double[] randomSignal(Random random, int n) {
+        double[] x = new double[n];
+        for (int i = 0; i < n; i++) x[i] = random.nextGaussian();
+        return x;
+    }
+
+    @Test
+    public void realFft_matchesNaiveDft() {
+        Random random = new Random(3);
+        for (int n = 4; n <= 1024; n *= 2) {
+            double[] x = randomSignal(random, n);
+            RealFftPlan plan = RealFftPlan.forSize(n);
+            double[] re = new double[n / 2];
+            double[] im = new double[n / 2];
+            for (int k = 0; k < n / 2; k++) {
+                re[k] = x[2 * k];
+                im[k] = x[2 * k + 1];
+            }
+            plan.transform(re, im);
+            double[] power = new double[n / 2 + 1];
+            plan.accumulatePower(re, im, power);
+            assertSpectrumEquals("n=" + n, naivePower(x, n, n), power, power.length);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void realFft_rejectsNonPowerOfTwo() {
+        RealFftPlan.forSize(96);
+    }
+
+    @Test
+    public void streamingWelch_matchesNaiveWelchOnEveryUpdate() {
+        Random random = new Random(11);
+        double fs = 30;
+        int[][] configs = {
+                // windowLength, nperseg, nfft
+                {300, 128, 256},
+                {300, 127, 512},  // 奇数段长、补零
+                {256, 256, 256},  // 单段
+                {90, 64, 64},
+        };
+        for (int[] c : configs) {
+            int windowLength = c[0], nperseg = c[1], nfft = c[2];
+            double[] signal = randomSignal(random, windowLength * 3);
+            StreamingWelch welch = new StreamingWelch(windowLength);
+            for (int count = 1; count <= signal.length; count++) {
+                welch.add(signal[count - 1]);
+                if (count < nperseg || count % 7 != 0) continue;
+                welch.compute(fs, nperseg, nfft);
+                double[] expected = naiveWelch(signal, count, windowLength, fs, nperseg, welch.getNfft());
+                assertSpectrumEquals("config " + windowLength + "/" + nperseg + "/" + nfft + " count=" + count,
+                        expected, welch.psd(), welch.size());
+            }
+        }
+    }
+
+    /**
+     * 与原实现在同一 300 样本窗口上的 PSD 与心率峰值一致：参数与 HeartRateEstimator 相同
+     * （nfft=20000，nperseg=min(299, 256/30·fs) 且不小于 64，频带 0.5–3.0 Hz），窗口取流中不同位置
+     */
+    @Test
+    public void streamingWelch_matchesLegacyWelchOn300SampleWindow() {
+        Random random = new Random(31);
+        int windowLength = 300, nfft = 20000;
+        double minFreq = 0.5, maxFreq = 3.0;
+        WelchSpectralBackend backend = new WelchSpectralBackend();
+        for (double fs : new double[]{30, 29.7, 25, 15}) {
+            int nperseg = Math.max((int) Math.min(windowLength - 1, 256.0 / 30.0 * fs), 64);
+            double hz = 0.8 + random.nextDouble() * 1.9;
+            double[] signal = new double[windowLength + 90];
+            for (int i = 0; i < signal.length; i++) {
+                signal[i] = Math.sin(2 * Math.PI * hz * i / fs) + 0.5 * Math.sin(2 * Math.PI * 0.25 * i / fs)
+                        + 0.4 * random.nextGaussian() + 100;
+            }
+            StreamingWelch welch = new StreamingWelch(windowLength);
+            for (int count = 1; count <= signal.length; count++) {
+                welch.add(signal[count - 1]);
+                // 与 HeartRateEstimator 一样每 30 帧更新一次
+                if (!welch.isFull() || (count - windowLength) % 30 != 0) continue;
+
+                double[] y = new double[windowLength];
+                System.arraycopy(signal, count - windowLength, y, 0, windowLength);
+                double mean = 0;
+                for (double v : y) mean += v;
+                mean /= windowLength;
+                for (int i = 0; i < windowLength; i++) y[i] -= mean;
+                double[][] legacy = LegacyWelch.welchPSD(y, fs, nperseg, nfft);
+
+                String msg = "fs=" + fs + " count=" + count;
+                double peak = backend.peakFrequency(welch, fs, nperseg, nfft, minFreq, maxFreq);
+                assertEquals(msg, legacy[1].length, welch.size());
+                assertSpectrumEquals(msg, legacy[1], welch.psd(), welch.size());
+                assertEquals(msg, LegacyWelch.peakFrequency(legacy, minFreq, maxFreq), peak, 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void streamingWelch_peakAtSineFrequency() {
+        double fs = 30;
+        double hz = 1.2;  // 72 bpm
+        StreamingWelch welch = new StreamingWelch(300);
+        for (int i = 0; i < 300; i++) welch.add(Math.sin(2 * Math.PI * hz * i / fs) + 5);
+        welch.compute(fs, 256, 1024);
+        double[] psd = welch.psd();
+        int peak = 0;
+        for (int i = 1; i < welch.size(); i++) if (psd[i] > psd[peak]) peak = i;
+        assertEquals(hz, welch.frequency(peak), fs / welch.getNfft());
+    }
+}